@@ -53,6 +53,7 @@ public class Schedule {
     private final ScheduleTimer m_timer;
     private volatile int m_currentExpirationCode;
     private volatile boolean m_scheduled = false;
+    private volatile ScheduledTask m_pendingTask;
 	
     
     class ScheduleEntry implements ReadyRunnable {
@@ -86,7 +87,7 @@ public class Schedule {
                     Schedule.this.run();
                 } catch (PostponeNecessary e) {
                     // Chose a random number of seconds between 5 and 14 to wait before trying again
-                    m_timer.schedule(random.nextInt(10) * 1000L + 5000L, this);
+                    submit(random.nextInt(10) * 1000L + 5000L, this);
                     return;
                 }
             }
@@ -100,7 +101,7 @@ public class Schedule {
             
             long interval = m_interval.getInterval();
             if (interval >= 0 && m_scheduled)
-                m_timer.schedule(interval, this);
+                submit(interval, this);
 
         }
         
@@ -132,7 +133,12 @@ public class Schedule {
 
     private void schedule(long interval) {
         if (interval >= 0 && m_scheduled)
-            m_timer.schedule(interval, new ScheduleEntry(++m_currentExpirationCode));
+            submit(interval, new ScheduleEntry(++m_currentExpirationCode));
+    }
+
+    private void submit(long interval, ScheduleEntry entry) {
+        // keep a handle so that unschedule() can drop the entry right away
+        m_pendingTask = m_timer.scheduleTask(interval, entry);
     }
 
     /**
@@ -155,6 +161,10 @@ public class Schedule {
     public void unschedule() {
         m_scheduled = false;
         m_currentExpirationCode++;
+        final ScheduledTask pendingTask = m_pendingTask;
+        if (pendingTask != null) {
+            pendingTask.cancel();
+        }
     }
 
 }
@@ -45,4 +45,19 @@ public interface ScheduleTimer extends Timer {
      */
     public void schedule(long interval, ReadyRunnable schedule);
 
+    /**
+     * Schedules the runnable like {@link #schedule(long, ReadyRunnable)}, and returns
+     * a handle that can be used to cancel it. Timers which can't cancel a scheduled
+     * runnable return {@link ScheduledTask#NOT_CANCELLABLE}, the runnable must then check
+     * for itself whether it still needs to run.
+     *
+     * @param interval a long.
+     * @param schedule a {@link org.opennms.netmgt.scheduler.ReadyRunnable} object.
+     * @return the handle of the scheduled runnable
+     */
+    default ScheduledTask scheduleTask(long interval, ReadyRunnable schedule) {
+        schedule(interval, schedule);
+        return ScheduledTask.NOT_CANCELLABLE;
+    }
+
 }
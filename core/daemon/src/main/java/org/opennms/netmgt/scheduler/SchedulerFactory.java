@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link Scheduler} of a daemon according to system properties.
+ *
+ * <p>The implementation is chosen with
+ * <code>org.opennms.netmgt.&lt;daemon&gt;.scheduler</code>, falling back to
+ * <code>org.opennms.netmgt.scheduler</code>, where <code>&lt;daemon&gt;</code>
+ * is the lower-cased name passed to {@link #createScheduler(String, int)}.
+ * Supported values are <code>legacy</code> (the default) and
+ * <code>timing-wheel</code>. The timing wheel is further tuned with the
+ * <code>.tickMillis</code>, <code>.recheckInterval</code> and
+ * <code>.startSpread</code> suffixes, looked up the same way.</p>
+ */
+public final class SchedulerFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SchedulerFactory.class);
+
+    public static final String LEGACY = "legacy";
+
+    public static final String TIMING_WHEEL = "timing-wheel";
+
+    private static final String PREFIX = "org.opennms.netmgt.";
+
+    private static final String PROPERTY = "scheduler";
+
+    private SchedulerFactory() {
+    }
+
+    /**
+     * Creates the scheduler for the given daemon.
+     *
+     * @param name
+     *            the daemon name, used as thread pool prefix and to look up
+     *            the properties
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @return a new, unstarted scheduler
+     */
+    public static Scheduler createScheduler(final String name, final int maxSize) {
+        final String type = getProperty(name, "", LEGACY);
+        if (TIMING_WHEEL.equalsIgnoreCase(type)) {
+            final long tickMillis = getLong(name, ".tickMillis", TimingWheelScheduler.DEFAULT_TICK_MILLIS);
+            final long recheckInterval = getLong(name, ".recheckInterval", TimingWheelScheduler.DEFAULT_RECHECK_INTERVAL);
+            final long startSpread = getLong(name, ".startSpread", 0);
+            LOG.info("Using timing wheel scheduler for {} (tick: {}ms, recheck: {}ms, start spread: {}ms)", name, tickMillis, recheckInterval, startSpread);
+            return new TimingWheelScheduler(name, maxSize, tickMillis, recheckInterval, startSpread);
+        }
+        if (!LEGACY.equalsIgnoreCase(type)) {
+            LOG.warn("Unknown scheduler type '{}' for {}, using the legacy scheduler", type, name);
+        }
+        return new LegacyScheduler(name, maxSize);
+    }
+
+    private static String getProperty(final String name, final String suffix, final String defaultValue) {
+        final String value = System.getProperty(PREFIX + name.toLowerCase(Locale.ROOT) + "." + PROPERTY + suffix);
+        if (value != null) {
+            return value.trim();
+        }
+        return System.getProperty(PREFIX + PROPERTY + suffix, defaultValue).trim();
+    }
+
+    private static long getLong(final String name, final String suffix, final long defaultValue) {
+        final String value = getProperty(name, suffix, Long.toString(defaultValue));
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            LOG.warn("Invalid value '{}' for scheduler property {}{}, using {}", value, PROPERTY, suffix, defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A {@link Scheduler} backed by a hierarchical timing wheel.
+ *
+ * <p>Unlike the {@link LegacyScheduler}, which re-examines every scheduled
+ * runnable once a second, this scheduler files each runnable into the slot of
+ * the tick it is due on. Scheduling and expiring a runnable are O(1), and the
+ * worker thread only ever looks at the runnables of the current tick. The wheel
+ * has {@value #LEVELS} levels of {@value #WHEEL_SIZE} slots each; runnables due
+ * further out than the first level are cascaded down as their level comes
+ * around.</p>
+ *
+ * <p>Runnables that are due but not {@link ReadyRunnable#isReady() ready} are
+ * re-examined every <code>recheckInterval</code> milliseconds. Runnables that
+ * are scheduled with an interval of zero, which is how {@link Schedule} starts
+ * a schedule, can be spread over a random delay of up to
+ * <code>startSpread</code> milliseconds so that a daemon starting thousands of
+ * schedules at once does not flood its thread pool.</p>
+ *
+ * <p>The difference between the time a runnable was due and the time it
+ * actually started running is recorded in the <code>lag</code> histogram of
+ * {@link #getMetrics()}, which is exposed via JMX while the scheduler is
+ * running.</p>
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    public static final long DEFAULT_RECHECK_INTERVAL = 100;
+
+    private static final int WHEEL_BITS = 8;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final int LEVELS = 4;
+
+    /**
+     * Number of ticks covered by the whole wheel. Runnables due further out
+     * are parked in the last level and re-filed whenever it comes around.
+     */
+    private static final long WHEEL_SPAN = 1L << (WHEEL_BITS * LEVELS);
+
+    private final String m_name;
+
+    private final long m_tickNanos;
+
+    private final long m_recheckTicks;
+
+    private final long m_startSpread;
+
+    private final long m_origin = System.nanoTime();
+
+    private final Bucket[][] m_wheel = new Bucket[LEVELS][WHEEL_SIZE];
+
+    /**
+     * Runnables scheduled from any thread, waiting for the worker to file
+     * them into the wheel.
+     */
+    private final Queue<Task> m_pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The total number of runnables that are pending or filed in the wheel,
+     * including cancelled ones that have not been dropped yet.
+     */
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    /**
+     * The next tick to be processed. Only accessed by the worker thread.
+     */
+    private long m_currentTick;
+
+    private final ExecutorService m_runner;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private final Histogram m_lag;
+
+    private final Meter m_notReady;
+
+    private JmxReporter m_reporter;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    private volatile long m_numTasksExecuted = 0;
+
+    /**
+     * Constructs a new scheduler with the default tick and without start
+     * spreading.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MILLIS, DEFAULT_RECHECK_INTERVAL, 0);
+    }
+
+    /**
+     * Constructs a new scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMillis
+     *            The resolution of the wheel in milliseconds.
+     * @param recheckInterval
+     *            How long to wait before re-examining a due runnable that is
+     *            not ready, in milliseconds.
+     * @param startSpread
+     *            Runnables scheduled with an interval of zero are delayed by
+     *            a random amount of up to this many milliseconds. Zero
+     *            disables spreading.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMillis, final long recheckInterval, final long startSpread) {
+        Assert.isTrue(tickMillis > 0, "tickMillis must be positive");
+        Assert.isTrue(recheckInterval > 0, "recheckInterval must be positive");
+        Assert.isTrue(startSpread >= 0, "startSpread must not be negative");
+
+        m_name = parent + "Scheduler";
+        m_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        m_recheckTicks = Math.max(1, recheckInterval / tickMillis);
+        m_startSpread = startSpread;
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_worker = null;
+
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                m_wheel[level][slot] = new Bucket();
+            }
+        }
+
+        m_lag = m_metrics.histogram(MetricRegistry.name(parent, "scheduler", "lag"));
+        m_notReady = m_metrics.meter(MetricRegistry.name(parent, "scheduler", "not-ready"));
+        m_metrics.register(MetricRegistry.name(parent, "scheduler", "scheduled"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getScheduled();
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        scheduleTask(interval, runnable);
+    }
+
+    /**
+     * Schedules a runnable to be run once after the given interval and returns
+     * a handle that can be used to cancel it.
+     *
+     * @param interval
+     *            the delay in milliseconds
+     * @param runnable
+     *            the runnable to run once the interval expired and it is
+     *            ready
+     * @return the handle of the scheduled runnable
+     */
+    @Override
+    public ScheduledTask scheduleTask(long interval, final ReadyRunnable runnable) {
+        if (interval <= 0 && m_startSpread > 0) {
+            interval = ThreadLocalRandom.current().nextLong(m_startSpread);
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval));
+        final Task task = new Task(runnable, deadline, toTick(deadline));
+
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        m_pending.add(task);
+        if (m_scheduled.getAndIncrement() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        return task;
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        m_reporter = JmxReporter.forRegistry(m_metrics).inDomain(getClass().getPackage().getName()).build();
+        m_reporter.start();
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        if (m_reporter != null) {
+            m_reporter.stop();
+            m_reporter = null;
+        }
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Returns total number of runnables currently scheduled. Cancelled
+     * runnables are counted until the wheel reaches their slot.
+     *
+     * @return the number of scheduled runnables
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns the metrics of this scheduler: the <code>lag</code> histogram in
+     * milliseconds, the <code>not-ready</code> meter and the
+     * <code>scheduled</code> gauge.
+     *
+     * @return the metric registry
+     */
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted;
+    }
+
+    /**
+     * The main method of the scheduler. This method advances the wheel one
+     * tick at a time and hands the runnables that are due and ready to the
+     * thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        m_currentTick = toTick(System.nanoTime());
+
+        try {
+            for (;;) {
+                synchronized (this) {
+                    if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                        LOG.debug("run: status = {}, time to exit", m_status);
+                        break;
+                    }
+
+                    // if paused or pause pending then block
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+
+                    if (m_scheduled.get() == 0) {
+                        LOG.debug("run: no ready runnables scheduled, waiting...");
+                        wait();
+                        // The wheel is empty, so there is no need to walk
+                        // through the ticks that passed while waiting
+                        m_currentTick = Math.max(m_currentTick, toTick(System.nanoTime()) - 1);
+                        continue;
+                    }
+
+                    final long sleep = m_origin + m_currentTick * m_tickNanos - System.nanoTime();
+                    if (sleep > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, sleep);
+                        continue;
+                    }
+                }
+
+                transferPending();
+                processTick(m_currentTick++);
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("run: interrupted");
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Converts a {@link System#nanoTime()} timestamp to the first tick
+     * processed at or after it.
+     */
+    private long toTick(final long nanos) {
+        final long elapsed = nanos - m_origin;
+        return elapsed <= 0 ? 0 : (elapsed + m_tickNanos - 1) / m_tickNanos;
+    }
+
+    private void transferPending() {
+        Task task;
+        while ((task = m_pending.poll()) != null) {
+            if (task.isCancelled()) {
+                m_scheduled.decrementAndGet();
+            } else {
+                place(task);
+            }
+        }
+    }
+
+    /**
+     * Files a task into the lowest level whose span covers its deadline.
+     */
+    private void place(final Task task) {
+        if (task.m_deadlineTick < m_currentTick) {
+            task.m_deadlineTick = m_currentTick;
+        }
+        long due = task.m_deadlineTick;
+        long delta = due - m_currentTick;
+        if (delta >= WHEEL_SPAN) {
+            due = m_currentTick + WHEEL_SPAN - 1;
+            delta = WHEEL_SPAN - 1;
+        }
+
+        int level = 0;
+        while (delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+
+        m_wheel[level][(int) ((due >>> (WHEEL_BITS * level)) & WHEEL_MASK)].add(task);
+    }
+
+    private void processTick(final long tick) {
+        // Cascade the higher levels whose slot starts with this tick, top
+        // down, so that everything due now ends up in the first level
+        for (int level = LEVELS - 1; level > 0; level--) {
+            final int shift = WHEEL_BITS * level;
+            if ((tick & ((1L << shift) - 1)) == 0) {
+                Task task = m_wheel[level][(int) ((tick >>> shift) & WHEEL_MASK)].clear();
+                while (task != null) {
+                    final Task next = task.m_next;
+                    task.m_next = null;
+                    if (task.isCancelled()) {
+                        m_scheduled.decrementAndGet();
+                    } else {
+                        place(task);
+                    }
+                    task = next;
+                }
+            }
+        }
+
+        Task task = m_wheel[0][(int) (tick & WHEEL_MASK)].clear();
+        while (task != null) {
+            final Task next = task.m_next;
+            task.m_next = null;
+            expire(task, tick);
+            task = next;
+        }
+    }
+
+    private void expire(final Task task, final long tick) {
+        if (task.isCancelled()) {
+            m_scheduled.decrementAndGet();
+        } else if (task.m_deadlineTick > tick) {
+            // Parked beyond the span of the wheel
+            place(task);
+        } else if (!task.m_runnable.isReady()) {
+            m_notReady.mark();
+            task.m_deadlineTick = tick + m_recheckTicks;
+            place(task);
+        } else if (task.dispatch()) {
+            LOG.debug("run: found ready runnable {}", task.m_runnable);
+            m_scheduled.decrementAndGet();
+            m_numTasksExecuted++;
+            try {
+                m_runner.execute(task);
+            } catch (RejectedExecutionException e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        } else {
+            m_scheduled.decrementAndGet();
+        }
+    }
+
+    /**
+     * A FIFO list of tasks. Only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        private Task m_head;
+        private Task m_tail;
+
+        private void add(final Task task) {
+            if (m_tail == null) {
+                m_head = task;
+            } else {
+                m_tail.m_next = task;
+            }
+            m_tail = task;
+        }
+
+        private Task clear() {
+            final Task head = m_head;
+            m_head = null;
+            m_tail = null;
+            return head;
+        }
+    }
+
+    private final class Task implements Runnable, ScheduledTask {
+        private static final int SCHEDULED = 0;
+        private static final int CANCELLED = 1;
+        private static final int DISPATCHED = 2;
+
+        private final ReadyRunnable m_runnable;
+        private final long m_deadline;
+        private long m_deadlineTick;
+        private Task m_next;
+        // not private so that the field updater may access it
+        volatile int m_state = SCHEDULED;
+
+        private Task(final ReadyRunnable runnable, final long deadline, final long deadlineTick) {
+            m_runnable = runnable;
+            m_deadline = deadline;
+            m_deadlineTick = deadlineTick;
+        }
+
+        @Override
+        public boolean cancel() {
+            return STATE.compareAndSet(this, SCHEDULED, CANCELLED);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return m_state == CANCELLED;
+        }
+
+        private boolean dispatch() {
+            return STATE.compareAndSet(this, SCHEDULED, DISPATCHED);
+        }
+
+        @Override
+        public void run() {
+            m_lag.update(TimeUnit.NANOSECONDS.toMillis(Math.max(0, System.nanoTime() - m_deadline)));
+            m_runnable.run();
+        }
+
+        @Override
+        public String toString() {
+            return m_runnable.toString();
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Task> STATE = AtomicIntegerFieldUpdater.newUpdater(Task.class, "m_state");
+}
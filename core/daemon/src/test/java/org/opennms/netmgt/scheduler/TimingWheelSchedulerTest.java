@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @After
+    public void tearDown() {
+        if (m_scheduler != null && m_scheduler.getStatus() != TimingWheelScheduler.STOPPED) {
+            m_scheduler.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void runsTasksInDeadlineOrder() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 1, 10, 0);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(4);
+        final long start = System.currentTimeMillis();
+
+        // Longer than the first level of the wheel so that tasks get cascaded
+        m_scheduler.schedule(600, new Task(() -> { order.add(600); latch.countDown(); }));
+        m_scheduler.schedule(300, new Task(() -> { order.add(300); latch.countDown(); }));
+        m_scheduler.schedule(100, new Task(() -> { order.add(100); latch.countDown(); }));
+        m_scheduler.schedule(0, new Task(() -> { order.add(0); latch.countDown(); }));
+
+        m_scheduler.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        assertEquals(4, order.size());
+        assertEquals(Integer.valueOf(0), order.get(0));
+        assertEquals(Integer.valueOf(100), order.get(1));
+        assertEquals(Integer.valueOf(300), order.get(2));
+        assertEquals(Integer.valueOf(600), order.get(3));
+        assertTrue(System.currentTimeMillis() - start >= 600);
+        assertEquals(4, m_scheduler.getNumTasksExecuted());
+        assertEquals(4, m_scheduler.getMetrics().getHistograms().values().iterator().next().getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void cancelledTasksDoNotRun() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 1, 10, 0);
+        m_scheduler.start();
+
+        final AtomicBoolean cancelledRan = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ScheduledTask cancelled = m_scheduler.scheduleTask(100, new Task(() -> cancelledRan.set(true)));
+        m_scheduler.schedule(200, new Task(latch::countDown));
+
+        assertTrue(cancelled.cancel());
+        assertTrue(cancelled.isCancelled());
+        assertFalse(cancelled.cancel());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(cancelledRan.get());
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test(timeout = 10000)
+    public void waitsUntilTaskIsReady() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 1, 10, 0);
+        m_scheduler.start();
+
+        final AtomicInteger checks = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return checks.incrementAndGet() >= 3;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, checks.get());
+    }
+
+    @Test(timeout = 10000)
+    public void spreadsInitialSchedules() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 4, 1, 10, 500);
+        final List<Long> runTimes = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            m_scheduler.schedule(0, new Task(() -> { runTimes.add(System.currentTimeMillis()); latch.countDown(); }));
+        }
+        final long start = System.currentTimeMillis();
+        m_scheduler.start();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        final long first = Collections.min(runTimes) - start;
+        final long last = Collections.max(runTimes) - start;
+        assertTrue("tasks should not all run at once: " + first + ".." + last, last - first >= 100);
+    }
+
+    @Test(timeout = 10000)
+    public void canBeSelectedByProperty() {
+        System.setProperty("org.opennms.netmgt.test.scheduler", SchedulerFactory.TIMING_WHEEL);
+        try {
+            assertTrue(SchedulerFactory.createScheduler("Test", 1) instanceof TimingWheelScheduler);
+            assertTrue(SchedulerFactory.createScheduler("Other", 1) instanceof LegacyScheduler);
+        } finally {
+            System.clearProperty("org.opennms.netmgt.test.scheduler");
+        }
+    }
+
+    private static class Task implements ReadyRunnable {
+        private final Runnable m_runnable;
+
+        private Task(final Runnable runnable) {
+            m_runnable = runnable;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_runnable.run();
+        }
+    }
+}
@@ -29,6 +29,8 @@
 package org.opennms.core.ipc.sink.api;
 
 import java.util.AbstractMap;
+import java.util.List;
+import java.util.function.BiConsumer;
 
 public interface OffHeapQueue {
 
@@ -52,6 +54,66 @@ public interface OffHeapQueue {
      */
     AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName) throws InterruptedException;
 
+    /**
+     * Write a batch of Messages for a Sink Module.
+     *
+     * Implementations should override this to write the whole batch at once,
+     * the default implementation writes the messages one by one.
+     *
+     * @param messages key, value pairs where key is the unique id and value is the sink message.
+     * @param moduleName Sink Module Name.
+     */
+    default boolean writeMessages(List<AbstractMap.SimpleImmutableEntry<String, byte[]>> messages, String moduleName) throws WriteFailedException {
+        for (AbstractMap.SimpleImmutableEntry<String, byte[]> message : messages) {
+            writeMessage(message.getValue(), moduleName, message.getKey());
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves and removes up to maxBatch messages from the head of this queue,
+     * waiting if necessary until at least one message becomes available.
+     *
+     * The consumer is invoked once per message, in order. Queues which survive a restart
+     * deliver the messages again after a restart, until they are acknowledged with
+     * {@link #acknowledge(String, List)}.
+     *
+     * @param moduleName Sink Module Name.
+     * @param maxBatch maximum number of messages to retrieve.
+     * @param consumer called with the key and the sink message of every retrieved message.
+     * @return number of messages that were passed to the consumer.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    default int drainTo(String moduleName, int maxBatch, BiConsumer<String, byte[]> consumer) throws InterruptedException {
+        AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = readNextMessage(moduleName);
+        if (keyValue == null) {
+            return 0;
+        }
+        consumer.accept(keyValue.getKey(), keyValue.getValue());
+        int numDrained = 1;
+        while (numDrained < maxBatch && getNumOfMessages(moduleName) > 0) {
+            keyValue = readNextMessage(moduleName);
+            if (keyValue == null) {
+                break;
+            }
+            consumer.accept(keyValue.getKey(), keyValue.getValue());
+            numDrained++;
+        }
+        return numDrained;
+    }
+
+    /**
+     * Acknowledges that the messages retrieved with {@link #drainTo(String, int, BiConsumer)}
+     * have been dispatched, so that they are not delivered again after a restart.
+     *
+     * The default implementation does nothing, messages are gone once retrieved.
+     *
+     * @param moduleName Sink Module Name.
+     * @param keys unique ids of the dispatched messages.
+     */
+    default void acknowledge(String moduleName, List<String> keys) {
+    }
+
     /**
      *
      * @return size of OffHeap in bytes.
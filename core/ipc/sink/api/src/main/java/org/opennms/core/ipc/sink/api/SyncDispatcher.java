@@ -28,6 +28,8 @@
 
 package org.opennms.core.ipc.sink.api;
 
+import java.util.List;
+
 /**
  * Used to synchronously dispatch messages.
  *
@@ -36,4 +38,18 @@ package org.opennms.core.ipc.sink.api;
  * @author jwhite
  */
 public interface SyncDispatcher<S extends Message> extends MessageDispatcher<S> {
+
+    /**
+     * Synchronously dispatches a batch of messages.
+     *
+     * Implementations that can hand the whole batch to the underlying
+     * transport at once should override this method.
+     *
+     * @param messages messages to dispatch, in order
+     */
+    default void sendBatch(List<S> messages) {
+        for (S message : messages) {
+            send(message);
+        }
+    }
 }
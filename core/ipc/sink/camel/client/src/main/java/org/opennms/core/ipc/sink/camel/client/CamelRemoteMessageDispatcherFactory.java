@@ -28,9 +28,12 @@
 
 package org.opennms.core.ipc.sink.camel.client;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.apache.camel.Endpoint;
 import org.apache.camel.EndpointInject;
@@ -73,6 +76,19 @@ public class CamelRemoteMessageDispatcherFactory extends AbstractMessageDispatch
         template.sendBodyAndHeaders(endpoint, module.marshal((T)message), headers);
     }
 
+    @Override
+    public <S extends Message, T extends Message> void dispatchBatch(SinkModule<S, T> module, Map<String, Object> headers, List<T> messages) {
+        // Hand all of the messages to the producer before waiting on any of them
+        final List<Future<Object>> futures = new ArrayList<>(messages.size());
+        for (T message : messages) {
+            futures.add(template.asyncSendBodyAndHeaders(endpoint, module.marshal(message), headers));
+        }
+        for (Future<Object> future : futures) {
+            // Rethrows any failure as a CamelExecutionException, same as the synchronous send
+            template.extractFutureBody(future, Object.class);
+        }
+    }
+
     @Override
     public String getMetricDomain() {
         return CamelLocalMessageDispatcherFactory.class.getPackage().getName();
@@ -28,6 +28,9 @@
 
 package org.opennms.core.ipc.sink.aggregation;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.ipc.sink.api.MessageDispatcher;
 import org.opennms.core.ipc.sink.api.SinkModule;
@@ -55,8 +58,34 @@ public abstract class AggregatingMessageProducer<S, T> implements MessageDispatc
         }
     }
 
+    /**
+     * Aggregates all of the messages, and dispatches the logs they complete together.
+     */
+    public void sendBatch(List<S> messages) {
+        final List<T> logs = new ArrayList<>();
+        for (S message : messages) {
+            final T log = aggregator.aggregate(message);
+            if (log != null) {
+                logs.add(log);
+            }
+        }
+        if (!logs.isEmpty()) {
+            dispatchBatch(logs);
+        }
+    }
+
     public abstract void dispatch(T message);
 
+    /**
+     * Dispatches logs that were completed at the same time.
+     * The default implementation dispatches them one by one.
+     */
+    public void dispatchBatch(List<T> messages) {
+        for (T message : messages) {
+            dispatch(message);
+        }
+    }
+
     @Override
     public void close() throws Exception {
         aggregator.close();
@@ -30,6 +30,7 @@ package org.opennms.core.ipc.sink.common;
 
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Objects;
 
 import org.opennms.core.ipc.sink.aggregation.AggregatingSinkMessageProducer;
@@ -68,6 +69,18 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
 
     public abstract <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, W metadata, T message);
 
+    /**
+     * Dispatches a batch of messages.
+     *
+     * Implementations that can send all of the messages to the broker in one go
+     * should override this, the default implementation dispatches the messages one by one.
+     */
+    public <S extends Message, T extends Message> void dispatchBatch(SinkModule<S, T> module, W metadata, List<T> messages) {
+        for (T message : messages) {
+            dispatch(module, metadata, message);
+        }
+    }
+
     public abstract String getMetricDomain();
 
     public abstract BundleContext getBundleContext();
@@ -81,6 +94,15 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         }
     }
 
+    /**
+     * Invokes dispatchBatch within the batch timer context.
+     */
+    private <S extends Message, T extends Message> void timedDispatchBatch(DispatcherState<W, S,T> state, List<T> messages) {
+        try (Context ctx = state.getDispatchBatchTimer().time()) {
+            dispatchBatch(state.getModule(), state.getMetaData(), messages);
+        }
+    }
+
     /**
      * Optionally build meta-data or state information for the module which will
      * be passed on all the calls to {@link #dispatch}.
@@ -121,6 +143,10 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
                     AbstractMessageDispatcherFactory.this.timedDispatch(state, message);
                 }
                 @Override
+                public void dispatchBatch(List<T> messages) {
+                    AbstractMessageDispatcherFactory.this.timedDispatchBatch(state, messages);
+                }
+                @Override
                 public void close() throws Exception {
                     super.close();
                     state.close();
@@ -147,6 +173,12 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
             AbstractMessageDispatcherFactory.this.timedDispatch(state, (T)message);
         }
 
+        @SuppressWarnings("unchecked")
+        @Override
+        public void sendBatch(List<S> messages) {
+            AbstractMessageDispatcherFactory.this.timedDispatchBatch(state, (List<T>)messages);
+        }
+
         @Override
         public void close() throws Exception {
             state.close();
@@ -28,7 +28,8 @@
 
 package org.opennms.core.ipc.sink.common;
 
-import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
@@ -40,9 +41,11 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.joda.time.Duration;
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
@@ -66,6 +69,8 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
 public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
 
     private static final Logger LOG = LoggerFactory.getLogger(AsyncDispatcherImpl.class);
+    // Maximum number of messages drained from the OffHeapQueue and dispatched at once
+    private static final int OFFHEAP_DRAIN_BATCH_SIZE = Integer.getInteger("org.opennms.core.ipc.sink.offheap.drainBatchSize", 1000);
     private final SyncDispatcher<S> syncDispatcher;
     private OffHeapAdapter offHeapAdapter;
     private ExecutorService offHeapAdapterExecutor = Executors.newSingleThreadExecutor();
@@ -83,6 +88,13 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
     final LinkedBlockingQueue<Runnable> queue;
     final ExecutorService executor;
 
+    // Batches drained from the OffHeapQueue take a single slot in the executor queue,
+    // but every message in them counts against the queue size. The permits only track
+    // the drained messages, messages dispatched in-heap are accounted for by sizing each
+    // batch by the room left in the queue.
+    private final Semaphore offHeapQueueSpace;
+    private final AtomicInteger queuedBatchOverhead = new AtomicInteger(0);
+
     public AsyncDispatcherImpl(DispatcherState<W, S, T> state, AsyncPolicy asyncPolicy,
             SyncDispatcher<S> syncDispatcher) {
         Objects.requireNonNull(state);
@@ -91,6 +103,7 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
         this.asyncPolicy = asyncPolicy;
         this.state = state;
         sinkModule = state.getModule();
+        offHeapQueueSpace = new Semaphore(asyncPolicy.getQueueSize());
         if (OffHeapServiceLoader.isOffHeapEnabled()) {
             offHeapQueue = OffHeapServiceLoader.getOffHeapQueue();
             if (offHeapQueue != null) {
@@ -123,7 +136,7 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
         state.getMetrics().register(MetricRegistry.name(state.getModule().getId(), "queue-size"), new Gauge<Integer>() {
             @Override
             public Integer getValue() {
-                return queue.size();
+                return getQueueSize();
             }
         });
 
@@ -136,6 +149,22 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                 new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID + ".Sink.AsyncDispatcher." + state.getModule().getId(), Integer.MAX_VALUE),
                 rejectedExecutionHandler
             );
+
+        // Messages may have been persisted by a previous run, start draining them right away
+        if (useOffHeap && offHeapQueue.getNumOfMessages(sinkModule.getId()) > 0) {
+            startOffHeapAdapter();
+            offHeapAdapter.drainNow();
+            LOG.info("replaying {} offheap messages for {}", offHeapQueue.getNumOfMessages(sinkModule.getId()), sinkModule.getId());
+        }
+    }
+
+    private synchronized void startOffHeapAdapter() {
+        if (offHeapAdapter == null) {
+            final OffHeapAdapter adapter = new OffHeapAdapter();
+            offHeapAdapterExecutor.execute(adapter);
+            offHeapAdapter = adapter;
+            LOG.info("started drain thread for {}", sinkModule.getId());
+        }
     }
 
     /**
@@ -181,13 +210,11 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
     public CompletableFuture<S> send(S message) {
          
         // Check if OffHeap is enabled and if local queue is full or if OffHeap not Empty then write message to OffHeap.
-        if (useOffHeap && (asyncPolicy.getQueueSize() == getQueueSize() ||
+        if (useOffHeap && (getQueueSize() >= asyncPolicy.getQueueSize() ||
                 ((offHeapAdapter != null) && !offHeapAdapter.isOffHeapEmpty()))) {
             // Start drain thread before the first write to OffHeapQueue.
             if (offHeapAdapter == null) {
-                this.offHeapAdapter = new OffHeapAdapter();
-                offHeapAdapterExecutor.execute(offHeapAdapter);
-                LOG.info("started drain thread for {}", sinkModule.getId());
+                startOffHeapAdapter();
             }
             try {
                 return offHeapAdapter.writeMessage(message);
@@ -207,9 +234,12 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
         }
     }
     
+    /**
+     * Number of messages waiting to be dispatched, counting every message of the drained batches.
+     */
     @Override
     public int getQueueSize() {
-        return queue.size();
+        return queue.size() + queuedBatchOverhead.get();
     }
 
     @Override
@@ -238,30 +268,66 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
             });
         }
 
-        /** This is drain thread which polls data from OffHeapQueue, when data is available, it will push the data to the executor queue.
+        /** This is drain thread which polls data from OffHeapQueue, when data is available, it will push it to the executor queue in batches.
          *  It also retrieves the future from the map and completes the future.**/
         @Override
         public void run() {
             while (!closed.get()) {
                
+                int reserved = 0;
                 try {
                     // Wait till atleast one write call to OffHeapQueue.
                     firstWrite.await();
-                    //retrieve key,value entry from top of queue.
-                    AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = offHeapQueue
-                            .readNextMessage(sinkModule.getId());
-                    if (keyValue != null) {
-                        queue.put(() -> {
-                            S message = sinkModule.unmarshalSingleMessage(keyValue.getValue());
-                            syncDispatcher.send(message);
-                            CompletableFuture<S> future = offHeapFutureMap.get(keyValue.getKey());
-                            future.complete(message);
-                            offHeapFutureMap.remove(keyValue.getKey());
-                        });
-
+                    // Wait for room for at least one message in the executor queue, and bound the batch by the room there is,
+                    // including the room taken by the messages dispatched in-heap, which hold no permits.
+                    // This is the only thread acquiring permits, so the ones available after the first are ours to take.
+                    offHeapQueueSpace.acquire();
+                    final int room = Math.max(1, asyncPolicy.getQueueSize() - getQueueSize());
+                    reserved = 1 + Math.min(Math.min(OFFHEAP_DRAIN_BATCH_SIZE, room) - 1, offHeapQueueSpace.availablePermits());
+                    offHeapQueueSpace.acquireUninterruptibly(reserved - 1);
+                    // retrieve a batch of key,value entries from top of queue.
+                    final List<String> keys = new ArrayList<>();
+                    final List<byte[]> values = new ArrayList<>();
+                    offHeapQueue.drainTo(sinkModule.getId(), reserved, (key, value) -> {
+                        keys.add(key);
+                        values.add(value);
+                    });
+                    // Give back the room we didn't need
+                    offHeapQueueSpace.release(reserved - keys.size());
+                    reserved = keys.size();
+                    if (!keys.isEmpty()) {
+                        final int numMessages = keys.size();
+                        queuedBatchOverhead.addAndGet(numMessages - 1);
+                        final Runnable batch = () -> {
+                            // The messages have left the queue
+                            queuedBatchOverhead.addAndGet(1 - numMessages);
+                            offHeapQueueSpace.release(numMessages);
+                            final List<S> messages = new ArrayList<>(values.size());
+                            for (byte[] value : values) {
+                                messages.add(sinkModule.unmarshalSingleMessage(value));
+                            }
+                            syncDispatcher.sendBatch(messages);
+                            // Only now the messages can be dropped from the OffHeapQueue for good
+                            offHeapQueue.acknowledge(sinkModule.getId(), keys);
+                            for (int i = 0; i < keys.size(); i++) {
+                                // Messages replayed from a previous run have no future
+                                CompletableFuture<S> future = offHeapFutureMap.remove(keys.get(i));
+                                if (future != null) {
+                                    future.complete(messages.get(i));
+                                }
+                            }
+                        };
+                        try {
+                            queue.put(batch);
+                        } catch (InterruptedException e) {
+                            queuedBatchOverhead.addAndGet(1 - numMessages);
+                            throw e;
+                        }
+                        reserved = 0;
                     }
                 } catch (InterruptedException e) {
                    LOG.warn("Interrupted while retrieving OffHeap Message for {} ", sinkModule.getId(), e);
+                   offHeapQueueSpace.release(reserved);
                 }
             }
         }
@@ -279,9 +345,14 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
         }
         
         public boolean isOffHeapEmpty() {
-            return offHeapFutureMap.isEmpty();
+            return offHeapFutureMap.isEmpty() && offHeapQueue.getNumOfMessages(sinkModule.getId()) == 0;
         }
         
+        /** Start draining without waiting for a write, used to replay messages persisted by a previous run. **/
+        public void drainNow() {
+            firstWrite.countDown();
+        }
+
         public void shutdown() {
             firstWrite.countDown();
             closed.set(true);
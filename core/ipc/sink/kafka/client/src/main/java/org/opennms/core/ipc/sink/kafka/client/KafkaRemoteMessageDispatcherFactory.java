@@ -29,6 +29,8 @@
 package org.opennms.core.ipc.sink.kafka.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -56,6 +58,9 @@ import org.slf4j.LoggerFactory;
 
 public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatcherFactory<String> {
     private static final Logger LOG = LoggerFactory.getLogger(KafkaRemoteMessageDispatcherFactory.class);
+    // Delay before sending the records of a batch that failed again, doubled on every consecutive failure
+    private static final long BATCH_RETRY_BACKOFF_MS = Long.getLong("org.opennms.core.ipc.sink.kafka.batchRetryBackoffMs", 100L);
+    private static final long BATCH_RETRY_MAX_BACKOFF_MS = Long.getLong("org.opennms.core.ipc.sink.kafka.batchRetryMaxBackoffMs", 30000L);
 
     private final Properties kafkaConfig = new Properties();
 
@@ -95,6 +100,49 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
         }
     }
 
+    @Override
+    public <S extends Message, T extends Message> void dispatchBatch(SinkModule<S, T> module, String topic, List<T> messages) {
+        try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
+            LOG.trace("dispatchBatch({}): sending {} messages", topic, messages.size());
+            List<ProducerRecord<String,byte[]>> records = new ArrayList<>(messages.size());
+            for (T message : messages) {
+                records.add(new ProducerRecord<>(topic, module.marshal(message)));
+            }
+            // Keep sending the records that failed till all of them are delivered successfully.
+            long backoffMs = BATCH_RETRY_BACKOFF_MS;
+            try {
+                while (true) {
+                    // Hand all of the records to the producer before waiting on any of them,
+                    // so that they can be sent to the broker in as few requests as possible
+                    final List<Future<RecordMetadata>> futures = new ArrayList<>(records.size());
+                    for (ProducerRecord<String,byte[]> record : records) {
+                        futures.add(producer.send(record));
+                    }
+                    final List<ProducerRecord<String,byte[]>> failedRecords = new ArrayList<>();
+                    for (int i = 0; i < futures.size(); i++) {
+                        try {
+                            futures.get(i).get();
+                        } catch (ExecutionException e) {
+                            failedRecords.add(records.get(i));
+                        }
+                    }
+                    if (failedRecords.isEmpty()) {
+                        break;
+                    }
+                    LOG.warn("Timeout occured while sending {} messages to topic {}, they will be attempted again in {}ms.",
+                            failedRecords.size(), topic, backoffMs);
+                    records = failedRecords;
+                    Thread.sleep(backoffMs);
+                    backoffMs = Math.min(2 * backoffMs, BATCH_RETRY_MAX_BACKOFF_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Fail the batch rather than returning as if it was delivered, so that the caller does not consider it sent
+                throw new IllegalStateException("Interrupted while sending " + records.size() + " messages to topic " + topic, e);
+            }
+        }
+    }
+
     public void init() throws IOException {
         try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
             // Defaults
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link OffHeapQueue} exposed as a service, which delegates to the store
+ * selected by the {@code offHeapType} property:
+ * <ul>
+ *   <li>{@code memory} (default): {@link H2OffHeapStore}, messages are kept in memory outside of the heap</li>
+ *   <li>{@code file}: {@link SegmentedFileOffHeapStore}, messages are persisted to disk and survive restarts</li>
+ * </ul>
+ */
+public class DefaultOffHeapQueue implements OffHeapQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultOffHeapQueue.class);
+
+    static final String OFFHEAP_TYPE = "offHeapType";
+    static final String TYPE_MEMORY = "memory";
+    static final String TYPE_FILE = "file";
+
+    private final ConfigurationAdmin configAdmin;
+    private OffHeapQueue delegate;
+
+    public DefaultOffHeapQueue(ConfigurationAdmin configAdmin) {
+        this.configAdmin = configAdmin;
+    }
+
+    public void init() throws IOException {
+        final Dictionary<String, Object> properties = configAdmin.getConfiguration(H2OffHeapStore.OFFHEAP_CONFIG).getProperties();
+        String type = TYPE_MEMORY;
+        if (properties != null && properties.get(OFFHEAP_TYPE) != null) {
+            type = properties.get(OFFHEAP_TYPE).toString().trim();
+        }
+        if (TYPE_FILE.equalsIgnoreCase(type)) {
+            final SegmentedFileOffHeapStore store = new SegmentedFileOffHeapStore(configAdmin);
+            store.init();
+            delegate = store;
+        } else {
+            if (!TYPE_MEMORY.equalsIgnoreCase(type)) {
+                LOG.error("Provided offheap type '{}' is invalid, using default as {}", type, TYPE_MEMORY);
+            }
+            final H2OffHeapStore store = new H2OffHeapStore(configAdmin);
+            store.init();
+            delegate = store;
+        }
+    }
+
+    public void destroy() {
+        if (delegate instanceof SegmentedFileOffHeapStore) {
+            ((SegmentedFileOffHeapStore)delegate).destroy();
+        } else if (delegate instanceof H2OffHeapStore) {
+            ((H2OffHeapStore)delegate).destroy();
+        }
+    }
+
+    @Override
+    public boolean writeMessage(byte[] message, String moduleName, String key) throws WriteFailedException {
+        return delegate.writeMessage(message, moduleName, key);
+    }
+
+    @Override
+    public AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName) throws InterruptedException {
+        return delegate.readNextMessage(moduleName);
+    }
+
+    @Override
+    public boolean writeMessages(List<AbstractMap.SimpleImmutableEntry<String, byte[]>> messages, String moduleName) throws WriteFailedException {
+        return delegate.writeMessages(messages, moduleName);
+    }
+
+    @Override
+    public int drainTo(String moduleName, int maxBatch, BiConsumer<String, byte[]> consumer) throws InterruptedException {
+        return delegate.drainTo(moduleName, maxBatch, consumer);
+    }
+
+    @Override
+    public void acknowledge(String moduleName, List<String> keys) {
+        delegate.acknowledge(moduleName, keys);
+    }
+
+    @Override
+    public long getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public int getNumOfMessages(String moduleName) {
+        return delegate.getNumOfMessages(moduleName);
+    }
+
+}
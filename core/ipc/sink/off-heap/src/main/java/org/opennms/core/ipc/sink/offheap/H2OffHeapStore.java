@@ -30,12 +30,16 @@ package org.opennms.core.ipc.sink.offheap;
 
 import java.io.IOException;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Dictionary;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
@@ -55,11 +59,11 @@ import com.google.common.base.Strings;
 public class H2OffHeapStore implements OffHeapQueue {
 
     private static final Logger LOG = LoggerFactory.getLogger(H2OffHeapStore.class);
-    private static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
-    private final static String OFFHEAP_SIZE = "offHeapSize";
+    static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+    static final String OFFHEAP_SIZE = "offHeapSize";
     private final static String DEFAULT_OFFHEAP_SIZE = "10MB";
     // Default wait time for each poll is 1000msec.
-    private final static long DEFAULT_WAIT_FOR_POLL = 1000L;
+    static final long DEFAULT_WAIT_FOR_POLL = 1000L;
 
     private JmxReporter reporter = null;
     private MetricRegistry offheapMetrics = new MetricRegistry();
@@ -117,6 +121,36 @@ public class H2OffHeapStore implements OffHeapQueue {
         keys.add(key);
         return true;
     }
+
+    @Override
+    public boolean writeMessages(List<AbstractMap.SimpleImmutableEntry<String, byte[]>> messages, String moduleName) throws WriteFailedException {
+        if (Strings.isNullOrEmpty(moduleName)) {
+            throw new WriteFailedException("Invalid message");
+        }
+        // Check the whole batch up front, so that it is either written completely or not at all
+        long batchSize = 0;
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (AbstractMap.SimpleImmutableEntry<String, byte[]> message : messages) {
+            if (message.getValue() == null) {
+                throw new WriteFailedException("Invalid message");
+            }
+            batchSize += message.getValue().length;
+            entries.put(message.getKey(), message.getValue());
+        }
+        if (store.getFileStore().size() + batchSize > maxSizeInBytes) {
+            throw new WriteFailedException("Offheap storage exhausted, size = " + maxSizeInBytes);
+        }
+        MVMap<String, byte[]> mvMap = mvMapRegistry.get(moduleName);
+        if (mvMap == null) {
+            mvMap = store.openMap(moduleName);
+            mvMapRegistry.put(moduleName, mvMap);
+            queueMap.put(moduleName, new LinkedBlockingQueue<>());
+            LOG.info("initialized mvMap for module : {} ", moduleName);
+        }
+        mvMap.putAll(entries);
+        queueMap.get(moduleName).addAll(entries.keySet());
+        return true;
+    }
     
     @Override
     public AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName)
@@ -142,6 +176,28 @@ public class H2OffHeapStore implements OffHeapQueue {
         return null;
     }
 
+    @Override
+    public int drainTo(String moduleName, int maxBatch, BiConsumer<String, byte[]> consumer) throws InterruptedException {
+        BlockingQueue<String> queueOfKeys = queueMap.get(moduleName);
+        if (queueOfKeys == null) {
+            LOG.warn("No data was ever written for this module {}", moduleName);
+            return 0;
+        }
+        MVMap<String, byte[]> mvMap = mvMapRegistry.get(moduleName);
+        // Wait for the first key, then take as many of the keys that are already available as we can
+        String uuid = queueOfKeys.poll(DEFAULT_WAIT_FOR_POLL, TimeUnit.MILLISECONDS);
+        if (uuid == null || mvMap == null) {
+            return 0;
+        }
+        List<String> keys = new ArrayList<>(Math.min(maxBatch, queueOfKeys.size() + 1));
+        keys.add(uuid);
+        queueOfKeys.drainTo(keys, maxBatch - 1);
+        for (String key : keys) {
+            consumer.accept(key, mvMap.remove(key));
+        }
+        return keys.size();
+    }
+
     public void destroy() {
         mvMapRegistry.forEach( (module, mvMap)  -> {
             mvMap.clear();
@@ -152,7 +208,7 @@ public class H2OffHeapStore implements OffHeapQueue {
         reporter.stop();
     }
 
-    private long convertByteSizes(String size) {
+    static long convertByteSizes(String size) {
         String suffix = size.substring(size.length()-2, size.length());
         double value = 0;
         long bytes = 0;
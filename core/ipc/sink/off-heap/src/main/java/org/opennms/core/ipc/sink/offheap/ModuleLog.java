@@ -0,0 +1,434 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of the messages of a single Sink module, stored as a sequence
+ * of {@link Segment}s in a dedicated directory.
+ *
+ * Every message is assigned a monotonically increasing sequence number. Messages handed
+ * out by {@link #drain(int, long, TimeUnit)} remain in the log until they are acknowledged,
+ * while {@link #read(long, TimeUnit)} acknowledges the message right away. The sequence
+ * number up to which all messages have been acknowledged is persisted in a cursor file
+ * whenever the log is synced, so that after a restart, reading resumes right after it.
+ * Messages that were written, but not yet synced when the JVM crashed may be lost, and
+ * messages that were not yet acknowledged and synced are delivered again.
+ */
+class ModuleLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ModuleLog.class);
+
+    static final String CURSOR_FILE = "cursor";
+
+    private final File directory;
+    private final int segmentSize;
+    private final SegmentAllocator allocator;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final List<Segment> consumed = new ArrayList<>();
+
+    private long nextWriteSeq;
+    private long lastReadSeq;
+    private long lastSyncedAckedSeq;
+    // Keys and sequence numbers of the drained messages which were not acknowledged yet, in log order
+    private final Map<String, Long> unacknowledged = new LinkedHashMap<>();
+    private Segment readSegment;
+    private int readPosition;
+
+    /**
+     * Used to account for the disk space of all modules in a store.
+     */
+    interface SegmentAllocator {
+        /** Reserves space for a new segment, failing if the store is full. */
+        void allocate(int segmentSize) throws WriteFailedException;
+        /** Accounts for a segment that was recovered from disk. */
+        void recovered(int segmentSize);
+        void release(int segmentSize);
+    }
+
+    ModuleLog(File directory, int segmentSize, SegmentAllocator allocator) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.allocator = allocator;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory " + directory);
+        }
+        recover();
+    }
+
+    private void recover() throws IOException {
+        lastReadSeq = readCursor();
+        lastSyncedAckedSeq = lastReadSeq;
+        nextWriteSeq = lastReadSeq + 1;
+
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(Segment.SUFFIX));
+        if (files != null) {
+            // File names are zero padded sequence numbers, so the natural order is the log order
+            Arrays.sort(files);
+            for (File file : files) {
+                final Segment segment = Segment.open(file);
+                if (segment.getLastSeq() <= lastReadSeq) {
+                    // Empty, or fully consumed before we stopped
+                    if (!segment.delete()) {
+                        LOG.warn("Failed to delete consumed segment {}", file);
+                    }
+                    continue;
+                }
+                segments.addLast(segment);
+                allocator.recovered(segment.getCapacity());
+                nextWriteSeq = Math.max(nextWriteSeq, segment.getLastSeq() + 1);
+            }
+        }
+
+        // Position the reader on the first record after the cursor
+        readSegment = segments.peekFirst();
+        readPosition = 0;
+        while (readSegment != null) {
+            final Segment.Record record = readSegment.read(readPosition);
+            if (record == null) {
+                if (!advanceReadSegment()) {
+                    break;
+                }
+                continue;
+            }
+            if (record.seq > lastReadSeq) {
+                break;
+            }
+            readPosition = record.nextPosition;
+        }
+        if (!segments.isEmpty()) {
+            LOG.info("Recovered {} messages for {} from {} segments", size(), directory.getName(), segments.size());
+        }
+    }
+
+    /**
+     * Moves the reader to the next segment, if any.
+     *
+     * @return false if the reader is already on the last segment
+     */
+    private boolean advanceReadSegment() {
+        final Segment next = nextSegment(readSegment);
+        if (next == null) {
+            return false;
+        }
+        // The segment will be deleted once all of its messages were acknowledged and the cursor was persisted past it
+        consumed.add(readSegment);
+        readSegment = next;
+        readPosition = 0;
+        return true;
+    }
+
+    private Segment nextSegment(Segment segment) {
+        boolean found = false;
+        for (Segment s : segments) {
+            if (found) {
+                return s;
+            }
+            found = s == segment;
+        }
+        return null;
+    }
+
+    /**
+     * Appends a message to the log.
+     */
+    void write(String key, byte[] message) throws WriteFailedException {
+        final byte[] keyBytes = encodeKey(key, message);
+        lock.lock();
+        try {
+            append(keyBytes, message);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a batch of messages to the log, all at once.
+     */
+    void write(List<AbstractMap.SimpleImmutableEntry<String, byte[]>> messages) throws WriteFailedException {
+        final byte[][] keys = new byte[messages.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = encodeKey(messages.get(i).getKey(), messages.get(i).getValue());
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                append(keys[i], messages.get(i).getValue());
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] encodeKey(String key, byte[] message) throws WriteFailedException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new WriteFailedException("Key too long: " + keyBytes.length);
+        }
+        if (Segment.sizeOf(keyBytes, message) > segmentSize) {
+            throw new WriteFailedException("Message of " + message.length + " bytes does not fit into a segment of " + segmentSize + " bytes");
+        }
+        return keyBytes;
+    }
+
+    private void append(byte[] keyBytes, byte[] message) throws WriteFailedException {
+        Segment tail = segments.peekLast();
+        if (tail == null || !tail.append(nextWriteSeq, keyBytes, message)) {
+            tail = roll();
+            tail.append(nextWriteSeq, keyBytes, message);
+        }
+        nextWriteSeq++;
+    }
+
+    private Segment roll() throws WriteFailedException {
+        allocator.allocate(segmentSize);
+        final Segment segment;
+        try {
+            segment = Segment.create(directory, nextWriteSeq, segmentSize);
+        } catch (IOException e) {
+            allocator.release(segmentSize);
+            throw new WriteFailedException("Failed to create segment in " + directory + ": " + e.getMessage());
+        }
+        final Segment previous = segments.peekLast();
+        if (previous != null) {
+            // Records in a full segment never change again, flush it right away
+            previous.force();
+        }
+        segments.addLast(segment);
+        if (readSegment == null) {
+            readSegment = segment;
+            readPosition = 0;
+        }
+        return segment;
+    }
+
+    /**
+     * Retrieves and acknowledges the head of this log, waiting up to the given amount of time for a message to become available.
+     *
+     * @return key, value pair or null if no message became available in time
+     */
+    AbstractMap.SimpleImmutableEntry<String, byte[]> read(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            final Segment.Record record = awaitNextRecord(unit.toNanos(timeout));
+            return record != null ? record.toEntry() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves up to maxBatch messages from the head of this log, waiting up to the
+     * given amount of time for the first message to become available.
+     *
+     * The messages are delivered again after a restart, unless they were acknowledged
+     * with {@link #acknowledge(List)} before the log was synced.
+     *
+     * @return the retrieved records, empty if no message became available in time
+     */
+    List<Segment.Record> drain(int maxBatch, long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Segment.Record record = awaitNextRecord(unit.toNanos(timeout));
+            if (record == null) {
+                return Collections.emptyList();
+            }
+            final List<Segment.Record> records = new ArrayList<>(Math.min(maxBatch, size() + 1));
+            records.add(record);
+            while (records.size() < maxBatch && (record = nextRecord()) != null) {
+                records.add(record);
+            }
+            for (Segment.Record r : records) {
+                // Keys are unique, the older message can only be acknowledged along with the newer one
+                if (unacknowledged.remove(r.key) != null) {
+                    LOG.warn("Duplicate key {} in {}, acknowledging the previous message with this key", r.key, directory.getName());
+                }
+                unacknowledged.put(r.key, r.seq);
+            }
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Segment.Record awaitNextRecord(long nanos) throws InterruptedException {
+        while (true) {
+            final Segment.Record record = nextRecord();
+            if (record != null || nanos <= 0) {
+                return record;
+            }
+            nanos = notEmpty.awaitNanos(nanos);
+        }
+    }
+
+    private Segment.Record nextRecord() {
+        while (readSegment != null) {
+            final Segment.Record record = readSegment.read(readPosition);
+            if (record != null) {
+                readPosition = record.nextPosition;
+                lastReadSeq = record.seq;
+                return record;
+            }
+            if (!advanceReadSegment()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Acknowledges the drained messages with the given keys, so that they are not delivered again after a restart.
+     */
+    void acknowledge(List<String> keys) {
+        lock.lock();
+        try {
+            for (String key : keys) {
+                unacknowledged.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number up to which all messages that were read have been acknowledged
+     */
+    private long getAckedSeq() {
+        if (unacknowledged.isEmpty()) {
+            return lastReadSeq;
+        }
+        return unacknowledged.values().iterator().next() - 1;
+    }
+
+    /**
+     * Flushes the pending writes to disk, persists the cursor and releases the segments which were fully acknowledged.
+     */
+    void sync() throws IOException {
+        lock.lock();
+        try {
+            final Segment tail = segments.peekLast();
+            if (tail != null) {
+                tail.force();
+            }
+            final long ackedSeq = getAckedSeq();
+            if (ackedSeq != lastSyncedAckedSeq) {
+                writeCursor(ackedSeq);
+                lastSyncedAckedSeq = ackedSeq;
+            }
+            for (Iterator<Segment> it = consumed.iterator(); it.hasNext(); ) {
+                final Segment segment = it.next();
+                if (segment.getLastSeq() > lastSyncedAckedSeq) {
+                    // Segments are consumed in order, so the following ones still hold unacknowledged messages too
+                    break;
+                }
+                it.remove();
+                segments.remove(segment);
+                allocator.release(segment.getCapacity());
+                if (!segment.delete()) {
+                    LOG.warn("Failed to delete consumed segment {}", segment.getFile());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long readCursor() throws IOException {
+        final File cursor = new File(directory, CURSOR_FILE);
+        if (!cursor.canRead()) {
+            return 0;
+        }
+        final byte[] bytes = Files.readAllBytes(cursor.toPath());
+        if (bytes.length != Long.BYTES) {
+            LOG.warn("Ignoring corrupt cursor file {}", cursor);
+            return 0;
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    private void writeCursor(long seq) throws IOException {
+        final File tmp = new File(directory, CURSOR_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+            buffer.putLong(seq).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), new File(directory, CURSOR_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the number of messages which have been written, but not yet read.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return (int)Math.min(Integer.MAX_VALUE, nextWriteSeq - lastReadSeq - 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() throws IOException {
+        sync();
+    }
+}
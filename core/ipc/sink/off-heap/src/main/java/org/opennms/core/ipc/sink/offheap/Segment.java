@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single, fixed-size, memory-mapped segment file of a {@link ModuleLog}.
+ *
+ * Records are appended back to back and are laid out as:
+ * <pre>
+ *   int    length   (of seq + keyLength + key + payload, 0 marks the end of the segment)
+ *   long   seq
+ *   short  keyLength
+ *   byte[] key      (UTF-8)
+ *   byte[] payload
+ *   int    crc      (CRC32 over seq, keyLength, key and payload)
+ * </pre>
+ *
+ * Segments are not thread-safe, all access is guarded by the owning {@link ModuleLog}.
+ */
+class Segment {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Segment.class);
+
+    static final String SUFFIX = ".seg";
+
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Short.BYTES;
+    private static final int TRAILER_SIZE = Integer.BYTES;
+
+    private static final Unmapper UNMAPPER = findUnmapper();
+
+    private final File file;
+    private final long baseSeq;
+    private final int capacity;
+    private MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+
+    private int writePosition = 0;
+    private int syncedPosition = 0;
+    private long lastSeq;
+
+    private Segment(File file, long baseSeq, int capacity) throws IOException {
+        this.file = file;
+        this.baseSeq = baseSeq;
+        this.capacity = capacity;
+        this.lastSeq = baseSeq - 1;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < capacity) {
+                raf.setLength(capacity);
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    /**
+     * Creates a new, empty segment whose first record will carry the given sequence number.
+     */
+    static Segment create(File directory, long baseSeq, int capacity) throws IOException {
+        return new Segment(new File(directory, fileName(baseSeq)), baseSeq, capacity);
+    }
+
+    /**
+     * Opens an existing segment and scans it to find the end of the last intact record.
+     * Anything after a torn or corrupt record is discarded.
+     */
+    static Segment open(File file) throws IOException {
+        final String name = file.getName();
+        final long baseSeq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        final Segment segment = new Segment(file, baseSeq, (int)file.length());
+        segment.recover();
+        return segment;
+    }
+
+    static String fileName(long baseSeq) {
+        return String.format("%020d%s", baseSeq, SUFFIX);
+    }
+
+    static int sizeOf(byte[] key, byte[] message) {
+        return HEADER_SIZE + key.length + message.length + TRAILER_SIZE;
+    }
+
+    private void recover() {
+        int position = 0;
+        while (true) {
+            final Record record = read(position);
+            if (record == null) {
+                break;
+            }
+            lastSeq = record.seq;
+            position = record.nextPosition;
+        }
+        writePosition = position;
+        syncedPosition = position;
+        // Zero out whatever partial record may have been left behind, so that it
+        // is never mistaken for valid data once we start appending again.
+        if (position + Integer.BYTES <= capacity) {
+            buffer.putInt(position, 0);
+        }
+    }
+
+    /**
+     * Appends a record to this segment.
+     *
+     * @return false if the segment does not have enough room left for the record
+     */
+    boolean append(long seq, byte[] key, byte[] message) {
+        final int size = sizeOf(key, message);
+        if (writePosition + size > capacity) {
+            return false;
+        }
+        final int length = size - Integer.BYTES - TRAILER_SIZE;
+        buffer.position(writePosition + Integer.BYTES);
+        buffer.putLong(seq);
+        buffer.putShort((short)key.length);
+        buffer.put(key);
+        buffer.put(message);
+        buffer.putInt(checksum(seq, key, message));
+        // Terminate the segment after this record before publishing the length,
+        // so that a reader never runs past the end of valid data
+        if (writePosition + size + Integer.BYTES <= capacity) {
+            buffer.putInt(writePosition + size, 0);
+        }
+        buffer.putInt(writePosition, length);
+        writePosition += size;
+        lastSeq = seq;
+        return true;
+    }
+
+    /**
+     * Reads the record stored at the given position.
+     *
+     * @return the record, or null if there is no intact record at this position
+     */
+    Record read(int position) {
+        if (position + HEADER_SIZE + TRAILER_SIZE > capacity) {
+            return null;
+        }
+        final int length = buffer.getInt(position);
+        if (length < Long.BYTES + Short.BYTES || position + Integer.BYTES + length + TRAILER_SIZE > capacity) {
+            return null;
+        }
+        try {
+            buffer.position(position + Integer.BYTES);
+            final long seq = buffer.getLong();
+            final int keyLength = buffer.getShort() & 0xFFFF;
+            final int messageLength = length - Long.BYTES - Short.BYTES - keyLength;
+            if (messageLength < 0) {
+                return null;
+            }
+            final byte[] key = new byte[keyLength];
+            buffer.get(key);
+            final byte[] message = new byte[messageLength];
+            buffer.get(message);
+            final int storedCrc = buffer.getInt();
+            if (checksum(seq, key, message) != storedCrc) {
+                return null;
+            }
+            return new Record(seq, new String(key, StandardCharsets.UTF_8), message, buffer.position());
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private int checksum(long seq, byte[] key, byte[] message) {
+        crc.reset();
+        for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+            crc.update((int)(seq >>> shift));
+        }
+        crc.update(key.length >> 8);
+        crc.update(key.length);
+        crc.update(key);
+        crc.update(message);
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Flushes all records appended since the last call to disk.
+     */
+    void force() {
+        if (syncedPosition != writePosition) {
+            buffer.force();
+            syncedPosition = writePosition;
+        }
+    }
+
+    /**
+     * Releases the mapping and deletes the segment file. The segment must not be used afterwards.
+     */
+    boolean delete() {
+        unmap();
+        return file.delete();
+    }
+
+    private void unmap() {
+        final MappedByteBuffer mapped = buffer;
+        buffer = null;
+        if (mapped == null || UNMAPPER == null) {
+            // The mapping is released once the buffer is garbage collected
+            return;
+        }
+        try {
+            UNMAPPER.unmap(mapped);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Failed to unmap segment {}, it will be unmapped once garbage collected.", file, e);
+        }
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    long getBaseSeq() {
+        return baseSeq;
+    }
+
+    long getLastSeq() {
+        return lastSeq;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @FunctionalInterface
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    private static Unmapper findUnmapper() {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("sun.misc.Unsafe.invokeCleaner() is not available.", e);
+        }
+        try {
+            // Java 8, the cleaner of the sun.nio.ch.DirectBuffer
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                final Object c = cleaner.invoke(buffer);
+                if (c != null) {
+                    clean.invoke(c);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.info("Segments can not be unmapped explicitly, they will be unmapped once garbage collected.", e);
+            return null;
+        }
+    }
+
+    static class Record {
+        final long seq;
+        final String key;
+        final byte[] message;
+        final int nextPosition;
+
+        private Record(long seq, String key, byte[] message, int nextPosition) {
+            this.seq = seq;
+            this.key = key;
+            this.message = message;
+            this.nextPosition = nextPosition;
+        }
+
+        AbstractMap.SimpleImmutableEntry<String, byte[]> toEntry() {
+            return new AbstractMap.SimpleImmutableEntry<>(key, message);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Disk backed {@link OffHeapQueue} which stores the messages of every Sink module in an append-only
+ * log of memory-mapped segment files.
+ *
+ * Unlike the {@link H2OffHeapStore}, the messages survive a restart of the container and are replayed
+ * in the order in which they were written. Drained messages are replayed as well, until they are acknowledged.
+ * Writes are synced to disk in batches, either after {@code offHeapSyncBatchSize} writes or every
+ * {@code offHeapSyncInterval} milliseconds, whichever comes first.
+ */
+public class SegmentedFileOffHeapStore implements OffHeapQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedFileOffHeapStore.class);
+
+    static final String OFFHEAP_PATH = "offHeapPath";
+    static final String OFFHEAP_SEGMENT_SIZE = "offHeapSegmentSize";
+    static final String OFFHEAP_SYNC_INTERVAL = "offHeapSyncInterval";
+    static final String OFFHEAP_SYNC_BATCH_SIZE = "offHeapSyncBatchSize";
+
+    private static final String DEFAULT_OFFHEAP_SIZE = "1GB";
+    private static final String DEFAULT_SEGMENT_SIZE = "32MB";
+    private static final long DEFAULT_SYNC_INTERVAL_MS = 1000L;
+    private static final int DEFAULT_SYNC_BATCH_SIZE = 1000;
+
+    private final ConfigurationAdmin configAdmin;
+    private final MetricRegistry offheapMetrics = new MetricRegistry();
+    private JmxReporter reporter;
+    private ScheduledExecutorService syncExecutor;
+
+    private File directory;
+    private long maxSizeInBytes;
+    private int segmentSize;
+    private long syncIntervalMs = DEFAULT_SYNC_INTERVAL_MS;
+    private int syncBatchSize = DEFAULT_SYNC_BATCH_SIZE;
+
+    // Map of ModuleName and corresponding log.
+    private final Map<String, ModuleLog> logs = new ConcurrentHashMap<>();
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
+    private final AtomicLong unsyncedWrites = new AtomicLong(0);
+    // Set while a batch-triggered sync is pending, so only one is queued at a time
+    private final AtomicBoolean syncScheduled = new AtomicBoolean(false);
+
+    private final ModuleLog.SegmentAllocator allocator = new ModuleLog.SegmentAllocator() {
+        @Override
+        public void allocate(int size) throws WriteFailedException {
+            while (true) {
+                final long current = allocatedBytes.get();
+                if (current + size > maxSizeInBytes) {
+                    throw new WriteFailedException("Offheap storage exhausted, size = " + maxSizeInBytes);
+                }
+                if (allocatedBytes.compareAndSet(current, current + size)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void recovered(int size) {
+            allocatedBytes.addAndGet(size);
+        }
+
+        @Override
+        public void release(int size) {
+            allocatedBytes.addAndGet(-size);
+        }
+    };
+
+    public SegmentedFileOffHeapStore(ConfigurationAdmin configAdmin) {
+        this.configAdmin = configAdmin;
+    }
+
+    public void init() throws IOException {
+        final Dictionary<String, Object> properties = configAdmin.getConfiguration(H2OffHeapStore.OFFHEAP_CONFIG).getProperties();
+        maxSizeInBytes = H2OffHeapStore.convertByteSizes(getString(properties, H2OffHeapStore.OFFHEAP_SIZE, DEFAULT_OFFHEAP_SIZE));
+        final long configuredSegmentSize = H2OffHeapStore.convertByteSizes(getString(properties, OFFHEAP_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE));
+        // A segment is a single mapping, so it must be addressable by an int and fit into the store
+        segmentSize = (int)Math.min(Math.min(configuredSegmentSize, maxSizeInBytes), Integer.MAX_VALUE);
+        syncIntervalMs = Long.parseLong(getString(properties, OFFHEAP_SYNC_INTERVAL, Long.toString(DEFAULT_SYNC_INTERVAL_MS)));
+        syncBatchSize = Integer.parseInt(getString(properties, OFFHEAP_SYNC_BATCH_SIZE, Integer.toString(DEFAULT_SYNC_BATCH_SIZE)));
+        directory = new File(getString(properties, OFFHEAP_PATH,
+                Paths.get(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")), "offheap").toString()));
+
+        // Recover the logs of all modules which have been written before
+        final File[] moduleDirectories = directory.listFiles(File::isDirectory);
+        if (moduleDirectories != null) {
+            for (File moduleDirectory : moduleDirectories) {
+                logs.put(moduleName(moduleDirectory), new ModuleLog(moduleDirectory, segmentSize, allocator));
+            }
+        }
+
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("offheap-sync-%d")
+                .setDaemon(true)
+                .build());
+        syncExecutor.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+
+        reporter = JmxReporter.forRegistry(offheapMetrics).inDomain(this.getClass().getPackage().getName()).build();
+        offheapMetrics.register(MetricRegistry.name("offHeapSize"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getSize();
+            }
+        });
+        reporter.start();
+        LOG.info("initializing segmented file OffHeapStore in {} with max size : {}, segment size : {}", directory, maxSizeInBytes, segmentSize);
+    }
+
+    private static String getString(Dictionary<String, Object> properties, String key, String defaultValue) {
+        if (properties != null && properties.get(key) != null) {
+            return properties.get(key).toString();
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public boolean writeMessage(byte[] message, String moduleName, String key) throws WriteFailedException {
+        if (message == null || Strings.isNullOrEmpty(moduleName)) {
+            throw new WriteFailedException("Invalid message");
+        }
+        getOrCreateLog(moduleName).write(Strings.nullToEmpty(key), message);
+        if (unsyncedWrites.incrementAndGet() >= syncBatchSize) {
+            scheduleSync();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean writeMessages(List<AbstractMap.SimpleImmutableEntry<String, byte[]>> messages, String moduleName) throws WriteFailedException {
+        if (messages == null || Strings.isNullOrEmpty(moduleName)) {
+            throw new WriteFailedException("Invalid messages");
+        }
+        for (AbstractMap.SimpleImmutableEntry<String, byte[]> message : messages) {
+            if (message.getValue() == null || message.getKey() == null) {
+                throw new WriteFailedException("Invalid message");
+            }
+        }
+        getOrCreateLog(moduleName).write(messages);
+        if (unsyncedWrites.addAndGet(messages.size()) >= syncBatchSize) {
+            scheduleSync();
+        }
+        return true;
+    }
+
+    private ModuleLog getOrCreateLog(String moduleName) throws WriteFailedException {
+        ModuleLog log = logs.get(moduleName);
+        if (log != null) {
+            return log;
+        }
+        synchronized (logs) {
+            log = logs.get(moduleName);
+            if (log == null) {
+                try {
+                    log = new ModuleLog(new File(directory, directoryName(moduleName)), segmentSize, allocator);
+                } catch (IOException e) {
+                    throw new WriteFailedException("Failed to create log for module " + moduleName + ": " + e.getMessage());
+                }
+                logs.put(moduleName, log);
+                LOG.info("initialized log for module : {} ", moduleName);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Encodes the characters of the module name which are not allowed in a file name,
+     * such that the module name can be restored from the directory when recovering.
+     */
+    static String directoryName(String moduleName) {
+        try {
+            return URLEncoder.encode(moduleName, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String moduleName(File moduleDirectory) {
+        try {
+            return URLDecoder.decode(moduleDirectory.getName(), StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName) throws InterruptedException {
+        final ModuleLog log = logs.get(moduleName);
+        if (log == null) {
+            LOG.warn("No data was ever written for this module {}", moduleName);
+            // Behave like an empty queue and wait, instead of spinning the caller
+            Thread.sleep(H2OffHeapStore.DEFAULT_WAIT_FOR_POLL);
+            return null;
+        }
+        return log.read(H2OffHeapStore.DEFAULT_WAIT_FOR_POLL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int drainTo(String moduleName, int maxBatch, BiConsumer<String, byte[]> consumer) throws InterruptedException {
+        final ModuleLog log = logs.get(moduleName);
+        if (log == null) {
+            LOG.warn("No data was ever written for this module {}", moduleName);
+            Thread.sleep(H2OffHeapStore.DEFAULT_WAIT_FOR_POLL);
+            return 0;
+        }
+        // Records are copied out of the segment under the lock, and handed to the consumer outside of it
+        final List<Segment.Record> records = log.drain(maxBatch, H2OffHeapStore.DEFAULT_WAIT_FOR_POLL, TimeUnit.MILLISECONDS);
+        for (Segment.Record record : records) {
+            consumer.accept(record.key, record.message);
+        }
+        return records.size();
+    }
+
+    @Override
+    public void acknowledge(String moduleName, List<String> keys) {
+        final ModuleLog log = logs.get(moduleName);
+        if (log != null) {
+            log.acknowledge(keys);
+        }
+    }
+
+    private void scheduleSync() {
+        if (syncScheduled.compareAndSet(false, true)) {
+            syncExecutor.execute(this::sync);
+        }
+    }
+
+    private void sync() {
+        // Clear the flag before resetting the count, so writes that land during the sync can schedule another one
+        syncScheduled.set(false);
+        unsyncedWrites.set(0);
+        for (Map.Entry<String, ModuleLog> entry : logs.entrySet()) {
+            try {
+                entry.getValue().sync();
+            } catch (IOException e) {
+                LOG.error("Failed to sync log for module {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    public void destroy() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+            try {
+                syncExecutor.awaitTermination(syncIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Map.Entry<String, ModuleLog> entry : logs.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                LOG.error("Failed to close log for module {}", entry.getKey(), e);
+            }
+        }
+        LOG.info("closing segmented file OffHeapStore, size = {} ", getSize());
+        if (reporter != null) {
+            reporter.stop();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return allocatedBytes.get();
+    }
+
+    @Override
+    public int getNumOfMessages(String moduleName) {
+        final ModuleLog log = logs.get(moduleName);
+        if (log != null) {
+            return log.size();
+        }
+        return 0;
+    }
+
+}
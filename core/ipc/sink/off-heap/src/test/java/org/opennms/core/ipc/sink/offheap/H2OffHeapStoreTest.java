@@ -35,7 +35,9 @@ import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.concurrent.Executors;
 
 import org.junit.After;
@@ -121,6 +123,38 @@ public class H2OffHeapStoreTest {
         LOG.info("Total time  " + (afterRead - beforeWrite));
     }
 
+    @Test
+    public void testH2DataStoreDrainTo() throws InterruptedException, WriteFailedException {
+        for (int i = 0; i < 1000; i++) {
+            String message = "This is " + i + " trap message";
+            queue.writeMessage(message.getBytes(), "traps-test", Integer.toString(i));
+        }
+        final List<String> messages = new ArrayList<>();
+        while (messages.size() < 1000) {
+            queue.drainTo("traps-test", 100, (key, value) -> messages.add(new String(value)));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("This is " + i + " trap message", messages.get(i));
+        }
+        assertEquals(0, queue.getNumOfMessages("traps-test"));
+    }
+
+    @Test
+    public void testH2DataStoreWriteMessages() throws InterruptedException, WriteFailedException {
+        final List<AbstractMap.SimpleImmutableEntry<String, byte[]>> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String message = "This is " + i + " trap message";
+            batch.add(new AbstractMap.SimpleImmutableEntry<>(Integer.toString(i), message.getBytes()));
+        }
+        queue.writeMessages(batch, "traps-test");
+        assertEquals(1000, queue.getNumOfMessages("traps-test"));
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("traps-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " trap message", new String(keyValue.getValue()));
+        }
+    }
+
     @After
     public void destroy() throws InterruptedException {
         queue.destroy();
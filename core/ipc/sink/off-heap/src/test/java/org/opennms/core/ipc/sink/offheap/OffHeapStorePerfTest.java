@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Hashtable;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Used to compare the throughput and latency of the {@link H2OffHeapStore}
+ * and the {@link SegmentedFileOffHeapStore}.
+ *
+ * By default, we only run a quick test to validate the setup.
+ *
+ * A longer test, against which you can attach a profiler is available
+ * but disabled by default.
+ */
+public class OffHeapStorePerfTest {
+
+    private static final String MODULE = "perf-test";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void quickRun() throws Exception {
+        benchmark(1000, 512);
+    }
+
+    @Test
+    @Ignore("Long running benchmark")
+    public void longRun() throws Exception {
+        benchmark(1000000, 512);
+    }
+
+    private void benchmark(int numMessages, int messageSize) throws Exception {
+        final MetricRegistry metrics = new MetricRegistry();
+        final ConfigurationAdmin configAdmin = mockConfigAdmin();
+
+        final H2OffHeapStore h2Store = new H2OffHeapStore(configAdmin);
+        h2Store.init();
+        try {
+            run(h2Store, "h2", metrics, numMessages, messageSize);
+        } finally {
+            h2Store.destroy();
+        }
+
+        final SegmentedFileOffHeapStore fileStore = new SegmentedFileOffHeapStore(configAdmin);
+        fileStore.init();
+        try {
+            run(fileStore, "segmented", metrics, numMessages, messageSize);
+        } finally {
+            fileStore.destroy();
+        }
+
+        ConsoleReporter.forRegistry(metrics)
+            .convertRatesTo(TimeUnit.SECONDS)
+            .convertDurationsTo(TimeUnit.MICROSECONDS)
+            .build()
+            .report();
+    }
+
+    private static void run(OffHeapQueue queue, String name, MetricRegistry metrics, int numMessages, int messageSize) throws Exception {
+        final Timer writes = metrics.timer(MetricRegistry.name(name, "write"));
+        final Timer reads = metrics.timer(MetricRegistry.name(name, "read"));
+        final byte[] message = new byte[messageSize];
+
+        for (int i = 0; i < numMessages; i++) {
+            final String key = UUID.randomUUID().toString();
+            try (Timer.Context ctx = writes.time()) {
+                queue.writeMessage(message, MODULE, key);
+            }
+        }
+        assertEquals(numMessages, queue.getNumOfMessages(MODULE));
+
+        for (int i = 0; i < numMessages; i++) {
+            try (Timer.Context ctx = reads.time()) {
+                queue.readNextMessage(MODULE);
+            }
+        }
+        assertEquals(0, queue.getNumOfMessages(MODULE));
+    }
+
+    private ConfigurationAdmin mockConfigAdmin() throws Exception {
+        final Hashtable<String, Object> configProperties = new Hashtable<>();
+        configProperties.put(H2OffHeapStore.OFFHEAP_SIZE, "1GB");
+        configProperties.put(SegmentedFileOffHeapStore.OFFHEAP_PATH, tempFolder.getRoot().getAbsolutePath());
+        final ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(H2OffHeapStore.OFFHEAP_CONFIG).getProperties()).thenReturn(configProperties);
+        return configAdmin;
+    }
+}
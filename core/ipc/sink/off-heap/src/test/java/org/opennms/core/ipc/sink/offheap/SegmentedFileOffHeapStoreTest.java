@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static org.junit.Assert.assertEquals;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+public class SegmentedFileOffHeapStoreTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ConfigurationAdmin configAdmin;
+    private SegmentedFileOffHeapStore store;
+
+    @Before
+    public void setup() throws IOException {
+        Hashtable<String, Object> configProperties = new Hashtable<>();
+        configProperties.put(H2OffHeapStore.OFFHEAP_SIZE, "1MB");
+        configProperties.put(SegmentedFileOffHeapStore.OFFHEAP_SEGMENT_SIZE, "16KB");
+        configProperties.put(SegmentedFileOffHeapStore.OFFHEAP_PATH, tempFolder.getRoot().getAbsolutePath());
+        configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(H2OffHeapStore.OFFHEAP_CONFIG).getProperties()).thenReturn(configProperties);
+        store = new SegmentedFileOffHeapStore(configAdmin);
+        store.init();
+    }
+
+    @After
+    public void destroy() {
+        store.destroy();
+    }
+
+    @Test
+    public void canWriteAndReadInOrderAcrossSegments() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            store.writeMessage(("This is " + i + " trap message").getBytes(), "traps-test", Integer.toString(i));
+            store.writeMessage(("This is " + i + " syslog message").getBytes(), "syslog-test", Integer.toString(i));
+        }
+        assertEquals(1000, store.getNumOfMessages("traps-test"));
+        assertEquals(1000, store.getNumOfMessages("syslog-test"));
+
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = store.readNextMessage("traps-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " trap message", new String(keyValue.getValue()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = store.readNextMessage("syslog-test");
+            assertEquals("This is " + i + " syslog message", new String(keyValue.getValue()));
+        }
+        assertEquals(0, store.getNumOfMessages("traps-test"));
+        assertNull(store.readNextMessage("traps-test"));
+    }
+
+    @Test
+    public void canReplayUnreadMessagesAfterRestart() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            store.writeMessage(("message " + i).getBytes(), "traps-test", Integer.toString(i));
+        }
+        for (int i = 0; i < 200; i++) {
+            store.readNextMessage("traps-test");
+        }
+        store.destroy();
+
+        store = new SegmentedFileOffHeapStore(configAdmin);
+        store.init();
+        assertEquals(300, store.getNumOfMessages("traps-test"));
+        for (int i = 200; i < 500; i++) {
+            assertEquals("message " + i, new String(store.readNextMessage("traps-test").getValue()));
+        }
+
+        // New writes continue after the replayed messages
+        store.writeMessage("after restart".getBytes(), "traps-test", "x");
+        assertEquals("after restart", new String(store.readNextMessage("traps-test").getValue()));
+    }
+
+    @Test
+    public void canReplayModulesWhoseNameIsNotAFileName() throws Exception {
+        final String moduleName = "traps/test%" + File.separator + "v1";
+        store.writeMessage("message".getBytes(), moduleName, "0");
+        store.destroy();
+
+        store = new SegmentedFileOffHeapStore(configAdmin);
+        store.init();
+        assertEquals(1, store.getNumOfMessages(moduleName));
+        assertEquals("message", new String(store.readNextMessage(moduleName).getValue()));
+    }
+
+    @Test
+    public void canRecoverFromTornWrite() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            store.writeMessage(("message " + i).getBytes(), "traps-test", Integer.toString(i));
+        }
+        store.destroy();
+
+        // Corrupt the payload of the last record, as if we crashed half way through writing it
+        File segment = new File(tempFolder.getRoot(), "traps-test").listFiles((dir, name) -> name.endsWith(Segment.SUFFIX))[0];
+        int recordSize = Segment.sizeOf("9".getBytes(), "message 9".getBytes());
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(recordSize * 10 - 6);
+            raf.write(0xFF);
+        }
+
+        store = new SegmentedFileOffHeapStore(configAdmin);
+        store.init();
+        assertEquals(9, store.getNumOfMessages("traps-test"));
+        store.writeMessage("message 10".getBytes(), "traps-test", "10");
+        for (int i = 0; i < 9; i++) {
+            assertEquals("message " + i, new String(store.readNextMessage("traps-test").getValue()));
+        }
+        assertEquals("message 10", new String(store.readNextMessage("traps-test").getValue()));
+    }
+
+    @Test
+    public void canWriteAndDrainBatches() throws Exception {
+        List<AbstractMap.SimpleImmutableEntry<String, byte[]>> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new AbstractMap.SimpleImmutableEntry<>(Integer.toString(i), ("message " + i).getBytes()));
+        }
+        store.writeMessages(batch, "traps-test");
+        assertEquals(1000, store.getNumOfMessages("traps-test"));
+
+        List<String> drained = new ArrayList<>();
+        while (drained.size() < 1000) {
+            int numDrained = store.drainTo("traps-test", 300, (key, value) -> {
+                assertEquals("message " + key, new String(value));
+                drained.add(key);
+            });
+            assertThat(numDrained, lessThanOrEqualTo(300));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.toString(i), drained.get(i));
+        }
+        assertEquals(0, store.drainTo("traps-test", 300, (key, value) -> drained.add(key)));
+    }
+
+    @Test
+    public void canReplayUnacknowledgedMessagesAfterRestart() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            store.writeMessage(("message " + i).getBytes(), "traps-test", Integer.toString(i));
+        }
+        final List<String> drained = new ArrayList<>();
+        assertEquals(2, store.drainTo("traps-test", 2, (key, value) -> drained.add(key)));
+        // Only the second message was dispatched
+        store.acknowledge("traps-test", Collections.singletonList(drained.get(1)));
+        store.destroy();
+
+        store = new SegmentedFileOffHeapStore(configAdmin);
+        store.init();
+        assertEquals(3, store.getNumOfMessages("traps-test"));
+        drained.clear();
+        assertEquals(3, store.drainTo("traps-test", 10, (key, value) -> drained.add(key)));
+        assertEquals(Arrays.asList("0", "1", "2"), drained);
+
+        // Nothing is replayed once everything was acknowledged
+        store.acknowledge("traps-test", drained);
+        store.destroy();
+        store = new SegmentedFileOffHeapStore(configAdmin);
+        store.init();
+        assertEquals(0, store.getNumOfMessages("traps-test"));
+    }
+
+    @Test
+    public void keepsSegmentsWithUnacknowledgedMessages() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            store.writeMessage(("message " + i).getBytes(), "traps-test", Integer.toString(i));
+        }
+        final long size = store.getSize();
+        final List<String> drained = new ArrayList<>();
+        while (store.drainTo("traps-test", 100, (key, value) -> drained.add(key)) > 0) {
+            // drain everything
+        }
+        assertEquals(1000, drained.size());
+        store.destroy();
+
+        // None of the segments were released, since nothing was acknowledged
+        store = new SegmentedFileOffHeapStore(configAdmin);
+        store.init();
+        assertEquals(size, store.getSize());
+        assertEquals(1000, store.getNumOfMessages("traps-test"));
+    }
+
+    @Test(expected = WriteFailedException.class)
+    public void failsWhenStorageIsExhausted() throws Exception {
+        byte[] message = new byte[1024];
+        for (int i = 0; i < 2048; i++) {
+            store.writeMessage(message, "traps-test", Integer.toString(i));
+        }
+    }
+}
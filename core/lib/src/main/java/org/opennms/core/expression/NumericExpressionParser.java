@@ -0,0 +1,503 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parser for the arithmetic subset of JEXL whose result does not depend on JEXL's
+ * typing rules: variable references, numeric literals, <code>+ - * / %</code>,
+ * comparisons, boolean operators, the ternary operator and function calls of the
+ * form <code>namespace:name(...)</code> or <code>object.name(...)</code>.
+ *
+ * The parser tracks the type JEXL gives every sub-expression, and rejects whatever
+ * JEXL would not evaluate with plain double arithmetic (integer arithmetic, literal
+ * widening, boolean coercion). The nodes of the expression are created by a
+ * {@link Builder}, so that every user evaluates them in its own way, and decides
+ * which variables and functions it supports.
+ *
+ * @param <T> type of the nodes created by the builder
+ */
+public final class NumericExpressionParser<T> {
+
+    public enum Kind {
+        /** Evaluates to an integer type in JEXL. */
+        INTEGER,
+        /** Always evaluates to a floating point number in JEXL. */
+        DOUBLE,
+        /** Evaluates to either an integer or a floating point number in JEXL. */
+        NUMBER,
+        BOOLEAN
+    }
+
+    /**
+     * A node, along with the type JEXL gives its value.
+     */
+    public static final class Term<T> {
+        private final Kind kind;
+        private final T node;
+
+        public Term(Kind kind, T node) {
+            this.kind = kind;
+            this.node = node;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public T getNode() {
+            return node;
+        }
+    }
+
+    /**
+     * Creates the nodes of an expression. Numeric nodes only receive numeric operands,
+     * and boolean nodes boolean ones.
+     */
+    public interface Builder<T> {
+        /**
+         * @param name the name of the variable, including any dotted segments
+         * @param key the quoted key of an access like <code>name['key']</code>, or <code>null</code>
+         * @return the value, or <code>null</code> if the reference can only be resolved by JEXL
+         */
+        Term<T> reference(String name, String key);
+
+        T literal(double value);
+
+        T negate(T operand);
+
+        /**
+         * @param operator one of <code>+ - * / %</code>
+         */
+        T arithmetic(char operator, T left, T right);
+
+        /**
+         * @param operator one of <code>== != &lt; &lt;= &gt; &gt;=</code>
+         */
+        T comparison(String operator, T left, T right);
+
+        T logical(boolean and, T left, T right);
+
+        T not(T operand);
+
+        T conditional(T condition, T then, T otherwise);
+
+        /**
+         * Only called when at least one of the arguments is a floating point number,
+         * so that JEXL picks the double overload of the function.
+         *
+         * @param method true for <code>object.name(...)</code>, false for <code>namespace:name(...)</code>
+         * @return the function, or <code>null</code> if it can only be evaluated by JEXL
+         */
+        T function(String namespace, String name, boolean method, List<T> args);
+    }
+
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "not",
+            "null", "true", "false", "new", "empty", "size", "if", "else", "for",
+            "foreach", "while", "function", "return", "var", "in"));
+
+    private static class UnsupportedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final UnsupportedException UNSUPPORTED = new UnsupportedException();
+
+    private final String input;
+    private final Builder<T> builder;
+    private final List<String> tokens = new ArrayList<>();
+    private int pos = 0;
+
+    private NumericExpressionParser(String input, Builder<T> builder) {
+        this.input = input;
+        this.builder = builder;
+    }
+
+    /**
+     * Parses the given expression.
+     *
+     * @return the root node, or <code>null</code> if the expression falls outside of
+     *         the supported subset, or does not evaluate to a number
+     */
+    public static <T> T parse(String expression, Builder<T> builder) {
+        if (expression == null) {
+            return null;
+        }
+        try {
+            final NumericExpressionParser<T> parser = new NumericExpressionParser<>(expression, builder);
+            parser.tokenize();
+            final Term<T> root = parser.ternary();
+            if (parser.pos != parser.tokens.size() || root.kind == Kind.BOOLEAN) {
+                return null;
+            }
+            return root.node;
+        } catch (UnsupportedException e) {
+            return null;
+        }
+    }
+
+    private void tokenize() {
+        int i = 0;
+        final int n = input.length();
+        while (i < n) {
+            final char c = input.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (isDigit(c)) {
+                int j = i;
+                while (j < n && isDigit(input.charAt(j))) j++;
+                if (j < n && input.charAt(j) == '.' && j + 1 < n && isDigit(input.charAt(j + 1))) {
+                    j++;
+                    while (j < n && isDigit(input.charAt(j))) j++;
+                }
+                if (j < n && "dDfFlL".indexOf(input.charAt(j)) >= 0) {
+                    j++;
+                }
+                // Exponents, hexadecimal and big number literals are left to JEXL
+                if (j < n && isIdentifierPart(input.charAt(j))) {
+                    throw UNSUPPORTED;
+                }
+                tokens.add(input.substring(i, j));
+                i = j;
+            } else if (isIdentifierStart(c)) {
+                int j = i + 1;
+                while (j < n && isIdentifierPart(input.charAt(j))) j++;
+                tokens.add(input.substring(i, j));
+                i = j;
+            } else if (c == '\'' || c == '"') {
+                final int end = input.indexOf(c, i + 1);
+                // Escape sequences are left to JEXL
+                if (end < 0 || input.lastIndexOf('\\', end) > i) {
+                    throw UNSUPPORTED;
+                }
+                tokens.add(input.substring(i, end + 1));
+                i = end + 1;
+            } else if (i + 1 < n && isTwoCharOperator(input.substring(i, i + 2))) {
+                tokens.add(input.substring(i, i + 2));
+                i += 2;
+            } else if ("+-*/%<>!?:()[].,".indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                throw UNSUPPORTED;
+            }
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    private static boolean isIdentifier(String token) {
+        return token != null && isIdentifierStart(token.charAt(0)) && !RESERVED.contains(token);
+    }
+
+    private static boolean isString(String token) {
+        return token.charAt(0) == '\'' || token.charAt(0) == '"';
+    }
+
+    private static boolean isTwoCharOperator(String s) {
+        switch (s) {
+        case "==": case "!=": case "<=": case ">=": case "&&": case "||":
+        // Not supported, but must not be split into two tokens
+        case "=~": case "!~": case "?:":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private String peek(int offset) {
+        return pos + offset < tokens.size() ? tokens.get(pos + offset) : null;
+    }
+
+    private boolean accept(String... candidates) {
+        final String token = peek(0);
+        for (String candidate : candidates) {
+            if (candidate.equals(token)) {
+                pos++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String next() {
+        final String token = peek(0);
+        if (token == null) {
+            throw UNSUPPORTED;
+        }
+        pos++;
+        return token;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private Term<T> ternary() {
+        final Term<T> condition = or();
+        if (!accept("?")) {
+            return condition;
+        }
+        final Term<T> then = numeric(ternary());
+        expect(":");
+        final Term<T> otherwise = numeric(ternary());
+        final Kind kind = then.kind == Kind.DOUBLE && otherwise.kind == Kind.DOUBLE ? Kind.DOUBLE : Kind.NUMBER;
+        return new Term<>(kind, builder.conditional(bool(condition).node, then.node, otherwise.node));
+    }
+
+    private Term<T> or() {
+        Term<T> left = and();
+        while (accept("||", "or")) {
+            left = logical(false, left, and());
+        }
+        return left;
+    }
+
+    private Term<T> and() {
+        Term<T> left = equality();
+        while (accept("&&", "and")) {
+            left = logical(true, left, equality());
+        }
+        return left;
+    }
+
+    private Term<T> equality() {
+        final Term<T> left = relational();
+        if (accept("==", "eq")) {
+            return comparison("==", left, relational());
+        } else if (accept("!=", "ne")) {
+            return comparison("!=", left, relational());
+        }
+        return left;
+    }
+
+    private Term<T> relational() {
+        final Term<T> left = additive();
+        if (accept("<", "lt")) {
+            return comparison("<", left, additive());
+        } else if (accept("<=", "le")) {
+            return comparison("<=", left, additive());
+        } else if (accept(">", "gt")) {
+            return comparison(">", left, additive());
+        } else if (accept(">=", "ge")) {
+            return comparison(">=", left, additive());
+        }
+        return left;
+    }
+
+    private Term<T> additive() {
+        Term<T> left = multiplicative();
+        while (true) {
+            if (accept("+")) {
+                left = arithmetic('+', left, multiplicative());
+            } else if (accept("-")) {
+                left = arithmetic('-', left, multiplicative());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Term<T> multiplicative() {
+        Term<T> left = unary();
+        while (true) {
+            if (accept("*")) {
+                left = arithmetic('*', left, unary());
+            } else if (accept("/", "div")) {
+                left = arithmetic('/', left, unary());
+            } else if (accept("%", "mod")) {
+                left = arithmetic('%', left, unary());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Term<T> unary() {
+        if (accept("-")) {
+            final Term<T> operand = numeric(unary());
+            return new Term<>(operand.kind, builder.negate(operand.node));
+        } else if (accept("!", "not")) {
+            return new Term<>(Kind.BOOLEAN, builder.not(bool(unary()).node));
+        }
+        return primary();
+    }
+
+    private Term<T> primary() {
+        final String token = next();
+        if (token.equals("(")) {
+            final Term<T> term = ternary();
+            expect(")");
+            return term;
+        } else if (isDigit(token.charAt(0))) {
+            return literal(token);
+        } else if (!isIdentifier(token)) {
+            throw UNSUPPORTED;
+        } else if (":".equals(peek(0)) && isIdentifier(peek(1)) && "(".equals(peek(2))) {
+            pos++;
+            return function(token, next(), false);
+        }
+
+        final StringBuilder name = new StringBuilder(token);
+        while (accept(".")) {
+            final String segment = next();
+            if (!isIdentifier(segment)) {
+                throw UNSUPPORTED;
+            }
+            if ("(".equals(peek(0)) && name.indexOf(".") < 0) {
+                return function(name.toString(), segment, true);
+            }
+            name.append('.').append(segment);
+        }
+        String key = null;
+        if (accept("[")) {
+            final String quoted = next();
+            if (!isString(quoted)) {
+                throw UNSUPPORTED;
+            }
+            expect("]");
+            key = quoted.substring(1, quoted.length() - 1);
+        }
+        // Method calls and any further accesses are left to JEXL
+        if ("(".equals(peek(0)) || "[".equals(peek(0)) || ".".equals(peek(0))) {
+            throw UNSUPPORTED;
+        }
+        final Term<T> reference = builder.reference(name.toString(), key);
+        if (reference == null || reference.kind == Kind.BOOLEAN) {
+            throw UNSUPPORTED;
+        }
+        return reference;
+    }
+
+    private Term<T> function(String namespace, String name, boolean method) {
+        expect("(");
+        final List<Term<T>> args = new ArrayList<>(2);
+        if (!accept(")")) {
+            do {
+                args.add(numeric(ternary()));
+            } while (accept(","));
+            expect(")");
+        }
+        // At least one floating point argument is needed for JEXL to pick the double overload
+        if (args.stream().noneMatch(arg -> arg.kind == Kind.DOUBLE)) {
+            throw UNSUPPORTED;
+        }
+        final List<T> nodes = new ArrayList<>(args.size());
+        for (Term<T> arg : args) {
+            nodes.add(arg.node);
+        }
+        final T function = builder.function(namespace, name, method, nodes);
+        if (function == null) {
+            throw UNSUPPORTED;
+        }
+        return new Term<>(Kind.DOUBLE, function);
+    }
+
+    private Term<T> literal(String token) {
+        final char suffix = Character.toLowerCase(token.charAt(token.length() - 1));
+        final String digits = Character.isLetter(suffix) ? token.substring(0, token.length() - 1) : token;
+        if (digits.indexOf('.') < 0) {
+            // Octal literals and anything that would not be exact as a double are left to JEXL
+            if ((digits.length() > 1 && digits.charAt(0) == '0') || digits.length() > 15
+                    || suffix == 'd' || suffix == 'f' || (suffix != 'l' && digits.length() > 9)) {
+                throw UNSUPPORTED;
+            }
+            return new Term<>(Kind.INTEGER, builder.literal(Long.parseLong(digits)));
+        } else if (suffix == 'd') {
+            return new Term<>(Kind.DOUBLE, builder.literal(Double.parseDouble(digits)));
+        } else if (suffix == 'f') {
+            return new Term<>(Kind.DOUBLE, builder.literal(Float.parseFloat(digits)));
+        } else if (suffix == 'l') {
+            throw UNSUPPORTED;
+        }
+        // JEXL may read decimal literals as floats: only accept the ones where this makes no difference
+        final double value = Double.parseDouble(digits);
+        final float floatValue = Float.parseFloat(digits);
+        if ((double) floatValue != value || Double.parseDouble(Float.toString(floatValue)) != value) {
+            throw UNSUPPORTED;
+        }
+        return new Term<>(Kind.DOUBLE, builder.literal(value));
+    }
+
+    private Term<T> logical(boolean and, Term<T> left, Term<T> right) {
+        return new Term<>(Kind.BOOLEAN, builder.logical(and, bool(left).node, bool(right).node));
+    }
+
+    private Term<T> arithmetic(char operator, Term<T> left, Term<T> right) {
+        // JEXL only uses double arithmetic when one of the operands is a floating point number
+        numeric(left);
+        numeric(right);
+        if (left.kind != Kind.DOUBLE && right.kind != Kind.DOUBLE) {
+            throw UNSUPPORTED;
+        }
+        return new Term<>(Kind.DOUBLE, builder.arithmetic(operator, left.node, right.node));
+    }
+
+    private Term<T> comparison(String operator, Term<T> left, Term<T> right) {
+        // Integers are compared exactly, as long as they can be represented as doubles
+        numeric(left);
+        numeric(right);
+        return new Term<>(Kind.BOOLEAN, builder.comparison(operator, left.node, right.node));
+    }
+
+    private static <T> Term<T> bool(Term<T> term) {
+        if (term.kind != Kind.BOOLEAN) {
+            throw UNSUPPORTED;
+        }
+        return term;
+    }
+
+    private static <T> Term<T> numeric(Term<T> term) {
+        if (term.kind == Kind.BOOLEAN) {
+            throw UNSUPPORTED;
+        }
+        return term;
+    }
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.core.expression.NumericExpressionParser.Kind;
+import org.opennms.core.expression.NumericExpressionParser.Term;
+
+public class NumericExpressionParserTest {
+
+    /**
+     * Prints the nodes in prefix notation. Names starting with "i" are integers, and "ds" is a map.
+     */
+    private static final NumericExpressionParser.Builder<String> PRINTER = new NumericExpressionParser.Builder<String>() {
+        @Override
+        public Term<String> reference(String name, String key) {
+            if (key != null) {
+                return "ds".equals(name) ? new Term<>(Kind.DOUBLE, "ds[" + key + "]") : null;
+            }
+            return new Term<>(name.startsWith("i") ? Kind.INTEGER : Kind.DOUBLE, name);
+        }
+
+        @Override
+        public String literal(double value) {
+            return Double.toString(value);
+        }
+
+        @Override
+        public String negate(String operand) {
+            return "(- " + operand + ")";
+        }
+
+        @Override
+        public String arithmetic(char operator, String left, String right) {
+            return "(" + operator + " " + left + " " + right + ")";
+        }
+
+        @Override
+        public String comparison(String operator, String left, String right) {
+            return "(" + operator + " " + left + " " + right + ")";
+        }
+
+        @Override
+        public String logical(boolean and, String left, String right) {
+            return "(" + (and ? "&&" : "||") + " " + left + " " + right + ")";
+        }
+
+        @Override
+        public String not(String operand) {
+            return "(! " + operand + ")";
+        }
+
+        @Override
+        public String conditional(String condition, String then, String otherwise) {
+            return "(? " + condition + " " + then + " " + otherwise + ")";
+        }
+
+        @Override
+        public String function(String namespace, String name, boolean method, List<String> args) {
+            return "(" + namespace + (method ? "." : ":") + name + " " + args.stream().collect(Collectors.joining(" ")) + ")";
+        }
+    };
+
+    private static String parse(String expression) {
+        return NumericExpressionParser.parse(expression, PRINTER);
+    }
+
+    @Test
+    public void canParseArithmetic() {
+        assertEquals("(+ a (* b 2.0))", parse("a + b * 2"));
+        assertEquals("(* (- a b) 2.0)", parse("(a - b) * 2"));
+        assertEquals("(% (/ a 8.0) 3.0)", parse("a div 8 mod 3"));
+        assertEquals("(- (+ a b))", parse("-(a + b)"));
+        assertEquals("(* a 0.5)", parse("a * 0.5"));
+        assertEquals("(* a 10.0)", parse("a * 10L"));
+        assertEquals("(/ ds[ns-dskTotal] 2.0)", parse("ds['ns-dskTotal'] / 2"));
+    }
+
+    @Test
+    public void canParseConditionsAndFunctions() {
+        assertEquals("(? (&& (> a 1.0) (! (== b 0.0))) a b)", parse("a > 1 and !(b == 0) ? a : b"));
+        assertEquals("(? (|| (< i 1.0) (>= a b)) 1.0 0.0)", parse("i < 1 || a ge b ? 1 : 0"));
+        assertEquals("(math:max a 0.0)", parse("math:max(a, 0)"));
+        assertEquals("(math.abs a)", parse("math.abs(a)"));
+    }
+
+    @Test
+    public void rejectsWhatOnlyJexlCanEvaluate() {
+        // Integer arithmetic and literals which JEXL may widen or read as floats
+        assertNull(parse("i * 2"));
+        assertNull(parse("1 / 2"));
+        assertNull(parse("math:max(i, 2)"));
+        assertNull(parse("a * 0.1"));
+        assertNull(parse("a * 010"));
+        assertNull(parse("a * 12345678901"));
+        // Boolean coercion, and boolean results
+        assertNull(parse("a ? 1 : 0"));
+        assertNull(parse("a > 1"));
+        assertNull(parse("a < b < 1 ? 1 : 0"));
+        // References and functions the builder leaves to JEXL
+        assertNull(parse("x['y'] * 2"));
+        assertNull(parse("ds[y]"));
+        assertNull(parse("a.b.c(1.5)"));
+        // Anything outside of the subset
+        assertNull(parse(null));
+        assertNull(parse("size(a)"));
+        assertNull(parse("a = 1; a"));
+        assertNull(parse("a & 1"));
+        assertNull(parse("a +"));
+        assertNull(parse("(a"));
+        assertNull(parse("'x'"));
+    }
+}
@@ -344,25 +344,32 @@ public class Snmp4JAgentConfig {
             disp.addMessageProcessingModel(new MPv2c());
             session = new Snmp(disp, transport);
         } else {
-            // Make a new USM
-            final USM usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
-            // Add the specified user to the USM
-            usm.addUser(
-                getSecurityName(),
-                new UsmUser(
-                    getSecurityName(),
-                    getAuthProtocol(),
-                    getAuthPassPhrase(),
-                    getPrivProtocol(),
-                    getPrivPassPhrase()
-                )
-            );
-            disp.addMessageProcessingModel(new MPv3(usm));
+            disp.addMessageProcessingModel(new MPv3(createUsm()));
             session = new Snmp(disp, transport);
         }
         return session;
     }
 
+    /**
+     * Creates a new USM that only knows about the user of this agent.
+     */
+    USM createUsm() {
+        // Make a new USM
+        final USM usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+        // Add the specified user to the USM
+        usm.addUser(
+            getSecurityName(),
+            new UsmUser(
+                getSecurityName(),
+                getAuthProtocol(),
+                getAuthPassPhrase(),
+                getPrivProtocol(),
+                getPrivPassPhrase()
+            )
+        );
+        return usm;
+    }
+
     /**
      * Creates an SNMP4J PDU based on the SNMP4J version constants.
      * A v3 request requires a ScopedPDU.
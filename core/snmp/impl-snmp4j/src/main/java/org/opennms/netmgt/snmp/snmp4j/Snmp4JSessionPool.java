@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.USM;
+import org.snmp4j.smi.Address;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+
+/**
+ * A small, fixed set of SNMP4J sessions that are shared by all of the requests
+ * issued through the {@link Snmp4JStrategy}.
+ *
+ * By default, every request and every walk opens its own UDP socket and listener
+ * thread, which is then torn down once the response has been processed. When
+ * polling many agents, most of that time is spent binding and closing sockets.
+ * The shared sessions are bound once and remain open: SNMP4J already correlates
+ * the responses with the outstanding requests using the request ids, and the
+ * responses are processed by a bounded pool of dispatcher threads.
+ *
+ * v1 and v2c agents are spread over the sessions by address. SNMPv3 requests use
+ * a dedicated session per user, so that the engine ids and times discovered by
+ * the USM are kept between requests. Once there are more distinct users than
+ * {@link #MAX_V3_USERS_PROPERTY}, {@link #getSession(Snmp4JAgentConfig)} returns
+ * <code>null</code> and the caller should fall back to a session of its own.
+ *
+ * The number of outstanding requests per agent can be capped. Requests above the
+ * cap are queued, and sent when one of the outstanding requests completes, so
+ * that neither the callers nor the dispatcher threads ever block. The state kept
+ * for an agent is dropped as soon as it has no outstanding requests.
+ *
+ * The pool is disabled unless {@link #SESSIONS_PROPERTY} is set.
+ */
+public class Snmp4JSessionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    /**
+     * Number of shared v1/v2c sessions. Defaults to 0, which disables the pool.
+     */
+    public static final String SESSIONS_PROPERTY = "org.opennms.snmp.snmp4j.sharedSessions";
+
+    /**
+     * Number of threads used to process the responses received on the shared sessions.
+     */
+    public static final String THREADS_PROPERTY = "org.opennms.snmp.snmp4j.sharedSessionThreads";
+
+    /**
+     * Maximum number of outstanding requests per agent, 0 for no limit.
+     */
+    public static final String MAX_IN_FLIGHT_PROPERTY = "org.opennms.snmp.snmp4j.maxInFlightPerAgent";
+
+    /**
+     * Maximum number of SNMPv3 users with a session of their own.
+     */
+    public static final String MAX_V3_USERS_PROPERTY = "org.opennms.snmp.snmp4j.maxSharedV3Users";
+
+    private static Snmp4JSessionPool s_instance;
+    private static boolean s_instanceCreated = false;
+
+    private final ThreadPool m_threadPool;
+    private final Snmp[] m_sessions;
+    private final ConcurrentMap<List<Object>, Snmp> m_v3Sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Address, AgentQueue> m_agents = new ConcurrentHashMap<>();
+    private final int m_maxInFlightPerAgent;
+    private final int m_maxV3Users;
+
+    /**
+     * Returns the pool configured through the system properties, or <code>null</code>
+     * if shared sessions are disabled or could not be opened.
+     */
+    public static synchronized Snmp4JSessionPool getInstance() {
+        if (!s_instanceCreated) {
+            s_instanceCreated = true;
+            final int sessions = Integer.getInteger(SESSIONS_PROPERTY, 0);
+            if (sessions > 0) {
+                try {
+                    s_instance = new Snmp4JSessionPool(sessions,
+                            Integer.getInteger(THREADS_PROPERTY, 4),
+                            Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, 16),
+                            Integer.getInteger(MAX_V3_USERS_PROPERTY, 256));
+                } catch (final IOException e) {
+                    LOG.error("Failed to open the shared SNMP sessions. A new session will be used for every request.", e);
+                }
+            }
+        }
+        return s_instance;
+    }
+
+    public Snmp4JSessionPool(int numSessions, int numThreads, int maxInFlightPerAgent, int maxV3Users) throws IOException {
+        if (numSessions < 1) {
+            throw new IllegalArgumentException("At least one session is required.");
+        }
+        m_threadPool = ThreadPool.create("Snmp4J-Shared-Dispatcher", Math.max(1, numThreads));
+        m_maxInFlightPerAgent = maxInFlightPerAgent;
+        m_maxV3Users = maxV3Users;
+        m_sessions = new Snmp[numSessions];
+        try {
+            for (int i = 0; i < numSessions; i++) {
+                m_sessions[i] = createSession(null);
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+        LOG.info("Opened {} shared SNMP sessions with {} dispatcher threads and at most {} requests in flight per agent.",
+                numSessions, numThreads, maxInFlightPerAgent > 0 ? maxInFlightPerAgent : "unlimited");
+    }
+
+    private Snmp createSession(USM usm) throws IOException {
+        final TransportMapping<?> transport = new DefaultUdpTransportMapping();
+        final MessageDispatcher disp = new MultiThreadedMessageDispatcher(m_threadPool, new MessageDispatcherImpl());
+        if (usm == null) {
+            disp.addMessageProcessingModel(new MPv1());
+            disp.addMessageProcessingModel(new MPv2c());
+        } else {
+            disp.addMessageProcessingModel(new MPv3(usm));
+        }
+        final Snmp session = new Snmp(disp, transport);
+        session.listen();
+        return session;
+    }
+
+    /**
+     * Returns the shared session to use for the given agent, or <code>null</code>
+     * if the agent should use a session of its own.
+     *
+     * The shared sessions must never be closed by the caller.
+     */
+    public Snmp getSession(Snmp4JAgentConfig agentConfig) throws IOException {
+        if (!agentConfig.isSnmpV3()) {
+            final int hash = Objects.hash(agentConfig.getInetAddress(), agentConfig.getPort());
+            return m_sessions[Math.floorMod(hash, m_sessions.length)];
+        }
+
+        final List<Object> user = Arrays.asList(agentConfig.getSecurityName(),
+                agentConfig.getAuthProtocol(), agentConfig.getAuthPassPhrase(),
+                agentConfig.getPrivProtocol(), agentConfig.getPrivPassPhrase());
+        Snmp session = m_v3Sessions.get(user);
+        if (session == null) {
+            synchronized (m_v3Sessions) {
+                session = m_v3Sessions.get(user);
+                if (session == null) {
+                    if (m_v3Sessions.size() >= m_maxV3Users) {
+                        LOG.debug("Too many SNMPv3 users for the shared sessions, not sharing a session for {}", agentConfig);
+                        return null;
+                    }
+                    session = createSession(agentConfig.createUsm());
+                    m_v3Sessions.put(user, session);
+                }
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Sends the request on the given shared session once the number of outstanding
+     * requests for the target is below the limit.
+     *
+     * @throws IOException if the request could be sent immediately, but failed.
+     *   Failures of queued requests are passed to the listener instead.
+     */
+    public void send(Snmp session, PDU pdu, Target target, ResponseListener listener) throws IOException {
+        while (true) {
+            final AgentQueue agent = m_agents.computeIfAbsent(target.getAddress(), AgentQueue::new);
+            if (agent.submit(new PendingRequest(agent, session, pdu, target, listener))) {
+                return;
+            }
+            // The queue was evicted after we looked it up, use a new one
+        }
+    }
+
+    /**
+     * Returns the number of agents with outstanding requests.
+     */
+    int getNumAgents() {
+        return m_agents.size();
+    }
+
+    public void close() {
+        for (final Snmp session : m_sessions) {
+            closeQuietly(session);
+        }
+        for (final Snmp session : m_v3Sessions.values()) {
+            closeQuietly(session);
+        }
+        m_v3Sessions.clear();
+        m_agents.clear();
+        m_threadPool.stop();
+    }
+
+    private static void closeQuietly(Snmp session) {
+        if (session == null) {
+            return;
+        }
+        try {
+            session.close();
+        } catch (final IOException e) {
+            LOG.error("error closing shared SNMP session", e);
+        }
+    }
+
+    /**
+     * Tracks the outstanding requests for a single agent.
+     *
+     * The queue removes itself from the pool once the last outstanding request
+     * completes, so that the pool does not keep an entry for every agent ever polled.
+     */
+    private class AgentQueue {
+        private final Address m_address;
+        private final Queue<PendingRequest> m_pending = new ArrayDeque<>();
+        private int m_inFlight = 0;
+        private boolean m_evicted = false;
+
+        private AgentQueue(Address address) {
+            m_address = address;
+        }
+
+        /**
+         * @return <code>false</code> if the queue was evicted and the request was not submitted
+         */
+        private boolean submit(PendingRequest request) throws IOException {
+            synchronized (this) {
+                if (m_evicted) {
+                    return false;
+                }
+                if (m_maxInFlightPerAgent > 0 && m_inFlight >= m_maxInFlightPerAgent) {
+                    m_pending.add(request);
+                    return true;
+                }
+                m_inFlight++;
+            }
+            try {
+                request.send();
+            } catch (final IOException e) {
+                release();
+                throw e;
+            }
+            return true;
+        }
+
+        private void release() {
+            while (true) {
+                final PendingRequest next;
+                synchronized (this) {
+                    next = m_pending.poll();
+                    if (next == null) {
+                        m_inFlight--;
+                        if (m_inFlight == 0) {
+                            m_evicted = true;
+                            m_agents.remove(m_address, this);
+                        }
+                        return;
+                    }
+                }
+                // The slot is handed over to the next request
+                try {
+                    next.send();
+                    return;
+                } catch (final IOException e) {
+                    next.fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of the agent once the response, or the timeout, is received.
+     */
+    private static class PendingRequest implements ResponseListener {
+        private final AgentQueue m_agent;
+        private final Snmp m_session;
+        private final PDU m_pdu;
+        private final Target m_target;
+        private final ResponseListener m_listener;
+        private final AtomicBoolean m_done = new AtomicBoolean(false);
+
+        private PendingRequest(AgentQueue agent, Snmp session, PDU pdu, Target target, ResponseListener listener) {
+            m_agent = agent;
+            m_session = session;
+            m_pdu = pdu;
+            m_target = target;
+            m_listener = listener;
+        }
+
+        private void send() throws IOException {
+            m_session.send(m_pdu, m_target, null, this);
+        }
+
+        private void fail(IOException e) {
+            LOG.debug("Failed to send queued pdu to {}", m_target.getAddress(), e);
+            if (m_done.compareAndSet(false, true)) {
+                m_listener.onResponse(new ResponseEvent(m_session, m_target.getAddress(), m_pdu, null, null, e));
+            }
+        }
+
+        @Override
+        public void onResponse(ResponseEvent responseEvent) {
+            // need to cancel the request here otherwise SNMP4J keeps it around
+            m_session.cancel(responseEvent.getRequest(), this);
+            if (!m_done.compareAndSet(false, true)) {
+                return;
+            }
+            m_agent.release();
+            m_listener.onResponse(responseEvent);
+        }
+    }
+}
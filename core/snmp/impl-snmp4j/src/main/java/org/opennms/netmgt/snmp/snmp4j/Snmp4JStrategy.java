@@ -110,6 +110,8 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
     private Snmp4JValueFactory m_valueFactory;
 
+    private Snmp4JSessionPool m_sessionPool = Snmp4JSessionPool.getInstance();
+
     private static ScheduledExecutorService s_sessionStatsExecutor;
     private static ConcurrentHashMap<Snmp, SessionInfo> s_sessions;
     private static boolean s_trackSessions = Boolean.getBoolean("org.opennms.core.snmp.trackSessions");
@@ -153,6 +155,14 @@ public class Snmp4JStrategy implements SnmpStrategy {
         initialize();
     }
     
+    /**
+     * Sets the shared sessions used for the requests and walks, or <code>null</code>
+     * to use a new session for every request.
+     */
+    public void setSessionPool(Snmp4JSessionPool sessionPool) {
+        m_sessionPool = sessionPool;
+    }
+
     public void clearUsers() {
         if (m_usm != null) {
             m_usm.removeAllUsers();
@@ -168,7 +178,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
      */
         @Override
     public SnmpWalker createWalker(SnmpAgentConfig snmpAgentConfig, String name, CollectionTracker tracker) {
-        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker);
+        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker, m_sessionPool);
     }
     
     /**
@@ -305,6 +315,20 @@ public class Snmp4JStrategy implements SnmpStrategy {
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
         Snmp session;
 
+        if (m_sessionPool != null) {
+            try {
+                session = m_sessionPool.getSession(agentConfig);
+            } catch (final Exception e) {
+                LOG.error("send: Could not create shared SNMP session for agent {}", agentConfig, e);
+                future.completeExceptionally(new SnmpException("Could not create shared SNMP session for agent", e));
+                return;
+            }
+            if (session != null) {
+                sendOnSharedSession(session, agentConfig, pdu, expectResponse, future);
+                return;
+            }
+        }
+
         try {
             session = agentConfig.createSnmpSession();
             Snmp4JStrategy.trackSession(session);
@@ -367,6 +391,38 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    /**
+     * Same as {@link #send(Snmp4JAgentConfig, PDU, boolean, CompletableFuture)}, but the
+     * session belongs to the {@link Snmp4JSessionPool} and must be left open.
+     */
+    private void sendOnSharedSession(Snmp session, Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (expectResponse) {
+            try {
+                m_sessionPool.send(session, pdu, agentConfig.getTarget(), new ResponseListener() {
+                    @Override
+                    public void onResponse(final ResponseEvent responseEvent) {
+                        try {
+                            future.complete(processResponse(agentConfig, responseEvent));
+                        } catch (final Exception e) {
+                            future.completeExceptionally(new SnmpException(e));
+                        }
+                    }
+                });
+            } catch (final Exception e) {
+                LOG.error("send: error during SNMP operation", e);
+                future.completeExceptionally(e);
+            }
+        } else { // we're not expecting a response
+            try {
+                session.send(pdu, agentConfig.getTarget());
+                future.complete(null);
+            } catch (final Exception e) {
+                LOG.error("send: error during SNMP operation", e);
+                future.completeExceptionally(new SnmpException(e));
+            }
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opennms.netmgt.snmp.SnmpAgentAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.mp.SnmpConstants;
+
+/**
+ * Learns the number of variables per PDU and the max-repetitions that work best
+ * for each agent when walking with GETBULK.
+ *
+ * The configured values are used as the starting point. The repetitions are
+ * increased while the agent keeps answering with full responses in a fraction of
+ * the timeout, and decreased on tooBig errors, timeouts, truncated responses and
+ * slow responses. The number of variables per PDU is reduced by the trackers on
+ * tooBig errors, and the reduced value is remembered for the next walk.
+ *
+ * The learned values are kept in a bounded, least-recently-used cache keyed by
+ * agent address and port, along with the number of round trips and the duration
+ * of the walks. Adaptive walks are disabled unless {@link #ENABLED_PROPERTY} is set.
+ */
+public class Snmp4JWalkTuning {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JWalkTuning.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.snmp.snmp4j.adaptiveWalks";
+
+    /**
+     * Upper bound for the learned max-repetitions.
+     */
+    public static final String MAX_REPETITIONS_PROPERTY = "org.opennms.snmp.snmp4j.adaptiveMaxRepetitions";
+
+    /**
+     * Number of agents to remember.
+     */
+    public static final String CACHE_SIZE_PROPERTY = "org.opennms.snmp.snmp4j.adaptiveCacheSize";
+
+    private static final Snmp4JWalkTuning s_instance = new Snmp4JWalkTuning(
+            Boolean.getBoolean(ENABLED_PROPERTY),
+            Integer.getInteger(MAX_REPETITIONS_PROPERTY, 50),
+            Integer.getInteger(CACHE_SIZE_PROPERTY, 10000));
+
+    private final boolean m_enabled;
+    private final int m_repetitionCeiling;
+    private final Map<SnmpAgentAddress, AgentTuning> m_agents;
+
+    public static Snmp4JWalkTuning getInstance() {
+        return s_instance;
+    }
+
+    public Snmp4JWalkTuning(boolean enabled, int repetitionCeiling, final int cacheSize) {
+        m_enabled = enabled;
+        m_repetitionCeiling = Math.max(1, repetitionCeiling);
+        m_agents = new LinkedHashMap<SnmpAgentAddress, AgentTuning>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SnmpAgentAddress, AgentTuning> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * Returns the tuning for the given agent, or <code>null</code> if adaptive walks
+     * are disabled or the agent does not support GETBULK.
+     */
+    public AgentTuning getTuning(Snmp4JAgentConfig agentConfig) {
+        if (!m_enabled || agentConfig.getVersion() == SnmpConstants.version1) {
+            return null;
+        }
+        final SnmpAgentAddress address = new SnmpAgentAddress(agentConfig.getInetAddress(), agentConfig.getPort());
+        synchronized (m_agents) {
+            AgentTuning tuning = m_agents.get(address);
+            if (tuning == null) {
+                tuning = new AgentTuning(address, agentConfig.getMaxVarsPerPdu(),
+                        Math.min(agentConfig.getMaxRepetitions(), m_repetitionCeiling), m_repetitionCeiling);
+                m_agents.put(address, tuning);
+            }
+            return tuning;
+        }
+    }
+
+    /**
+     * Returns what was learned about the given agent so far, or <code>null</code>
+     * if the agent was not walked recently.
+     */
+    public AgentTuning getTuning(SnmpAgentAddress address) {
+        synchronized (m_agents) {
+            return m_agents.get(address);
+        }
+    }
+
+    public static class AgentTuning {
+        private final SnmpAgentAddress m_address;
+        private final int m_configuredMaxVarsPerPdu;
+        private final int m_repetitionCeiling;
+
+        private int m_maxVarsPerPdu;
+        private int m_maxRepetitions;
+
+        private long m_roundTrips = 0;
+        private long m_tooBigErrors = 0;
+        private long m_timeouts = 0;
+        private long m_walks = 0;
+        private long m_totalWalkTime = 0;
+        private long m_lastWalkTime = 0;
+        private long m_averageRoundTripTime = -1;
+
+        private AgentTuning(SnmpAgentAddress address, int maxVarsPerPdu, int maxRepetitions, int repetitionCeiling) {
+            m_address = address;
+            m_configuredMaxVarsPerPdu = Math.max(1, maxVarsPerPdu);
+            m_maxVarsPerPdu = m_configuredMaxVarsPerPdu;
+            m_maxRepetitions = Math.max(1, maxRepetitions);
+            m_repetitionCeiling = repetitionCeiling;
+        }
+
+        public synchronized int getMaxVarsPerPdu() {
+            return m_maxVarsPerPdu;
+        }
+
+        public synchronized int getMaxRepetitions() {
+            return m_maxRepetitions;
+        }
+
+        /**
+         * Called for every GETBULK response without errors.
+         *
+         * @param repeaters the number of repeating variables in the request
+         * @param nonRepeaters the number of non-repeating variables in the request
+         * @param requestedRepetitions the max-repetitions of the request
+         * @param responseSize the number of variables in the response
+         * @param endOfMib whether the response reached the end of the MIB view
+         * @param roundTripTime the time it took to receive the response, in ms
+         * @param timeout the timeout of a single request, in ms
+         */
+        public synchronized void onResponse(int repeaters, int nonRepeaters, int requestedRepetitions, int responseSize, boolean endOfMib, long roundTripTime, long timeout) {
+            m_roundTrips++;
+            m_averageRoundTripTime = m_averageRoundTripTime < 0 ? roundTripTime : (7 * m_averageRoundTripTime + roundTripTime) / 8;
+            if (repeaters < 1) {
+                return;
+            }
+
+            final int repetitions = (responseSize - nonRepeaters) / repeaters;
+            if (repetitions < requestedRepetitions) {
+                if (!endOfMib) {
+                    // The agent truncated the response to fit in its maximum message size
+                    m_maxRepetitions = Math.max(1, Math.min(m_maxRepetitions, repetitions));
+                }
+            } else if (timeout > 0 && roundTripTime > timeout / 2) {
+                m_maxRepetitions = Math.max(1, m_maxRepetitions * 3 / 4);
+            } else if (requestedRepetitions >= m_maxRepetitions && roundTripTime <= timeout / 4) {
+                m_maxRepetitions = Math.min(m_repetitionCeiling, m_maxRepetitions + Math.max(1, m_maxRepetitions / 4));
+            }
+        }
+
+        public synchronized void onTooBig(int requestedRepetitions) {
+            m_roundTrips++;
+            m_tooBigErrors++;
+            m_maxRepetitions = Math.max(1, Math.min(m_maxRepetitions, requestedRepetitions) / 2);
+            LOG.debug("tooBig error from {}, reducing max-repetitions to {}", m_address, m_maxRepetitions);
+        }
+
+        public synchronized void onTimeout() {
+            m_roundTrips++;
+            m_timeouts++;
+            m_maxRepetitions = Math.max(1, m_maxRepetitions / 2);
+        }
+
+        /**
+         * Called when a walk completes.
+         *
+         * @param maxVarsPerPdu the number of variables per PDU used at the end of the walk
+         * @param tooBigErrors whether any tooBig errors were received during the walk
+         * @param duration the duration of the walk, in ms
+         */
+        public synchronized void onWalkCompleted(int maxVarsPerPdu, boolean tooBigErrors, long duration) {
+            m_walks++;
+            m_totalWalkTime += duration;
+            m_lastWalkTime = duration;
+            if (tooBigErrors) {
+                m_maxVarsPerPdu = Math.max(1, Math.min(m_maxVarsPerPdu, maxVarsPerPdu));
+            } else if (m_maxVarsPerPdu < m_configuredMaxVarsPerPdu) {
+                // Probe back towards the configured value
+                m_maxVarsPerPdu++;
+            }
+        }
+
+        public synchronized long getRoundTrips() {
+            return m_roundTrips;
+        }
+
+        public synchronized long getTooBigErrors() {
+            return m_tooBigErrors;
+        }
+
+        public synchronized long getTimeouts() {
+            return m_timeouts;
+        }
+
+        public synchronized long getWalks() {
+            return m_walks;
+        }
+
+        public synchronized long getTotalWalkTime() {
+            return m_totalWalkTime;
+        }
+
+        public synchronized long getLastWalkTime() {
+            return m_lastWalkTime;
+        }
+
+        public synchronized long getAverageRoundTripTime() {
+            return m_averageRoundTripTime;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "AgentTuning[address=" + m_address
+                    + ", maxVarsPerPdu=" + m_maxVarsPerPdu
+                    + ", maxRepetitions=" + m_maxRepetitions
+                    + ", roundTrips=" + m_roundTrips
+                    + ", walks=" + m_walks
+                    + ", lastWalkTime=" + m_lastWalkTime + "]";
+        }
+    }
+}
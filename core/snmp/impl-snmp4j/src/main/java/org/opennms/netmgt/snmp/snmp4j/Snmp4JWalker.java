@@ -44,6 +44,7 @@ import org.snmp4j.event.ResponseEvent;
 import org.snmp4j.event.ResponseListener;
 import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.OID;
+import org.snmp4j.smi.SMIConstants;
 import org.snmp4j.smi.VariableBinding;
 
 public class Snmp4JWalker extends SnmpWalker {
@@ -163,7 +164,20 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            final Snmp session = m_session;
+            if (session != null) {
+                session.cancel(responseEvent.getRequest(), this);
+            }
+
+            // A shared session outlives the walker, so responses may still arrive after it was closed
+            if (m_closed) {
+                LOG.debug("Ignoring response for closed walker {} for {}", getName(), getAddress());
+                return;
+            }
+
+            if (m_tuning != null) {
+                updateTuning(responseEvent);
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -188,15 +202,44 @@ public class Snmp4JWalker extends SnmpWalker {
         
     }
     
-    private Snmp m_session;
+    private volatile Snmp m_session;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
+    private final Snmp4JSessionPool m_sessionPool;
+    private boolean m_sharedSession = false;
+    private volatile boolean m_closed = false;
+
+    private final Snmp4JWalkTuning.AgentTuning m_tuning;
+    private long m_startTime;
+    private long m_sentTime;
+    private boolean m_tooBig = false;
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
-        super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
+        this(agentConfig, name, tracker, null);
+    }
+
+    /**
+     * @param sessionPool the shared sessions to walk with, or <code>null</code> to
+     *   use a session of our own
+     */
+    public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker, Snmp4JSessionPool sessionPool) {
+        this(agentConfig, name, tracker, sessionPool, Snmp4JWalkTuning.getInstance().getTuning(agentConfig));
+    }
+
+    /**
+     * @param tuning the learned PDU sizes for the agent, or <code>null</code> to
+     *   use the configured values
+     */
+    public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker, Snmp4JSessionPool sessionPool, Snmp4JWalkTuning.AgentTuning tuning) {
+        super(agentConfig.getInetAddress(), name,
+                tuning == null ? agentConfig.getMaxVarsPerPdu() : tuning.getMaxVarsPerPdu(),
+                tuning == null ? agentConfig.getMaxRepetitions() : tuning.getMaxRepetitions(),
+                agentConfig.getRetries(), tracker);
         
         m_agentConfig = agentConfig;
+        m_sessionPool = sessionPool;
+        m_tuning = tuning;
         
         m_tgt = agentConfig.getTarget();
         m_listener = new Snmp4JResponseListener();
@@ -206,7 +249,8 @@ public class Snmp4JWalker extends SnmpWalker {
     public void start() {
         
         LOG.debug("Walking {} for {} using version {} with config: {}", getName(), getAddress(), m_agentConfig.getVersionString(), m_agentConfig);
-            
+
+        m_startTime = System.currentTimeMillis();
         super.start();
     }
 
@@ -222,18 +266,34 @@ public class Snmp4JWalker extends SnmpWalker {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         try {
             if (m_session == null) {
-                m_session = m_agentConfig.createSnmpSession();
-                Snmp4JStrategy.trackSession(m_session);
-                m_session.listen();
+                if (m_sessionPool != null) {
+                    m_session = m_sessionPool.getSession(m_agentConfig);
+                    m_sharedSession = m_session != null;
+                }
+                if (m_session == null) {
+                    m_session = m_agentConfig.createSnmpSession();
+                    Snmp4JStrategy.trackSession(m_session);
+                    m_session.listen();
+                }
             }
         } catch (final IOException e) {
             close();
             throw new SnmpException(e);
         }
 
+        final PDU pdu = snmp4JPduBuilder.getPdu();
+        if (m_tuning != null && pdu.getType() == PDU.GETBULK && pdu.size() > pdu.getNonRepeaters()) {
+            pdu.setMaxRepetitions(m_tuning.getMaxRepetitions());
+        }
+
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
+        m_sentTime = System.currentTimeMillis();
         try {
-            m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+            if (m_sharedSession) {
+                m_sessionPool.send(m_session, snmp4JPduBuilder.getPdu(), m_tgt, m_listener);
+            } else {
+                m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+            }
         } catch (final IOException e) {
             LOG.debug("Failed to send pdu of size {}", snmp4JPduBuilder.getPdu().size(), e);
             close();
@@ -245,9 +305,53 @@ public class Snmp4JWalker extends SnmpWalker {
         return m_tgt.getVersion();
     }
 
+    private void updateTuning(ResponseEvent responseEvent) {
+        final PDU request = responseEvent.getRequest();
+        final PDU response = responseEvent.getResponse();
+        if (request == null || request.getType() != PDU.GETBULK || responseEvent.getError() instanceof InterruptedException) {
+            return;
+        }
+        if (response == null) {
+            m_tuning.onTimeout();
+        } else if (response.getErrorStatus() == PDU.tooBig) {
+            m_tooBig = true;
+            m_tuning.onTooBig(request.getMaxRepetitions());
+        } else if (response.getErrorStatus() == PDU.noError && response.getType() == PDU.RESPONSE) {
+            final boolean endOfMib = response.size() > 0
+                    && response.get(response.size() - 1).getSyntax() == SMIConstants.EXCEPTION_END_OF_MIB_VIEW;
+            m_tuning.onResponse(request.size() - request.getNonRepeaters(), request.getNonRepeaters(), request.getMaxRepetitions(),
+                    response.size(), endOfMib, System.currentTimeMillis() - m_sentTime, m_tgt.getTimeout());
+        }
+    }
+
+    private void walkCompleted() {
+        if (m_tuning != null) {
+            final long duration = System.currentTimeMillis() - m_startTime;
+            m_tuning.onWalkCompleted(getMaxVarsPerPdu(), m_tooBig, duration);
+            LOG.debug("Walk {} for {} completed in {}ms: {}", getName(), getAddress(), duration, m_tuning);
+        }
+    }
+
+    @Override
+    protected void handleDone() {
+        walkCompleted();
+        super.handleDone();
+    }
+
+    @Override
+    protected void handleTimeout(String msg) {
+        walkCompleted();
+        super.handleTimeout(msg);
+    }
+
     @Override
     public void close() {
-        if (m_session != null) {
+        m_closed = true;
+        if (m_sharedSession) {
+            // The shared session is owned by the pool and stays open
+            m_session = null;
+            m_sharedSession = false;
+        } else if (m_session != null) {
             try {
                 m_session.close();
             } catch (IOException e) {
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Tests for the SNMP4J strategy using the shared sessions.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+public class Snmp4JSessionPoolIT extends MockSnmpAgentITCase {
+
+    private static final SnmpObjId[] OIDS = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    private Snmp4JSessionPool m_pool;
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @Before
+    public void setUpPool() throws Exception {
+        m_pool = new Snmp4JSessionPool(2, 2, 1, 1);
+        m_strategy.setSessionPool(m_pool);
+    }
+
+    @After
+    public void tearDownPool() {
+        m_pool.close();
+    }
+
+    @Test
+    public void testGetOnSharedSession() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            final SnmpValue value = m_strategy.get(getAgentConfig(), OIDS[0]);
+            assertNotNull("value should not be null", value);
+            assertEquals(42, value.toInt());
+        }
+    }
+
+    @Test
+    public void testAgentAlwaysUsesTheSameSession() throws Exception {
+        final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(getAgentConfig());
+        assertSame(m_pool.getSession(agentConfig), m_pool.getSession(new Snmp4JAgentConfig(getAgentConfig())));
+    }
+
+    @Test
+    public void testTooManyV3UsersFallBackToTheirOwnSession() throws Exception {
+        final SnmpAgentConfig first = getAgentConfig();
+        first.setVersion(SnmpAgentConfig.VERSION3);
+        first.setSecurityName("first");
+        final SnmpAgentConfig second = getAgentConfig();
+        second.setVersion(SnmpAgentConfig.VERSION3);
+        second.setSecurityName("second");
+
+        assertNotNull(m_pool.getSession(new Snmp4JAgentConfig(first)));
+        assertSame(m_pool.getSession(new Snmp4JAgentConfig(first)), m_pool.getSession(new Snmp4JAgentConfig(first)));
+        assertNull(m_pool.getSession(new Snmp4JAgentConfig(second)));
+    }
+
+    @Test
+    public void testRequestsAboveTheInFlightLimitAreQueued() throws Exception {
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            futures.add(m_strategy.getAsync(getAgentConfig(), OIDS));
+        }
+        for (CompletableFuture<SnmpValue[]> future : futures) {
+            final SnmpValue[] values = future.get(30, TimeUnit.SECONDS);
+            assertEquals(1, values.length);
+            assertEquals(42, values[0].toInt());
+        }
+    }
+
+    @Test
+    public void testIdleAgentsAreEvicted() throws Exception {
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(m_strategy.getAsync(getAgentConfig(), OIDS));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        assertEquals(0, m_pool.getNumAgents());
+
+        // A new queue is created for the next request
+        assertNotNull(m_strategy.get(getAgentConfig(), OIDS[0]));
+        assertEquals(0, m_pool.getNumAgents());
+    }
+
+    @Test
+    public void testWalkOnSharedSession() throws Exception {
+        final AtomicInteger results = new AtomicInteger(0);
+        final ColumnTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.5.1.1")) {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                results.incrementAndGet();
+            }
+        };
+
+        try (final SnmpWalker walker = m_strategy.createWalker(getAgentConfig(), "test", tracker)) {
+            walker.start();
+            assertTrue("walk should complete", walker.waitFor(30000));
+            assertFalse("walk should not fail: " + walker.getErrorMessage(), walker.failed());
+        }
+        assertEquals(9, results.get());
+
+        // The walk must leave the shared session open
+        final SnmpValue value = m_strategy.get(getAgentConfig(), OIDS[0]);
+        assertNotNull("value should not be null", value);
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void compareWithSessionPerRequest() throws Exception {
+        final int requests = 10000;
+        final Snmp4JStrategy perRequest = new Snmp4JStrategy();
+        perRequest.setSessionPool(null);
+        final Snmp4JStrategy shared = new Snmp4JStrategy();
+        final Snmp4JSessionPool pool = new Snmp4JSessionPool(4, 4, 0, 1);
+        shared.setSessionPool(pool);
+
+        for (final Snmp4JStrategy strategy : new Snmp4JStrategy[] { perRequest, shared, perRequest, shared }) {
+            final long start = System.nanoTime();
+            final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                futures.add(strategy.getAsync(getAgentConfig(), OIDS));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            final long elapsed = System.nanoTime() - start;
+            System.err.printf("%s: %d requests in %d ms%n", strategy == shared ? "shared" : "per-request",
+                    requests, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+        pool.close();
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpAgentAddress;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+
+public class Snmp4JWalkTuningTest {
+
+    private static Snmp4JAgentConfig agentConfig(String address, int version) throws Exception {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getByName(address));
+        config.setVersion(version);
+        config.setMaxVarsPerPdu(10);
+        config.setMaxRepetitions(4);
+        return new Snmp4JAgentConfig(config);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        final Snmp4JWalkTuning tuning = new Snmp4JWalkTuning(false, 50, 10);
+        assertNull(tuning.getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION2C)));
+    }
+
+    @Test
+    public void testNoTuningForV1() throws Exception {
+        final Snmp4JWalkTuning tuning = new Snmp4JWalkTuning(true, 50, 10);
+        assertNull(tuning.getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION1)));
+    }
+
+    @Test
+    public void testStartsFromTheConfiguredValues() throws Exception {
+        final Snmp4JWalkTuning tuning = new Snmp4JWalkTuning(true, 50, 10);
+        final Snmp4JWalkTuning.AgentTuning agent = tuning.getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION2C));
+        assertEquals(10, agent.getMaxVarsPerPdu());
+        assertEquals(4, agent.getMaxRepetitions());
+        assertSame(agent, tuning.getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION2C)));
+        assertSame(agent, tuning.getTuning(new SnmpAgentAddress(InetAddress.getByName("192.0.2.1"), 161)));
+    }
+
+    @Test
+    public void testRepetitionsGrowWithFastFullResponses() throws Exception {
+        final Snmp4JWalkTuning.AgentTuning agent = new Snmp4JWalkTuning(true, 6, 10).getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION2C));
+        agent.onResponse(2, 0, 4, 8, false, 10, 1000);
+        assertEquals(5, agent.getMaxRepetitions());
+        agent.onResponse(2, 0, 5, 10, false, 10, 1000);
+        agent.onResponse(2, 0, 6, 12, false, 10, 1000);
+        // Capped by the ceiling
+        assertEquals(6, agent.getMaxRepetitions());
+        assertEquals(3, agent.getRoundTrips());
+    }
+
+    @Test
+    public void testRepetitionsShrink() throws Exception {
+        final Snmp4JWalkTuning.AgentTuning agent = new Snmp4JWalkTuning(true, 50, 10).getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION2C));
+        for (int i = 0; i < 8; i++) {
+            agent.onResponse(1, 0, agent.getMaxRepetitions(), agent.getMaxRepetitions(), false, 10, 1000);
+        }
+        assertEquals(18, agent.getMaxRepetitions());
+
+        // Truncated response
+        agent.onResponse(1, 0, 18, 15, false, 10, 1000);
+        assertEquals(15, agent.getMaxRepetitions());
+
+        // Truncated at the end of the MIB is expected
+        agent.onResponse(1, 0, 15, 3, true, 10, 1000);
+        assertEquals(15, agent.getMaxRepetitions());
+
+        // Slow response
+        agent.onResponse(1, 0, 15, 15, false, 600, 1000);
+        assertEquals(11, agent.getMaxRepetitions());
+
+        agent.onTooBig(11);
+        assertEquals(5, agent.getMaxRepetitions());
+        agent.onTimeout();
+        assertEquals(2, agent.getMaxRepetitions());
+        agent.onTimeout();
+        agent.onTimeout();
+        assertEquals(1, agent.getMaxRepetitions());
+        assertEquals(1, agent.getTooBigErrors());
+        assertEquals(3, agent.getTimeouts());
+    }
+
+    @Test
+    public void testMaxVarsPerPduIsRemembered() throws Exception {
+        final Snmp4JWalkTuning.AgentTuning agent = new Snmp4JWalkTuning(true, 50, 10).getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION2C));
+        agent.onWalkCompleted(5, true, 100);
+        assertEquals(5, agent.getMaxVarsPerPdu());
+        agent.onWalkCompleted(5, false, 300);
+        assertEquals(6, agent.getMaxVarsPerPdu());
+        assertEquals(2, agent.getWalks());
+        assertEquals(400, agent.getTotalWalkTime());
+        assertEquals(300, agent.getLastWalkTime());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAgentsAreEvicted() throws Exception {
+        final Snmp4JWalkTuning tuning = new Snmp4JWalkTuning(true, 50, 2);
+        tuning.getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION2C));
+        tuning.getTuning(agentConfig("192.0.2.2", SnmpAgentConfig.VERSION2C));
+        tuning.getTuning(agentConfig("192.0.2.1", SnmpAgentConfig.VERSION2C));
+        tuning.getTuning(agentConfig("192.0.2.3", SnmpAgentConfig.VERSION2C));
+        assertNull(tuning.getTuning(new SnmpAgentAddress(InetAddress.getByName("192.0.2.2"), 161)));
+    }
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.collection.persistence.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdFileBackendFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.opennms.netmgt.collection.api.AttributeType;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.Persister;
+import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.dto.CollectionAgentDTO;
+import org.opennms.netmgt.collection.persistence.rrd.RrdPersisterFactory;
+import org.opennms.netmgt.collection.support.builder.CollectionSetBuilder;
+import org.opennms.netmgt.collection.support.builder.InterfaceLevelResource;
+import org.opennms.netmgt.collection.support.builder.NodeLevelResource;
+import org.opennms.netmgt.dao.api.EmptyResourceStorageDao;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+import org.opennms.netmgt.rrd.jrobin.MappedRrdBackendFactory;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Replays synthetic collection cycles through the {@link RrdPersisterFactory}
+ * against the FILE and MAPPED JRobin backends and compares the wall time and
+ * the I/O operations reported by /proc/self/io.
+ *
+ * The number of files (one per interface) and cycles can be changed with the
+ * <code>benchmark.files</code> and <code>benchmark.cycles</code> system properties.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+@IfProfileValue(name="runBenchmarkTests", value="true")
+public class JRobinPersisterBenchmarkTest {
+
+    private static final int FILES = Integer.getInteger("benchmark.files", 500000);
+    private static final int CYCLES = Integer.getInteger("benchmark.cycles", 3);
+    private static final int INTERFACES_PER_NODE = 50;
+    private static final long STEP = 300;
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    /**
+     * Uses the given backend instead of the process-wide default, so both
+     * backends can be compared in a single JVM.
+     */
+    private static class BackendRrdStrategy extends JRobinRrdStrategy {
+        private final RrdBackendFactory m_factory;
+
+        private BackendRrdStrategy(final RrdBackendFactory factory) throws Exception {
+            m_factory = factory;
+        }
+
+        @Override
+        public void createFile(final RrdDef rrdDef) throws Exception {
+            if (rrdDef != null) {
+                new RrdDb(rrdDef, m_factory).close();
+            }
+        }
+
+        @Override
+        public RrdDb openFile(final String fileName) throws Exception {
+            return new RrdDb(fileName, m_factory);
+        }
+    }
+
+    @Test
+    public void compareBackends() throws Exception {
+        System.out.printf("Replaying %d cycles of %d files%n", CYCLES, FILES);
+        run("FILE", new RrdFileBackendFactory(), null);
+
+        final MappedRrdBackendFactory mapped = new MappedRrdBackendFactory(FILES, MappedRrdBackendFactory.DEFAULT_FLUSH_INTERVAL, MappedRrdBackendFactory.DEFAULT_FLUSH_BATCH_SIZE);
+        try {
+            run("MAPPED", mapped, mapped);
+            System.out.printf("MAPPED: %s%n", mapped.getStats());
+        } finally {
+            mapped.close();
+        }
+    }
+
+    private void run(final String name, final RrdBackendFactory factory, final MappedRrdBackendFactory mapped) throws Exception {
+        final File rrdDir = m_tempFolder.newFolder(name);
+        final RrdRepository repository = new RrdRepository();
+        repository.setRrdBaseDir(rrdDir);
+        repository.setStep((int)STEP);
+        repository.setHeartBeat((int)(2 * STEP));
+        repository.setRraList(Collections.singletonList("RRA:AVERAGE:0.5:1:288"));
+
+        final RrdPersisterFactory persisterFactory = new RrdPersisterFactory();
+        persisterFactory.setRrdStrategy(new BackendRrdStrategy(factory));
+        persisterFactory.setResourceStorageDao(new EmptyResourceStorageDao());
+        final ServiceParameters params = new ServiceParameters(Collections.emptyMap());
+
+        // The first cycle creates the files
+        replay(persisterFactory, params, repository, 0);
+        flush(mapped);
+
+        final Map<String, Long> before = readIoStats();
+        final long start = System.nanoTime();
+        for (int cycle = 1; cycle <= CYCLES; cycle++) {
+            replay(persisterFactory, params, repository, cycle);
+        }
+        flush(mapped);
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        final Map<String, Long> after = readIoStats();
+
+        final long updates = (long)FILES * CYCLES;
+        System.out.printf("%s: %d updates in %d ms (%.0f updates/s), %s%n", name, updates, elapsedMillis,
+                updates * 1000.0 / Math.max(elapsedMillis, 1), diff(before, after));
+    }
+
+    private static void replay(final RrdPersisterFactory persisterFactory, final ServiceParameters params, final RrdRepository repository, final int cycle) {
+        final Date timestamp = new Date((1500000000L + cycle * STEP) * 1000);
+        for (int node = 1; node <= (FILES + INTERFACES_PER_NODE - 1) / INTERFACES_PER_NODE; node++) {
+            final CollectionAgentDTO agent = new CollectionAgentDTO();
+            agent.setNodeId(node);
+            agent.setStorageResourcePath(ResourcePath.get(Integer.toString(node)));
+
+            final NodeLevelResource nodeResource = new NodeLevelResource(node);
+            final CollectionSetBuilder builder = new CollectionSetBuilder(agent).withTimestamp(timestamp);
+            final int interfaces = Math.min(INTERFACES_PER_NODE, FILES - (node - 1) * INTERFACES_PER_NODE);
+            for (int i = 0; i < interfaces; i++) {
+                final InterfaceLevelResource resource = new InterfaceLevelResource(nodeResource, "if" + i);
+                final long value = (long)cycle * STEP * (i + 1);
+                builder.withNumericAttribute(resource, "mib2-interfaces", "ifHCInOctets", value, AttributeType.COUNTER);
+                builder.withNumericAttribute(resource, "mib2-interfaces", "ifHCOutOctets", value * 2, AttributeType.COUNTER);
+                builder.withNumericAttribute(resource, "mib2-interfaces", "ifInErrors", cycle, AttributeType.COUNTER);
+                builder.withNumericAttribute(resource, "mib2-interfaces", "ifOutErrors", cycle, AttributeType.COUNTER);
+            }
+            final CollectionSet collectionSet = builder.build();
+            final Persister persister = persisterFactory.createPersister(params, repository, false, true, false);
+            collectionSet.visit(persister);
+        }
+    }
+
+    private static void flush(final MappedRrdBackendFactory mapped) {
+        if (mapped != null) {
+            mapped.flushDirtyFiles();
+        }
+    }
+
+    /**
+     * Reads the I/O counters of this process, empty when they aren't available.
+     */
+    private static Map<String, Long> readIoStats() throws IOException {
+        final Map<String, Long> stats = new HashMap<>();
+        final Path io = Paths.get("/proc/self/io");
+        if (Files.isReadable(io)) {
+            final List<String> lines = Files.readAllLines(io, StandardCharsets.US_ASCII);
+            for (final String line : lines) {
+                final String[] parts = line.split(":\\s*");
+                if (parts.length == 2) {
+                    stats.put(parts[0], Long.parseLong(parts[1].trim()));
+                }
+            }
+        }
+        return stats;
+    }
+
+    private static String diff(final Map<String, Long> before, final Map<String, Long> after) {
+        if (before.isEmpty() || after.isEmpty()) {
+            return "I/O counters not available";
+        }
+        return String.format("read syscalls=%d, write syscalls=%d, bytes written to storage=%d",
+                after.get("syscr") - before.get("syscr"),
+                after.get("syscw") - before.get("syscw"),
+                after.get("write_bytes") - before.get("write_bytes"));
+    }
+}
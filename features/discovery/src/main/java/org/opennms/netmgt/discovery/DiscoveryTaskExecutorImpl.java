@@ -31,11 +31,10 @@ package org.opennms.netmgt.discovery;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -71,8 +70,9 @@ public class DiscoveryTaskExecutorImpl implements DiscoveryTaskExecutor {
 
     @Override
     public CompletableFuture<Void> handleDiscoveryTask(DiscoveryConfiguration config) {
-        // Use the range chunker to generate a series of jobs, keyed by location
-        final Map<String, List<DiscoveryJob>> jobsByLocation = rangeChunker.chunk(config);
+        // Use the range chunker to generate a series of jobs, keyed by location. The jobs
+        // are generated as they are triggered, so that large ranges are never unrolled.
+        final Map<String, Iterator<DiscoveryJob>> jobsByLocation = rangeChunker.chunkLazily(config);
 
         // Avoid any further processing if there are no ranges to scan
         if (jobsByLocation.size() == 0) {
@@ -102,24 +102,31 @@ public class DiscoveryTaskExecutorImpl implements DiscoveryTaskExecutor {
         return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
     }
 
-    private CompletableFuture<Void> triggerJobsAsync(String location, List<DiscoveryJob> jobs, int taskId) {
-        LOG.debug("Processing {} jobs at location {} (on task #{}).", jobs.size(), location, taskId);
+    private CompletableFuture<Void> triggerJobsAsync(String location, Iterator<DiscoveryJob> jobs, int taskId) {
+        LOG.debug("Processing jobs at location {} (on task #{}).", location, taskId);
 
         // Track the jobs
-        final Queue<DiscoveryJob> queue = new LinkedList<>(jobs);
         final AtomicInteger jobIndexTracker = new AtomicInteger();
         final CompletableFuture<Void> future = new CompletableFuture<>();
 
         // Trigger the first job, which will automatically trigger the next job when complete
-        triggerNextJobAsync(location, queue, jobIndexTracker, jobs.size(), taskId, future);
+        triggerNextJobAsync(location, jobs, jobIndexTracker, taskId, future);
 
         return future;
     }
 
-    private void triggerNextJobAsync(String location, Queue<DiscoveryJob> jobs, AtomicInteger jobIndexTracker, int totalNumberOfJobs, int taskId, CompletableFuture<Void> future) {
-        final DiscoveryJob job = jobs.poll();
-        if (job == null) {
-            future.complete(null);
+    private void triggerNextJobAsync(String location, Iterator<DiscoveryJob> jobs, AtomicInteger jobIndexTracker, int taskId, CompletableFuture<Void> future) {
+        final DiscoveryJob job;
+        try {
+            if (!jobs.hasNext()) {
+                LOG.debug("Processed {} jobs at location {} (on task #{}).", jobIndexTracker.get(), location, taskId);
+                future.complete(null);
+                return;
+            }
+            job = jobs.next();
+        } catch (RuntimeException e) {
+            LOG.error("Failed to generate the next job at location {} (on task #{}).", location, taskId, e);
+            future.completeExceptionally(e);
             return;
         }
 
@@ -138,15 +145,15 @@ public class DiscoveryTaskExecutorImpl implements DiscoveryTaskExecutor {
         }
 
         final int jobIndex = jobIndexTracker.incrementAndGet();
-        LOG.debug("Starting job {} of {} at location {} (on task #{}).", jobIndex, totalNumberOfJobs, location, taskId);
+        LOG.debug("Starting job {} at location {} (on task #{}).", jobIndex, location, taskId);
         builder.execute().whenComplete((summary, ex) -> {
             // When finished, used the calling thread to generate the newSuspect events
             Logging.withPrefix(Discovery.getLoggingCategory(), new Runnable() {
                 @Override
                 public void run() {
                     if (summary != null) {
-                        LOG.debug("Job {} of {} at location {} (on task #{}) completed succesfully.",
-                                jobIndex, totalNumberOfJobs, location, taskId);
+                        LOG.debug("Job {} at location {} (on task #{}) completed succesfully.",
+                                jobIndex, location, taskId);
                         // Generate an event log containing a newSuspect event for every host
                         // that responded to our pings
                         final Log eventLog = toNewSuspectEvents(job, summary);
@@ -155,12 +162,12 @@ public class DiscoveryTaskExecutorImpl implements DiscoveryTaskExecutor {
                             eventForwarder.sendNow(toNewSuspectEvents(job, summary));
                         }
                     } else {
-                        LOG.error("An error occurred while processing job {} of {} at location {} (on task #{})."
-                                + " No newSuspect events will be generated.", jobIndex, totalNumberOfJobs, location, taskId, ex);
+                        LOG.error("An error occurred while processing job {} at location {} (on task #{})."
+                                + " No newSuspect events will be generated.", jobIndex, location, taskId, ex);
                     }
 
                     // Recurse until the queue is empty
-                    triggerNextJobAsync(location, jobs, jobIndexTracker, totalNumberOfJobs, taskId, future);
+                    triggerNextJobAsync(location, jobs, jobIndexTracker, taskId, future);
                 }
             });
         });
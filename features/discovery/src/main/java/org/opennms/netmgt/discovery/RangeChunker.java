@@ -28,23 +28,29 @@
 
 package org.opennms.netmgt.discovery;
 
-import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import org.opennms.core.network.IPAddress;
+import org.opennms.core.network.IPAddressRange;
+import org.opennms.core.network.IPAddressRangeSet;
 import org.opennms.netmgt.config.DiscoveryConfigFactory;
 import org.opennms.netmgt.config.discovery.DiscoveryConfiguration;
+import org.opennms.netmgt.config.discovery.ExcludeRange;
 import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+import org.opennms.netmgt.model.discovery.IPPollAddress;
 import org.opennms.netmgt.model.discovery.IPPollRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
 
 /**
  * <p>This class generates a list of {@link DiscoveryJob} instances that
@@ -55,8 +61,13 @@ import com.google.common.collect.Lists;
  * <li>Input: {@link DiscoveryConfiguration}</li>
  * <li>Output: {@link List<DiscoveryJob>}</li>
  * </ul>
+ *
+ * <p>The configured ranges are kept as intervals, with the excluded ranges
+ * subtracted from them, and the jobs are generated lazily from these intervals
+ * so that the memory used does not depend on the size of the ranges.</p>
  */
 public class RangeChunker {
+    private static final Logger LOG = LoggerFactory.getLogger(RangeChunker.class);
 
     private final IpAddressFilter ipAddressFilter;
 
@@ -64,7 +75,21 @@ public class RangeChunker {
         this.ipAddressFilter = Objects.requireNonNull(ipAddressFilter);
     }
 
+    /**
+     * Generates all of the jobs for the given configuration, keyed by location.
+     */
     public Map<String, List<DiscoveryJob>> chunk(final DiscoveryConfiguration config) {
+        final Map<String, List<DiscoveryJob>> jobsByLocation = new LinkedHashMap<>();
+        chunkLazily(config).forEach((location, jobs) -> jobsByLocation.put(location, Lists.newArrayList(jobs)));
+        return jobsByLocation;
+    }
+
+    /**
+     * Same as {@link #chunk(DiscoveryConfiguration)}, but the jobs are only generated,
+     * and the addresses filtered, as the iterators are consumed. Locations without any
+     * addresses to discover are omitted.
+     */
+    public Map<String, Iterator<DiscoveryJob>> chunkLazily(final DiscoveryConfiguration config) {
 
         final int chunkSize = config.getChunkSize().orElse(DiscoveryConfigFactory.DEFAULT_CHUNK_SIZE);
         final double packetsPerSecond = config.getPacketsPerSecond().orElse(DiscoveryConfigFactory.DEFAULT_PACKETS_PER_SECOND);
@@ -89,83 +114,170 @@ public class RangeChunker {
 
         final DiscoveryConfigFactory configFactory = new DiscoveryConfigFactory(config);
 
-        final AtomicReference<IPPollRange> previousRange = new AtomicReference<>();
-
-        return StreamSupport.stream(configFactory.getConfiguredAddresses().spliterator(), false)
-            .filter(address -> {
-                // If there is no IP address filter set or the filter matches
-                return ipAddressFilter.matches(address.getLocation(), address.getAddress());
-            })
-            // TODO: We could optimize this further by not unrolling IPPollRanges into individual
-            // IPPollAddresses during the mapping.
-            .map(address -> {
-                // Create a singleton IPPollRange
-                return new IPPollRange(
-                    // Make sure that foreignSource is not null so that we can partition on the value
-                    address.getForeignSource() == null ? foreignSourceFromConfig : address.getForeignSource(),
-                    // Make sure that location is not null so that we can partition on the value
-                    address.getLocation() == null ? locationFromConfig : address.getLocation(),
-                    address.getAddress(),
-                    address.getAddress(),
-                    address.getTimeout(),
-                    address.getRetries()
-                );
-            })
-            .collect(Collectors.groupingBy(range -> {
-                // Create a Map<ForeignSourceLocationKey,List<IPPollRange>>
-                return new ForeignSourceLocationKey(
-                    // Make sure that foreignSource is not null so that we can partition on the value
-                    range.getForeignSource() == null ? foreignSourceFromConfig : range.getForeignSource(),
-                    // Make sure that location is not null so that we can partition on the value
-                    range.getLocation() == null ? locationFromConfig : range.getLocation()
-                );
-            }, LinkedHashMap::new, Collectors.toList()))
-            .entrySet().stream()
-            // Flat map one list of IPPollRanges to many chunked DiscoveryJobs
-            .flatMap(entry -> {
-                // Partition the list of address values
-                return Lists.partition(entry.getValue(), chunkSize).stream()
-                    // Map each partition value to a separate DiscoveryJob
-                    .map(ranges -> {
-                        DiscoveryJob retval = new DiscoveryJob(
-                            ranges.stream()
-                                .map(address -> {
-                                    // If this address is consecutive with the previous range,
-                                    // then just extend the range to cover this address too
-                                    if (isConsecutive(previousRange.get(), address)) {
-                                        previousRange.get().getAddressRange().incrementEnd();
-                                        return null;
-                                    }
-                                    previousRange.set(address);
-                                    return address;
-                                })
-                                // Filter out all of the consecutive values that we nulled out
-                                .filter(Objects::nonNull)
-                                // Convert back into a list of ranges
-                                .collect(Collectors.toList()),
-                            entry.getKey().getForeignSource(),
-                            entry.getKey().getLocation(),
-                            packetsPerSecond
-                        );
-                        // Reset the previousRange value
-                        previousRange.set(null);
-                        return retval;
-                    })
-                    // Collect the DiscoveryJobs
-                    .collect(Collectors.toList()).stream();
-            })
-            .collect(Collectors.groupingBy(DiscoveryJob::getLocation,
-                    LinkedHashMap::new, Collectors.toList()));
+        // Group the intervals by foreign source and location, in the same order as
+        // DiscoveryConfigFactory#getConfiguredAddresses(): specifics, URLs and then ranges
+        final Map<ForeignSourceLocationKey, List<Interval>> intervals = new LinkedHashMap<>();
+        final List<IPPollAddress> specifics = configFactory.getSpecifics();
+        specifics.addAll(configFactory.getURLSpecifics());
+        for (final IPPollAddress specific : specifics) {
+            final IPAddress address = new IPAddress(specific.getAddress());
+            addInterval(intervals, new Interval(new IPAddressRange(address, address),
+                    specific.getForeignSource() == null ? foreignSourceFromConfig : specific.getForeignSource(),
+                    specific.getLocation() == null ? locationFromConfig : specific.getLocation(),
+                    specific.getLocation(), specific.getTimeout(), specific.getRetries()));
+        }
+
+        final List<IPAddressRange> excludes = getExcludedRanges(config);
+        for (final IPPollRange range : configFactory.getRanges()) {
+            final IPAddressRangeSet included = new IPAddressRangeSet();
+            included.add(new IPAddressRange(new IPAddress(range.getAddressRange().getBegin()), new IPAddress(range.getAddressRange().getEnd())));
+            for (final IPAddressRange exclude : excludes) {
+                included.remove(exclude);
+            }
+            for (final IPAddressRange addresses : included) {
+                addInterval(intervals, new Interval(addresses,
+                        range.getForeignSource() == null ? foreignSourceFromConfig : range.getForeignSource(),
+                        range.getLocation() == null ? locationFromConfig : range.getLocation(),
+                        range.getLocation(), range.getTimeout(), range.getRetries()));
+            }
+        }
+
+        final Map<String, List<Iterator<DiscoveryJob>>> iteratorsByLocation = new LinkedHashMap<>();
+        intervals.forEach((key, list) -> iteratorsByLocation.computeIfAbsent(key.getLocation(), l -> new ArrayList<>())
+                .add(new JobIterator(key, list.iterator(), chunkSize, packetsPerSecond)));
+
+        final Map<String, Iterator<DiscoveryJob>> jobsByLocation = new LinkedHashMap<>();
+        iteratorsByLocation.forEach((location, iterators) -> {
+            final PeekingIterator<DiscoveryJob> jobs = Iterators.peekingIterator(Iterators.concat(iterators.iterator()));
+            // Only keep the locations that have at least one address to discover
+            if (jobs.hasNext()) {
+                jobsByLocation.put(location, jobs);
+            }
+        });
+        return jobsByLocation;
+    }
+
+    private static void addInterval(final Map<ForeignSourceLocationKey, List<Interval>> intervals, final Interval interval) {
+        intervals.computeIfAbsent(new ForeignSourceLocationKey(interval.foreignSource, interval.location), k -> new ArrayList<>()).add(interval);
+    }
+
+    private static List<IPAddressRange> getExcludedRanges(final DiscoveryConfiguration config) {
+        final List<IPAddressRange> excludes = new ArrayList<>();
+        for (final ExcludeRange exclude : config.getExcludeRanges()) {
+            try {
+                excludes.add(new IPAddressRange(exclude.getBegin(), exclude.getEnd()));
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Invalid exclude range ({}, {}), ignoring it: {}", exclude.getBegin(), exclude.getEnd(), e.getMessage());
+            }
+        }
+        return excludes;
+    }
+
+    /**
+     * A contiguous range of addresses that share the same polling parameters.
+     */
+    private static class Interval {
+        private final IPAddressRange addresses;
+        private final String foreignSource;
+        private final String location;
+        /**
+         * The location as configured, which may be null, used to filter the addresses.
+         */
+        private final String filterLocation;
+        private final long timeout;
+        private final int retries;
+
+        private Interval(IPAddressRange addresses, String foreignSource, String location, String filterLocation, long timeout, int retries) {
+            this.addresses = addresses;
+            this.foreignSource = foreignSource;
+            this.location = location;
+            this.filterLocation = filterLocation;
+            this.timeout = timeout;
+            this.retries = retries;
+        }
+
+        private boolean hasSameParameters(Interval other) {
+            return timeout == other.timeout && retries == other.retries;
+        }
+
+        private IPPollRange toRange(IPAddress begin, IPAddress end) {
+            return new IPPollRange(foreignSource, location, begin.toInetAddress(), end.toInetAddress(), timeout, retries);
+        }
     }
 
-    protected static boolean isConsecutive(IPPollRange range, IPPollRange address) {
-        Preconditions.checkState(BigInteger.ONE.equals(address.getAddressRange().size()));
-        return range != null && 
-            new IPAddress(range.getAddressRange().getEnd()).isPredecessorOf(new IPAddress(address.getAddressRange().getEnd())) &&
-            Objects.equals(range.getForeignSource(), address.getForeignSource()) &&
-            Objects.equals(range.getLocation(), address.getLocation()) &&
-            range.getRetries() == address.getRetries() &&
-            range.getTimeout() == address.getTimeout();
+    /**
+     * Generates the jobs for a single foreign source and location, taking at most
+     * chunkSize addresses that match the filter from the intervals for each job. Consecutive
+     * addresses within a job are combined into a single range.
+     */
+    private class JobIterator extends AbstractIterator<DiscoveryJob> {
+        private final ForeignSourceLocationKey key;
+        private final Iterator<Interval> intervals;
+        private final int chunkSize;
+        private final double packetsPerSecond;
+
+        private Interval interval;
+        private IPAddress next;
+
+        private JobIterator(ForeignSourceLocationKey key, Iterator<Interval> intervals, int chunkSize, double packetsPerSecond) {
+            this.key = key;
+            this.intervals = intervals;
+            this.chunkSize = chunkSize;
+            this.packetsPerSecond = packetsPerSecond;
+        }
+
+        @Override
+        protected DiscoveryJob computeNext() {
+            final List<IPPollRange> ranges = new ArrayList<>();
+            Interval runInterval = null;
+            IPAddress runBegin = null;
+            IPAddress runEnd = null;
+
+            for (int count = 0; count < chunkSize; count++) {
+                final IPAddress address = nextAddress();
+                if (address == null) {
+                    break;
+                }
+                // If this address is consecutive with the previous one,
+                // then just extend the range to cover this address too
+                if (runEnd != null && runInterval.hasSameParameters(interval) && runEnd.isPredecessorOf(address)) {
+                    runEnd = address;
+                    continue;
+                }
+                if (runEnd != null) {
+                    ranges.add(runInterval.toRange(runBegin, runEnd));
+                }
+                runInterval = interval;
+                runBegin = address;
+                runEnd = address;
+            }
+
+            if (runEnd == null) {
+                return endOfData();
+            }
+            ranges.add(runInterval.toRange(runBegin, runEnd));
+            return new DiscoveryJob(ranges, key.getForeignSource(), key.getLocation(), packetsPerSecond);
+        }
+
+        /**
+         * Returns the next address that matches the filter, or null if there are none left.
+         */
+        private IPAddress nextAddress() {
+            while (true) {
+                if (next == null) {
+                    if (!intervals.hasNext()) {
+                        return null;
+                    }
+                    interval = intervals.next();
+                    next = interval.addresses.getBegin();
+                }
+                final IPAddress address = next;
+                next = address.equals(interval.addresses.getEnd()) ? null : address.incr();
+                if (ipAddressFilter.matches(interval.filterLocation, address.toInetAddress())) {
+                    return address;
+                }
+            }
+        }
     }
 
     private static class ForeignSourceLocationKey {
@@ -32,6 +32,7 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
 import java.net.InetAddress;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -40,6 +41,7 @@ import java.util.stream.IntStream;
 import org.junit.Before;
 import org.junit.Test;
 import org.opennms.core.network.IPAddress;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.discovery.DiscoveryConfiguration;
 import org.opennms.netmgt.config.discovery.ExcludeRange;
 import org.opennms.netmgt.config.discovery.IncludeRange;
@@ -224,6 +226,90 @@ public class RangeChunkerTest {
 		assertEquals(5, jobs.get("123").get(0).getRanges().size());
 	}
 
+	@Test
+	public void testExcludedRangesAreSubtracted() {
+		DiscoveryConfiguration config = new DiscoveryConfiguration();
+
+		IncludeRange range = new IncludeRange();
+		range.setBegin("10.0.0.0");
+		range.setEnd("10.0.255.255");
+		config.addIncludeRange(range);
+
+		ExcludeRange excludes = new ExcludeRange();
+		excludes.setBegin("10.0.1.0");
+		excludes.setEnd("10.0.254.255");
+		config.addExcludeRange(excludes);
+
+		config.setChunkSize(1000);
+
+		List<DiscoveryJob> jobs = new RangeChunker(ipAddressFilter).chunk(config).get("Default");
+		assertEquals(1, jobs.size());
+		assertEquals(2, jobs.get(0).getRanges().size());
+		assertRange("10.0.0.0", "10.0.0.255", jobs.get(0).getRanges().get(0));
+		assertRange("10.0.255.0", "10.0.255.255", jobs.get(0).getRanges().get(1));
+	}
+
+	@Test
+	public void testFilteredAddressesSplitRanges() {
+		when(ipAddressFilter.matches(any(), eq(InetAddressUtils.addr("10.0.0.5")))).thenReturn(false);
+
+		DiscoveryConfiguration config = new DiscoveryConfiguration();
+
+		IncludeRange range = new IncludeRange();
+		range.setBegin("10.0.0.1");
+		range.setEnd("10.0.0.10");
+		config.addIncludeRange(range);
+
+		config.setChunkSize(4);
+
+		List<DiscoveryJob> jobs = new RangeChunker(ipAddressFilter).chunk(config).get("Default");
+		assertEquals(3, jobs.size());
+		assertEquals(1, jobs.get(0).getRanges().size());
+		assertRange("10.0.0.1", "10.0.0.4", jobs.get(0).getRanges().get(0));
+		assertRange("10.0.0.6", "10.0.0.9", jobs.get(1).getRanges().get(0));
+		assertRange("10.0.0.10", "10.0.0.10", jobs.get(2).getRanges().get(0));
+	}
+
+	@Test
+	public void testJobsAreGeneratedLazily() {
+		DiscoveryConfiguration config = new DiscoveryConfiguration();
+
+		IncludeRange range = new IncludeRange();
+		range.setBegin("10.0.0.0");
+		range.setEnd("10.255.255.255");
+		config.addIncludeRange(range);
+
+		config.setChunkSize(256);
+
+		Iterator<DiscoveryJob> jobs = new RangeChunker(ipAddressFilter).chunkLazily(config).get("Default");
+		for (int i = 0; i < 3; i++) {
+			DiscoveryJob job = jobs.next();
+			assertEquals(1, job.getRanges().size());
+			assertRange("10.0." + i + ".0", "10.0." + i + ".255", job.getRanges().get(0));
+		}
+		// Only the addresses of the jobs generated so far were filtered
+		verify(ipAddressFilter, times(3 * 256)).matches(any(), any(InetAddress.class));
+	}
+
+	@Test
+	public void testNoAddressesToDiscover() {
+		when(ipAddressFilter.matches(any(), any(InetAddress.class))).thenReturn(false);
+
+		DiscoveryConfiguration config = new DiscoveryConfiguration();
+
+		IncludeRange range = new IncludeRange();
+		range.setBegin("10.0.0.1");
+		range.setEnd("10.0.0.10");
+		config.addIncludeRange(range);
+
+		assertEquals(0, new RangeChunker(ipAddressFilter).chunk(config).size());
+	}
+
+	private static void assertRange(String begin, String end, IPPollRange range) {
+		assertEquals(begin, new IPAddress(range.getAddressRange().getBegin()).toString());
+		assertEquals(end, new IPAddress(range.getAddressRange().getEnd()).toString());
+	}
+
 	private static void printJobs(Map<String, List<DiscoveryJob>> jobs) {
 	    jobs.entrySet().stream()
 	        .forEach(j -> {
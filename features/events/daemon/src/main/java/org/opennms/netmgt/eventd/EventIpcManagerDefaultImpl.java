@@ -32,12 +32,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -52,7 +53,6 @@ import org.opennms.netmgt.events.api.EventIpcBroadcaster;
 import org.opennms.netmgt.events.api.EventIpcManager;
 import org.opennms.netmgt.events.api.EventListener;
 import org.opennms.netmgt.events.api.EventProxyException;
-import org.opennms.netmgt.events.api.ThreadAwareEventListener;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
@@ -101,19 +101,26 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     }
 
     /**
-     * Hash table of list of event listeners keyed by event UEI
+     * Hash table of list of event listeners keyed by event UEI,
+     * only accessed while holding the lock on this object
      */
     private Map<String, List<EventListener>> m_ueiListeners = new HashMap<String, List<EventListener>>();
 
     /**
-     * The list of event listeners interested in all events
+     * The list of event listeners interested in all events,
+     * only accessed while holding the lock on this object
      */
     private List<EventListener> m_listeners = new ArrayList<EventListener>();
 
+    /**
+     * Snapshot of the registrations above, used when broadcasting events
+     */
+    private volatile ListenerRoutes m_routes = new ListenerRoutes(Collections.emptyMap(), Collections.emptyList());
+
     /**
      * Hash table of event listener threads keyed by the listener's id
      */
-    private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
+    private Map<String, EventListenerExecutor> m_listenerThreads = new ConcurrentHashMap<String, EventListenerExecutor>();
 
     /**
      * The thread pool handling the events
@@ -129,79 +136,71 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     private final MetricRegistry m_registry;
 
     /**
-     * A thread dedicated to each listener. The events meant for each listener
-     * is added to an execution queue when the 'sendNow()' is called. The
-     * ListenerThread reads events off of this queue and sends them to the
-     * appropriate listener.
+     * Immutable snapshot of the listener registrations, used to route the events
+     * without locking. Registrations are rare compared to broadcasts, so every
+     * change builds a new snapshot which is then published atomically.
      */
-    private static class EventListenerExecutor {
+    private static final class ListenerRoutes {
         /**
-         * Listener to which this thread is dedicated
+         * Upper bound on the number of distinct UEIs for which the matching
+         * listeners are cached, to protect against events with arbitrary UEIs
          */
-        private final EventListener m_listener;
+        private static final int MAX_RESOLVED_UEIS = 10000;
 
-        /**
-         * The thread that is running this runnable.
-         */
-        private final ExecutorService m_delegateThread;
+        private final Map<String, List<EventListener>> m_ueiListeners;
+
+        private final List<EventListener> m_listeners;
 
         /**
-         * Constructor
+         * Listeners matching a given UEI, including the partial wild card matches
          */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
-            m_listener = listener;
+        private final Map<String, List<EventListener>> m_resolved = new ConcurrentHashMap<>();
 
-            int numThreads = 1;
-            if (m_listener instanceof ThreadAwareEventListener) {
-                numThreads = ((ThreadAwareEventListener)m_listener).getNumThreads();
+        private ListenerRoutes(Map<String, List<EventListener>> ueiListeners, List<EventListener> listeners) {
+            final Map<String, List<EventListener>> copy = new HashMap<>();
+            for (Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+                }
             }
-
-            m_delegateThread = new ThreadPoolExecutor(
-                    numThreads,
-                    numThreads,
-                    0L,
-                    TimeUnit.MILLISECONDS,
-                    handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
-                    // This ThreadFactory will ensure that the log prefix of the calling thread
-                    // is used for all events that this listener handles. Therefore, if Notifd
-                    // registers for an event then all logs for handling that event will end up
-                    // inside notifd.log.
-                    new LogPreservingThreadFactory(m_listener.getName(), numThreads),
-                    new RejectedExecutionHandler() {
-                        @Override
-                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
-                        }
-                    }
-            );
+            m_ueiListeners = Collections.unmodifiableMap(copy);
+            m_listeners = Collections.unmodifiableList(new ArrayList<>(listeners));
         }
 
-        public CompletableFuture<Void> addEvent(final Event event) {
-            return CompletableFuture.runAsync(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                         if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
-                        try {
-                            m_listener.onEvent(event);
-                        } finally {
-                            Logging.setContextMap(mdc);
-                        }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
-                    }
+        private List<EventListener> getListenersForUei(String uei) {
+            List<EventListener> listeners = m_resolved.get(uei);
+            if (listeners == null) {
+                listeners = resolve(uei);
+                if (m_resolved.size() < MAX_RESOLVED_UEIS) {
+                    m_resolved.put(uei, listeners);
                 }
-            }, m_delegateThread);
+            }
+            return listeners;
         }
 
-        /**
-         * Stops the execution of this listener.
+        /*
+         * Find the listeners who are interested in this event UEI.
+         * Loop to attempt partial wild card "directory" matches.
          */
-        public void stop() {
-            m_delegateThread.shutdown();
+        private List<EventListener> resolve(String uei) {
+            final Set<EventListener> listeners = new LinkedHashSet<>();
+            while (uei.length() > 0) {
+                final List<EventListener> ueiListeners = m_ueiListeners.get(uei);
+                if (ueiListeners != null) {
+                    listeners.addAll(ueiListeners);
+                }
+
+                // Try wild cards: Find / before last character
+                int i = uei.lastIndexOf("/", uei.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    uei = uei.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+            return listeners.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(listeners));
         }
     }
 
@@ -296,15 +295,17 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
         }
 
-        if (LOG.isDebugEnabled() && m_listeners.isEmpty()) {
+        final ListenerRoutes routes = m_routes;
+
+        if (LOG.isDebugEnabled() && routes.m_listeners.isEmpty()) {
             LOG.debug("No listeners interested in all events");
         }
 
-        List<CompletableFuture<Void>> listenerFutures = new ArrayList<>();
+        final List<CompletableFuture<Void>> listenerFutures = synchronous ? new ArrayList<>() : null;
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            listenerFutures.add(queueEventToListener(event, listener));
+        for (EventListener listener : routes.m_listeners) {
+            queueEventToListener(event, listener, listenerFutures);
         }
 
         if (event.getUei() == null) {
@@ -314,33 +315,13 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
 
-        /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
-         */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        listenerFutures.add(queueEventToListener(event, listener));
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        // Send to listeners who are interested in this event UEI.
+        final List<EventListener> ueiListeners = routes.getListenersForUei(event.getUei());
+        for (EventListener listener : ueiListeners) {
+            queueEventToListener(event, listener, listenerFutures);
         }
-        
-        if (sentToListeners.isEmpty()) {
+
+        if (ueiListeners.isEmpty()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
             }
@@ -353,8 +334,16 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
-    private CompletableFuture<Void> queueEventToListener(Event event, EventListener listener) {
-        return m_listenerThreads.get(listener.getName()).addEvent(event);
+    private void queueEventToListener(Event event, EventListener listener, List<CompletableFuture<Void>> listenerFutures) {
+        final EventListenerExecutor executor = m_listenerThreads.get(listener.getName());
+        if (executor == null) {
+            // The listener was removed while we were broadcasting
+            return;
+        }
+        final CompletableFuture<Void> future = executor.addEvent(event, listenerFutures != null);
+        if (listenerFutures != null) {
+            listenerFutures.add(future);
+        }
     }
 
     /**
@@ -375,6 +364,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        publishRoutes();
     }
 
     /**
@@ -404,6 +395,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        publishRoutes();
     }
 
     /**
@@ -438,6 +431,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        publishRoutes();
     }
 
     /**
@@ -457,6 +452,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        publishRoutes();
     }
 
     /**
@@ -477,14 +474,22 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             removeUeiForListener(uei, listener);
         }
 
-        // stop and remove the listener thread for this listener
-        if (m_listenerThreads.containsKey(listener.getName())) {
-            m_listenerThreads.get(listener.getName()).stop();
+        publishRoutes();
 
-            m_listenerThreads.remove(listener.getName());
+        // stop and remove the listener thread for this listener
+        final EventListenerExecutor listenerThread = m_listenerThreads.remove(listener.getName());
+        if (listenerThread != null) {
+            listenerThread.stop();
         }
     }
 
+    /**
+     * Publish a new snapshot of the registrations for use by {@link #broadcastNow(Event, boolean)}.
+     */
+    private void publishRoutes() {
+        m_routes = new ListenerRoutes(m_ueiListeners, m_listeners);
+    }
+
     /**
      * Create a new queue and listener thread for this listener if one does not
      * already exist.
@@ -494,7 +499,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength, m_registry);
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
@@ -636,10 +641,6 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     @Override
     public boolean hasEventListener(final String uei) {
-        if (this.m_ueiListeners.containsKey(uei)) {
-            return this.m_ueiListeners.get(uei).size() > 0;
-        } else {
-            return false;
-        }
+        return m_routes.m_ueiListeners.containsKey(uei);
     }
 }
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.ThreadAwareEventListener;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Delivers events to a single listener. The events meant for the listener
+ * are added to a bounded queue when they are broadcast, and are taken off
+ * of this queue by the threads dedicated to the listener.
+ *
+ * A single thread is used, unless the listener implements {@link ThreadAwareEventListener},
+ * in which case the events are fanned out over the requested number of threads.
+ *
+ * The following metrics are maintained for every listener:
+ * <ul>
+ *   <li><code>eventlisteners.&lt;name&gt;.queued</code>: number of events waiting in the queue</li>
+ *   <li><code>eventlisteners.&lt;name&gt;.lag</code>: time spent by the events in the queue</li>
+ *   <li><code>eventlisteners.&lt;name&gt;.dropped</code>: number of events discarded because the queue was full</li>
+ * </ul>
+ */
+class EventListenerExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventListenerExecutor.class);
+
+    /**
+     * Listener to which this executor is dedicated
+     */
+    private final EventListener m_listener;
+
+    /**
+     * The threads that are delivering the events.
+     */
+    private final ThreadPoolExecutor m_delegateThreads;
+
+    private final MetricRegistry m_registry;
+
+    private final Timer m_lag;
+
+    private final Counter m_dropped;
+
+    /**
+     * An event waiting to be delivered. The future is only used
+     * for synchronous broadcasts, and is null otherwise.
+     */
+    private class QueuedEvent implements Runnable {
+        private final Event event;
+        private final long enqueuedAt;
+        private final CompletableFuture<Void> future;
+
+        private QueuedEvent(Event event, CompletableFuture<Void> future) {
+            this.event = event;
+            this.future = future;
+            this.enqueuedAt = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            m_lag.update(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            try {
+                deliver(event);
+            } finally {
+                complete();
+            }
+        }
+
+        private void complete() {
+            if (future != null) {
+                future.complete(null);
+            }
+        }
+    }
+
+    EventListenerExecutor(EventListener listener, Integer handlerQueueLength, MetricRegistry registry) {
+        m_listener = listener;
+        m_registry = registry;
+        m_lag = registry.timer(metricName("lag"));
+        m_dropped = registry.counter(metricName("dropped"));
+
+        int numThreads = 1;
+        if (m_listener instanceof ThreadAwareEventListener) {
+            numThreads = Math.max(1, ((ThreadAwareEventListener)m_listener).getNumThreads());
+        }
+
+        m_delegateThreads = new ThreadPoolExecutor(
+                numThreads,
+                numThreads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                // Array backed when bounded, so that queueing an event does not allocate a node
+                handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(handlerQueueLength),
+                // This ThreadFactory will ensure that the log prefix of the calling thread
+                // is used for all events that this listener handles. Therefore, if Notifd
+                // registers for an event then all logs for handling that event will end up
+                // inside notifd.log.
+                new LogPreservingThreadFactory(m_listener.getName(), numThreads),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        m_dropped.inc();
+                        LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                        // Don't leave synchronous callers hanging
+                        ((QueuedEvent)r).complete();
+                    }
+                }
+        );
+
+        registry.remove(metricName("queued"));
+        registry.register(metricName("queued"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_delegateThreads.getQueue().size();
+            }
+        });
+    }
+
+    private String metricName(String metric) {
+        return MetricRegistry.name("eventlisteners", m_listener.getName(), metric);
+    }
+
+    /**
+     * Queues the event for delivery to the listener.
+     *
+     * @param event the event
+     * @param synchronous when true, a future which completes once the listener has handled the event is returned
+     * @return a future when synchronous is set, null otherwise
+     */
+    public CompletableFuture<Void> addEvent(final Event event, boolean synchronous) {
+        final CompletableFuture<Void> future = synchronous ? new CompletableFuture<>() : null;
+        m_delegateThreads.execute(new QueuedEvent(event, future));
+        return future;
+    }
+
+    private void deliver(Event event) {
+        try {
+            if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
+
+            // Make sure we restore our log4j logging prefix after onEvent is called
+            Map<String,String> mdc = Logging.getCopyOfContextMap();
+            try {
+                m_listener.onEvent(event);
+            } finally {
+                Logging.setContextMap(mdc);
+            }
+        } catch (Throwable t) {
+            LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+        }
+    }
+
+    /**
+     * Stops the execution of this listener. Events which have already
+     * been queued are still delivered.
+     */
+    public void stop() {
+        m_delegateThreads.shutdown();
+        m_registry.remove(metricName("queued"));
+    }
+}
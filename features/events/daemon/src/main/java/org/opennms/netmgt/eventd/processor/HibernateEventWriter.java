@@ -28,13 +28,23 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.dao.api.MonitoringSystemDao;
@@ -49,6 +59,10 @@ import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.events.api.EventDatabaseConstants;
 import org.opennms.netmgt.events.api.EventProcessorException;
 import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
+import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsServiceType;
 import org.opennms.netmgt.model.OnmsSeverity;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Header;
@@ -58,14 +72,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * EventWriter loads the information in each 'Event' into the database.
@@ -97,7 +116,31 @@ public class HibernateEventWriter implements EventWriter {
     public static final String LOG_MSG_DEST_LOG_AND_DISPLAY = "logndisplay";
     public static final String LOG_MSG_DEST_LOG_ONLY = "logonly";
     public static final String LOG_MSG_DEST_DISPLAY_ONLY = "displayonly";
-    
+
+    private static final String SELECT_EVENT_IDS = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    private static final String INSERT_EVENT = "INSERT INTO events ("
+            + "eventId, eventUei, nodeId, eventTime, eventHost, eventSource, ipAddr, ifIndex, systemId, eventSnmpHost, "
+            + "serviceId, eventSnmp, eventCreateTime, eventDescr, eventLogGroup, eventLogMsg, eventSeverity, eventPathOutage, "
+            + "eventCorrelation, eventSuppressedCount, eventOperInstruct, eventAutoAction, eventOperAction, eventOperActionMenuText, "
+            + "eventNotification, eventTTicket, eventTTicketState, eventForward, eventMouseOverText, eventLog, eventDisplay, "
+            + "eventAckUser, eventAckTime"
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final int[] INSERT_EVENT_TYPES = new int[] {
+            Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.VARCHAR,
+            Types.INTEGER, Types.VARCHAR, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR,
+            Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.VARCHAR, Types.TIMESTAMP
+    };
+
+    private static final String INSERT_EVENT_PARAMETER = "INSERT INTO event_parameters (eventId, name, value, type) VALUES (?, ?, ?, ?)";
+
+    private static final int[] INSERT_EVENT_PARAMETER_TYPES = new int[] {
+            Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR
+    };
+
     @Autowired
     private TransactionOperations m_transactionManager;
     
@@ -119,10 +162,46 @@ public class HibernateEventWriter implements EventWriter {
     @Autowired
     private EventUtil eventUtil;
 
+    @Autowired
+    private DataSource dataSource;
+
+    /**
+     * Number of writer threads used to group the events of many logs into a
+     * single transaction. When set to 0, each log is persisted in its own
+     * transaction on the calling thread.
+     */
+    private int m_writerThreads = Integer.getInteger("org.opennms.eventd.writer.threads", 0);
+
+    /**
+     * Maximum number of events a writer thread will gather into one transaction.
+     */
+    private int m_batchSize = Integer.getInteger("org.opennms.eventd.writer.batchSize", 500);
+
+    /**
+     * Maximum number of logs waiting on each writer thread before callers block.
+     */
+    private int m_queueSize = Integer.getInteger("org.opennms.eventd.writer.queueSize", 10000);
+
+    /**
+     * How long node, service and monitoring system references are kept
+     * by the batched writers before they are looked up again.
+     */
+    private long m_referenceCacheTtl = Long.getLong("org.opennms.eventd.writer.referenceCacheTtl", TimeUnit.MINUTES.toMillis(5));
+
+    private final ReferenceResolver m_directReferences = new ReferenceResolver();
+
+    private CachingReferenceResolver m_cachedReferences;
+
+    private volatile WriterPartition[] m_partitions;
+
     private final Timer writeTimer;
+    private final Histogram batchSizeHistogram;
+    private final Counter batchRetries;
 
     public HibernateEventWriter(MetricRegistry registry) {
         writeTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write");
+        batchSizeHistogram = registry.histogram("eventlogs.process.write.batch");
+        batchRetries = registry.counter("eventlogs.process.write.retries");
     }
 
     /**
@@ -179,29 +258,220 @@ public class HibernateEventWriter implements EventWriter {
                 return;
             }
 
-            // Time the transaction and insertions
-            try (Context context = writeTimer.time()) {
-                final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
-
-                m_transactionManager.execute(new TransactionCallbackWithoutResult() {
-                    @Override
-                    protected void doInTransactionWithoutResult(TransactionStatus status) {
-                        for (Event eachEvent : eventsToPersist) {
-                            try {
-                                process(eventLog.getHeader(), eachEvent);
-                            } catch (EventProcessorException e) {
-                                exception.set(e);
-                                return;
-                            }
+            if (m_writerThreads < 1) {
+                writeLog(eventLog.getHeader(), eventsToPersist);
+            } else {
+                // Hand the log off to a writer thread and wait for it to be committed,
+                // downstream processors rely on the database IDs being set
+                final PendingLog pending = new PendingLog(eventLog.getHeader(), eventsToPersist);
+                getPartition(eventsToPersist).submit(pending);
+                pending.await();
+            }
+        }
+    }
+
+    /**
+     * Persists the given events in a transaction of their own.
+     */
+    private void writeLog(final Header eventHeader, final List<Event> eventsToPersist) throws EventProcessorException {
+        // Time the transaction and insertions
+        try (Context context = writeTimer.time()) {
+            final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
+
+            m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    for (Event eachEvent : eventsToPersist) {
+                        try {
+                            process(eventHeader, eachEvent);
+                        } catch (EventProcessorException e) {
+                            exception.set(e);
+                            return;
+                        }
+                    }
+                }
+            });
+
+            if (exception.get() != null) {
+                throw exception.get();
+            }
+        }
+    }
+
+    /**
+     * Persists the events of all of the given logs in a single transaction.
+     *
+     * The rows are inserted with JDBC batches using IDs that are allocated up front,
+     * since Hibernate would issue one INSERT per event. The database IDs are only
+     * assigned to the events once the transaction has been committed. If the batch
+     * fails, each log is retried in a transaction of its own so that a single bad
+     * event only fails the log that contains it.
+     */
+    private void writeBatch(final List<PendingLog> batch, final int eventCount) {
+        batchSizeHistogram.update(eventCount);
+
+        final List<Event> savedEvents = new ArrayList<>(eventCount);
+        final List<OnmsEvent> savedOvents = new ArrayList<>(eventCount);
+        try (Context context = writeTimer.time()) {
+            m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    for (PendingLog pending : batch) {
+                        for (Event eachEvent : pending.getEvents()) {
+                            LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", eachEvent.getUei(), eachEvent.getNodeid(), eachEvent.getInterface(), eachEvent.getService(), eachEvent.getTime());
+                            savedEvents.add(eachEvent);
+                            savedOvents.add(createOnmsEvent(pending.getHeader(), eachEvent, m_cachedReferences));
                         }
                     }
-                });
+                    insertEvents(savedOvents);
+                }
+            });
+        } catch (Throwable t) {
+            LOG.warn("Failed to persist {} events from {} logs in a single transaction. Retrying each log individually.", eventCount, batch.size(), t);
+            batchRetries.inc();
+            // One of the cached references may have gone stale
+            m_cachedReferences.invalidateAll();
+            for (PendingLog pending : batch) {
+                try {
+                    writeLog(pending.getHeader(), pending.getEvents());
+                    pending.complete(null);
+                } catch (EventProcessorException e) {
+                    pending.complete(e);
+                } catch (Throwable e) {
+                    pending.complete(new EventProcessorException("Unexpected exception while storing events", e));
+                }
+            }
+            return;
+        }
 
-                if (exception.get() != null) {
-                    throw exception.get();
+        // Update the events with the database IDs of the events stored in the database
+        for (int i = 0; i < savedEvents.size(); i++) {
+            savedEvents.get(i).setDbid(savedOvents.get(i).getId());
+        }
+        for (PendingLog pending : batch) {
+            pending.complete(null);
+        }
+    }
+
+    /**
+     * Inserts the given events and their parameters using one JDBC batch per table.
+     * This must be called within a transaction so that the statements share its connection.
+     */
+    private void insertEvents(final List<OnmsEvent> ovents) {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        final List<Integer> ids = jdbcTemplate.queryForList(SELECT_EVENT_IDS, Integer.class, ovents.size());
+        final List<Object[]> eventArgs = new ArrayList<>(ovents.size());
+        final List<Object[]> parameterArgs = new ArrayList<>();
+        for (int i = 0; i < ovents.size(); i++) {
+            final OnmsEvent ovent = ovents.get(i);
+            ovent.setId(ids.get(i));
+            eventArgs.add(new Object[] {
+                    ovent.getId(),
+                    ovent.getEventUei(),
+                    ovent.getNode() == null ? null : ovent.getNode().getId(),
+                    toTimestamp(ovent.getEventTime()),
+                    ovent.getEventHost(),
+                    ovent.getEventSource(),
+                    ovent.getIpAddr() == null ? null : InetAddressUtils.str(ovent.getIpAddr()),
+                    ovent.getIfIndex(),
+                    ovent.getDistPoller().getId(),
+                    ovent.getEventSnmpHost(),
+                    ovent.getServiceType() == null ? null : ovent.getServiceType().getId(),
+                    ovent.getEventSnmp(),
+                    toTimestamp(ovent.getEventCreateTime()),
+                    ovent.getEventDescr(),
+                    ovent.getEventLogGroup(),
+                    ovent.getEventLogMsg(),
+                    ovent.getEventSeverity(),
+                    ovent.getEventPathOutage(),
+                    ovent.getEventCorrelation(),
+                    ovent.getEventSuppressedCount(),
+                    ovent.getEventOperInstruct(),
+                    ovent.getEventAutoAction(),
+                    ovent.getEventOperAction(),
+                    ovent.getEventOperActionMenuText(),
+                    ovent.getEventNotification(),
+                    ovent.getEventTTicket(),
+                    ovent.getEventTTicketState(),
+                    ovent.getEventForward(),
+                    ovent.getEventMouseOverText(),
+                    ovent.getEventLog(),
+                    ovent.getEventDisplay(),
+                    ovent.getEventAckUser(),
+                    toTimestamp(ovent.getEventAckTime())
+            });
+            if (ovent.getEventParameters() != null) {
+                for (OnmsEventParameter parameter : ovent.getEventParameters()) {
+                    parameterArgs.add(new Object[] { ovent.getId(), parameter.getName(), parameter.getValue(), parameter.getType() });
                 }
             }
         }
+
+        jdbcTemplate.batchUpdate(INSERT_EVENT, eventArgs, INSERT_EVENT_TYPES);
+        if (!parameterArgs.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_EVENT_PARAMETER, parameterArgs, INSERT_EVENT_PARAMETER_TYPES);
+        }
+    }
+
+    private static Timestamp toTimestamp(final Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    /**
+     * Logs are partitioned by the node of their first event so that events
+     * for the same node are written in the order in which they were received.
+     * Logs without a node are partitioned by the interface of their first event,
+     * or by its UEI, so that they don't all line up behind the same writer.
+     */
+    private WriterPartition getPartition(final List<Event> events) {
+        final WriterPartition[] partitions = getPartitions();
+        return partitions[Math.floorMod(getPartitionKey(events), partitions.length)];
+    }
+
+    private static int getPartitionKey(final List<Event> events) {
+        for (Event event : events) {
+            if (event.hasNodeid() && event.getNodeid() > 0) {
+                return Long.hashCode(event.getNodeid());
+            }
+        }
+        final Event first = events.get(0);
+        if (first.getInterfaceAddress() != null) {
+            return first.getInterfaceAddress().hashCode();
+        }
+        return Objects.hashCode(first.getUei());
+    }
+
+    private WriterPartition[] getPartitions() {
+        WriterPartition[] partitions = m_partitions;
+        if (partitions == null) {
+            synchronized (this) {
+                partitions = m_partitions;
+                if (partitions == null) {
+                    m_cachedReferences = new CachingReferenceResolver(m_referenceCacheTtl);
+                    partitions = new WriterPartition[m_writerThreads];
+                    for (int i = 0; i < partitions.length; i++) {
+                        partitions[i] = new WriterPartition(i);
+                    }
+                    m_partitions = partitions;
+                }
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Stops the writer threads, failing any logs that have not been written yet.
+     */
+    public synchronized void destroy() {
+        final WriterPartition[] partitions = m_partitions;
+        if (partitions == null) {
+            return;
+        }
+        m_partitions = null;
+        for (WriterPartition partition : partitions) {
+            partition.stop();
+        }
     }
 
     /**
@@ -213,7 +483,7 @@ public class HibernateEventWriter implements EventWriter {
         LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
 
         try {
-            final OnmsEvent ovent = createOnmsEvent(eventHeader, event);
+            final OnmsEvent ovent = createOnmsEvent(eventHeader, event, m_directReferences);
             eventDao.save(ovent);
 
             // Update the event with the database ID of the event stored in the database
@@ -232,7 +502,7 @@ public class HibernateEventWriter implements EventWriter {
      *                Thrown if a required resource cannot be found in the
      *                properties file.
      */
-    private OnmsEvent createOnmsEvent(final Header eventHeader, final Event event) {
+    private OnmsEvent createOnmsEvent(final Header eventHeader, final Event event, final ReferenceResolver references) {
 
         OnmsEvent ovent = new OnmsEvent();
 
@@ -244,7 +514,7 @@ public class HibernateEventWriter implements EventWriter {
 
         // nodeID
         if (event.hasNodeid()) {
-            ovent.setNode(nodeDao.get(event.getNodeid().intValue()));
+            ovent.setNode(references.getNode(event.getNodeid().intValue()));
         }
 
         // eventTime
@@ -272,22 +542,22 @@ public class HibernateEventWriter implements EventWriter {
         // If available, use the header's distPoller
         if (eventHeader != null && eventHeader.getDpName() != null && !"".equals(eventHeader.getDpName().trim())) {
             // TODO: Should we also try a look up the value in the MinionDao and LocationMonitorDao here?
-            ovent.setDistPoller(distPollerDao.get(eventHeader.getDpName()));
+            ovent.setDistPoller(references.getDistPoller(eventHeader.getDpName()));
         }
         // Otherwise, use the event's distPoller
         if (ovent.getDistPoller() == null && event.getDistPoller() != null && !"".equals(event.getDistPoller().trim())) {
-            ovent.setDistPoller(monitoringSystemDao.get(event.getDistPoller()));
+            ovent.setDistPoller(references.getMonitoringSystem(event.getDistPoller()));
         }
         // And if both are unavailable, use the local system as the event's source system
         if (ovent.getDistPoller() == null) {
-            ovent.setDistPoller(distPollerDao.whoami());
+            ovent.setDistPoller(references.getLocalSystem());
         }
 
         // eventSnmpHost
         ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
 
         // service
-        ovent.setServiceType(serviceTypeDao.findByName(event.getService()));
+        ovent.setServiceType(references.getServiceType(event.getService()));
 
         // eventSnmp
         ovent.setEventSnmp(event.getSnmp() == null ? null : SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
@@ -405,4 +675,244 @@ public class HibernateEventWriter implements EventWriter {
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
+
+    public void setWriterThreads(int writerThreads) {
+        m_writerThreads = writerThreads;
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        m_queueSize = queueSize;
+    }
+
+    public void setReferenceCacheTtl(long referenceCacheTtl) {
+        m_referenceCacheTtl = referenceCacheTtl;
+    }
+
+    /**
+     * Used by the tests to wait for logs to line up behind a running batch.
+     */
+    protected int getPendingLogCount() {
+        final WriterPartition[] partitions = m_partitions;
+        int count = 0;
+        if (partitions != null) {
+            for (WriterPartition partition : partitions) {
+                count += partition.m_queue.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A log waiting to be written by one of the writer threads.
+     */
+    private static class PendingLog {
+        private final Header m_header;
+        private final List<Event> m_events;
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private volatile EventProcessorException m_failure;
+
+        public PendingLog(final Header header, final List<Event> events) {
+            m_header = header;
+            m_events = events;
+        }
+
+        public Header getHeader() {
+            return m_header;
+        }
+
+        public List<Event> getEvents() {
+            return m_events;
+        }
+
+        public void complete(final EventProcessorException failure) {
+            m_failure = failure;
+            m_done.countDown();
+        }
+
+        public void await() throws EventProcessorException {
+            try {
+                m_done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EventProcessorException("Interrupted while waiting for events to be persisted", e);
+            }
+            if (m_failure != null) {
+                throw m_failure;
+            }
+        }
+    }
+
+    /**
+     * A writer thread along with the queue of logs it drains. All of the logs
+     * that have queued up while the previous transaction was running are
+     * written together in the next one.
+     */
+    private class WriterPartition implements Runnable {
+        private final BlockingQueue<PendingLog> m_queue = new LinkedBlockingQueue<>(m_queueSize);
+        private final Thread m_thread;
+        private volatile boolean m_stopped = false;
+
+        public WriterPartition(int index) {
+            m_thread = new Thread(this, "Eventd-Writer-" + index);
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+
+        public void submit(final PendingLog pending) throws EventProcessorException {
+            try {
+                while (!m_queue.offer(pending, 1, TimeUnit.SECONDS)) {
+                    if (m_stopped) {
+                        throw new EventProcessorException("Event writer was stopped before the events could be persisted");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EventProcessorException("Interrupted while queueing events to be persisted", e);
+            }
+            if (m_stopped) {
+                failPending();
+            }
+        }
+
+        @Override
+        public void run() {
+            final List<PendingLog> batch = new ArrayList<>();
+            while (!m_stopped) {
+                try {
+                    batch.add(m_queue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                int eventCount = batch.get(0).getEvents().size();
+                PendingLog next;
+                while (eventCount < m_batchSize && (next = m_queue.poll()) != null) {
+                    batch.add(next);
+                    eventCount += next.getEvents().size();
+                }
+                writeBatch(batch, eventCount);
+                batch.clear();
+            }
+            failPending();
+        }
+
+        public void stop() {
+            m_stopped = true;
+            m_thread.interrupt();
+        }
+
+        private void failPending() {
+            PendingLog pending;
+            while ((pending = m_queue.poll()) != null) {
+                pending.complete(new EventProcessorException("Event writer was stopped before the events could be persisted"));
+            }
+        }
+    }
+
+    /**
+     * Looks up the entities referenced by an event directly from the database.
+     */
+    private class ReferenceResolver {
+        public OnmsNode getNode(final int nodeId) {
+            return nodeDao.get(nodeId);
+        }
+
+        public OnmsMonitoringSystem getDistPoller(final String id) {
+            return distPollerDao.get(id);
+        }
+
+        public OnmsMonitoringSystem getMonitoringSystem(final String id) {
+            return monitoringSystemDao.get(id);
+        }
+
+        public OnmsMonitoringSystem getLocalSystem() {
+            return distPollerDao.whoami();
+        }
+
+        public OnmsServiceType getServiceType(final String name) {
+            return serviceTypeDao.findByName(name);
+        }
+    }
+
+    /**
+     * Keeps the IDs of the references that were found in the database for a while
+     * so that the batched writers don't have to look them up for every event.
+     * Only the IDs are kept, the entities are referenced with load() in the
+     * session of the current transaction.
+     * Misses are never cached: unknown nodes and services are looked up
+     * every time, as they are with the direct resolver.
+     */
+    private class CachingReferenceResolver extends ReferenceResolver {
+        private static final String LOCAL_SYSTEM = "";
+
+        private final Cache<Integer, Boolean> m_nodes;
+        private final Cache<String, String> m_distPollers;
+        private final Cache<String, String> m_monitoringSystems;
+        private final Cache<String, Integer> m_serviceTypes;
+
+        public CachingReferenceResolver(final long ttl) {
+            m_nodes = CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.MILLISECONDS).build();
+            m_distPollers = CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.MILLISECONDS).build();
+            m_monitoringSystems = CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.MILLISECONDS).build();
+            m_serviceTypes = CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.MILLISECONDS).build();
+        }
+
+        @Override
+        public OnmsNode getNode(final int nodeId) {
+            if (m_nodes.getIfPresent(nodeId) != null) {
+                // We know the node exists, so a reference is all the event needs
+                return nodeDao.load(nodeId);
+            }
+            final OnmsNode node = super.getNode(nodeId);
+            if (node != null) {
+                m_nodes.put(nodeId, Boolean.TRUE);
+            }
+            return node;
+        }
+
+        @Override
+        public OnmsMonitoringSystem getDistPoller(final String id) {
+            return getIfFound(m_distPollers, id, super::getDistPoller, OnmsMonitoringSystem::getId, distPollerDao::load);
+        }
+
+        @Override
+        public OnmsMonitoringSystem getMonitoringSystem(final String id) {
+            return getIfFound(m_monitoringSystems, id, super::getMonitoringSystem, OnmsMonitoringSystem::getId, monitoringSystemDao::load);
+        }
+
+        @Override
+        public OnmsMonitoringSystem getLocalSystem() {
+            return getIfFound(m_distPollers, LOCAL_SYSTEM, id -> super.getLocalSystem(), OnmsMonitoringSystem::getId, distPollerDao::load);
+        }
+
+        @Override
+        public OnmsServiceType getServiceType(final String name) {
+            if (name == null) {
+                return super.getServiceType(name);
+            }
+            return getIfFound(m_serviceTypes, name, super::getServiceType, OnmsServiceType::getId, serviceTypeDao::load);
+        }
+
+        public void invalidateAll() {
+            m_nodes.invalidateAll();
+            m_distPollers.invalidateAll();
+            m_monitoringSystems.invalidateAll();
+            m_serviceTypes.invalidateAll();
+        }
+
+        private <K, I, V> V getIfFound(final Cache<K, I> cache, final K key, final Function<K, V> lookup, final Function<V, I> getId, final Function<I, V> load) {
+            final I id = cache.getIfPresent(key);
+            if (id != null) {
+                return load.apply(id);
+            }
+            final V value = lookup.apply(key);
+            if (value != null) {
+                cache.put(key, getId.apply(value));
+            }
+            return value;
+        }
+    }
 }
@@ -623,6 +623,8 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         }
 
         await().pollInterval(1, TimeUnit.SECONDS).untilAtomic(counter, is(equalTo(6)));
+        assertEquals(4, m_registry.counter("eventlisteners.testSlowEventListener.dropped").getCount());
+        assertEquals(6, m_registry.timer("eventlisteners.testSlowEventListener.lag").getCount());
     }
 
     /**
@@ -33,14 +33,22 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
 import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.dao.api.MonitoringLocationDao;
 import org.opennms.netmgt.eventd.EventUtil;
@@ -50,6 +58,7 @@ import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.snmp.SnmpUtils;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -322,4 +331,55 @@ public class HibernateEventWriterIT {
         assertEquals("event count", new Integer(1), jdbcTemplate.queryForObject("select count(*) from events", Integer.class));
         assertEquals("event service ID", new Integer(serviceId), jdbcTemplate.queryForObject("select serviceID from events", Integer.class));
     }
+
+    /**
+     * Verifies that the events written by the batched writers get their database IDs,
+     * and that the references looked up by one transaction can be used by the following ones.
+     */
+    @Test
+    public void testBatchedEventsGetTheirDbids() throws Exception {
+        final String serviceName = "some bogus service";
+        jdbcTemplate.update("insert into service (serviceId, serviceName) values (?, ?)", new Object[] { 1, serviceName });
+
+        final HibernateEventWriter eventWriter = (HibernateEventWriter) m_eventWriter;
+        eventWriter.setWriterThreads(2);
+        final ExecutorService executor = Executors.newFixedThreadPool(10);
+        final List<Event> events = new ArrayList<>();
+        try {
+            // The later rounds are written in new transactions, using the cached references
+            for (int round = 0; round < 3; round++) {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    final EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "someSource");
+                    bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+                    bldr.setService(serviceName);
+                    bldr.setInterface(InetAddressUtils.addr("192.168.1." + i));
+                    bldr.addParam("round", round);
+                    events.add(bldr.getEvent());
+                    final Log log = bldr.getLog();
+                    futures.add(executor.submit(() -> {
+                        m_eventWriter.process(log);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            eventWriter.destroy();
+            eventWriter.setWriterThreads(0);
+        }
+
+        final Set<Integer> dbids = new HashSet<>();
+        for (Event event : events) {
+            assertTrue(event.getDbid() > 0);
+            dbids.add(event.getDbid());
+        }
+        assertEquals(events.size(), dbids.size());
+        assertEquals("event count", new Integer(events.size()), jdbcTemplate.queryForObject("select count(*) from events where serviceID = 1", Integer.class));
+        assertEquals("parameter count", new Integer(events.size()), jdbcTemplate.queryForObject("select count(*) from event_parameters p join events e on p.eventID = e.eventID where e.serviceID = 1 and p.name = 'round'", Integer.class));
+        assertEquals("interface count", new Integer(10), jdbcTemplate.queryForObject("select count(distinct ipAddr) from events where serviceID = 1", Integer.class));
+    }
 }
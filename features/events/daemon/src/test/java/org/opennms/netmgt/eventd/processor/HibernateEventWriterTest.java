@@ -28,12 +28,28 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -42,6 +58,7 @@ import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.transaction.support.TransactionOperations;
 
 import com.codahale.metrics.MetricRegistry;
@@ -53,12 +70,14 @@ import com.codahale.metrics.MetricRegistry;
  */
 public class HibernateEventWriterTest {
 
+    private MetricRegistry metricRegistry;
     private HibernateEventWriter eventWriter;
     private TransactionOperations transactionManager;
 
     @Before
     public void setUp() {
-        eventWriter = new HibernateEventWriter(new MetricRegistry());
+        metricRegistry = new MetricRegistry();
+        eventWriter = new HibernateEventWriter(metricRegistry);
         transactionManager = mock(TransactionOperations.class);
         eventWriter.setTransactionManager(transactionManager);
     }
@@ -116,4 +135,104 @@ public class HibernateEventWriterTest {
         eventWriter.process(log);
         verify(transactionManager, times(1)).execute(any());
     }
+
+    /**
+     * Verifies that logs which queue up while a transaction is running
+     * are written together in the next transaction when the writer
+     * threads are enabled.
+     */
+    @Test
+    public void testLogsGroupedIntoSingleTransaction() throws Exception {
+        final List<Throwable> failures = writeLogsQueuedBehindFirstTransaction(transaction -> {});
+
+        assertEquals(0, failures.size());
+        verify(transactionManager, times(2)).execute(any());
+    }
+
+    /**
+     * Verifies that when the transaction of a batch fails, each of its logs
+     * is retried in a transaction of its own, and that only the logs which
+     * fail again are reported as failed.
+     */
+    @Test
+    public void testFailedBatchRetriedPerLog() throws Exception {
+        final List<Throwable> failures = writeLogsQueuedBehindFirstTransaction(transaction -> {
+            // The second transaction writes the queued logs together
+            if (transaction == 2) {
+                throw new DataIntegrityViolationException("batch failed");
+            } else if (transaction == 3) {
+                throw new DataIntegrityViolationException("log failed");
+            }
+        });
+
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof EventProcessorException);
+        // The first log, the failed batch, and each of its logs
+        verify(transactionManager, times(11)).execute(any());
+        assertEquals(1, metricRegistry.counter("eventlogs.process.write.retries").getCount());
+    }
+
+    /**
+     * Writes ten logs with a single writer thread, holding the first transaction
+     * open until the nine other logs have queued up behind it.
+     *
+     * @param laterTransactions called with the number of each of the following transactions
+     * @return the causes of the logs that failed to be written
+     */
+    private List<Throwable> writeLogsQueuedBehindFirstTransaction(final IntConsumer laterTransactions) throws Exception {
+        eventWriter.setWriterThreads(1);
+
+        final CountDownLatch firstTransactionStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstTransaction = new CountDownLatch(1);
+        final AtomicInteger transactions = new AtomicInteger();
+        when(transactionManager.execute(any())).thenAnswer(invocation -> {
+            final int transaction = transactions.incrementAndGet();
+            if (transaction == 1) {
+                firstTransactionStarted.countDown();
+                releaseFirstTransaction.await();
+            } else {
+                laterTransactions.accept(transaction);
+            }
+            return null;
+        });
+
+        final ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                eventWriter.process(createLog());
+                return null;
+            }));
+            firstTransactionStarted.await();
+
+            // These should all line up behind the first transaction
+            for (int i = 0; i < 9; i++) {
+                futures.add(executor.submit(() -> {
+                    eventWriter.process(createLog());
+                    return null;
+                }));
+            }
+            await().atMost(10, TimeUnit.SECONDS).until(() -> eventWriter.getPendingLogCount(), equalTo(9));
+            releaseFirstTransaction.countDown();
+
+            final List<Throwable> failures = new ArrayList<>();
+            for (Future<?> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+            return failures;
+        } finally {
+            executor.shutdownNow();
+            eventWriter.destroy();
+        }
+    }
+
+    private static Log createLog() {
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        return bldr.getLog();
+    }
 }
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton used to find all of the given literals
+ * contained in a text with a single pass over the text.
+ */
+final class AhoCorasickMatcher {
+
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final char[][] m_edgeChars;
+    private final int[][] m_edgeTargets;
+    private final int[] m_fail;
+    private final int[][] m_outputs;
+
+    /**
+     * @param literals the literals to search for, identified by their index in the list
+     */
+    AhoCorasickMatcher(final List<String> literals) {
+        // Build the trie
+        final List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        outputs.add(new ArrayList<>());
+        for (int i = 0; i < literals.size(); i++) {
+            final String literal = literals.get(i);
+            int state = 0;
+            for (int j = 0; j < literal.length(); j++) {
+                Integer next = edges.get(state).get(literal.charAt(j));
+                if (next == null) {
+                    next = edges.size();
+                    edges.get(state).put(literal.charAt(j), next);
+                    edges.add(new TreeMap<>());
+                    outputs.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            outputs.get(state).add(i);
+        }
+
+        final int numStates = edges.size();
+        m_edgeChars = new char[numStates][];
+        m_edgeTargets = new int[numStates][];
+        for (int state = 0; state < numStates; state++) {
+            final TreeMap<Character, Integer> stateEdges = edges.get(state);
+            m_edgeChars[state] = new char[stateEdges.size()];
+            m_edgeTargets[state] = new int[stateEdges.size()];
+            int k = 0;
+            for (final Map.Entry<Character, Integer> edge : stateEdges.entrySet()) {
+                m_edgeChars[state][k] = edge.getKey();
+                m_edgeTargets[state][k] = edge.getValue();
+                k++;
+            }
+        }
+
+        // Compute the failure links breadth-first, merging the outputs of the
+        // states reached through them so that every match is reported
+        m_fail = new int[numStates];
+        m_outputs = new int[numStates][];
+        m_outputs[0] = toArray(outputs.get(0));
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (final int child : m_edgeTargets[0]) {
+            m_fail[child] = 0;
+            m_outputs[child] = toArray(outputs.get(child));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int k = 0; k < m_edgeChars[state].length; k++) {
+                final char c = m_edgeChars[state][k];
+                final int child = m_edgeTargets[state][k];
+                int fail = m_fail[state];
+                int next;
+                while ((next = step(fail, c)) < 0 && fail != 0) {
+                    fail = m_fail[fail];
+                }
+                m_fail[child] = next < 0 ? 0 : next;
+
+                final List<Integer> childOutputs = outputs.get(child);
+                for (final int output : m_outputs[m_fail[child]]) {
+                    childOutputs.add(output);
+                }
+                m_outputs[child] = toArray(childOutputs);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Sets the bits of all the literals found in the given text.
+     */
+    void findAll(final CharSequence text, final BitSet found) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next;
+            while ((next = step(state, c)) < 0 && state != 0) {
+                state = m_fail[state];
+            }
+            state = next < 0 ? 0 : next;
+            for (final int output : m_outputs[state]) {
+                found.set(output);
+            }
+        }
+    }
+
+    private int step(final int state, final char c) {
+        final int k = Arrays.binarySearch(m_edgeChars[state], c);
+        return k < 0 ? -1 : m_edgeTargets[state][k];
+    }
+
+    private static int[] toArray(final List<Integer> values) {
+        if (values.isEmpty()) {
+            return NO_OUTPUTS;
+        }
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
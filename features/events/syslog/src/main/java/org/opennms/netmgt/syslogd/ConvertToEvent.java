@@ -33,9 +33,10 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -56,6 +57,8 @@ import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -64,8 +67,9 @@ import com.google.common.cache.LoadingCache;
  * This routine does the majority of Syslogd's work.
  * Improvements are most likely to be made.
  * 
- * TODO: This class is sloooow. It needs to be sped up significantly
- * to handle increased syslog volume.
+ * The <code>ueiMatch</code> and <code>hideMatch</code> rules are evaluated
+ * through a {@link SyslogMatchEngine} so that only the rules that may match
+ * a given message are considered.
  *
  * @author Seth
  * @author <a href="mailto:joed@opennms.org">Johan Edstrom</a>
@@ -97,6 +101,11 @@ public class ConvertToEvent {
         }
     );
 
+    /**
+     * Resolving the local host name can be expensive, so avoid doing it for every message.
+     */
+    private static final Supplier<String> LOCAL_HOST_NAME = Suppliers.memoizeWithExpiration(InetAddressUtils::getLocalHostName, 1, TimeUnit.MINUTES);
+
     /**
      * Reduce the limit of the buffer to trim trailing nulls from the value.
      * 
@@ -136,7 +145,7 @@ public class ConvertToEvent {
         // Set monitoring system
         bldr.setDistPoller(systemId);
         // Set event host
-        bldr.setHost(InetAddressUtils.getLocalHostName());
+        bldr.setHost(LOCAL_HOST_NAME.get());
         // Set default event destination to logndisplay
         bldr.setLogDest("logndisplay");
 
@@ -277,10 +286,39 @@ public class ConvertToEvent {
         final Date receivedTimestamp,
         final SyslogdConfig config
     ) throws MessageDiscardedException {
+        this(systemId, location, addr, port, incoming, receivedTimestamp, config, null);
+    }
+
+    /**
+     * Constructs a new event encapsulation instance based upon the
+     * information passed to the method. The passed byte array is decoded into
+     * a string using the {@link StandardCharsets#US_ASCII} character encoding.
+     *
+     * @param systemId
+     * @param location
+     * @param addr The remote agent's address.
+     * @param port The remote agent's port
+     * @param incoming The syslog datagram in {@link StandardCharsets#US_ASCII} encoding.
+     * @param receivedTimestamp the time the message was received
+     * @param config The Syslogd configuration
+     * @param matchEngine The compiled rules of the configuration, or null to compile them
+     * @throws MessageDiscardedException
+     */
+    public ConvertToEvent(
+        final String systemId,
+        final String location,
+        final InetAddress addr,
+        final int port,
+        final ByteBuffer incoming,
+        final Date receivedTimestamp,
+        final SyslogdConfig config,
+        final SyslogMatchEngine matchEngine
+    ) throws MessageDiscardedException {
 
         if (config == null) {
             throw new IllegalArgumentException("Config cannot be null");
         }
+        final SyslogMatchEngine engine = matchEngine != null ? matchEngine : SyslogMatchEngine.compile(config);
 
         ByteBuffer buffer = trimTrailingNulls(incoming);
 
@@ -340,8 +378,11 @@ public class ConvertToEvent {
 
         EventBuilder bldr = toEventBuilder(message, systemId, location, receivedTimestamp);
 
-        final List<UeiMatch> ueiMatch = (config.getUeiList() == null ? Collections.emptyList() : config.getUeiList());
-        for (final UeiMatch uei : ueiMatch) {
+        // Only evaluate the rules that may match the message, in the order they are defined
+        final List<UeiMatch> ueiMatch = engine.getUeiMatches();
+        final BitSet ueiCandidates = engine.getUeiMatchCandidates(message.getMessage());
+        for (int i = ueiCandidates.nextSetBit(0); i >= 0; i = ueiCandidates.nextSetBit(i + 1)) {
+            final UeiMatch uei = ueiMatch.get(i);
             final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
                                               containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
                                               matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
@@ -362,13 +403,15 @@ public class ConvertToEvent {
         }
 
         // Time to verify if we need to hide the message
-        final List<HideMatch> hideMatch = (config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages());
+        final List<HideMatch> hideMatch = engine.getHideMatches();
         boolean doHide = false;
         if (hideMatch.size() > 0) {
             // Match this regex against the full string of the message
             final String fullText = message.asRfc3164Message();
 
-            for (final HideMatch hide : hideMatch) {
+            final BitSet hideCandidates = engine.getHideMatchCandidates(fullText);
+            for (int i = hideCandidates.nextSetBit(0); i >= 0; i = hideCandidates.nextSetBit(i + 1)) {
+                final HideMatch hide = hideMatch.get(i);
                 if (hide.getMatch().getType().equals("substr")) {
                     if (fullText.contains(hide.getMatch().getExpression())) {
                         // We should hide the message based on this match
@@ -187,6 +187,11 @@ public final class SyslogConfigBean implements SyslogdConfig {
         m_batchIntervalMs = batchIntervalMs;
     }
 
+    @Override
+    public long getRevision() {
+        return 0;
+    }
+
     @Override
     public void reload() throws IOException {
       // pass
@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiled form of the <code>ueiMatch</code> and <code>hideMatch</code> rules of
+ * the Syslogd configuration.
+ *
+ * Rather than evaluating every rule against every message, the literal substrings
+ * that a message must contain for a rule to match are fed to a single Aho-Corasick
+ * automaton. A message is then only evaluated against the rules whose literal was
+ * found, along with the (hopefully few) rules for which no such literal could be
+ * derived, in the order they are defined.
+ *
+ * Instances are immutable, their owner compiles a new one when the configuration
+ * is reloaded, see {@link #isCurrentFor(SyslogdConfig)}.
+ */
+public final class SyslogMatchEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogMatchEngine.class);
+
+    private final long m_revision;
+    private final List<UeiMatch> m_ueiMatches;
+    private final List<HideMatch> m_hideMatches;
+
+    private final RuleSet m_ueiRules;
+    private final RuleSet m_hideRules;
+
+    private SyslogMatchEngine(final long revision, final List<UeiMatch> ueiMatches, final List<HideMatch> hideMatches) {
+        m_revision = revision;
+        m_ueiMatches = ueiMatches;
+        m_hideMatches = hideMatches;
+
+        final List<Match> ueiMatchRules = new ArrayList<>(ueiMatches.size());
+        for (final UeiMatch ueiMatch : ueiMatches) {
+            final Match match = ueiMatch.getMatch();
+            // Other match types are never evaluated
+            if (match.getType().equals("substr") || match.getType().startsWith("regex")) {
+                ueiMatchRules.add(match);
+            } else {
+                ueiMatchRules.add(null);
+            }
+        }
+        m_ueiRules = new RuleSet(ueiMatchRules);
+
+        final List<Match> hideMatchRules = new ArrayList<>(hideMatches.size());
+        for (final HideMatch hideMatch : hideMatches) {
+            final Match match = hideMatch.getMatch();
+            if (match.getType().equals("substr") || match.getType().equals("regex")) {
+                hideMatchRules.add(match);
+            } else {
+                hideMatchRules.add(null);
+            }
+        }
+        m_hideRules = new RuleSet(hideMatchRules);
+    }
+
+    /**
+     * Compiles the rules currently defined in the given configuration.
+     */
+    public static SyslogMatchEngine compile(final SyslogdConfig config) {
+        // Read the revision first, rules reloaded in between are then compiled again on the next check
+        final long revision = config.getRevision();
+        final List<UeiMatch> ueiMatches = config.getUeiList() == null ? Collections.emptyList() : config.getUeiList();
+        final List<HideMatch> hideMatches = config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages();
+
+        final SyslogMatchEngine compiled = new SyslogMatchEngine(revision, ueiMatches, hideMatches);
+        LOG.debug("Compiled {} uei-match and {} hide-match rules, {} of which are always evaluated.",
+                ueiMatches.size(), hideMatches.size(), compiled.m_ueiRules.getUnconditionalCount() + compiled.m_hideRules.getUnconditionalCount());
+        return compiled;
+    }
+
+    /**
+     * Returns true if the configuration was not reloaded since this engine was compiled from it.
+     */
+    public boolean isCurrentFor(final SyslogdConfig config) {
+        return m_revision == config.getRevision();
+    }
+
+    public List<UeiMatch> getUeiMatches() {
+        return m_ueiMatches;
+    }
+
+    public List<HideMatch> getHideMatches() {
+        return m_hideMatches;
+    }
+
+    /**
+     * Returns the indexes of the {@link UeiMatch} rules that may match the given message.
+     */
+    public BitSet getUeiMatchCandidates(final String message) {
+        return m_ueiRules.getCandidates(message);
+    }
+
+    /**
+     * Returns the indexes of the {@link HideMatch} rules that may match the given message.
+     */
+    public BitSet getHideMatchCandidates(final String message) {
+        return m_hideRules.getCandidates(message);
+    }
+
+    private static final class RuleSet {
+        private final int m_size;
+        private final BitSet m_unconditional = new BitSet();
+        private final AhoCorasickMatcher m_matcher;
+        private final int[][] m_rulesByLiteral;
+        private final int m_numLiterals;
+
+        private RuleSet(final List<Match> rules) {
+            m_size = rules.size();
+
+            final Map<String, List<Integer>> rulesByLiteral = new HashMap<>();
+            final List<String> literals = new ArrayList<>();
+            for (int i = 0; i < rules.size(); i++) {
+                final Match match = rules.get(i);
+                if (match == null) {
+                    continue;
+                }
+
+                final String literal;
+                if (match.getType().equals("substr")) {
+                    literal = match.getExpression();
+                } else {
+                    literal = requiredLiteral(match.getExpression());
+                }
+
+                if (literal == null || literal.isEmpty()) {
+                    m_unconditional.set(i);
+                } else {
+                    List<Integer> literalRules = rulesByLiteral.get(literal);
+                    if (literalRules == null) {
+                        literalRules = new ArrayList<>(1);
+                        rulesByLiteral.put(literal, literalRules);
+                        literals.add(literal);
+                    }
+                    literalRules.add(i);
+                }
+            }
+
+            m_numLiterals = literals.size();
+            m_rulesByLiteral = new int[m_numLiterals][];
+            for (int i = 0; i < m_numLiterals; i++) {
+                final List<Integer> literalRules = rulesByLiteral.get(literals.get(i));
+                m_rulesByLiteral[i] = new int[literalRules.size()];
+                for (int j = 0; j < literalRules.size(); j++) {
+                    m_rulesByLiteral[i][j] = literalRules.get(j);
+                }
+            }
+            m_matcher = m_numLiterals > 0 ? new AhoCorasickMatcher(literals) : null;
+        }
+
+        private int getUnconditionalCount() {
+            return m_unconditional.cardinality();
+        }
+
+        private BitSet getCandidates(final String message) {
+            final BitSet candidates = (BitSet)m_unconditional.clone();
+            if (message == null) {
+                // Let the rules deal with it
+                candidates.set(0, m_size);
+                return candidates;
+            }
+            if (m_matcher != null) {
+                final BitSet literals = new BitSet(m_numLiterals);
+                m_matcher.findAll(message, literals);
+                for (int i = literals.nextSetBit(0); i >= 0; i = literals.nextSetBit(i + 1)) {
+                    for (final int rule : m_rulesByLiteral[i]) {
+                        candidates.set(rule);
+                    }
+                }
+            }
+            return candidates;
+        }
+    }
+
+    /**
+     * Returns a literal that must be contained in any text in which the given
+     * regular expression can be found, or null if none could be determined.
+     *
+     * The expression is analyzed conservatively: only the literal characters found
+     * at the top level of the expression are considered and any construct that is
+     * not fully understood prevents a literal from being returned.
+     */
+    protected static String requiredLiteral(final String regex) {
+        try {
+            Pattern.compile(regex, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException e) {
+            // Never matches, leave it to the rule to report it
+            return null;
+        }
+
+        String best = "";
+        final StringBuilder run = new StringBuilder();
+        final int n = regex.length();
+        int i = 0;
+        while (i < n) {
+            final char c = regex.charAt(i);
+            switch (c) {
+            case '\\': {
+                if (i + 1 >= n) {
+                    return null;
+                }
+                final char escaped = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    if ("dDsSwWbBAGZzRhHvVXntrfae".indexOf(escaped) < 0) {
+                        // Escapes taking arguments, back references or quoting
+                        return null;
+                    }
+                    best = longest(best, run);
+                } else {
+                    run.append(escaped);
+                }
+                i += 2;
+                break;
+            }
+            case '?':
+            case '*':
+            case '{':
+                // The preceding atom is optional
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                best = longest(best, run);
+                if (c == '{') {
+                    final int end = regex.indexOf('}', i);
+                    if (end < 0) {
+                        return null;
+                    }
+                    i = end + 1;
+                } else {
+                    i++;
+                }
+                break;
+            case '+':
+            case '.':
+            case '^':
+            case '$':
+                best = longest(best, run);
+                i++;
+                break;
+            case '|':
+                // Any branch may match
+                return null;
+            case '[':
+                best = longest(best, run);
+                i = skipCharacterClass(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                break;
+            case '(':
+                best = longest(best, run);
+                if (i + 2 < n && regex.charAt(i + 1) == '?' && "=!<>:".indexOf(regex.charAt(i + 2)) < 0) {
+                    // Inline flags may change the way literals are matched
+                    return null;
+                }
+                i = skipGroup(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                break;
+            default:
+                run.append(c);
+                i++;
+            }
+        }
+        best = longest(best, run);
+        return best.isEmpty() ? null : best;
+    }
+
+    private static String longest(final String best, final StringBuilder run) {
+        final String candidate = run.toString();
+        run.setLength(0);
+        return candidate.length() > best.length() ? candidate : best;
+    }
+
+    /**
+     * Returns the index following the character class starting at the given index, or -1.
+     */
+    private static int skipCharacterClass(final String regex, final int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    return -1;
+                }
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+                // A closing bracket at the start of the class is literal
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index following the group starting at the given index, or -1.
+     */
+    private static int skipGroup(final String regex, final int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    return -1;
+                }
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipCharacterClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+}
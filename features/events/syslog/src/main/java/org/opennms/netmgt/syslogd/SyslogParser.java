@@ -35,7 +35,10 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,28 +61,38 @@ public class SyslogParser {
     private Boolean m_found = null;
     private Boolean m_matched = null;
     private boolean m_traceEnabled = false;
-    private static final LoadingCache<String,Class<? extends SyslogParser>> PARSER_CLASSES = CacheBuilder.newBuilder().build(
-        new CacheLoader<String,Class<? extends SyslogParser>>() {
-            public Class<? extends SyslogParser> load(String className) {
+    private static final LoadingCache<String,Constructor<? extends SyslogParser>> PARSER_CONSTRUCTORS = CacheBuilder.newBuilder().build(
+        new CacheLoader<String,Constructor<? extends SyslogParser>>() {
+            public Constructor<? extends SyslogParser> load(String className) throws NoSuchMethodException {
+                Class<? extends SyslogParser> parserClass;
                 try {
-                    return Class.forName(className).asSubclass(SyslogParser.class);
+                    parserClass = Class.forName(className).asSubclass(SyslogParser.class);
                 } catch (final Exception e) {
                     LOG.debug("Unable to instantiate Syslog parser class specified in config: {}", className, e);
-                    return CustomSyslogParser.class;
+                    parserClass = CustomSyslogParser.class;
                 }
+                // Looking up the constructor is relatively expensive, do it once per class
+                return parserClass.getConstructor(SyslogdConfig.class, ByteBuffer.class);
             }
         }
     );
 
-    public static SyslogParser getParserInstance(SyslogdConfig config, ByteBuffer text) throws MessageDiscardedException {
-        Class<? extends SyslogParser> parserClass = PARSER_CLASSES.getUnchecked(config.getParser());
+    private static final Pattern DEFAULT_PATTERN = Pattern.compile("^.*$");
+
+    private static final int MAX_CACHED_MATCHERS = 16;
+    // The matchers and date formats of the parsers are reused by each thread. A parser only
+    // lives for the message it parses, so these are never used by two parsers at the same time.
+    private static final ThreadLocal<Map<Pattern,Matcher>> MATCHERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<DateFormat> DATE_FORMAT = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT));
+    private static final ThreadLocal<DateFormat> OLD_DATE_FORMAT = ThreadLocal.withInitial(() -> new SimpleDateFormat("MMM dd HH:mm:ss", Locale.ROOT));
 
+    public static SyslogParser getParserInstance(SyslogdConfig config, ByteBuffer text) throws MessageDiscardedException {
         final SyslogParser retval;
         try {
-            Constructor<? extends SyslogParser> m = parserClass.getConstructor(SyslogdConfig.class, ByteBuffer.class);
+            Constructor<? extends SyslogParser> m = PARSER_CONSTRUCTORS.getUnchecked(config.getParser());
             retval = (SyslogParser)m.newInstance(config, text);
         } catch (final Exception ex) {
-            LOG.debug("Unable to get parser for class '{}'", parserClass.getName(), ex);
+            LOG.debug("Unable to get parser for class '{}'", config.getParser(), ex);
             throw new MessageDiscardedException(ex);
         }
 
@@ -136,7 +149,7 @@ public class SyslogParser {
 
     /* override this to get your custom pattern */
     protected Pattern getPattern() {
-        return Pattern.compile("^.*$");
+        return DEFAULT_PATTERN;
     }
 
     /* override this to parse data from the matcher */
@@ -148,21 +161,36 @@ public class SyslogParser {
 
     protected Matcher getMatcher() {
         if (m_matcher == null) {
-            m_matcher = getPattern().matcher(SyslogParser.fromByteBuffer(getText()));
+            m_matcher = getThreadMatcher(getPattern(), SyslogParser.fromByteBuffer(getText()));
         }
         return m_matcher;
     }
 
+    private static Matcher getThreadMatcher(final Pattern pattern, final String input) {
+        final Map<Pattern,Matcher> matchers = MATCHERS.get();
+        Matcher matcher = matchers.get(pattern);
+        if (matcher == null) {
+            // Parsers may build their patterns on the fly, don't hold on to all of them
+            if (matchers.size() >= MAX_CACHED_MATCHERS) {
+                matchers.clear();
+            }
+            matcher = pattern.matcher(input);
+            matchers.put(pattern, matcher);
+            return matcher;
+        }
+        return matcher.reset(input);
+    }
+
     protected Date parseDate(final String dateString) {
         try {
             // Date pattern has been created and checked inside if loop instead of 
             // parsing date inside the exception class.
             if (dateString.matches(datePattern)) {
-                final DateFormat df = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
+                final DateFormat df = DATE_FORMAT.get();
                 adjustTimeZone(df);
                 return df.parse(dateString);
             } else {
-                final DateFormat df = new SimpleDateFormat("MMM dd HH:mm:ss", Locale.ROOT);
+                final DateFormat df = OLD_DATE_FORMAT.get();
                 adjustTimeZone(df);
                 // 2012-03-14 Ben: Ugh, what's a non-lame way of forcing it to parse to "this year"?
                 Date date = df.parse(dateString);
@@ -180,8 +208,11 @@ public class SyslogParser {
     }
 
     void adjustTimeZone(DateFormat df) {
+        // The formats are reused, so always reset the time zone
         if(m_config.getTimeZone() !=null) {
             df.setTimeZone(m_config.getTimeZone());
+        } else {
+            df.setTimeZone(TimeZone.getDefault());
         }
     }
 }
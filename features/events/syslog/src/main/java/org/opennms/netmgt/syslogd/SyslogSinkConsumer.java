@@ -30,7 +30,13 @@ package org.opennms.netmgt.syslogd;
 
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.ipc.sink.api.MessageConsumer;
 import org.opennms.core.ipc.sink.api.MessageConsumerManager;
@@ -51,17 +57,32 @@ import org.opennms.netmgt.xml.event.Log;
 import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO>, InitializingBean {
+public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO>, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(SyslogSinkConsumer.class);
 
+    /**
+     * Number of threads used to convert the messages of a single message log in parallel,
+     * in addition to the consumer thread. Set to 0 to convert the messages on the consumer thread only.
+     */
+    public static final int DEFAULT_CONVERSION_THREADS = Integer.getInteger("org.opennms.netmgt.syslogd.conversionThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Minimum number of messages handed to a conversion thread at once.
+     */
+    public static final int DEFAULT_CONVERSION_CHUNK_SIZE = Integer.getInteger("org.opennms.netmgt.syslogd.conversionChunkSize", 100);
+
     @Autowired
     private MessageConsumerManager messageConsumerManager;
 
@@ -78,12 +99,45 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
     private final Timer consumerTimer;
     private final Timer toEventTimer;
     private final Timer broadcastTimer;
+    private final Timer convertTimer;
+    private final Timer convertQueueTimer;
+    private final Timer newSuspectTimer;
+    private final Histogram messagesPerLog;
+
+    private final int conversionThreads;
+    private final int conversionChunkSize;
+    private final ExecutorService conversionExecutor;
+
+    // Compiled rules of the configuration, replaced when the configuration is reloaded
+    private volatile SyslogMatchEngine matchEngine;
 
     public SyslogSinkConsumer(MetricRegistry registry) {
+        this(registry, DEFAULT_CONVERSION_THREADS, DEFAULT_CONVERSION_CHUNK_SIZE);
+    }
+
+    public SyslogSinkConsumer(MetricRegistry registry, int conversionThreads, int conversionChunkSize) {
         consumerTimer = registry.timer("consumer");
         toEventTimer = registry.timer("consumer.toevent");
         broadcastTimer = registry.timer("consumer.broadcast");
+        // Time spent converting a single message, on any thread
+        convertTimer = registry.timer("consumer.toevent.convert");
+        // Time spent by chunks of messages waiting for a conversion thread
+        convertQueueTimer = registry.timer("consumer.toevent.queued");
+        newSuspectTimer = registry.timer("consumer.newsuspect");
+        messagesPerLog = registry.histogram("consumer.messages");
         localAddr = InetAddressUtils.getLocalHostName();
+
+        this.conversionThreads = conversionThreads;
+        this.conversionChunkSize = Math.max(1, conversionChunkSize);
+        if (conversionThreads > 0) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(conversionThreads, conversionThreads,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder().setNameFormat("syslogd-conversion-%d").setDaemon(true).build());
+            executor.allowCoreThreadTimeOut(true);
+            conversionExecutor = executor;
+        } else {
+            conversionExecutor = null;
+        }
     }
 
     @Override
@@ -112,8 +166,57 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         final Log elog = new Log();
         final Events events = new Events();
         elog.setEvents(events);
-        for (SyslogMessageDTO message : messageLog.getMessages()) {
-            try {
+        // Use the same compiled rules for the whole batch
+        final SyslogMatchEngine matchEngine = getMatchEngine();
+        final List<SyslogMessageDTO> messages = messageLog.getMessages();
+        messagesPerLog.update(messages.size());
+
+        if (conversionExecutor == null || messages.size() < 2 * conversionChunkSize) {
+            convert(messageLog, messages, matchEngine, events);
+            return elog;
+        }
+
+        // All of the messages in the log come from the same source: split them in contiguous
+        // chunks, convert these in parallel and add the resulting events in the original order
+        final int numChunks = Math.min(messages.size() / conversionChunkSize, conversionThreads + 1);
+        final int chunkSize = (messages.size() + numChunks - 1) / numChunks;
+        final List<CompletableFuture<Events>> futures = new ArrayList<>(numChunks - 1);
+        for (int from = chunkSize; from < messages.size(); from += chunkSize) {
+            final List<SyslogMessageDTO> chunk = messages.subList(from, Math.min(from + chunkSize, messages.size()));
+            final Context queuedCtx = convertQueueTimer.time();
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                queuedCtx.stop();
+                try (MDCCloseable mdc = Logging.withPrefixCloseable(Syslogd.LOG4J_CATEGORY)) {
+                    final Events chunkEvents = new Events();
+                    convert(messageLog, chunk, matchEngine, chunkEvents);
+                    return chunkEvents;
+                }
+            }, conversionExecutor));
+        }
+
+        // Convert the first chunk on the calling thread
+        convert(messageLog, messages.subList(0, chunkSize), matchEngine, events);
+        for (CompletableFuture<Events> future : futures) {
+            for (Event event : future.join().getEventCollection()) {
+                events.addEvent(event);
+            }
+        }
+        return elog;
+    }
+
+    private SyslogMatchEngine getMatchEngine() {
+        SyslogMatchEngine engine = matchEngine;
+        if (engine == null || !engine.isCurrentFor(syslogdConfig)) {
+            // Concurrent consumers may both compile the new rules, either result is current
+            engine = SyslogMatchEngine.compile(syslogdConfig);
+            matchEngine = engine;
+        }
+        return engine;
+    }
+
+    private void convert(SyslogMessageLogDTO messageLog, List<SyslogMessageDTO> messages, SyslogMatchEngine matchEngine, Events events) {
+        for (SyslogMessageDTO message : messages) {
+            try (Context convertCtx = convertTimer.time()) {
                 LOG.debug("Converting syslog message into event.");
                 ConvertToEvent re = new ConvertToEvent(
                         messageLog.getSystemId(),
@@ -122,7 +225,8 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
                         messageLog.getSourcePort(),
                         message.getBytes(),
                         message.getTimestamp(),
-                        syslogdConfig
+                        syslogdConfig,
+                        matchEngine
                     );
                 events.addEvent(re.getEvent());
             } catch (final MessageDiscardedException e) {
@@ -131,7 +235,6 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
                 LOG.error("Unexpected exception while processing SyslogConnection", e);
             }
         }
-        return elog;
     }
 
     private void broadcast(Log eventLog)  {
@@ -164,12 +267,14 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         eventForwarder.sendNowSync(eventLog);
 
         if (syslogdConfig.getNewSuspectOnMessage()) {
-            eventLog.getEvents().getEventCollection().stream()
-                .filter(e -> !e.hasNodeid())
-                .forEach(e -> {
-                    LOG.trace("Syslogd: Found a new suspect {}", e.getInterface());
-                    sendNewSuspectEvent(localAddr, e.getInterface(), e.getDistPoller());
-                });
+            try (Context newSuspectCtx = newSuspectTimer.time()) {
+                eventLog.getEvents().getEventCollection().stream()
+                    .filter(e -> !e.hasNodeid())
+                    .forEach(e -> {
+                        LOG.trace("Syslogd: Found a new suspect {}", e.getInterface());
+                        sendNewSuspectEvent(localAddr, e.getInterface(), e.getDistPoller());
+                    });
+            }
         }
     }
 
@@ -187,6 +292,13 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         messageConsumerManager.registerConsumer(this);
     }
 
+    @Override
+    public void destroy() {
+        if (conversionExecutor != null) {
+            conversionExecutor.shutdown();
+        }
+    }
+
     public void setEventForwarder(EventForwarder eventForwarder) {
         this.eventForwarder = eventForwarder;
     }
@@ -197,6 +309,7 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
 
     public void setSyslogdConfig(SyslogdConfig syslogdConfig) {
         this.syslogdConfig = syslogdConfig;
+        matchEngine = null;
     }
 
     public void setDistPollerDao(DistPollerDao distPollerDao) {
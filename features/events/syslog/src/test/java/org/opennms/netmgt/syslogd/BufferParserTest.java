@@ -232,6 +232,7 @@ public class BufferParserTest {
 		{
 			InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-syslogng-configuration.xml");
 			SyslogdConfig config = new SyslogdConfigFactory(stream);
+			SyslogMatchEngine matchEngine = SyslogMatchEngine.compile(config);
 
 			long start = System.currentTimeMillis();
 			for (int i = 0; i < iterations; i++) {
@@ -241,7 +242,9 @@ public class BufferParserTest {
 					InetAddressUtils.ONE_TWENTY_SEVEN,
 					9999,
 					incoming, 
-					config
+					null,
+					config,
+					matchEngine
 				);
 				Event convertedEvent = convertToEvent.getEvent();
 			}
@@ -252,6 +255,7 @@ public class BufferParserTest {
 		{
 			InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-radix-configuration.xml");
 			SyslogdConfig config = new SyslogdConfigFactory(stream);
+			SyslogMatchEngine matchEngine = SyslogMatchEngine.compile(config);
 
 			long start = System.currentTimeMillis();
 			for (int i = 0; i < iterations; i++) {
@@ -261,7 +265,9 @@ public class BufferParserTest {
 					InetAddressUtils.ONE_TWENTY_SEVEN,
 					9999,
 					incoming, 
-					config
+					null,
+					config,
+					matchEngine
 				);
 				Event convertedEvent = convertToEvent.getEvent();
 			}
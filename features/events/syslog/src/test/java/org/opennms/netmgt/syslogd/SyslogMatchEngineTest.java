@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+public class SyslogMatchEngineTest {
+
+    private static final String LOAD_TEST_MESSAGE = "main: 2010-08-19 localhost foo23: load test 23 on tty1";
+
+    @Test
+    public void canDeriveRequiredLiterals() {
+        assertEquals("foo23: load", SyslogMatchEngine.requiredLiteral("foo23: load(\\d+)"));
+        assertEquals("load test ", SyslogMatchEngine.requiredLiteral(".*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+))"));
+        assertEquals("1997", SyslogMatchEngine.requiredLiteral("1997"));
+        assertEquals("ab", SyslogMatchEngine.requiredLiteral("abc?d"));
+        assertEquals("10.0.0.", SyslogMatchEngine.requiredLiteral("^10\\.0\\.0\\.\\d+$"));
+        assertEquals("ab", SyslogMatchEngine.requiredLiteral("x*ab+"));
+
+        // Alternations, inline flags and quoting are not analyzed
+        assertNull(SyslogMatchEngine.requiredLiteral("foo|bar"));
+        assertNull(SyslogMatchEngine.requiredLiteral("(?i)foo"));
+        assertNull(SyslogMatchEngine.requiredLiteral("\\Qfoo\\E"));
+        assertNull(SyslogMatchEngine.requiredLiteral("\\x41bc"));
+        assertNull(SyslogMatchEngine.requiredLiteral("\\s(19|20)\\d\\d"));
+        // Invalid expressions never match
+        assertNull(SyslogMatchEngine.requiredLiteral("foo("));
+    }
+
+    @Test
+    public void requiredLiteralsAreFoundInAllMatches() {
+        final String[] tokens = { "a", "b", "ab", "\\.", "\\d", "\\s+", ".", "*", "?", "+", "{2}", "{0,1}", "(x|y)", "[abc]", "[^a]", "[]a]", "(?:ab)", "|", "^", "$", "(a)?" };
+        final String[] alphabet = { "a", "b", "x", "y", "1", " ", ".", "\n", "]", "ab" };
+        final Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            final StringBuilder regex = new StringBuilder();
+            for (int j = random.nextInt(5); j >= 0; j--) {
+                regex.append(tokens[random.nextInt(tokens.length)]);
+            }
+            final String literal = SyslogMatchEngine.requiredLiteral(regex.toString());
+            if (literal == null) {
+                continue;
+            }
+            final Pattern pattern = Pattern.compile(regex.toString(), Pattern.MULTILINE);
+            for (int k = 0; k < 100; k++) {
+                final StringBuilder text = new StringBuilder();
+                for (int j = random.nextInt(8); j >= 0; j--) {
+                    text.append(alphabet[random.nextInt(alphabet.length)]);
+                }
+                if (pattern.matcher(text).find() && !text.toString().contains(literal)) {
+                    throw new AssertionError("'" + text + "' matches '" + regex + "' but does not contain '" + literal + "'");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canSelectCandidates() {
+        final SyslogdConfig config = mockConfig(
+                Collections.singletonList(hideMatch("substr", "password")),
+                ueiMatch("substr", "foo"),
+                ueiMatch("regex", "^bar\\d+"),
+                ueiMatch("regex", "(x|y)"),
+                ueiMatch("unsupported", "foo"),
+                ueiMatch("regex", "bar\\d+ baz"));
+
+        final SyslogMatchEngine engine = SyslogMatchEngine.compile(config);
+        assertEquals(bits(0, 1, 2, 4), engine.getUeiMatchCandidates("foo bar1 baz"));
+        assertEquals(bits(2), engine.getUeiMatchCandidates("nothing to see"));
+        assertEquals(bits(0), engine.getHideMatchCandidates("my password is foo"));
+        assertEquals(bits(), engine.getHideMatchCandidates("nothing to see"));
+
+        // The compiled rules are current until the configuration is reloaded
+        assertTrue(engine.isCurrentFor(config));
+        when(config.getRevision()).thenReturn(1L);
+        assertFalse(engine.isCurrentFor(config));
+        assertTrue(SyslogMatchEngine.compile(config).isCurrentFor(config));
+    }
+
+    @Test
+    public void canPrefilterManyRules() {
+        // Only the rule whose literal appears in the message is a candidate
+        final SyslogMatchEngine engine = engineWithLoadTestRules(10000);
+        assertEquals(bits(23), engine.getUeiMatchCandidates(LOAD_TEST_MESSAGE));
+        assertEquals(bits(), engine.getUeiMatchCandidates("main: 2010-08-19 localhost foo23: idle"));
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void testCandidateSelectionWithManyRules() {
+        for (int numRules : new int[] { 10, 100, 1000, 10000 }) {
+            final SyslogMatchEngine engine = engineWithLoadTestRules(numRules);
+            assertEquals(numRules > 23 ? 1 : 0, engine.getUeiMatchCandidates(LOAD_TEST_MESSAGE).cardinality());
+
+            final int count = 1000000;
+            final long start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                engine.getUeiMatchCandidates(LOAD_TEST_MESSAGE);
+            }
+            final long end = System.currentTimeMillis();
+            System.err.printf("%d rules: %d candidate selections in %d ms, %f/s%n", numRules, count, end - start, count * 1000.0 / (end - start));
+        }
+    }
+
+    /**
+     * Every rule has a distinct required literal, "foo&lt;i&gt;: load test ".
+     */
+    private static SyslogMatchEngine engineWithLoadTestRules(final int numRules) {
+        final List<UeiMatch> ueiMatches = new ArrayList<>();
+        for (int i = 0; i < numRules; i++) {
+            ueiMatches.add(ueiMatch("regex", "foo" + i + ": load test (\\S+) on ((pts\\/\\d+)|(tty\\d+))"));
+        }
+        return SyslogMatchEngine.compile(mockConfig(Collections.emptyList(), ueiMatches.toArray(new UeiMatch[0])));
+    }
+
+    private static SyslogdConfig mockConfig(final List<HideMatch> hideMatches, final UeiMatch... ueiMatches) {
+        final List<UeiMatch> ueiList = new ArrayList<>();
+        Collections.addAll(ueiList, ueiMatches);
+        final SyslogdConfig config = Mockito.mock(SyslogdConfig.class);
+        when(config.getUeiList()).thenReturn(ueiList);
+        when(config.getHideMessages()).thenReturn(hideMatches);
+        return config;
+    }
+
+    private static Match match(final String type, final String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        return match;
+    }
+
+    private static UeiMatch ueiMatch(final String type, final String expression) {
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setMatch(match(type, expression));
+        ueiMatch.setUei("uei.opennms.org/test/" + expression);
+        return ueiMatch;
+    }
+
+    private static HideMatch hideMatch(final String type, final String expression) {
+        final HideMatch hideMatch = new HideMatch();
+        hideMatch.setMatch(match(type, expression));
+        return hideMatch;
+    }
+
+    private static BitSet bits(final int... indexes) {
+        final BitSet bits = new BitSet();
+        for (final int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+import org.opennms.netmgt.dao.hibernate.InterfaceToNodeCacheDaoImpl;
+import org.opennms.netmgt.dao.mock.MockInterfaceToNodeCache;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class SyslogSinkConsumerTest {
+
+    private SyslogdConfig m_config;
+
+    private SyslogSinkConsumer m_consumer;
+
+    private MetricRegistry m_registry = new MetricRegistry();
+
+    @Before
+    public void setUp() throws Exception {
+        InterfaceToNodeCacheDaoImpl.setInstance(new MockInterfaceToNodeCache());
+
+        try (InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-loadtest-configuration.xml")) {
+            m_config = new SyslogdConfigFactory(stream);
+        }
+
+        m_consumer = new SyslogSinkConsumer(m_registry, 3, 10);
+        m_consumer.setSyslogdConfig(m_config);
+    }
+
+    @After
+    public void tearDown() {
+        m_consumer.destroy();
+    }
+
+    /**
+     * Messages converted in parallel must be returned in the order they were received.
+     */
+    @Test
+    public void canConvertMessagesInParallel() throws Exception {
+        final int numMessages = 1000;
+        final SyslogMessageLogDTO messageLog = new SyslogMessageLogDTO(MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID,
+                DistPollerDao.DEFAULT_DIST_POLLER_ID, new InetSocketAddress(InetAddress.getLoopbackAddress(), 514));
+        for (int i = 0; i < numMessages; i++) {
+            final String message = "<34>main: 2010-08-19 localhost foo" + i + ": load test " + i + " on tty1";
+            messageLog.getMessages().add(new SyslogMessageDTO(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII))));
+        }
+
+        final Log eventLog = m_consumer.toEventLog(messageLog);
+
+        final List<Event> events = eventLog.getEvents().getEventCollection();
+        assertEquals(numMessages, events.size());
+        for (int i = 0; i < numMessages; i++) {
+            assertEquals("uei.example.org/syslog/loadTest/foo" + i, events.get(i).getUei());
+        }
+        assertEquals(numMessages, m_registry.timer("consumer.toevent.convert").getCount());
+        assertEquals(3, m_registry.timer("consumer.toevent.queued").getCount());
+    }
+
+    @Test
+    public void canConvertSmallLogsOnConsumerThread() throws Exception {
+        final SyslogMessageLogDTO messageLog = new SyslogMessageLogDTO(MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID,
+                DistPollerDao.DEFAULT_DIST_POLLER_ID, new InetSocketAddress(InetAddress.getLoopbackAddress(), 514));
+        for (int i = 0; i < 5; i++) {
+            final String message = "<34>main: 2010-08-19 localhost foo" + i + ": load test " + i + " on tty1";
+            messageLog.getMessages().add(new SyslogMessageDTO(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII))));
+        }
+
+        assertEquals(5, m_consumer.toEventLog(messageLog).getEvents().getEventCount());
+        assertEquals(0, m_registry.timer("consumer.toevent.queued").getCount());
+    }
+}
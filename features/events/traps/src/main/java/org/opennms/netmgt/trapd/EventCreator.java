@@ -36,7 +36,6 @@ import java.util.Objects;
 import java.util.Optional;
 
 import org.opennms.core.utils.InetAddressUtils;
-import org.opennms.netmgt.config.api.EventConfDao;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.MonitoringLocationDao;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -54,11 +53,11 @@ class EventCreator {
 	private static final Logger LOG = LoggerFactory.getLogger(EventCreator.class);
 
     private final InterfaceToNodeCache cache;
-    private final EventConfDao eventConfDao;
+    private final TrapEventConfCache eventConfCache;
 
-    public EventCreator(InterfaceToNodeCache cache, EventConfDao eventConfDao) {
+    public EventCreator(InterfaceToNodeCache cache, TrapEventConfCache eventConfCache) {
         this.cache = Objects.requireNonNull(cache);
-        this.eventConfDao = Objects.requireNonNull(eventConfDao);
+        this.eventConfCache = Objects.requireNonNull(eventConfCache);
     }
 
     public Event createEventFrom(final TrapDTO trapDTO, final String systemId, final String location, final InetAddress trapAddress) {
@@ -106,7 +105,7 @@ class EventCreator {
 
         // Get event template and set uei, if unknown
         final Event event = eventBuilder.getEvent();
-        final org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
+        final org.opennms.netmgt.xml.eventconf.Event econf = eventConfCache.findByEvent(event);
         if (econf == null || econf.getUei() == null) {
             event.setUei("uei.opennms.org/default/trap");
         } else {
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.trapd.jmx.TrapdInstrumentation;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the event definitions matched by recent traps, so that repeated
+ * traps from chatty agents don't have to go through the matcher again.
+ *
+ * Apart from the varbinds, every field the mask elements of an event definition
+ * can match on is part of the key. Traps whose enterprise id is claimed by a
+ * definition that also matches on varbinds are never cached, since the values
+ * of the varbinds change from one trap to the next.
+ *
+ * Entries are tagged with the revision of the event definitions they were
+ * found in, and are ignored once the definitions are reloaded or modified.
+ */
+class TrapEventConfCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrapEventConfCache.class);
+
+    private final EventConfDao eventConfDao;
+    private final TrapdInstrumentation instrumentation;
+    private final Cache<Key, Entry> cache;
+
+    private volatile Scope scope = new Scope(-1, false, null, null);
+
+    public TrapEventConfCache(EventConfDao eventConfDao, TrapdInstrumentation instrumentation, long maximumSize) {
+        this.eventConfDao = Objects.requireNonNull(eventConfDao);
+        this.instrumentation = Objects.requireNonNull(instrumentation);
+        this.cache = maximumSize > 0 ? CacheBuilder.newBuilder().maximumSize(maximumSize).build() : null;
+    }
+
+    /**
+     * Equivalent to {@link EventConfDao#findByEvent(Event)}.
+     */
+    public org.opennms.netmgt.xml.eventconf.Event findByEvent(Event event) {
+        final long revision = eventConfDao.getRevision();
+        if (cache == null || revision < 0 || !getScope(revision).isCacheable(event)) {
+            return eventConfDao.findByEvent(event);
+        }
+
+        final Key key = new Key(event);
+        final Entry entry = cache.getIfPresent(key);
+        if (entry != null && entry.revision == revision) {
+            instrumentation.incEventConfCacheHits();
+            return entry.eventConf;
+        }
+
+        instrumentation.incEventConfCacheMisses();
+        final org.opennms.netmgt.xml.eventconf.Event eventConf = eventConfDao.findByEvent(event);
+        cache.put(key, new Entry(revision, eventConf));
+        return eventConf;
+    }
+
+    private Scope getScope(long revision) {
+        Scope current = scope;
+        if (current.revision != revision) {
+            synchronized (this) {
+                current = scope;
+                if (current.revision != revision) {
+                    current = Scope.of(revision, eventConfDao);
+                    scope = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * The enterprise ids for which the matched definition may depend on the varbinds.
+     */
+    private static class Scope {
+        private final long revision;
+        private final boolean cacheable;
+        private final Set<String> enterpriseIds;
+        private final List<String> enterpriseIdPrefixes;
+
+        private Scope(long revision, boolean cacheable, Set<String> enterpriseIds, List<String> enterpriseIdPrefixes) {
+            this.revision = revision;
+            this.cacheable = cacheable;
+            this.enterpriseIds = enterpriseIds;
+            this.enterpriseIdPrefixes = enterpriseIdPrefixes;
+        }
+
+        private static Scope of(long revision, EventConfDao eventConfDao) {
+            final Set<String> ids = new HashSet<>();
+            final Set<String> prefixes = new HashSet<>();
+            final Boolean cacheable;
+            try {
+                cacheable = eventConfDao.getRootEvents().forEachEvent(Boolean.TRUE, new EventCallback<Boolean>() {
+                    @Override
+                    public Boolean process(Boolean accum, org.opennms.netmgt.xml.eventconf.Event eventConf) {
+                        if (eventConf.getMask() == null || eventConf.getMask().getVarbinds().isEmpty()) {
+                            return accum;
+                        }
+                        final List<String> values = eventConf.getMaskElementValues(Maskelement.TAG_SNMP_EID);
+                        if (values == null || values.isEmpty()) {
+                            return Boolean.FALSE;
+                        }
+                        for (String value : values) {
+                            if (value == null) {
+                                continue;
+                            } else if (value.startsWith("~")) {
+                                return Boolean.FALSE;
+                            } else if (value.endsWith("%")) {
+                                prefixes.add(value);
+                            } else {
+                                ids.add(value);
+                            }
+                        }
+                        return accum;
+                    }
+                });
+            } catch (RuntimeException e) {
+                // The definitions were modified while we were looking at them, try again on the next trap
+                LOG.debug("Failed to determine which traps can be cached.", e);
+                return new Scope(-1, false, null, null);
+            }
+            if (!cacheable) {
+                LOG.info("Event definitions matching varbinds without a literal enterprise id are present; not caching trap lookups.");
+            }
+            return new Scope(revision, cacheable, ids, Arrays.asList(prefixes.toArray(new String[prefixes.size()])));
+        }
+
+        private boolean isCacheable(Event event) {
+            if (!cacheable) {
+                return false;
+            }
+            final String id = event.getSnmp() == null ? null : event.getSnmp().getId();
+            if (id == null) {
+                return true;
+            }
+            if (enterpriseIds.contains(id)) {
+                return false;
+            }
+            for (String prefix : enterpriseIdPrefixes) {
+                if (id.startsWith(prefix.substring(0, prefix.length() - 1)) || id.equals(prefix)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Entry {
+        private final long revision;
+        private final org.opennms.netmgt.xml.eventconf.Event eventConf;
+
+        private Entry(long revision, org.opennms.netmgt.xml.eventconf.Event eventConf) {
+            this.revision = revision;
+            this.eventConf = eventConf;
+        }
+    }
+
+    /**
+     * The fields of the event that can be matched by the mask elements.
+     */
+    private static class Key {
+        private final Object[] values;
+        private final int hashCode;
+
+        private Key(Event event) {
+            final Snmp snmp = event.getSnmp();
+            values = new Object[] {
+                    event.getUei(),
+                    event.getSource(),
+                    event.getNodeid(),
+                    event.getHost(),
+                    event.getInterface(),
+                    event.getSnmphost(),
+                    event.getService(),
+                    snmp == null ? null : snmp.getId(),
+                    snmp == null || !snmp.hasGeneric() ? null : snmp.getGeneric(),
+                    snmp == null || !snmp.hasSpecific() ? null : snmp.getSpecific(),
+                    snmp == null ? null : snmp.getCommunity()
+            };
+            hashCode = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(values, ((Key) obj).values);
+        }
+    }
+}
@@ -84,12 +84,15 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 	@Autowired
 	private DistPollerDao distPollerDao;
 
+	private TrapEventConfCache eventConfCache;
+
 	private EventCreator eventCreator;
 
 	@PostConstruct
 	public void init() throws Exception {
 		messageConsumerManager.registerConsumer(this);
-		eventCreator = new EventCreator(interfaceToNodeCache, eventConfDao);
+		eventConfCache = new TrapEventConfCache(eventConfDao, trapdInstrumentation, Long.getLong("org.opennms.trapd.eventConfCacheSize", 10000));
+		eventCreator = new EventCreator(interfaceToNodeCache, eventConfCache);
 	}
 
 	@Override
@@ -122,6 +125,7 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 		log.setEvents(events);
 
 		for (TrapDTO eachMessage : messageLog.getMessages()) {
+			final long start = System.nanoTime();
 			try {
 				final Event event = eventCreator.createEventFrom(
 						eachMessage,
@@ -140,6 +144,8 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 			} catch (Throwable e) {
 				LOG.error("Unexpected error processing trap: {}", eachMessage, e);
 				trapdInstrumentation.incErrorCount();
+			} finally {
+				trapdInstrumentation.addTrapProcessingTime(System.nanoTime() - start);
 			}
 		}
 		return log;
@@ -157,7 +163,7 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 	}
 
 	private boolean shouldDiscard(Event event) {
-		org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
+		org.opennms.netmgt.xml.eventconf.Event econf = eventConfCache.findByEvent(event);
 		if (econf != null) {
 			final Logmsg logmsg = econf.getLogmsg();
 			return logmsg != null && LogDestType.DISCARDTRAPS.equals(logmsg.getDest());
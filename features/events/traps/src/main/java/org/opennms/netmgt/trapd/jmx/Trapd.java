@@ -92,6 +92,30 @@ public class Trapd extends AbstractSpringContextJmxServiceDaemon<org.opennms.net
         return getTrapdInstrumentation().getTrapsErrored();
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public long getTrapsProcessed() {
+        return getTrapdInstrumentation().getTrapsProcessed();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTrapProcessingTime() {
+        return getTrapdInstrumentation().getTrapProcessingTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventConfCacheHits() {
+        return getTrapdInstrumentation().getEventConfCacheHits();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventConfCacheMisses() {
+        return getTrapdInstrumentation().getEventConfCacheMisses();
+    }
+
     private TrapdInstrumentation getTrapdInstrumentation() {
         return TrapSinkConsumer.trapdInstrumentation;
     }
@@ -31,6 +31,7 @@ package org.opennms.netmgt.trapd.jmx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TrapdInstrumentation {
@@ -44,6 +45,10 @@ public class TrapdInstrumentation {
     private final AtomicLong vUnknownTrapsReceived = new AtomicLong();
     private final AtomicLong trapsDiscarded = new AtomicLong();
     private final AtomicLong trapsErrored = new AtomicLong();
+    private final AtomicLong trapsProcessed = new AtomicLong();
+    private final AtomicLong trapProcessingTime = new AtomicLong();
+    private final AtomicLong eventConfCacheHits = new AtomicLong();
+    private final AtomicLong eventConfCacheMisses = new AtomicLong();
 
     public void incTrapsReceivedCount(String version) {
         trapsReceived.incrementAndGet();
@@ -67,6 +72,19 @@ public class TrapdInstrumentation {
         trapsErrored.incrementAndGet();
     }
 
+    public void addTrapProcessingTime(long nanos) {
+        trapsProcessed.incrementAndGet();
+        trapProcessingTime.addAndGet(nanos);
+    }
+
+    public void incEventConfCacheHits() {
+        eventConfCacheHits.incrementAndGet();
+    }
+
+    public void incEventConfCacheMisses() {
+        eventConfCacheMisses.incrementAndGet();
+    }
+
     public long getV1TrapsReceived() {
         return v1TrapsReceived.get();
     }
@@ -94,4 +112,20 @@ public class TrapdInstrumentation {
     public long getTrapsReceived() {
         return trapsReceived.get();
     }
+
+    public long getTrapsProcessed() {
+        return trapsProcessed.get();
+    }
+
+    public long getTrapProcessingTime() {
+        return TimeUnit.NANOSECONDS.toMicros(trapProcessingTime.get());
+    }
+
+    public long getEventConfCacheHits() {
+        return eventConfCacheHits.get();
+    }
+
+    public long getEventConfCacheMisses() {
+        return eventConfCacheMisses.get();
+    }
 }
@@ -57,4 +57,16 @@ public interface TrapdMBean extends BaseOnmsMBean {
     
     /** @return The number of traps not processed due to errors since Trapd was last started */
     public long getTrapsErrored();
+
+    /** @return The number of traps converted to events, successfully or not, since Trapd was last started */
+    public long getTrapsProcessed();
+
+    /** @return The total time, in microseconds, spent converting traps to events since Trapd was last started */
+    public long getTrapProcessingTime();
+
+    /** @return The number of event definition lookups answered from the cache since Trapd was last started */
+    public long getEventConfCacheHits();
+
+    /** @return The number of event definition lookups that missed the cache since Trapd was last started */
+    public long getEventConfCacheMisses();
 }
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.trapd.jmx.TrapdInstrumentation;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+
+public class TrapEventConfCacheTest {
+
+    private static final String CISCO = ".1.3.6.1.4.1.9";
+    private static final String JUNIPER = ".1.3.6.1.4.1.2636";
+
+    private EventConfDao eventConfDao;
+    private TrapdInstrumentation instrumentation;
+    private TrapEventConfCache cache;
+    private org.opennms.netmgt.xml.eventconf.Event eventConf;
+
+    @Before
+    public void setUp() {
+        eventConf = new org.opennms.netmgt.xml.eventconf.Event();
+        eventConf.setUei("uei.opennms.org/test/trap");
+
+        eventConfDao = mock(EventConfDao.class);
+        when(eventConfDao.getRevision()).thenReturn(1L);
+        when(eventConfDao.getRootEvents()).thenReturn(new Events());
+        when(eventConfDao.findByEvent(any(Event.class))).thenReturn(eventConf);
+
+        instrumentation = new TrapdInstrumentation();
+        cache = new TrapEventConfCache(eventConfDao, instrumentation, 100);
+    }
+
+    @Test
+    public void canSkipLookupForRepeatedTraps() {
+        assertSame(eventConf, cache.findByEvent(createTrap(CISCO, "10.0.0.1")));
+        assertSame(eventConf, cache.findByEvent(createTrap(CISCO, "10.0.0.1")));
+        verify(eventConfDao, times(1)).findByEvent(any(Event.class));
+        assertEquals(1, instrumentation.getEventConfCacheHits());
+        assertEquals(1, instrumentation.getEventConfCacheMisses());
+
+        // A different agent is a different key
+        cache.findByEvent(createTrap(CISCO, "10.0.0.2"));
+        verify(eventConfDao, times(2)).findByEvent(any(Event.class));
+    }
+
+    @Test
+    public void canCacheTrapsWithoutDefinition() {
+        when(eventConfDao.findByEvent(any(Event.class))).thenReturn(null);
+        assertEquals(null, cache.findByEvent(createTrap(CISCO, "10.0.0.1")));
+        assertEquals(null, cache.findByEvent(createTrap(CISCO, "10.0.0.1")));
+        verify(eventConfDao, times(1)).findByEvent(any(Event.class));
+    }
+
+    @Test
+    public void canInvalidateOnReload() {
+        cache.findByEvent(createTrap(CISCO, "10.0.0.1"));
+        when(eventConfDao.getRevision()).thenReturn(2L);
+        cache.findByEvent(createTrap(CISCO, "10.0.0.1"));
+        cache.findByEvent(createTrap(CISCO, "10.0.0.1"));
+        verify(eventConfDao, times(2)).findByEvent(any(Event.class));
+    }
+
+    @Test
+    public void doesNotCacheWhenRevisionIsUnknown() {
+        when(eventConfDao.getRevision()).thenReturn(-1L);
+        cache.findByEvent(createTrap(CISCO, "10.0.0.1"));
+        cache.findByEvent(createTrap(CISCO, "10.0.0.1"));
+        verify(eventConfDao, times(2)).findByEvent(any(Event.class));
+        assertEquals(0, instrumentation.getEventConfCacheMisses());
+    }
+
+    @Test
+    public void doesNotCacheTrapsMatchedOnVarbinds() {
+        final Events events = new Events();
+        events.addEvent(createDefinitionWithVarbind(CISCO));
+        when(eventConfDao.getRootEvents()).thenReturn(events);
+
+        cache.findByEvent(createTrap(CISCO, "10.0.0.1"));
+        cache.findByEvent(createTrap(CISCO, "10.0.0.1"));
+        verify(eventConfDao, times(2)).findByEvent(any(Event.class));
+
+        // Other enterprises can still be cached
+        cache.findByEvent(createTrap(JUNIPER, "10.0.0.1"));
+        cache.findByEvent(createTrap(JUNIPER, "10.0.0.1"));
+        verify(eventConfDao, times(3)).findByEvent(any(Event.class));
+    }
+
+    @Test
+    public void doesNotCacheAnythingWhenVarbindsAreMatchedWithoutEnterpriseId() {
+        final Events events = new Events();
+        events.addEvent(createDefinitionWithVarbind(null));
+        when(eventConfDao.getRootEvents()).thenReturn(events);
+
+        cache.findByEvent(createTrap(JUNIPER, "10.0.0.1"));
+        cache.findByEvent(createTrap(JUNIPER, "10.0.0.1"));
+        verify(eventConfDao, times(2)).findByEvent(any(Event.class));
+    }
+
+    private static Event createTrap(String enterpriseId, String agent) {
+        final EventBuilder bldr = new EventBuilder(null, "trapd");
+        bldr.setEnterpriseId(enterpriseId);
+        bldr.setGeneric(6);
+        bldr.setSpecific(1);
+        bldr.setCommunity("public");
+        bldr.setHost(agent);
+        bldr.setInterface(InetAddressUtils.addr(agent));
+        bldr.setSnmpHost(agent);
+        bldr.addParam(".1.3.6.1.2.1.1.3.0", Long.toString(System.nanoTime()));
+        return bldr.getEvent();
+    }
+
+    private static org.opennms.netmgt.xml.eventconf.Event createDefinitionWithVarbind(String enterpriseId) {
+        final Mask mask = new Mask();
+        if (enterpriseId != null) {
+            final Maskelement id = new Maskelement();
+            id.setMename(Maskelement.TAG_SNMP_EID);
+            id.addMevalue(enterpriseId);
+            mask.addMaskelement(id);
+        }
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(1);
+        varbind.addVbvalue("1");
+        mask.addVarbind(varbind);
+
+        final org.opennms.netmgt.xml.eventconf.Event definition = new org.opennms.netmgt.xml.eventconf.Event();
+        definition.setUei("uei.opennms.org/test/varbind");
+        definition.setMask(mask);
+        return definition;
+    }
+}
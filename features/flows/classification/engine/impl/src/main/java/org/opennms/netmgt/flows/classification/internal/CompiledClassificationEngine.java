@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.compiled.CompiledRuleSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Classifies requests using an immutable {@link CompiledRuleSet}.
+ *
+ * A reload compiles the rules aside and swaps them in once done,
+ * so classifying never has to wait for a reload and is safe to call from any thread.
+ */
+public class CompiledClassificationEngine implements ClassificationEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledClassificationEngine.class);
+
+    private final AtomicReference<CompiledRuleSet> ruleSet = new AtomicReference<>(CompiledRuleSet.EMPTY);
+    private final ClassificationRuleProvider ruleProvider;
+    private final FilterService filterService;
+
+    public CompiledClassificationEngine(ClassificationRuleProvider ruleProvider, FilterService filterService) {
+        this(ruleProvider, filterService, true);
+    }
+
+    public CompiledClassificationEngine(ClassificationRuleProvider ruleProvider, FilterService filterService, boolean initialize) {
+        this.ruleProvider = Objects.requireNonNull(ruleProvider);
+        this.filterService = Objects.requireNonNull(filterService);
+        if (initialize) {
+            this.reload();
+        }
+    }
+
+    @Override
+    public String classify(ClassificationRequest classificationRequest) {
+        // We return null instead of 'Undefined', to let the caller (e.g. rest service, or ui) decide
+        // what an unmapped definition should be named.
+        return ruleSet.get().classify(classificationRequest);
+    }
+
+    @Override
+    public synchronized void reload() {
+        final CompiledRuleSet compiled = CompiledRuleSet.compile(ruleProvider.getRules(), filterService);
+        ruleSet.set(compiled);
+        LOG.debug("Compiled {} classification rules.", compiled.size());
+    }
+}
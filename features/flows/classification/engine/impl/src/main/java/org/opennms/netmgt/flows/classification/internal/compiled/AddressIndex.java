@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.BitSet;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Binary prefix tries over the IPv4 and IPv6 address space.
+ *
+ * Concrete addresses and IPv4 patterns of the form <code>10.1.*.*</code> are stored as prefixes.
+ * Rules without an address definition, and rules with patterns which can not be expressed as a
+ * prefix, always remain candidates and are verified by their {@link org.opennms.netmgt.flows.classification.internal.matcher.Matcher}.
+ */
+class AddressIndex {
+
+    private static class Node {
+        private final Node[] children = new Node[2];
+        private BitSet building;
+        private long[] rules;
+    }
+
+    private final Node v4Root = new Node();
+    private final Node v6Root = new Node();
+    private final long[] unindexed;
+
+    /**
+     * @param addresses the address definition of each rule, <code>null</code> if undefined
+     * @param verify is set for each rule which must still be verified by its matcher
+     */
+    AddressIndex(String[] addresses, int numRules, BitSet verify) {
+        final BitSet unindexed = new BitSet(numRules);
+        for (int rank = 0; rank < numRules; rank++) {
+            final String address = addresses[rank];
+            if (address == null || "*".equals(address)) {
+                unindexed.set(rank);
+            } else if (address.contains("*")) {
+                final int prefixLength = getIPv4PrefixLength(address);
+                if (prefixLength < 0) {
+                    unindexed.set(rank);
+                    verify.set(rank);
+                } else {
+                    add(InetAddresses.forString(address.replace("*", "0")).getAddress(), prefixLength, rank);
+                }
+            } else if (InetAddresses.isInetAddress(address)) {
+                // The matcher compares the string representation
+                add(InetAddresses.forString(address).getAddress(), -1, rank);
+                verify.set(rank);
+            } else {
+                unindexed.set(rank);
+                verify.set(rank);
+            }
+        }
+        this.unindexed = Bits.toWords(unindexed, numRules);
+        seal(v4Root, numRules);
+        seal(v6Root, numRules);
+    }
+
+    /**
+     * Removes the rules which can not match the given address from the candidates.
+     */
+    void and(String address, long[] candidates) {
+        final byte[] bytes = parse(address);
+        if (bytes == null) {
+            Bits.and(candidates, unindexed);
+            return;
+        }
+
+        final long[] matching = unindexed.clone();
+        final int length = bytes.length * 8;
+        Node node = bytes.length == 4 ? v4Root : v6Root;
+        for (int i = 0; node != null; i++) {
+            if (node.rules != null) {
+                Bits.or(matching, node.rules);
+            }
+            if (i == length) {
+                break;
+            }
+            node = node.children[(bytes[i >>> 3] >>> (7 - (i & 7))) & 1];
+        }
+        Bits.and(candidates, matching);
+    }
+
+    /**
+     * @return the bytes of the given address literal, or <code>null</code> if it is not an address literal.
+     */
+    static byte[] parse(String address) {
+        if (address == null) {
+            return null;
+        }
+        if (address.indexOf(':') != -1) {
+            return InetAddresses.isInetAddress(address) ? InetAddresses.forString(address).getAddress() : null;
+        }
+
+        // Avoid the overhead of the generic parser for the common case
+        final byte[] bytes = new byte[4];
+        int field = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < address.length(); i++) {
+            final char c = address.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || field == 3) {
+                    return null;
+                }
+                bytes[field++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                value = value * 10 + (c - '0');
+                digits++;
+                if (value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        if (digits == 0 || field != 3) {
+            return null;
+        }
+        bytes[field] = (byte) value;
+        return bytes;
+    }
+
+    private void add(byte[] bytes, int prefixLength, int rank) {
+        final int length = prefixLength < 0 ? bytes.length * 8 : prefixLength;
+        Node node = bytes.length == 4 ? v4Root : v6Root;
+        for (int i = 0; i < length; i++) {
+            final int bit = (bytes[i >>> 3] >>> (7 - (i & 7))) & 1;
+            if (node.children[bit] == null) {
+                node.children[bit] = new Node();
+            }
+            node = node.children[bit];
+        }
+        if (node.building == null) {
+            node.building = new BitSet();
+        }
+        node.building.set(rank);
+    }
+
+    private static void seal(Node node, int numRules) {
+        if (node == null) {
+            return;
+        }
+        if (node.building != null) {
+            node.rules = Bits.toWords(node.building, numRules);
+            node.building = null;
+        }
+        seal(node.children[0], numRules);
+        seal(node.children[1], numRules);
+    }
+
+    /**
+     * @return the prefix length of IPv4 patterns where every field is either a number, or a
+     * trailing wildcard, i.e. <code>192.168.*.*</code>. -1 for any other pattern.
+     */
+    static int getIPv4PrefixLength(String pattern) {
+        final String[] fields = pattern.split("\\.", -1);
+        if (fields.length != 4) {
+            return -1;
+        }
+        int numNumericFields = 0;
+        while (numNumericFields < 4 && isOctet(fields[numNumericFields])) {
+            numNumericFields++;
+        }
+        for (int i = numNumericFields; i < 4; i++) {
+            if (!"*".equals(fields[i])) {
+                return -1;
+            }
+        }
+        return numNumericFields * 8;
+    }
+
+    private static boolean isOctet(String field) {
+        if (field.isEmpty() || field.length() > 3 || (field.length() > 1 && field.charAt(0) == '0')) {
+            return false;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            if (!Character.isDigit(field.charAt(i))) {
+                return false;
+            }
+        }
+        return Integer.parseInt(field) <= 255;
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.matcher.DstAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.FilterMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.Matcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.SrcAddressMatcher;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleDefinition;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
+
+/**
+ * An immutable, compiled form of the classification rules.
+ *
+ * Rules are ranked by priority when compiled. Each criteria is indexed separately and yields
+ * the set of rules which may match a request, so classifying a request is the intersection of these sets,
+ * where the lowest set bit which passes the remaining matchers wins.
+ */
+public class CompiledRuleSet {
+
+    public static final CompiledRuleSet EMPTY = compile(new ArrayList<>(), FilterService.NOOP);
+
+    private final String[] names;
+    private final Matcher[][] matchers;
+    private final ProtocolIndex protocols;
+    private final PortIndex srcPorts;
+    private final PortIndex dstPorts;
+    private final AddressIndex srcAddresses;
+    private final AddressIndex dstAddresses;
+
+    private CompiledRuleSet(List<? extends RuleDefinition> rankedRules, FilterService filterService) {
+        final int numRules = rankedRules.size();
+        names = new String[numRules];
+        matchers = new Matcher[numRules][];
+
+        final String[] protocolDefinitions = new String[numRules];
+        final String[] srcPortDefinitions = new String[numRules];
+        final String[] dstPortDefinitions = new String[numRules];
+        final String[] srcAddressDefinitions = new String[numRules];
+        final String[] dstAddressDefinitions = new String[numRules];
+        for (int rank = 0; rank < numRules; rank++) {
+            final RuleDefinition rule = rankedRules.get(rank);
+            names[rank] = rule.getName();
+            protocolDefinitions[rank] = rule.hasProtocolDefinition() ? rule.getProtocol() : null;
+            srcPortDefinitions[rank] = rule.hasSrcPortDefinition() ? rule.getSrcPort() : null;
+            dstPortDefinitions[rank] = rule.hasDstPortDefinition() ? rule.getDstPort() : null;
+            srcAddressDefinitions[rank] = rule.hasSrcAddressDefinition() ? rule.getSrcAddress() : null;
+            dstAddressDefinitions[rank] = rule.hasDstAddressDefinition() ? rule.getDstAddress() : null;
+        }
+
+        final BitSet verifySrcAddress = new BitSet(numRules);
+        final BitSet verifyDstAddress = new BitSet(numRules);
+        protocols = new ProtocolIndex(protocolDefinitions, numRules);
+        srcPorts = new PortIndex(srcPortDefinitions, numRules);
+        dstPorts = new PortIndex(dstPortDefinitions, numRules);
+        srcAddresses = new AddressIndex(srcAddressDefinitions, numRules, verifySrcAddress);
+        dstAddresses = new AddressIndex(dstAddressDefinitions, numRules, verifyDstAddress);
+
+        // Whatever could not be resolved by the indexes is verified when a rule is a candidate
+        for (int rank = 0; rank < numRules; rank++) {
+            final RuleDefinition rule = rankedRules.get(rank);
+            final List<Matcher> ruleMatchers = new ArrayList<>();
+            if (verifySrcAddress.get(rank)) {
+                ruleMatchers.add(new SrcAddressMatcher(rule.getSrcAddress()));
+            }
+            if (verifyDstAddress.get(rank)) {
+                ruleMatchers.add(new DstAddressMatcher(rule.getDstAddress()));
+            }
+            if (rule.hasExportFilterDefinition()) {
+                ruleMatchers.add(new FilterMatcher(rule.getExporterFilter(), filterService));
+            }
+            matchers[rank] = ruleMatchers.toArray(new Matcher[ruleMatchers.size()]);
+        }
+    }
+
+    /**
+     * Compiles the given rules.
+     *
+     * Rules are ranked by the {@link RulePriorityComparator}. Rules with the same priority keep the order of the given list.
+     */
+    public static CompiledRuleSet compile(List<? extends RuleDefinition> rules, FilterService filterService) {
+        Objects.requireNonNull(rules);
+        Objects.requireNonNull(filterService);
+        final List<RuleDefinition> rankedRules = new ArrayList<>(rules);
+        rankedRules.sort(new RulePriorityComparator());
+        return new CompiledRuleSet(rankedRules, filterService);
+    }
+
+    public String classify(ClassificationRequest request) {
+        final long[] candidates = protocols.candidates(request.getProtocol());
+        srcPorts.and(request.getSrcPort(), candidates);
+        dstPorts.and(request.getDstPort(), candidates);
+        srcAddresses.and(request.getSrcAddress(), candidates);
+        dstAddresses.and(request.getDstAddress(), candidates);
+
+        for (int i = 0; i < candidates.length; i++) {
+            long word = candidates[i];
+            while (word != 0) {
+                final int rank = (i << 6) + Long.numberOfTrailingZeros(word);
+                if (matches(rank, request)) {
+                    return names[rank];
+                }
+                word &= word - 1;
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(int rank, ClassificationRequest request) {
+        for (Matcher matcher : matchers[rank]) {
+            if (!matcher.matches(request)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.flows.classification.internal.value.IntegerValue;
+import org.opennms.netmgt.flows.classification.internal.value.RangedValue;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+
+/**
+ * Splits the port space into the intervals at which the set of matching rules changes,
+ * so a lookup is a binary search over the interval boundaries.
+ */
+class PortIndex {
+
+    // The first port of each interval, starting with Rule.MIN_PORT_VALUE
+    private final int[] starts;
+
+    // The rules matching each interval. Identical sets are shared.
+    private final long[][] rules;
+
+    // The rules without a port definition
+    private final long[] undefined;
+
+    PortIndex(String[] ports, int numRules) {
+        // (port) -> rules starting or ending at that port
+        final Map<Integer, List<Integer>> starting = new HashMap<>();
+        final Map<Integer, List<Integer>> ending = new HashMap<>();
+        final BitSet undefined = new BitSet(numRules);
+        for (int rank = 0; rank < numRules; rank++) {
+            if (ports[rank] == null) {
+                undefined.set(rank);
+                continue;
+            }
+            for (int[] range : getRanges(ports[rank])) {
+                starting.computeIfAbsent(range[0], k -> new ArrayList<>()).add(rank);
+                ending.computeIfAbsent(range[1], k -> new ArrayList<>()).add(rank);
+            }
+        }
+
+        final int[] boundaries = new int[starting.size() + ending.size() + 1];
+        int numBoundaries = 0;
+        boundaries[numBoundaries++] = Rule.MIN_PORT_VALUE;
+        for (Integer port : starting.keySet()) {
+            boundaries[numBoundaries++] = port;
+        }
+        for (Integer port : ending.keySet()) {
+            boundaries[numBoundaries++] = port;
+        }
+        Arrays.sort(boundaries, 0, numBoundaries);
+
+        // Sweep over the boundaries, keeping track of the rules covering the current interval
+        final Map<BitSet, long[]> shared = new HashMap<>();
+        final BitSet current = new BitSet(numRules);
+        final List<Integer> starts = new ArrayList<>();
+        final List<long[]> rules = new ArrayList<>();
+        int previous = -1;
+        for (int i = 0; i < numBoundaries; i++) {
+            final int port = boundaries[i];
+            if (port == previous || port >= Rule.MAX_PORT_VALUE) {
+                continue;
+            }
+            previous = port;
+            // The ranges of a rule never overlap, so ending before starting is safe
+            ending.getOrDefault(port, new ArrayList<>()).forEach(current::clear);
+            starting.getOrDefault(port, new ArrayList<>()).forEach(current::set);
+
+            final BitSet matching = (BitSet) current.clone();
+            matching.or(undefined);
+            starts.add(port);
+            rules.add(shared.computeIfAbsent(matching, k -> Bits.toWords(k, numRules)));
+        }
+
+        this.starts = starts.stream().mapToInt(Integer::intValue).toArray();
+        this.rules = rules.toArray(new long[rules.size()][]);
+        this.undefined = Bits.toWords(undefined, numRules);
+    }
+
+    /**
+     * Removes the rules which do not accept the given port from the candidates.
+     */
+    void and(Integer port, long[] candidates) {
+        if (port == null || port < Rule.MIN_PORT_VALUE || port >= Rule.MAX_PORT_VALUE) {
+            Bits.and(candidates, undefined);
+            return;
+        }
+        int index = Arrays.binarySearch(starts, port);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        Bits.and(candidates, rules[index]);
+    }
+
+    /**
+     * Parses the port definition the same way {@link org.opennms.netmgt.flows.classification.internal.value.PortValue} does,
+     * but without expanding the ranges. Ranges are merged, so the result never overlaps.
+     *
+     * @return the sorted [start, end) ranges of the definition
+     */
+    static List<int[]> getRanges(String input) {
+        final StringValue portValue = new StringValue(input);
+        if (portValue.hasWildcard()) {
+            throw new IllegalArgumentException("Wildcards not supported");
+        }
+        final List<int[]> ranges = new ArrayList<>();
+        for (StringValue eachValue : portValue.splitBy(",")) {
+            if (eachValue.isRanged()) {
+                final RangedValue rangedValue = new RangedValue(eachValue);
+                // PortValue does not include the end of the range
+                if (rangedValue.getStart() < rangedValue.getEnd()) {
+                    ranges.add(new int[]{rangedValue.getStart(), rangedValue.getEnd()});
+                }
+            } else {
+                final int port = new IntegerValue(eachValue).getValue();
+                ranges.add(new int[]{port, port + 1});
+            }
+        }
+        ranges.sort((r1, r2) -> Integer.compare(r1[0], r2[0]));
+
+        final List<int[]> merged = new ArrayList<>();
+        for (int[] range : ranges) {
+            final int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1]) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(new int[]{range[0], range[1]});
+            }
+        }
+        return merged;
+    }
+}
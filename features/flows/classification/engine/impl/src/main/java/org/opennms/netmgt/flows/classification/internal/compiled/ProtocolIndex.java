@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.BitSet;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+
+/**
+ * Maps each protocol number to the rules which accept it.
+ */
+class ProtocolIndex {
+
+    private static final int MAX_PROTOCOL = 255;
+
+    private final long[] undefined;
+    private final long[][] byProtocol = new long[MAX_PROTOCOL + 1][];
+
+    ProtocolIndex(String[] protocols, int numRules) {
+        final BitSet undefined = new BitSet(numRules);
+        final BitSet[] byProtocol = new BitSet[MAX_PROTOCOL + 1];
+        for (int rank = 0; rank < numRules; rank++) {
+            if (protocols[rank] == null) {
+                undefined.set(rank);
+                continue;
+            }
+            // Unknown protocols are ignored, same as the ProtocolMatcher does
+            for (StringValue eachValue : new StringValue(protocols[rank]).splitBy(",")) {
+                final Protocol protocol = Protocols.getProtocol(eachValue.getValue());
+                if (protocol != null && protocol.getDecimal() >= 0 && protocol.getDecimal() <= MAX_PROTOCOL) {
+                    if (byProtocol[protocol.getDecimal()] == null) {
+                        byProtocol[protocol.getDecimal()] = new BitSet(numRules);
+                    }
+                    byProtocol[protocol.getDecimal()].set(rank);
+                }
+            }
+        }
+
+        this.undefined = Bits.toWords(undefined, numRules);
+        for (int i = 0; i <= MAX_PROTOCOL; i++) {
+            if (byProtocol[i] == null) {
+                // Share the rules without a protocol definition
+                this.byProtocol[i] = this.undefined;
+            } else {
+                byProtocol[i].or(undefined);
+                this.byProtocol[i] = Bits.toWords(byProtocol[i], numRules);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the rules which accept the given protocol.
+     */
+    long[] candidates(Protocol protocol) {
+        if (protocol == null || protocol.getDecimal() < 0 || protocol.getDecimal() > MAX_PROTOCOL) {
+            return undefined.clone();
+        }
+        return Objects.requireNonNull(byProtocol[protocol.getDecimal()]).clone();
+    }
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Classifies a synthetic flow mix against a synthetic rule set with the
+ * {@link DefaultClassificationEngine} guarded by a read/write lock,
+ * and with the {@link CompiledClassificationEngine}, while the rules are being reloaded.
+ *
+ * The number of rules, threads and flows per thread can be changed with the <code>benchmark.rules</code>,
+ * <code>benchmark.threads</code> and <code>benchmark.flows</code> system properties.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+@IfProfileValue(name="runBenchmarkTests", value="true")
+public class ClassificationEngineBenchmarkTest {
+
+    private static final int RULES = Integer.getInteger("benchmark.rules", 5000);
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 8);
+    private static final int FLOWS = Integer.getInteger("benchmark.flows", 1000000);
+    private static final long RELOAD_INTERVAL_MS = 5000;
+
+    @Test
+    public void benchmarkDefaultEngine() throws Exception {
+        final List<Rule> rules = generateRules();
+        benchmark("default", new LockingClassificationEngine(new DefaultClassificationEngine(() -> rules, FilterService.NOOP)));
+    }
+
+    @Test
+    public void benchmarkCompiledEngine() throws Exception {
+        final List<Rule> rules = generateRules();
+        benchmark("compiled", new CompiledClassificationEngine(() -> rules, FilterService.NOOP));
+    }
+
+    private static void benchmark(String name, ClassificationEngine engine) throws Exception {
+        final List<ClassificationRequest> requests = generateRequests();
+
+        // Warm up
+        classifyAll(engine, requests, FLOWS / 10);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        final List<Future<Long>> futures = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> classifyAll(engine, requests, FLOWS)));
+        }
+        final Future<?> reloader = executor.submit(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(RELOAD_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                engine.reload();
+            }
+        });
+        long classified = 0;
+        for (Future<Long> future : futures) {
+            classified += future.get();
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+        reloader.cancel(true);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        System.out.printf("%s: %d rules, %d threads, %d flows in %d ms (%.0f flows/s), %d classified%n",
+                name, RULES, THREADS, THREADS * FLOWS, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                (double) THREADS * FLOWS / elapsedNanos * TimeUnit.SECONDS.toNanos(1), classified);
+    }
+
+    private static long classifyAll(ClassificationEngine engine, List<ClassificationRequest> requests, int count) {
+        long classified = 0;
+        for (int i = 0; i < count; i++) {
+            if (engine.classify(requests.get(i % requests.size())) != null) {
+                classified++;
+            }
+        }
+        return classified;
+    }
+
+    // Customer like rules: mostly services on well known ports, some of them bound to subnets or hosts
+    private static List<Rule> generateRules() {
+        final Random random = new Random(1);
+        final List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < RULES; i++) {
+            final RuleBuilder builder = new RuleBuilder().withName("rule" + i);
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.withDstPort(random.nextInt(1024));
+                    break;
+                case 1:
+                    final int start = 1024 + random.nextInt(60000);
+                    builder.withDstPort(start + "-" + (start + random.nextInt(500)));
+                    break;
+                case 2:
+                    builder.withSrcPort(random.nextInt(1024)).withDstPort(1024 + random.nextInt(60000));
+                    break;
+                default:
+                    builder.withProtocol(random.nextBoolean() ? "tcp" : "udp");
+            }
+            if (random.nextInt(3) == 0) {
+                builder.withDstAddress("10." + random.nextInt(256) + "." + random.nextInt(256) + ".*");
+            } else if (random.nextInt(5) == 0) {
+                builder.withSrcAddress("10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256));
+            }
+            rules.add(builder.build());
+        }
+        return rules;
+    }
+
+    private static List<ClassificationRequest> generateRequests() {
+        final Random random = new Random(2);
+        final List<ClassificationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            // Client to server flows, with ephemeral source ports
+            requests.add(new ClassificationRequestBuilder()
+                    .withLocation("Default")
+                    .withProtocol(random.nextInt(10) == 0 ? ProtocolType.UDP : ProtocolType.TCP)
+                    .withSrcAddress("10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256))
+                    .withSrcPort(32768 + random.nextInt(28232))
+                    .withDstAddress("10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256))
+                    .withDstPort(random.nextInt(3) == 0 ? random.nextInt(1024) : random.nextInt(65536))
+                    .build());
+        }
+        return requests;
+    }
+
+    // The default engine must not be reloaded while classifying
+    private static class LockingClassificationEngine implements ClassificationEngine {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final ClassificationEngine delegate;
+
+        private LockingClassificationEngine(ClassificationEngine delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String classify(ClassificationRequest classificationRequest) {
+            lock.readLock().lock();
+            try {
+                return delegate.classify(classificationRequest);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void reload() {
+            lock.writeLock().lock();
+            try {
+                delegate.reload();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
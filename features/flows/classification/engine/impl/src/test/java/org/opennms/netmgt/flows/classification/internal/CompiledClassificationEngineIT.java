@@ -33,21 +33,28 @@ import static org.junit.Assert.assertThat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
 import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
 import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
 
-public class ThreadSafeClassificationEngineIT {
+import com.google.common.collect.Lists;
+
+public class CompiledClassificationEngineIT {
 
     private static final int NUMBER_OF_THREADS = 10;
 
@@ -72,9 +79,7 @@ public class ThreadSafeClassificationEngineIT {
             return Collections.emptyList();
         };
 
-        // Create a thread safe classification engine
-        final ClassificationEngine original = new DefaultClassificationEngine(classificationRuleProvider, FilterService.NOOP);
-        final ClassificationEngine classificationEngine = new ThreadSafeClassificationEngine(original);
+        final ClassificationEngine classificationEngine = new CompiledClassificationEngine(classificationRuleProvider, FilterService.NOOP, false);
 
         // Kick off the threads
         final ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
@@ -97,4 +102,40 @@ public class ThreadSafeClassificationEngineIT {
         assertThat(executionTime, Matchers.greaterThanOrEqualTo(expectedExecutionTime));
     }
 
+    // Classifying must not wait for a reload, but keep using the rules of the previous one
+    @Test
+    public void verifyClassifyDoesNotBlockOnReload() throws InterruptedException, ExecutionException {
+        final CountDownLatch reloading = new CountDownLatch(1);
+        final CountDownLatch reloaded = new CountDownLatch(1);
+        final AtomicBoolean slow = new AtomicBoolean(false);
+        final ClassificationRuleProvider classificationRuleProvider = () -> {
+            if (slow.get()) {
+                reloading.countDown();
+                try {
+                    reloaded.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("Thread interrupted.", e);
+                }
+                return Collections.emptyList();
+            }
+            return Lists.newArrayList(new RuleBuilder().withName("http").withDstPort(80).build());
+        };
+        final ClassificationEngine classificationEngine = new CompiledClassificationEngine(classificationRuleProvider, FilterService.NOOP);
+        final ClassificationRequest classificationRequest = new ClassificationRequestBuilder().withSrcPort(55557).withDstPort(80).build();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            slow.set(true);
+            final Future<?> reload = executor.submit(() -> classificationEngine.reload());
+            reloading.await();
+            assertThat(classificationEngine.classify(classificationRequest), Matchers.is("http"));
+
+            reloaded.countDown();
+            reload.get();
+            assertThat(classificationEngine.classify(classificationRequest), Matchers.nullValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
 }
\ No newline at end of file
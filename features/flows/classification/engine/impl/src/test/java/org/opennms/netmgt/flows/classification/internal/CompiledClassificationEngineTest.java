@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.GroupBuilder;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The behaviour shared with the {@link DefaultClassificationEngine} is verified by the {@link DefaultClassificationEngineTest}.
+ */
+public class CompiledClassificationEngineTest {
+
+    /**
+     * Verifies that the compiled engine yields the same results as the
+     * {@link DefaultClassificationEngine} on rules of distinct priorities.
+     */
+    @Test
+    public void verifySameResultsAsDefaultEngine() {
+        final Random random = new Random(42);
+        final List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final RuleBuilder builder = new RuleBuilder().withName("rule" + i);
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.withDstPort(random.nextInt(100) + "-" + (100 + random.nextInt(100)));
+                    break;
+                case 1:
+                    builder.withSrcPort(random.nextInt(200));
+                    break;
+                case 2:
+                    // Source ports are disjoint from destination ports, see verifyBothPortsMustMatch()
+                    builder.withSrcPort(200 + random.nextInt(200)).withDstPort(random.nextInt(200));
+                    break;
+                default:
+                    // Any port
+                    break;
+            }
+            if (random.nextBoolean()) {
+                builder.withDstAddress("10.0." + random.nextInt(4) + ".*");
+            }
+            if (random.nextInt(4) == 0) {
+                builder.withProtocol(random.nextBoolean() ? "tcp" : "udp");
+            }
+            final Rule rule = builder.build();
+            rule.setGroup(new GroupBuilder().withName("group" + i).withPriority(i).build());
+            rules.add(rule);
+        }
+        final ClassificationEngine expected = new DefaultClassificationEngine(() -> rules, FilterService.NOOP);
+        final ClassificationEngine actual = new CompiledClassificationEngine(() -> rules, FilterService.NOOP);
+
+        for (int i = 0; i < 20000; i++) {
+            final ClassificationRequest request = new ClassificationRequestBuilder()
+                    .withLocation("Default")
+                    .withProtocol(random.nextBoolean() ? ProtocolType.TCP : ProtocolType.UDP)
+                    .withSrcAddress("192.168.0." + random.nextInt(256)).withSrcPort(random.nextInt(400))
+                    .withDstAddress("10.0." + random.nextInt(5) + "." + random.nextInt(256)).withDstPort(random.nextInt(200))
+                    .build();
+            assertEquals(expected.classify(request), actual.classify(request));
+        }
+    }
+
+    /**
+     * A rule with a source and a destination port requires both ports to match.
+     *
+     * The {@link DefaultClassificationEngine} indexes such rules by their destination ports only, and looks up
+     * the source port of a request in the same index. It therefore also matches a request whose source port
+     * is one of the rule's destination ports, as long as it is one of the rule's source ports as well.
+     */
+    @Test
+    public void verifyBothPortsMustMatch() {
+        final List<Rule> rules = Lists.newArrayList(
+                new RuleBuilder().withName("both").withSrcPort("5000-6000").withDstPort("5000-6000").build()
+        );
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> rules, FilterService.NOOP);
+
+        assertEquals("both", engine.classify(new ClassificationRequestBuilder().withSrcPort(5500).withDstPort(5100).build()));
+        assertNull(engine.classify(new ClassificationRequestBuilder().withSrcPort(5500).withDstPort(80).build()));
+        assertNull(engine.classify(new ClassificationRequestBuilder().withSrcPort(80).withDstPort(5500).build()));
+
+        // The default engine matches on the source port alone
+        assertEquals("both", new DefaultClassificationEngine(() -> rules, FilterService.NOOP)
+                .classify(new ClassificationRequestBuilder().withSrcPort(5500).withDstPort(80).build()));
+    }
+}
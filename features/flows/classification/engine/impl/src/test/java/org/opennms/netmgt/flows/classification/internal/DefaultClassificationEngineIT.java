@@ -125,8 +125,15 @@ public class DefaultClassificationEngineIT {
 
     @Test
     public void verifyRuleFilter() {
-        final ClassificationEngine classificationEngine = new DefaultClassificationEngine(() -> ruleDao.findAllEnabledRules(), new DefaultFilterService(filterDao));
+        verifyRuleFilter(new DefaultClassificationEngine(() -> ruleDao.findAllEnabledRules(), new DefaultFilterService(filterDao)));
+    }
+
+    @Test
+    public void verifyRuleFilterWithCompiledEngine() {
+        verifyRuleFilter(new CompiledClassificationEngine(() -> ruleDao.findAllEnabledRules(), new DefaultFilterService(filterDao)));
+    }
 
+    private void verifyRuleFilter(ClassificationEngine classificationEngine) {
         // Create request, that matches rule1
         final ClassificationRequest classificationRequest = new ClassificationRequestBuilder()
                 .withExporterAddress("10.0.0.1")
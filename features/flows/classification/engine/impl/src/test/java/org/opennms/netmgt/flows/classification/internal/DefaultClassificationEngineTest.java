@@ -29,28 +29,61 @@
 package org.opennms.netmgt.flows.classification.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.BiFunction;
 import java.util.stream.IntStream;
 
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 import org.opennms.core.network.IPAddress;
 import org.opennms.core.network.IPAddressRange;
 import org.opennms.netmgt.flows.classification.ClassificationEngine;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
 import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
 import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.exception.InvalidFilterException;
 import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
 import org.opennms.netmgt.flows.classification.persistence.api.Rule;
 import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
 
 import com.google.common.collect.Lists;
 
+/**
+ * Verifies the {@link DefaultClassificationEngine} and the {@link CompiledClassificationEngine} against the same expectations.
+ */
+@RunWith(Parameterized.class)
 public class DefaultClassificationEngineTest {
 
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        final BiFunction<ClassificationRuleProvider, FilterService, ClassificationEngine> defaultEngine = DefaultClassificationEngine::new;
+        final BiFunction<ClassificationRuleProvider, FilterService, ClassificationEngine> compiledEngine = CompiledClassificationEngine::new;
+        return Arrays.asList(new Object[][] {
+                { "default", defaultEngine },
+                { "compiled", compiledEngine }
+        });
+    }
+
+    private final BiFunction<ClassificationRuleProvider, FilterService, ClassificationEngine> engineFactory;
+
+    public DefaultClassificationEngineTest(final String name, final BiFunction<ClassificationRuleProvider, FilterService, ClassificationEngine> engineFactory) {
+        this.engineFactory = engineFactory;
+    }
+
+    private ClassificationEngine createEngine(ClassificationRuleProvider ruleProvider, FilterService filterService) {
+        return engineFactory.apply(ruleProvider, filterService);
+    }
+
     @Test
     public void verifyRuleEngineBasic() {
-        DefaultClassificationEngine engine = new DefaultClassificationEngine(() ->
+        final ClassificationEngine engine = createEngine(() ->
             Lists.newArrayList(
                     new RuleBuilder().withName("rule1").withSrcPort(80).build(),
                     new RuleBuilder().withName("rule2").withDstPort(443).build(),
@@ -67,7 +100,7 @@ public class DefaultClassificationEngineTest {
     @Test
     public void verifyRuleEngineExtended() {
         // Define Rule set
-        DefaultClassificationEngine engine = new DefaultClassificationEngine(() -> Lists.newArrayList(
+        final ClassificationEngine engine = createEngine(() -> Lists.newArrayList(
                 new Rule("SSH", "22"),
                 new Rule("HTTP", "80"),
                 new Rule("HTTP_CUSTOM", "192.168.0.1", "80"),
@@ -121,8 +154,9 @@ public class DefaultClassificationEngineTest {
             assertEquals("DUMMY", engine.classify(classificationRequest));
         }
 
-        // Verify Port Range
+        // Verify Port Range, the end of the range is not included
         IntStream.range(7000, 8000).forEach(i -> assertEquals("RANGE-TEST", engine.classify(new ClassificationRequest("Default", 0, null,  i, "192.168.0.2", ProtocolType.TCP))));
+        assertNull(engine.classify(new ClassificationRequest("Default", 0, null, 8000, "192.168.0.2", ProtocolType.TCP)));
 
         // Verify Port Range with Src fields populated. Result must be the same
         IntStream.range(7000, 8000).forEach(src -> {
@@ -139,7 +173,7 @@ public class DefaultClassificationEngineTest {
 
     @Test
     public void verifyAddressRuleWins() {
-        final ClassificationEngine engine = new DefaultClassificationEngine(() -> Lists.newArrayList(
+        final ClassificationEngine engine = createEngine(() -> Lists.newArrayList(
             new RuleBuilder().withName("HTTP").withDstPort(80).build(),
             new RuleBuilder().withName("XXX2").withSrcAddress("192.168.2.1").withSrcPort(4789).build(),
             new RuleBuilder().withName("XXX").withDstAddress("192.168.2.1").build()
@@ -155,9 +189,55 @@ public class DefaultClassificationEngineTest {
                 .build()));
     }
 
+    @Test
+    public void verifyAddressPatterns() {
+        final ClassificationEngine engine = createEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("v4-prefix").withDstAddress("10.1.*.*").build(),
+                new RuleBuilder().withName("v4-range").withDstAddress("10.2.1-5.*").build(),
+                new RuleBuilder().withName("v4-any").withDstAddress("*.*.*.*").withDstPort(53).build(),
+                new RuleBuilder().withName("v6").withDstAddress("2001:db8::1").build(),
+                new RuleBuilder().withName("v6-pattern").withDstAddress("2001:db8:0:0:0:0:0:*").build()
+        ), FilterService.NOOP);
+
+        assertEquals("v4-prefix", engine.classify(dst("10.1.200.3", 1234)));
+        assertEquals("v4-range", engine.classify(dst("10.2.3.4", 1234)));
+        assertNull(engine.classify(dst("10.2.6.4", 1234)));
+        assertEquals("v4-any", engine.classify(dst("172.16.0.1", 53)));
+        assertEquals("v6", engine.classify(dst("2001:db8::1", 1234)));
+        assertEquals("v6-pattern", engine.classify(dst("2001:db8:0:0:0:0:0:2", 1234)));
+    }
+
+    @Test
+    public void verifyProtocolAndExporterFilter() {
+        final FilterService filterService = new FilterService() {
+            @Override
+            public void validate(String filterExpression) throws InvalidFilterException {
+            }
+
+            @Override
+            public boolean matches(String address, String filterExpression) {
+                return "10.0.0.1".equals(address);
+            }
+        };
+        final ClassificationEngine engine = createEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("dns").withDstPort(53).withProtocol("tcp,udp").build(),
+                new RuleBuilder().withName("dns-exporter").withDstPort(53).withProtocol("udp").withExporterFilter("categoryName == 'Routers'").build()
+        ), filterService);
+
+        final ClassificationRequest request = dst("192.168.0.1", 53);
+        request.setProtocol(ProtocolType.UDP);
+        assertEquals("dns", engine.classify(request));
+        request.setExporterAddress("10.0.0.1");
+        assertEquals("dns-exporter", engine.classify(request));
+        request.setProtocol(ProtocolType.TCP);
+        assertEquals("dns", engine.classify(request));
+        request.setProtocol(ProtocolType.ICMP);
+        assertNull(engine.classify(request));
+    }
+
     @Test
     public void verifyAllPortsToEnsureEngineIsProperlyInitialized() {
-        final ClassificationEngine classificationEngine = new DefaultClassificationEngine(() -> new ArrayList<>(), FilterService.NOOP);
+        final ClassificationEngine classificationEngine = createEngine(() -> new ArrayList<>(), FilterService.NOOP);
         for (int i=Rule.MIN_PORT_VALUE; i<Rule.MAX_PORT_VALUE; i++) {
             classificationEngine.classify(new ClassificationRequest("Default", 0, null, i, "127.0.0.1", ProtocolType.TCP));
         }
@@ -165,6 +245,10 @@ public class DefaultClassificationEngineTest {
 
     @Test(timeout=5000)
     public void verifyInitializesQuickly() {
-        new DefaultClassificationEngine(() -> Lists.newArrayList(new Rule("Test", "0-10000")), FilterService.NOOP);
+        createEngine(() -> Lists.newArrayList(new Rule("Test", "0-10000")), FilterService.NOOP);
+    }
+
+    private static ClassificationRequest dst(String dstAddress, int dstPort) {
+        return new ClassificationRequest("Default", 0, null, dstPort, dstAddress, ProtocolType.TCP);
     }
-}
\ No newline at end of file
+}
@@ -92,7 +92,7 @@ public class DefaultClassificationServiceIT {
         classificationService = new DefaultClassificationService(
                 ruleDao,
                 groupDao,
-                new DefaultClassificationEngine(
+                new CompiledClassificationEngine(
                         new DaoClassificationRuleProvider(ruleDao), filterService),
                 filterService,
                 transactionOperations);
@@ -29,15 +29,22 @@
 package org.opennms.netmgt.flows.elastic;
 
 import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.opennms.core.cache.Cache;
 import org.opennms.core.cache.CacheBuilder;
 import org.opennms.core.cache.CacheConfig;
+import org.opennms.core.criteria.CriteriaBuilder;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.NodeDao;
@@ -51,13 +58,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.support.TransactionOperations;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.Timer;
 import com.google.common.cache.CacheLoader;
 
+/**
+ * Enriches the flow documents of a batch with metadata, node information, locality and the application.
+ *
+ * The node information of the distinct addresses of a batch is resolved at once: IPv4 addresses are
+ * looked up in a {@link NodeInfoNearCache}, and the misses are loaded from the database with a single query.
+ * Other addresses go through the node cache. No locks are held across batches,
+ * so batches can be enriched concurrently.
+ */
 public class DocumentEnricher {
     private static final Logger LOG = LoggerFactory.getLogger(DocumentEnricher.class);
 
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 65536;
+
     private final NodeDao nodeDao;
 
     private final InterfaceToNodeCache interfaceToNodeCache;
@@ -69,11 +89,30 @@ public class DocumentEnricher {
     // Caches NodeDocument data
     private final Cache<NodeInfoKey, Optional<NodeDocument>> nodeInfoCache;
 
+    // Caches NodeDocument data of IPv4 addresses, in front of the database
+    private final NodeInfoNearCache nearCache;
+
     private final Timer nodeLoadTimer;
 
+    private final Timer nodeResolveTimer;
+
+    private final Meter nearCacheHits;
+
+    private final Meter nearCacheMisses;
+
+    private final Histogram addressesPerBatch;
+
+    private final Histogram addressesResolvedPerBatch;
+
     public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
                             TransactionOperations transactionOperations, ClassificationEngine classificationEngine,
                             CacheConfig cacheConfig) {
+        this(metricRegistry, nodeDao, interfaceToNodeCache, transactionOperations, classificationEngine, cacheConfig, DEFAULT_NEAR_CACHE_SIZE);
+    }
+
+    public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
+                            TransactionOperations transactionOperations, ClassificationEngine classificationEngine,
+                            CacheConfig cacheConfig, int nearCacheSize) {
         this.nodeDao = Objects.requireNonNull(nodeDao);
         this.interfaceToNodeCache = Objects.requireNonNull(interfaceToNodeCache);
         this.transactionOperations = Objects.requireNonNull(transactionOperations);
@@ -87,7 +126,22 @@ public class DocumentEnricher {
                         return getNodeInfo(key.location, key.ipAddress);
                     }
                 }).build();
+        // The near cache honors the settings of the node cache, but not its size
+        final long expireAfterWrite = cacheConfig.getExpireAfterWrite() == null ? 0 : cacheConfig.getExpireAfterWrite();
+        this.nearCache = new NodeInfoNearCache(cacheConfig.isEnabled() ? nearCacheSize : 0, TimeUnit.SECONDS.toMillis(expireAfterWrite));
+
         this.nodeLoadTimer = metricRegistry.timer("nodeLoadTime");
+        this.nodeResolveTimer = metricRegistry.timer("nodeResolveTime");
+        this.nearCacheHits = metricRegistry.meter("nodeNearCacheHits");
+        this.nearCacheMisses = metricRegistry.meter("nodeNearCacheMisses");
+        this.addressesPerBatch = metricRegistry.histogram("addressesPerBatch");
+        this.addressesResolvedPerBatch = metricRegistry.histogram("addressesResolvedPerBatch");
+        metricRegistry.register("nodeNearCacheHitRatio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(nearCacheHits.getOneMinuteRate(), nearCacheHits.getOneMinuteRate() + nearCacheMisses.getOneMinuteRate());
+            }
+        });
     }
 
     public void enrich(final List<FlowDocument> documents, final FlowSource source) {
@@ -96,55 +150,221 @@ public class DocumentEnricher {
             return;
         }
 
-        transactionOperations.execute(callback -> {
-            documents.forEach(document -> {
-                // Metadata from message
-                document.setHost(source.getSourceAddress());
-                document.setLocation(source.getLocation());
+        // Node data
+        final NodeInfoBatch nodeInfo = new NodeInfoBatch(source.getLocation(), documents.size() * 2 + 1);
+        nodeInfo.add(source.getSourceAddress());
+        for (final FlowDocument document : documents) {
+            nodeInfo.add(document.getSrcAddr());
+            nodeInfo.add(document.getDstAddr());
+        }
+        nodeInfo.resolve();
 
-                // Node data
-                getNodeInfoFromCache(source.getLocation(), source.getSourceAddress()).ifPresent(document::setNodeExporter);
-                if (document.getDstAddr() != null) {
-                    getNodeInfoFromCache(source.getLocation(), document.getDstAddr()).ifPresent(document::setNodeDst);
-                }
-                if (document.getSrcAddr() != null) {
-                    getNodeInfoFromCache(source.getLocation(), document.getSrcAddr()).ifPresent(document::setNodeSrc);
-                }
+        documents.forEach(document -> {
+            // Metadata from message
+            document.setHost(source.getSourceAddress());
+            document.setLocation(source.getLocation());
 
-                // Locality
-                if (document.getSrcAddr() != null) {
-                    document.setSrcLocality(isPrivateAddress(document.getSrcAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
-                }
-                if (document.getDstAddr() != null) {
-                    document.setDstLocality(isPrivateAddress(document.getDstAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
-                }
+            // Node data
+            nodeInfo.get(source.getSourceAddress()).ifPresent(document::setNodeExporter);
+            if (document.getDstAddr() != null) {
+                nodeInfo.get(document.getDstAddr()).ifPresent(document::setNodeDst);
+            }
+            if (document.getSrcAddr() != null) {
+                nodeInfo.get(document.getSrcAddr()).ifPresent(document::setNodeSrc);
+            }
 
-                if (Locality.PUBLIC.equals(document.getDstLocality()) || Locality.PUBLIC.equals(document.getSrcLocality())) {
-                    document.setFlowLocality(Locality.PUBLIC);
-                } else if (Locality.PRIVATE.equals(document.getDstLocality()) || Locality.PRIVATE.equals(document.getSrcLocality())) {
-                    document.setFlowLocality(Locality.PRIVATE);
-                }
+            // Locality
+            if (document.getSrcAddr() != null) {
+                document.setSrcLocality(isPrivateAddress(document.getSrcAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
+            }
+            if (document.getDstAddr() != null) {
+                document.setDstLocality(isPrivateAddress(document.getDstAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
+            }
 
-                // Conversation tagging
-                document.setConvoKey(ConversationKeyUtils.getConvoKeyAsJsonString(document));
+            if (Locality.PUBLIC.equals(document.getDstLocality()) || Locality.PUBLIC.equals(document.getSrcLocality())) {
+                document.setFlowLocality(Locality.PUBLIC);
+            } else if (Locality.PRIVATE.equals(document.getDstLocality()) || Locality.PRIVATE.equals(document.getSrcLocality())) {
+                document.setFlowLocality(Locality.PRIVATE);
+            }
 
-                final ClassificationRequest classificationRequest = createClassificationRequest(document);
+            // Conversation tagging
+            document.setConvoKey(ConversationKeyUtils.getConvoKeyAsJsonString(document));
 
-                // Check whether classification is possible
-                if (classificationRequest.isClassifiable()) {
-                    // Apply Application mapping
-                    document.setApplication(classificationEngine.classify(classificationRequest));
-                }
-            });
-            return null;
+            final ClassificationRequest classificationRequest = createClassificationRequest(document);
+
+            // Check whether classification is possible
+            if (classificationRequest.isClassifiable()) {
+                // Apply Application mapping
+                document.setApplication(classificationEngine.classify(classificationRequest));
+            }
         });
     }
 
     private static boolean isPrivateAddress(String ipAddress) {
+        final long ipv4 = NodeInfoNearCache.parseIPv4(ipAddress);
+        if (ipv4 >= 0) {
+            return NodeInfoNearCache.isPrivateIPv4(ipv4);
+        }
         final InetAddress inetAddress = InetAddressUtils.addr(ipAddress);
         return inetAddress.isLoopbackAddress() || inetAddress.isLinkLocalAddress() || inetAddress.isSiteLocalAddress();
     }
 
+    /**
+     * The distinct addresses of a batch and their node information.
+     */
+    private class NodeInfoBatch {
+        private final String location;
+
+        // Open addressing over the IPv4 addresses, -1 marks empty slots
+        private final long[] addresses;
+        private final long[] keys;
+        private final Optional<NodeDocument>[] values;
+        private final int mask;
+        private int size;
+
+        // Other addresses, which are resolved through the node cache
+        private final Map<String, Optional<NodeDocument>> others = new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        private NodeInfoBatch(String location, int maxAddresses) {
+            this.location = location;
+            final int capacity = Integer.highestOneBit(Math.max(1, maxAddresses)) << 2;
+            this.addresses = new long[capacity];
+            this.keys = new long[capacity];
+            this.values = new Optional[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(addresses, -1);
+        }
+
+        private void add(String address) {
+            if (address == null) {
+                return;
+            }
+            final long ipv4 = NodeInfoNearCache.parseIPv4(address);
+            if (ipv4 < 0) {
+                others.putIfAbsent(address, null);
+                return;
+            }
+            int slot = slot(ipv4);
+            while (addresses[slot] != -1) {
+                if (addresses[slot] == ipv4) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            addresses[slot] = ipv4;
+            keys[slot] = nearCache.key(location, ipv4);
+            values[slot] = nearCache.get(keys[slot]);
+            size++;
+        }
+
+        private Optional<NodeDocument> get(String address) {
+            if (address == null) {
+                return Optional.empty();
+            }
+            final long ipv4 = NodeInfoNearCache.parseIPv4(address);
+            if (ipv4 < 0) {
+                return others.get(address);
+            }
+            int slot = slot(ipv4);
+            while (addresses[slot] != ipv4) {
+                slot = (slot + 1) & mask;
+            }
+            return values[slot];
+        }
+
+        private int slot(long ipv4) {
+            return (int) ((ipv4 * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+
+        /**
+         * Resolves the addresses which were not found in the near cache with a single query.
+         */
+        private void resolve() {
+            final List<Integer> misses = new ArrayList<>();
+            for (int slot = 0; slot < addresses.length; slot++) {
+                if (addresses[slot] != -1 && values[slot] == null) {
+                    misses.add(slot);
+                }
+            }
+            addressesPerBatch.update(size + others.size());
+            nearCacheHits.mark(size - misses.size());
+            nearCacheMisses.mark(misses.size());
+            addressesResolvedPerBatch.update(misses.size() + others.size());
+            if (misses.isEmpty() && others.isEmpty()) {
+                return;
+            }
+
+            try (Timer.Context ctx = nodeResolveTimer.time()) {
+                transactionOperations.execute(callback -> {
+                    // Map the addresses to nodes
+                    final int[] nodeIds = new int[misses.size()];
+                    final List<Integer> distinctNodeIds = new ArrayList<>();
+                    for (int i = 0; i < misses.size(); i++) {
+                        final Optional<Integer> nodeId = interfaceToNodeCache.getFirstNodeId(location, toInetAddress(addresses[misses.get(i)]));
+                        nodeIds[i] = nodeId.orElse(-1);
+                        if (nodeId.isPresent() && !distinctNodeIds.contains(nodeId.get())) {
+                            distinctNodeIds.add(nodeId.get());
+                        }
+                    }
+
+                    // Load the nodes at once
+                    final Map<Integer, Optional<NodeDocument>> nodeInfos = getNodeInfos(distinctNodeIds);
+                    for (int i = 0; i < misses.size(); i++) {
+                        final int slot = misses.get(i);
+                        values[slot] = nodeIds[i] == -1 ? Optional.empty() : nodeInfos.get(nodeIds[i]);
+                        nearCache.put(keys[slot], values[slot]);
+                    }
+
+                    for (Map.Entry<String, Optional<NodeDocument>> entry : others.entrySet()) {
+                        entry.setValue(getNodeInfoFromCache(location, entry.getKey()));
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    private static InetAddress toInetAddress(long ipv4) {
+        try {
+            return InetAddress.getByAddress(new byte[]{(byte) (ipv4 >>> 24), (byte) (ipv4 >>> 16), (byte) (ipv4 >>> 8), (byte) ipv4});
+        } catch (UnknownHostException e) {
+            // Only thrown for addresses of illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the node information of the given nodes, empty for the nodes which do not exist.
+     */
+    private Map<Integer, Optional<NodeDocument>> getNodeInfos(List<Integer> nodeIds) {
+        final Map<Integer, Optional<NodeDocument>> nodeInfos = new HashMap<>();
+        if (nodeIds.isEmpty()) {
+            return nodeInfos;
+        }
+        try (Timer.Context ctx = nodeLoadTimer.time()) {
+            for (OnmsNode onmsNode : nodeDao.findMatching(new CriteriaBuilder(OnmsNode.class).in("id", nodeIds).toCriteria())) {
+                nodeInfos.put(onmsNode.getId(), Optional.of(toNodeDocument(onmsNode.getId(), onmsNode)));
+            }
+        }
+        for (Integer nodeId : nodeIds) {
+            if (!nodeInfos.containsKey(nodeId)) {
+                LOG.warn("Node with id: {} is in the interface to node cache, but wasn't found in the database.", nodeId);
+                nodeInfos.put(nodeId, Optional.empty());
+            }
+        }
+        return nodeInfos;
+    }
+
+    private static NodeDocument toNodeDocument(Integer nodeId, OnmsNode onmsNode) {
+        final NodeDocument nodeInfo = new NodeDocument();
+        nodeInfo.setForeignSource(onmsNode.getForeignSource());
+        nodeInfo.setForeignId(onmsNode.getForeignId());
+        nodeInfo.setNodeId(nodeId);
+        nodeInfo.setCategories(onmsNode.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
+        return nodeInfo;
+    }
+
     private Optional<NodeDocument> getNodeInfoFromCache(String location, String ipAddress) {
         final NodeInfoKey key = new NodeInfoKey(location, ipAddress);
         try {
@@ -165,13 +385,7 @@ public class DocumentEnricher {
             try (Timer.Context ctx = nodeLoadTimer.time()) {
                 final OnmsNode onmsNode = nodeDao.get(nodeId.get());
                 if (onmsNode != null) {
-                    final NodeDocument nodeInfo = new NodeDocument();
-                    nodeInfo.setForeignSource(onmsNode.getForeignSource());
-                    nodeInfo.setForeignId(onmsNode.getForeignId());
-                    nodeInfo.setNodeId(nodeId.get());
-                    nodeInfo.setCategories(onmsNode.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
-
-                    return Optional.of(nodeInfo);
+                    return Optional.of(toNodeDocument(nodeId.get(), onmsNode));
                 } else {
                     LOG.warn("Node with id: {} at location: {} with IP address: {} is in the interface to node cache, but wasn't found in the database.");
                 }
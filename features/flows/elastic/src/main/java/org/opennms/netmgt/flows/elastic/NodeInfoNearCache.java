@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, direct-mapped cache of the node information of IPv4 addresses,
+ * keyed by a <code>long</code> packing the location and the address.
+ *
+ * Lookups do not lock nor allocate. Colliding entries replace each other, and both positive
+ * and negative (empty) results expire after the configured time to live.
+ */
+class NodeInfoNearCache {
+
+    private static class Entry {
+        private final long key;
+        private final Optional<NodeDocument> value;
+        private final long expiresAt;
+
+        private Entry(long key, Optional<NodeDocument> value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ConcurrentMap<String, Integer> locationIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextLocationId = new AtomicInteger();
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int shift;
+    private final long ttlNanos;
+
+    /**
+     * @param capacity the number of entries, rounded up to the next power of two. 0 disables the cache.
+     * @param ttlMillis the time after which entries expire, 0 to never expire them
+     */
+    NodeInfoNearCache(int capacity, long ttlMillis) {
+        final int size = capacity <= 0 ? 0 : Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.entries = new AtomicReferenceArray<>(size);
+        this.shift = size == 0 ? 0 : 64 - Integer.numberOfTrailingZeros(size);
+        this.ttlNanos = ttlMillis <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * @return the key of the given location and IPv4 address, as returned by {@link #parseIPv4(String)}.
+     */
+    long key(String location, long ipv4) {
+        final int locationId = locationIds.computeIfAbsent(location == null ? "" : location, l -> nextLocationId.getAndIncrement());
+        return ((long) locationId << 32) | ipv4;
+    }
+
+    /**
+     * @return the cached value, or <code>null</code> if the key is not cached.
+     */
+    Optional<NodeDocument> get(long key) {
+        if (entries.length() == 0) {
+            return null;
+        }
+        final Entry entry = entries.get(index(key));
+        if (entry == null || entry.key != key || (ttlNanos != Long.MAX_VALUE && System.nanoTime() - entry.expiresAt > 0)) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    void put(long key, Optional<NodeDocument> value) {
+        if (entries.length() == 0) {
+            return;
+        }
+        final long expiresAt = ttlNanos == Long.MAX_VALUE ? 0 : System.nanoTime() + ttlNanos;
+        entries.set(index(key), new Entry(key, value, expiresAt));
+    }
+
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * Parses dotted quad IPv4 addresses without allocating.
+     *
+     * @return the address as an unsigned integer, or -1 if the given string is not an IPv4 address
+     */
+    static long parseIPv4(String address) {
+        if (address == null) {
+            return -1;
+        }
+        long result = 0;
+        int fields = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < address.length(); i++) {
+            final char c = address.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || fields == 3) {
+                    return -1;
+                }
+                result = (result << 8) | value;
+                fields++;
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                value = value * 10 + (c - '0');
+                digits++;
+                if (value > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0 || fields != 3) {
+            return -1;
+        }
+        return (result << 8) | value;
+    }
+
+    /**
+     * @return true if the given IPv4 address is a loopback, link local or site local address,
+     * same as {@link java.net.InetAddress} does.
+     */
+    static boolean isPrivateIPv4(long ipv4) {
+        final long firstOctet = ipv4 >>> 24;
+        final long secondOctet = (ipv4 >>> 16) & 0xff;
+        return firstOctet == 127
+                || firstOctet == 10
+                || (firstOctet == 169 && secondOctet == 254)
+                || (firstOctet == 172 && (secondOctet & 0xf0) == 16)
+                || (firstOctet == 192 && secondOctet == 168);
+    }
+}
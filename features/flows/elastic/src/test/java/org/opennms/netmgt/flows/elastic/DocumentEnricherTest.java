@@ -30,6 +30,7 @@ package org.opennms.netmgt.flows.elastic;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
@@ -50,6 +51,7 @@ public class DocumentEnricherTest {
 
     private DocumentEnricher enricher;
     private AtomicInteger nodeDaoGetCounter;
+    private AtomicInteger nodeDaoFindMatchingCounter;
 
     @Before
     public void setUp() {
@@ -58,6 +60,7 @@ public class DocumentEnricherTest {
         final NodeDao nodeDao = factory.getNodeDao();
         final InterfaceToNodeCache interfaceToNodeCache = factory.getInterfaceToNodeCache();
         nodeDaoGetCounter = factory.getNodeDaoGetCounter();
+        nodeDaoFindMatchingCounter = factory.getNodeDaoFindMatchingCounter();
 
         interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.1"), 1);
         interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.2"), 2);
@@ -75,8 +78,31 @@ public class DocumentEnricherTest {
         documents.add(createFlowDocument("10.0.0.1", "10.0.0.3"));
         enricher.enrich(documents, new FlowSource("Default", "127.0.0.1"));
 
-        // get is also called for each save, so we account for those as well
-        assertEquals(6, nodeDaoGetCounter.get());
+        // get is only called for each save, the nodes of the batch are loaded at once
+        assertEquals(3, nodeDaoGetCounter.get());
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
+
+        // All addresses, including the unknown exporter, are served from the cache now
+        enricher.enrich(documents, new FlowSource("Default", "127.0.0.1"));
+        assertEquals(3, nodeDaoGetCounter.get());
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
+    }
+
+    @Test
+    public void verifyNodeInfoOfBatch() {
+        final List<FlowDocument> documents = Lists.newArrayList();
+        documents.add(createFlowDocument("10.0.0.1", "10.0.0.2"));
+        documents.add(createFlowDocument("10.0.0.3", "192.0.2.1"));
+        enricher.enrich(documents, new FlowSource("Default", "10.0.0.1"));
+
+        assertEquals(Integer.valueOf(1), documents.get(0).getNodeExporter().getNodeId());
+        assertEquals(Integer.valueOf(1), documents.get(0).getNodeSrc().getNodeId());
+        assertEquals(Integer.valueOf(2), documents.get(0).getNodeDst().getNodeId());
+        assertEquals("my-requisition", documents.get(0).getNodeDst().getForeignSource());
+        assertEquals(Integer.valueOf(3), documents.get(1).getNodeSrc().getNodeId());
+        assertNull(documents.get(1).getNodeDst());
+        assertEquals(Locality.PUBLIC, documents.get(1).getFlowLocality());
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
     }
 
     private static FlowDocument createFlowDocument(String sourceIp, String destIp) {
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Optional;
+
+import org.junit.Test;
+
+public class NodeInfoNearCacheTest {
+
+    @Test
+    public void verifyParseIPv4() {
+        assertEquals(0L, NodeInfoNearCache.parseIPv4("0.0.0.0"));
+        assertEquals(0x0A000001L, NodeInfoNearCache.parseIPv4("10.0.0.1"));
+        assertEquals(0xFFFFFFFFL, NodeInfoNearCache.parseIPv4("255.255.255.255"));
+
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4(null));
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4(""));
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4("10.0.0"));
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4("10.0.0.1.1"));
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4("10..0.1"));
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4("10.0.0.256"));
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4("10.0.0.0001"));
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4("::1"));
+        assertEquals(-1L, NodeInfoNearCache.parseIPv4("fe80::1"));
+    }
+
+    @Test
+    public void verifyPrivateIPv4() throws Exception {
+        for (String address : new String[]{"127.0.0.1", "10.1.2.3", "169.254.0.1", "172.16.0.1", "172.31.255.255",
+                "192.168.1.1", "172.15.0.1", "172.32.0.1", "192.0.2.1", "8.8.8.8", "169.253.0.1"}) {
+            final InetAddress inetAddress = InetAddress.getByName(address);
+            final boolean expected = inetAddress.isLoopbackAddress() || inetAddress.isLinkLocalAddress() || inetAddress.isSiteLocalAddress();
+            assertEquals(address, expected, NodeInfoNearCache.isPrivateIPv4(NodeInfoNearCache.parseIPv4(address)));
+        }
+    }
+
+    @Test
+    public void verifyGetAndPut() {
+        final NodeInfoNearCache cache = new NodeInfoNearCache(1024, 0);
+        final long key = cache.key("Default", NodeInfoNearCache.parseIPv4("10.0.0.1"));
+        final long otherLocationKey = cache.key("Other", NodeInfoNearCache.parseIPv4("10.0.0.1"));
+        assertFalse(key == otherLocationKey);
+        assertEquals(key, cache.key("Default", NodeInfoNearCache.parseIPv4("10.0.0.1")));
+
+        assertNull(cache.get(key));
+
+        final NodeDocument nodeDocument = new NodeDocument();
+        nodeDocument.setNodeId(1);
+        cache.put(key, Optional.of(nodeDocument));
+        cache.put(otherLocationKey, Optional.empty());
+
+        assertEquals(Integer.valueOf(1), cache.get(key).get().getNodeId());
+        assertFalse(cache.get(otherLocationKey).isPresent());
+    }
+
+    @Test
+    public void verifyExpiry() throws InterruptedException {
+        final NodeInfoNearCache cache = new NodeInfoNearCache(16, 1);
+        final long key = cache.key("Default", NodeInfoNearCache.parseIPv4("10.0.0.1"));
+        cache.put(key, Optional.empty());
+        Thread.sleep(5);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void verifyDisabled() {
+        final NodeInfoNearCache cache = new NodeInfoNearCache(0, 0);
+        final long key = cache.key("Default", NodeInfoNearCache.parseIPv4("10.0.0.1"));
+        cache.put(key, Optional.empty());
+        assertNull(cache.get(key));
+        assertTrue(NodeInfoNearCache.parseIPv4("10.0.0.1") > 0);
+    }
+}
@@ -0,0 +1,534 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.opennms.core.expression.NumericExpressionParser;
+import org.opennms.core.expression.NumericExpressionParser.Kind;
+import org.opennms.core.expression.NumericExpressionParser.Term;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * An expression compiled to a tree of nodes which evaluate whole columns at once.
+ *
+ * Only the arithmetic subset of JEXL is supported: column and constant references,
+ * numeric literals, <code>+ - * / %</code>, comparisons, boolean operators,
+ * the ternary operator and the double valued functions of the <code>math:</code>
+ * and <code>strictmath:</code> namespaces. {@link #compile(String, Resolver)}
+ * returns <code>null</code> for anything else, or whenever the result could
+ * depend on JEXL's typing rules (integer arithmetic, literal widening, boolean
+ * coercion), as decided by the {@link NumericExpressionParser}.
+ *
+ * Rows for which JEXL's lenient arithmetic may not match plain IEEE 754
+ * (division by zero, ordering comparisons involving NaN, signed zeros) are
+ * flagged in the <code>deferred</code> mask by {@link #evaluate(int, boolean[])},
+ * and must be evaluated by JEXL instead.
+ */
+final class ColumnarExpression {
+
+    /**
+     * A value referenced by name in an expression: either a column, or a constant.
+     */
+    static final class Operand {
+        private final Kind kind;
+        private final double[] column;
+        private final double constant;
+
+        private Operand(Kind kind, double[] column, double constant) {
+            this.kind = kind;
+            this.column = column;
+            this.constant = constant;
+        }
+
+        static Operand column(Kind kind, double[] column) {
+            return new Operand(kind, column, Double.NaN);
+        }
+
+        static Operand constant(Kind kind, double constant) {
+            return new Operand(kind, null, constant);
+        }
+    }
+
+    /**
+     * Resolves the names referenced by an expression.
+     */
+    interface Resolver {
+        /**
+         * @param name the name of the variable, including any dotted segments
+         * @return the operand, or <code>null</code> if the reference can only be resolved by JEXL
+         */
+        Operand resolve(String name);
+    }
+
+    private static final Map<String, DoubleUnaryOperator> MATH_UNARY = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("abs", Math::abs).put("acos", Math::acos).put("asin", Math::asin).put("atan", Math::atan)
+            .put("cbrt", Math::cbrt).put("ceil", Math::ceil).put("cos", Math::cos).put("cosh", Math::cosh)
+            .put("exp", Math::exp).put("expm1", Math::expm1).put("floor", Math::floor).put("log", Math::log)
+            .put("log10", Math::log10).put("log1p", Math::log1p).put("rint", Math::rint).put("signum", Math::signum)
+            .put("sin", Math::sin).put("sinh", Math::sinh).put("sqrt", Math::sqrt).put("tan", Math::tan)
+            .put("tanh", Math::tanh).put("toDegrees", Math::toDegrees).put("toRadians", Math::toRadians)
+            .put("ulp", Math::ulp)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> MATH_BINARY = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("atan2", Math::atan2).put("hypot", Math::hypot).put("IEEEremainder", Math::IEEEremainder)
+            .put("max", Math::max).put("min", Math::min).put("pow", Math::pow)
+            .build();
+
+    private static final Map<String, DoubleUnaryOperator> STRICTMATH_UNARY = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("abs", StrictMath::abs).put("acos", StrictMath::acos).put("asin", StrictMath::asin).put("atan", StrictMath::atan)
+            .put("cbrt", StrictMath::cbrt).put("ceil", StrictMath::ceil).put("cos", StrictMath::cos).put("cosh", StrictMath::cosh)
+            .put("exp", StrictMath::exp).put("expm1", StrictMath::expm1).put("floor", StrictMath::floor).put("log", StrictMath::log)
+            .put("log10", StrictMath::log10).put("log1p", StrictMath::log1p).put("rint", StrictMath::rint).put("signum", StrictMath::signum)
+            .put("sin", StrictMath::sin).put("sinh", StrictMath::sinh).put("sqrt", StrictMath::sqrt).put("tan", StrictMath::tan)
+            .put("tanh", StrictMath::tanh).put("toDegrees", StrictMath::toDegrees).put("toRadians", StrictMath::toRadians)
+            .put("ulp", StrictMath::ulp)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> STRICTMATH_BINARY = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("atan2", StrictMath::atan2).put("hypot", StrictMath::hypot).put("IEEEremainder", StrictMath::IEEEremainder)
+            .put("max", StrictMath::max).put("min", StrictMath::min).put("pow", StrictMath::pow)
+            .build();
+
+    private final Node root;
+
+    private ColumnarExpression(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @return the compiled expression, or <code>null</code> if the expression
+     *         falls outside of the supported subset
+     */
+    static ColumnarExpression compile(String expression, Resolver resolver) {
+        final Node root = NumericExpressionParser.parse(expression, new NodeBuilder(resolver));
+        return root != null ? new ColumnarExpression(root) : null;
+    }
+
+    /**
+     * Evaluates the expression over the first <code>numRows</code> rows.
+     *
+     * @param deferred set to true for the rows that must be evaluated by JEXL instead
+     * @return a newly allocated column with the results
+     */
+    double[] evaluate(int numRows, boolean[] deferred) {
+        final double[] values = root.eval(numRows, deferred);
+        return root instanceof Reference ? Arrays.copyOf(values, numRows) : values;
+    }
+
+    /**
+     * Numeric nodes implement {@link #eval(int, boolean[])}, boolean nodes
+     * {@link #test(int, boolean[])}. Both return a new array, except for
+     * references which return the referenced column, and must OR the rows
+     * that need to be evaluated by JEXL into <code>deferred</code>.
+     */
+    private abstract static class Node {
+        double[] eval(int n, boolean[] deferred) {
+            throw new IllegalStateException();
+        }
+
+        boolean[] test(int n, boolean[] deferred) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static final class Literal extends Node {
+        private final double value;
+
+        Literal(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double[] eval(int n, boolean[] deferred) {
+            final double[] out = new double[n];
+            Arrays.fill(out, value);
+            return out;
+        }
+    }
+
+    private static final class Reference extends Node {
+        private final double[] column;
+
+        Reference(double[] column) {
+            this.column = column;
+        }
+
+        @Override
+        double[] eval(int n, boolean[] deferred) {
+            return column;
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node operand;
+
+        Negate(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double[] eval(int n, boolean[] deferred) {
+            final double[] a = operand.eval(n, deferred);
+            final double[] out = new double[n];
+            for (int i = 0; i < n; i++) {
+                out[i] = -a[i];
+            }
+            return out;
+        }
+    }
+
+    private static final class Arithmetic extends Node {
+        private final char operator;
+        private final Node left;
+        private final Node right;
+
+        Arithmetic(char operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double[] eval(int n, boolean[] deferred) {
+            final double[] a = left.eval(n, deferred);
+            final double[] b = right.eval(n, deferred);
+            final double[] out = new double[n];
+            switch (operator) {
+            case '+':
+                for (int i = 0; i < n; i++) {
+                    out[i] = a[i] + b[i];
+                }
+                break;
+            case '-':
+                for (int i = 0; i < n; i++) {
+                    out[i] = a[i] - b[i];
+                }
+                break;
+            case '*':
+                for (int i = 0; i < n; i++) {
+                    out[i] = a[i] * b[i];
+                }
+                break;
+            case '/':
+                for (int i = 0; i < n; i++) {
+                    if (b[i] == 0.0) {
+                        deferred[i] = true;
+                    }
+                    out[i] = a[i] / b[i];
+                }
+                break;
+            case '%':
+                for (int i = 0; i < n; i++) {
+                    if (b[i] == 0.0) {
+                        deferred[i] = true;
+                    }
+                    out[i] = a[i] % b[i];
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown operator " + operator);
+            }
+            return out;
+        }
+    }
+
+    private static final class Comparison extends Node {
+        private final String operator;
+        private final Node left;
+        private final Node right;
+
+        Comparison(String operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean[] test(int n, boolean[] deferred) {
+            final double[] a = left.eval(n, deferred);
+            final double[] b = right.eval(n, deferred);
+            final boolean[] out = new boolean[n];
+            final boolean equality = "==".equals(operator) || "!=".equals(operator);
+            for (int i = 0; i < n; i++) {
+                final double l = a[i], r = b[i];
+                if (l == 0.0 && r == 0.0 && Double.doubleToRawLongBits(l) != Double.doubleToRawLongBits(r)) {
+                    deferred[i] = true;
+                } else if (Double.isNaN(l) || Double.isNaN(r)) {
+                    if (equality) {
+                        // JEXL considers NaN to be equal to itself, as in "x == NaN"
+                        out[i] = (Double.isNaN(l) == Double.isNaN(r)) ^ "!=".equals(operator);
+                    } else {
+                        deferred[i] = true;
+                    }
+                } else {
+                    out[i] = compare(l, r);
+                }
+            }
+            return out;
+        }
+
+        private boolean compare(double l, double r) {
+            switch (operator) {
+            case "==":
+                return l == r;
+            case "!=":
+                return l != r;
+            case "<":
+                return l < r;
+            case "<=":
+                return l <= r;
+            case ">":
+                return l > r;
+            case ">=":
+                return l >= r;
+            default:
+                throw new IllegalStateException("Unknown operator " + operator);
+            }
+        }
+    }
+
+    private static final class Logical extends Node {
+        private final boolean and;
+        private final Node left;
+        private final Node right;
+
+        Logical(boolean and, Node left, Node right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean[] test(int n, boolean[] deferred) {
+            final boolean[] a = left.test(n, deferred);
+            // The right hand side is only evaluated by JEXL when the left hand side does not decide the result
+            final boolean[] rightDeferred = new boolean[n];
+            final boolean[] b = right.test(n, rightDeferred);
+            final boolean[] out = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                if (a[i] != and) {
+                    out[i] = a[i];
+                } else {
+                    out[i] = b[i];
+                    deferred[i] |= rightDeferred[i];
+                }
+            }
+            return out;
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean[] test(int n, boolean[] deferred) {
+            final boolean[] a = operand.test(n, deferred);
+            final boolean[] out = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                out[i] = !a[i];
+            }
+            return out;
+        }
+    }
+
+    private static final class Conditional extends Node {
+        private final Node condition;
+        private final Node then;
+        private final Node otherwise;
+
+        Conditional(Node condition, Node then, Node otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        double[] eval(int n, boolean[] deferred) {
+            final boolean[] c = condition.test(n, deferred);
+            // Only the branch that is taken is evaluated by JEXL
+            final boolean[] thenDeferred = new boolean[n];
+            final double[] t = then.eval(n, thenDeferred);
+            final boolean[] otherwiseDeferred = new boolean[n];
+            final double[] o = otherwise.eval(n, otherwiseDeferred);
+            final double[] out = new double[n];
+            for (int i = 0; i < n; i++) {
+                if (c[i]) {
+                    out[i] = t[i];
+                    deferred[i] |= thenDeferred[i];
+                } else {
+                    out[i] = o[i];
+                    deferred[i] |= otherwiseDeferred[i];
+                }
+            }
+            return out;
+        }
+    }
+
+    private static final class UnaryFunction extends Node {
+        private final DoubleUnaryOperator function;
+        private final Node arg;
+
+        UnaryFunction(DoubleUnaryOperator function, Node arg) {
+            this.function = function;
+            this.arg = arg;
+        }
+
+        @Override
+        double[] eval(int n, boolean[] deferred) {
+            final double[] a = arg.eval(n, deferred);
+            final double[] out = new double[n];
+            for (int i = 0; i < n; i++) {
+                out[i] = function.applyAsDouble(a[i]);
+            }
+            return out;
+        }
+    }
+
+    private static final class BinaryFunction extends Node {
+        private final DoubleBinaryOperator function;
+        private final Node left;
+        private final Node right;
+
+        BinaryFunction(DoubleBinaryOperator function, Node left, Node right) {
+            this.function = function;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double[] eval(int n, boolean[] deferred) {
+            final double[] a = left.eval(n, deferred);
+            final double[] b = right.eval(n, deferred);
+            final double[] out = new double[n];
+            for (int i = 0; i < n; i++) {
+                out[i] = function.applyAsDouble(a[i], b[i]);
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Creates the nodes of the expressions: names are resolved by the {@link Resolver},
+     * and functions are called as <code>math:name(...)</code> or <code>strictmath:name(...)</code>.
+     */
+    private static final class NodeBuilder implements NumericExpressionParser.Builder<Node> {
+        private final Resolver resolver;
+
+        NodeBuilder(Resolver resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public Term<Node> reference(String name, String key) {
+            // Array accesses are left to JEXL
+            if (key != null) {
+                return null;
+            }
+            final Operand operand = resolver.resolve(name);
+            if (operand == null) {
+                return null;
+            }
+            return new Term<>(operand.kind, operand.column != null ? new Reference(operand.column) : new Literal(operand.constant));
+        }
+
+        @Override
+        public Node literal(double value) {
+            return new Literal(value);
+        }
+
+        @Override
+        public Node negate(Node operand) {
+            return new Negate(operand);
+        }
+
+        @Override
+        public Node arithmetic(char operator, Node left, Node right) {
+            return new Arithmetic(operator, left, right);
+        }
+
+        @Override
+        public Node comparison(String operator, Node left, Node right) {
+            return new Comparison(operator, left, right);
+        }
+
+        @Override
+        public Node logical(boolean and, Node left, Node right) {
+            return new Logical(and, left, right);
+        }
+
+        @Override
+        public Node not(Node operand) {
+            return new Not(operand);
+        }
+
+        @Override
+        public Node conditional(Node condition, Node then, Node otherwise) {
+            return new Conditional(condition, then, otherwise);
+        }
+
+        @Override
+        public Node function(String namespace, String name, boolean method, List<Node> args) {
+            final boolean strict;
+            if (method) {
+                return null;
+            } else if ("math".equals(namespace)) {
+                strict = false;
+            } else if ("strictmath".equals(namespace)) {
+                strict = true;
+            } else {
+                return null;
+            }
+            if (args.size() == 1) {
+                final DoubleUnaryOperator function = (strict ? STRICTMATH_UNARY : MATH_UNARY).get(name);
+                if (function != null) {
+                    return new UnaryFunction(function, args.get(0));
+                }
+            } else if (args.size() == 2) {
+                final DoubleBinaryOperator function = (strict ? STRICTMATH_BINARY : MATH_BINARY).get(name);
+                if (function != null) {
+                    return new BinaryFunction(function, args.get(0), args.get(1));
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.JexlException;
+import org.opennms.core.expression.NumericExpressionParser.Kind;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.impl.ColumnarExpression.Operand;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * An expression engine which evaluates whole columns at once.
+ *
+ * Expressions are compiled to a {@link ColumnarExpression}, which evaluates
+ * each operation over all of the rows in a tight loop, instead of evaluating
+ * every expression row by row with JEXL. The results are identical to
+ * those of the {@link JEXLExpressionEngine}:
+ * <ul>
+ *   <li>requests with any expression outside of the supported subset are
+ *       handed to the {@link JEXLExpressionEngine} as a whole;</li>
+ *   <li>the individual rows for which JEXL's arithmetic may differ from
+ *       IEEE 754 are evaluated with JEXL, against the same variables.</li>
+ * </ul>
+ */
+public class ColumnarExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarExpressionEngine.class);
+
+    /**
+     * Integers beyond this value cannot be represented exactly as doubles.
+     */
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+
+    private final JEXLExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    /**
+     * Used to evaluate the rows that cannot be computed over columns.
+     * Only the functions supported by {@link ColumnarExpression} are needed.
+     */
+    private final JexlEngine jexl = new JexlEngine();
+
+    public ColumnarExpressionEngine() {
+        final Map<String, Object> functions = Maps.newHashMap();
+        functions.put("math", Math.class);
+        functions.put("strictmath", StrictMath.class);
+        jexl.setFunctions(functions);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+        final int numExpressions = expressions.size();
+
+        // Don't do anything if there are no expressions
+        if (numExpressions < 1) {
+            return;
+        }
+
+        final Program program = compile(expressions, results);
+        if (program == null) {
+            LOG.debug("Expressions cannot be evaluated over columns, using JEXL instead: {}", expressions);
+            jexlExpressionEngine.applyExpressions(request, results);
+            return;
+        }
+        program.run();
+    }
+
+    /**
+     * Compiles all of the expressions in the request.
+     *
+     * @return the compiled program, or <code>null</code> if the request must be evaluated by JEXL
+     */
+    private Program compile(final List<Expression> expressions, final FetchResults results) {
+        final int numRows = results.getTimestamps().length;
+        for (final double[] column : results.getColumns().values()) {
+            if (column == null || column.length < numRows) {
+                return null;
+            }
+        }
+
+        final Program program = new Program(expressions, results);
+        for (int k = 0; k < expressions.size(); k++) {
+            final Expression e = expressions.get(k);
+            if (program.labels.put(e.getLabel(), k) != null) {
+                // Duplicate labels are overwritten in the JEXL context
+                return null;
+            }
+        }
+
+        for (int k = 0; k < expressions.size(); k++) {
+            final String expression = expressions.get(k).getExpression();
+            try {
+                // Make sure that JEXL accepts the expression as well
+                program.jexlExpressions[k] = jexl.createExpression(expression);
+            } catch (JexlException ex) {
+                return null;
+            }
+            final int index = k;
+            program.compiled[k] = ColumnarExpression.compile(expression, name -> program.resolve(name, index));
+            if (program.compiled[k] == null) {
+                return null;
+            }
+        }
+        return program;
+    }
+
+    private static Operand toOperand(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            return Operand.constant(Kind.DOUBLE, ((Number)value).doubleValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            final long longValue = ((Number)value).longValue();
+            return Math.abs(longValue) <= MAX_EXACT_INTEGER ? Operand.constant(Kind.INTEGER, longValue) : null;
+        }
+        return null;
+    }
+
+    /**
+     * The compiled expressions of a request, along with the variables they refer to.
+     */
+    private static class Program {
+        private final List<Expression> expressions;
+        private final long[] timestamps;
+        private final Map<String, double[]> columns;
+        private final Map<String, Object> constants;
+        private final int numRows;
+
+        private final Map<String, Integer> labels = new HashMap<>();
+        private final Map<String, Object> builtins = new HashMap<>();
+        private final org.apache.commons.jexl2.Expression[] jexlExpressions;
+        private final ColumnarExpression[] compiled;
+        private final double[][] values;
+
+        private double[] timestampColumn;
+        private double[] indexColumn;
+
+        private Program(final List<Expression> expressions, final FetchResults results) {
+            this.expressions = expressions;
+            timestamps = results.getTimestamps();
+            columns = results.getColumns();
+            constants = results.getConstants();
+            numRows = timestamps.length;
+
+            // Same as the JEXLExpressionEngine
+            builtins.put("__inf", Double.POSITIVE_INFINITY);
+            builtins.put("__neg_inf", Double.NEGATIVE_INFINITY);
+            builtins.put("NaN", Double.NaN);
+            builtins.put("__E", java.lang.Math.E);
+            builtins.put("__PI", java.lang.Math.PI);
+            builtins.put("__diff_time", numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0]);
+
+            jexlExpressions = new org.apache.commons.jexl2.Expression[expressions.size()];
+            compiled = new ColumnarExpression[expressions.size()];
+            // Results are filled in as the expressions are evaluated, but can already be referenced
+            values = new double[expressions.size()][numRows];
+        }
+
+        /**
+         * Resolves variables in the same order as the JEXL context populated
+         * by the {@link JEXLExpressionEngine} for the expression at the given index.
+         */
+        private Operand resolve(String name, int index) {
+            if (name.indexOf('.') >= 0) {
+                return resolveAntish(name);
+            }
+            if ("timestamp".equals(name)) {
+                if (timestampColumn == null) {
+                    timestampColumn = new double[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        timestampColumn[i] = timestamps[i];
+                    }
+                }
+                return Operand.column(Kind.INTEGER, timestampColumn);
+            } else if ("__i".equals(name)) {
+                if (indexColumn == null) {
+                    indexColumn = new double[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        indexColumn[i] = i;
+                    }
+                }
+                return Operand.column(Kind.INTEGER, indexColumn);
+            } else if (columns.containsKey(name)) {
+                return Operand.column(Kind.DOUBLE, columns.get(name));
+            } else if (isSampleArray(name)) {
+                return null;
+            } else if (labels.containsKey(name)) {
+                // Labels of the current and subsequent expressions refer to the previous row
+                final int label = labels.get(name);
+                return label < index ? Operand.column(Kind.DOUBLE, values[label]) : null;
+            } else if (builtins.containsKey(name)) {
+                return toOperand(builtins.get(name));
+            } else if (constants.containsKey(name)) {
+                return toOperand(constants.get(name));
+            }
+            return null;
+        }
+
+        /**
+         * JEXL resolves <code>a.b</code> from the context when <code>a</code> is undefined.
+         * Otherwise, <code>b</code> may be a property of <code>a</code>, which is left to JEXL.
+         */
+        private Operand resolveAntish(String name) {
+            final String[] segments = name.split("\\.");
+            if (segments.length != 2 || isDefined(segments[0]) || !constants.containsKey(name)) {
+                return null;
+            }
+            return toOperand(constants.get(name));
+        }
+
+        private boolean isDefined(String name) {
+            return "timestamp".equals(name) || "__i".equals(name) || columns.containsKey(name) || isSampleArray(name)
+                    || labels.containsKey(name) || builtins.containsKey(name) || constants.containsKey(name);
+        }
+
+        private boolean isSampleArray(String name) {
+            return name.startsWith("__") && columns.containsKey(name.substring(2));
+        }
+
+        private void run() throws ExpressionException {
+            final boolean[] deferred = new boolean[numRows];
+            for (int k = 0; k < compiled.length; k++) {
+                final double[] derived = compiled[k].evaluate(numRows, deferred);
+                System.arraycopy(derived, 0, values[k], 0, numRows);
+
+                int numDeferred = 0;
+                for (int i = 0; i < numRows; i++) {
+                    if (deferred[i]) {
+                        values[k][i] = evaluateRow(k, i);
+                        deferred[i] = false;
+                        numDeferred++;
+                    }
+                }
+                LOG.trace("Evaluated expression with label '{}' over {} rows, {} of which with JEXL.",
+                        expressions.get(k).getLabel(), numRows, numDeferred);
+            }
+
+            // Store the results, skipping transient expressions
+            for (int k = 0; k < compiled.length; k++) {
+                final Expression e = expressions.get(k);
+                if (!e.getTransient()) {
+                    columns.put(e.getLabel(), values[k]);
+                }
+            }
+        }
+
+        private double evaluateRow(int k, int row) throws ExpressionException {
+            final String label = expressions.get(k).getLabel();
+            try {
+                return Utils.toDouble(jexlExpressions[k].evaluate(new RowContext(k, row)));
+            } catch (NullPointerException|NumberFormatException e) {
+                throw new ExpressionException(e, "The return value from expression with label '" +
+                        label + "' could not be cast to a Double.");
+            } catch (JexlException e) {
+                throw new ExpressionException(e, "Failed to evaluate expression with label '" +
+                        label + "'.");
+            }
+        }
+
+        /**
+         * Exposes the variables of a single row, as they would be seen by the
+         * {@link JEXLExpressionEngine} when evaluating the expression at the given index.
+         */
+        private class RowContext implements JexlContext {
+            private final int index;
+            private final int row;
+            private Map<String, Object> locals;
+
+            private RowContext(int index, int row) {
+                this.index = index;
+                this.row = row;
+            }
+
+            @Override
+            public Object get(String name) {
+                if (locals != null && locals.containsKey(name)) {
+                    return locals.get(name);
+                } else if ("timestamp".equals(name)) {
+                    return timestamps[row];
+                } else if ("__i".equals(name)) {
+                    return Integer.valueOf(row);
+                } else if (columns.containsKey(name)) {
+                    return columns.get(name)[row];
+                } else if (isSampleArray(name)) {
+                    return columns.get(name.substring(2));
+                } else if (labels.containsKey(name) && labels.get(name) < index) {
+                    return values[labels.get(name)][row];
+                } else if (builtins.containsKey(name)) {
+                    return builtins.get(name);
+                }
+                return constants.get(name);
+            }
+
+            @Override
+            public void set(String name, Object value) {
+                if (locals == null) {
+                    locals = new HashMap<>();
+                }
+                locals.put(name, value);
+            }
+
+            @Override
+            public boolean has(String name) {
+                return (locals != null && locals.containsKey(name))
+                        || "timestamp".equals(name) || "__i".equals(name)
+                        || columns.containsKey(name) || isSampleArray(name)
+                        || (labels.containsKey(name) && labels.get(name) < index)
+                        || builtins.containsKey(name) || constants.containsKey(name);
+            }
+        }
+    }
+}
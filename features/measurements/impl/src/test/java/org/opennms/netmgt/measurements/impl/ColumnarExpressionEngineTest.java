@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Runs all of the {@link JEXLExpressionEngineTest} tests against the
+ * {@link ColumnarExpressionEngine}, and compares both engines.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+public class ColumnarExpressionEngineTest extends JEXLExpressionEngineTest {
+
+    private static final double[] SAMPLES = new double[] {
+            0.0, -0.0, 1.0, -1.0, 2.5, 100.0, 1e9, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    @Override
+    protected ExpressionEngine createExpressionEngine() {
+        return new ColumnarExpressionEngine();
+    }
+
+    @Test
+    public void matchesJexlEngine() throws ExpressionException {
+        final String[] expressions = new String[] {
+                "a * 8",
+                "t / 8",
+                "(a - b) / b",
+                "a % b",
+                "-a + b * 2.5",
+                "a == NaN ? b : a",
+                "a > b ? a : b",
+                "a >= 0 && b != 0 ? a / b : __inf",
+                "a == b || a <= 0 ? 1 : 0",
+                "math:max(a, b) - strictmath:min(a, b)",
+                "math:sqrt(a) + math:abs(b)",
+                "timestamp / 1000.0d + __i",
+                "1 * __diff_time",
+                "a.ifSpeed * a",
+                "other.ifSpeed * a",
+                "speed / 0.62137",
+                "a * 0.1",
+                "t == a * 8 ? 1 : 0"
+        };
+
+        for (final String expression : expressions) {
+            final Map<String, double[]> expected = apply(new JEXLExpressionEngine(), expression);
+            final Map<String, double[]> actual = apply(createExpressionEngine(), expression);
+            assertFalse(actual.containsKey("t"));
+            assertArrayEquals(expression, expected.get("y"), actual.get("y"), 0.0d);
+        }
+    }
+
+    private static Map<String, double[]> apply(ExpressionEngine engine, String expression) throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        final List<Source> sources = Lists.newArrayList();
+        for (final String label : new String[] { "a", "b" }) {
+            final Source source = new Source();
+            source.setLabel(label);
+            sources.add(source);
+        }
+        request.setSources(sources);
+
+        final Expression t = new Expression("t", "a * 8", true);
+        final Expression y = new Expression("y", expression, false);
+        request.setExpressions(Lists.newArrayList(t, y));
+
+        // Every combination of samples
+        final int N = SAMPLES.length * SAMPLES.length;
+        final long timestamps[] = new long[N];
+        final double a[] = new double[N];
+        final double b[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = 1500000000000L + i * 300000L;
+            a[i] = SAMPLES[i / SAMPLES.length];
+            b[i] = SAMPLES[i % SAMPLES.length];
+        }
+        final Map<String, double[]> values = Maps.newHashMap();
+        values.put("a", a);
+        values.put("b", b);
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("a.ifSpeed", 1000.0d);
+        constants.put("other.ifSpeed", 1000.0d);
+        final FetchResults results = new FetchResults(timestamps, values, 300, constants);
+
+        engine.applyExpressions(request, results);
+        return results.getColumns();
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void compareWithJexl() throws ExpressionException {
+        // 30 days worth of 5 minute samples, as returned for a typical interface graph
+        final int N = 30 * 24 * 12;
+        final long timestamps[] = new long[N];
+        final double octIn[] = new double[N];
+        final double octOut[] = new double[N];
+        final double speed[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = 1500000000000L + i * 300000L;
+            octIn[i] = i % 97 == 0 ? Double.NaN : 1000.0 * (i % 1000);
+            octOut[i] = i % 89 == 0 ? Double.NaN : 750.0 * (i % 1000);
+            speed[i] = 1000.0;
+        }
+
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(Lists.newArrayList(
+                new Expression("bitsIn", "octIn * 8", false),
+                new Expression("bitsOut", "octOut * 8", false),
+                new Expression("bitsOutNeg", "-1.0 * bitsOut", false),
+                new Expression("percentIn", "speed > 0 ? bitsIn / (speed * 1000000) * 100 : NaN", false),
+                new Expression("total", "( ( bitsIn == NaN ) ? bitsOut : ( ( bitsOut == NaN ) ? bitsIn : ( bitsIn + bitsOut ) ) )", false)));
+
+        for (final ExpressionEngine engine : new ExpressionEngine[] { new JEXLExpressionEngine(), createExpressionEngine() }) {
+            final int iterations = 50;
+            for (int warmup = 0; warmup < 2; warmup++) {
+                final long start = System.nanoTime();
+                for (int k = 0; k < iterations; k++) {
+                    final Map<String, double[]> values = Maps.newHashMap();
+                    values.put("octIn", octIn);
+                    values.put("octOut", octOut);
+                    values.put("speed", speed);
+                    engine.applyExpressions(request, new FetchResults(timestamps, values, 300, Maps.newHashMap()));
+                }
+                final long elapsed = System.nanoTime() - start;
+                System.err.printf("%s: %.3f ms per request (%d rows, %d expressions)%n", engine.getClass().getSimpleName(),
+                        elapsed / 1e6 / iterations, N, request.getExpressions().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.core.expression.NumericExpressionParser.Kind;
+import org.opennms.netmgt.measurements.impl.ColumnarExpression.Operand;
+
+public class ColumnarExpressionTest {
+
+    private static final double DELTA = 0.0001;
+
+    private final Map<String, Operand> operands = new HashMap<>();
+
+    public ColumnarExpressionTest() {
+        operands.put("x", Operand.column(Kind.DOUBLE, new double[] { 1, 2, 3, Double.NaN }));
+        operands.put("y", Operand.column(Kind.DOUBLE, new double[] { 2, 0, 1, 1 }));
+        operands.put("timestamp", Operand.column(Kind.INTEGER, new double[] { 1000, 2000, 3000, 4000 }));
+        operands.put("NaN", Operand.constant(Kind.DOUBLE, Double.NaN));
+        operands.put("speed", Operand.constant(Kind.INTEGER, 65));
+    }
+
+    @Test
+    public void canEvaluateArithmetic() {
+        assertArrayEquals(new double[] { 9, 17, 25, Double.NaN }, evaluate("x * 8 + 1", false), DELTA);
+        assertArrayEquals(new double[] { -1, -2, -3, Double.NaN }, evaluate("-x", false), DELTA);
+        assertArrayEquals(new double[] { 8, 16, 24, 32 }, evaluate("timestamp / 125.0d", false), DELTA);
+        assertArrayEquals(new double[] { 65.5, 65.5, 65.5, 65.5 }, evaluate("speed + 0.5", false), DELTA);
+        assertArrayEquals(new double[] { 2, 2, 3, Double.NaN }, evaluate("math:max(x, y)", false), DELTA);
+        assertArrayEquals(new double[] { 1, 4, 9, Double.NaN }, evaluate("strictmath:pow(x, 2)", false), DELTA);
+    }
+
+    @Test
+    public void canEvaluateConditionals() {
+        assertArrayEquals(new double[] { 1, 2, 3, 0 }, evaluate("x == NaN ? 0 : x", false), DELTA);
+        assertArrayEquals(new double[] { 0, 0, 0, 1 }, evaluate("x != NaN ? 0 : 1", false), DELTA);
+        assertArrayEquals(new double[] { 0.5, 0, 3, Double.NaN }, evaluate("y != 0 ? x / y : 0", false), DELTA);
+        assertArrayEquals(new double[] { 0, 1, 1, 0 }, evaluate("y == 0 or x / y > 2 ? 1 : 0", new boolean[] { false, false, false, true }), DELTA);
+        assertArrayEquals(new double[] { 1, 0, 0, 0 }, evaluate("x lt y and not (y eq 0) ? 1 : 0", new boolean[] { false, false, false, true }), DELTA);
+    }
+
+    @Test
+    public void defersRowsToJexl() {
+        // division by zero
+        evaluate("x / y", new boolean[] { false, true, false, false });
+        evaluate("x % y", new boolean[] { false, true, false, false });
+        // ordering NaN
+        evaluate("x > 1 ? 1 : 0", new boolean[] { false, false, false, true });
+        // only when the branch is taken
+        evaluate("x > 2 ? x / y : 0", new boolean[] { false, false, false, true });
+    }
+
+    @Test
+    public void leavesUnsupportedExpressionsToJexl() {
+        // integer arithmetic
+        assertNull(compile("timestamp / 1000"));
+        assertNull(compile("1 / 2"));
+        assertNull(compile("speed * 2"));
+        assertNull(compile("math:max(1, 2)"));
+        // literals with JEXL specific typing
+        assertNull(compile("x * 0.1"));
+        assertNull(compile("x * 010"));
+        assertNull(compile("x * 1e6"));
+        assertNull(compile("x * 0x10"));
+        // boolean coercion and results
+        assertNull(compile("x ? 1 : 0"));
+        assertNull(compile("x > 1"));
+        assertNull(compile("x ?: 1"));
+        // unknown variables and functions
+        assertNull(compile("z + 1"));
+        assertNull(compile("x.y + 1"));
+        assertNull(compile("fn:arrayNaN(\"x\", 5)"));
+        assertNull(compile("jexl:evaluate(\"x\")"));
+        assertNull(compile("math:round(x)"));
+        assertNull(compile("size(x)"));
+        // everything else
+        assertNull(compile("x = 1; x"));
+        assertNull(compile("x & 1"));
+        assertNull(compile("x < y < 1 ? 1 : 0"));
+        assertNull(compile("x +"));
+        assertNull(compile("(x"));
+        assertNotNull(compile("5"));
+        assertNotNull(compile("0.1f * x"));
+    }
+
+    private ColumnarExpression compile(String expression) {
+        return ColumnarExpression.compile(expression, operands::get);
+    }
+
+    private double[] evaluate(String expression, boolean expectDeferred) {
+        return evaluate(expression, new boolean[] { expectDeferred, expectDeferred, expectDeferred, expectDeferred });
+    }
+
+    private double[] evaluate(String expression, boolean[] expectedDeferred) {
+        final ColumnarExpression compiled = compile(expression);
+        assertNotNull("Expression should compile: " + expression, compiled);
+        final boolean[] deferred = new boolean[4];
+        final double[] values = compiled.evaluate(4, deferred);
+        for (int i = 0; i < deferred.length; i++) {
+            assertEquals(expression + " deferred at row " + i, expectedDeferred[i], deferred[i]);
+        }
+        return values;
+    }
+}
@@ -46,7 +46,11 @@ import com.google.common.collect.Maps;
 public class JEXLExpressionEngineTest {
 
     private static final double DELTA = 0.0001;
-    private final ExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+    private final ExpressionEngine jexlExpressionEngine = createExpressionEngine();
+
+    protected ExpressionEngine createExpressionEngine() {
+        return new JEXLExpressionEngine();
+    }
 
     @Test(expected=ExpressionException.class)
     public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
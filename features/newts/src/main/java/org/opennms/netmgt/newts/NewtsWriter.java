@@ -28,11 +28,17 @@
 
 package org.opennms.netmgt.newts;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Executor;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -50,18 +56,19 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.EventTranslatorOneArg;
-import com.lmax.disruptor.FatalExceptionHandler;
 import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.WorkHandler;
-import com.lmax.disruptor.WorkerPool;
+import com.lmax.disruptor.Sequence;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 
 /**
@@ -70,9 +77,19 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * The samples of every call are split by partition key (context and resource)
+ * between the writer threads, so all the samples of a resource are written by the
+ * same thread. Each thread coalesces the samples it receives across calls and
+ * writes them once it has caught up with the ring buffer, in batches of up to
+ * <code>maxBatchSize</code> samples that keep the samples of a resource together.
+ *
+ * The number of samples waiting to be written is bounded by credits: callers
+ * wait for up to <code>maxWaitMillis</code> when the writers fall behind, and
+ * the samples are only dropped when no credits became available in that time.
+ *
  * @author jwhite
  */
-public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
+public class NewtsWriter implements DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewtsWriter.class);
 
@@ -81,13 +98,23 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
             .maxRate(5).every(Duration.standardSeconds(30))
             .build();
 
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 10000;
+
+    /**
+     * The writer threads write what they have coalesced once they have this many
+     * batches worth of samples, even if they haven't caught up with the ring buffer.
+     */
+    private static final int MAX_PENDING_BATCHES = 64;
+
     @Autowired
     private SampleRepository m_sampleRepository;
 
     @Autowired
     private Indexer m_indexer;
 
-    private WorkerPool<SampleBatchEvent> m_workerPool;
+    private ExecutorService m_executor;
+
+    private List<BatchEventProcessor<SampleBatchEvent>> m_processors;
 
     private RingBuffer<SampleBatchEvent> m_ringBuffer;
 
@@ -97,13 +124,30 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final int m_numWriterThreads;
 
-    private final Meter m_droppedSamples;
-
     /**
-     * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
-     * of elements that are currently "queued", so we keep track of them with this atomic counter.
+     * One credit per sample that was accepted but not yet written.
      */
-    private final AtomicLong m_numEntriesOnRingBuffer = new AtomicLong();
+    private final int m_maxQueuedSamples;
+
+    private final Semaphore m_credits;
+
+    private long m_maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    private final Meter m_droppedSamples;
+
+    private final Meter m_failedSamples;
+
+    private final Meter m_throttledCalls;
+
+    private final Timer m_insertTimer;
+
+    private final Timer m_indexTimer;
+
+    private final Histogram m_batchSizes;
+
+    private final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> m_translator = new ShardingTranslator(false);
+
+    private final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> m_indexOnlyTranslator = new ShardingTranslator(true);
 
     @Inject
     public NewtsWriter(@Named("newts.max_batch_size") Integer maxBatchSize, @Named("newts.ring_buffer_size") Integer ringBufferSize,
@@ -117,13 +161,14 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         m_maxBatchSize = maxBatchSize;
         m_ringBufferSize = ringBufferSize;
         m_numWriterThreads = numWriterThreads;
-        m_numEntriesOnRingBuffer.set(0L);
+        m_maxQueuedSamples = (int)Math.min(Integer.MAX_VALUE, (long)ringBufferSize * maxBatchSize);
+        m_credits = new Semaphore(m_maxQueuedSamples);
 
         registry.register(MetricRegistry.name("ring-buffer", "size"),
                 new Gauge<Long>() {
                     @Override
                     public Long getValue() {
-                        return m_numEntriesOnRingBuffer.get();
+                        return m_ringBufferSize - m_ringBuffer.remainingCapacity();
                     }
                 });
         registry.register(MetricRegistry.name("ring-buffer", "max-size"),
@@ -133,86 +178,281 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                         return Long.valueOf(m_ringBufferSize);
                     }
                 });
+        registry.register(MetricRegistry.name("ring-buffer", "queued-samples"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_maxQueuedSamples - m_credits.availablePermits();
+                    }
+                });
+        registry.register(MetricRegistry.name("ring-buffer", "max-queued-samples"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_maxQueuedSamples;
+                    }
+                });
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
-
-        LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
-        setUpWorkerPool();
+        m_throttledCalls = registry.meter(MetricRegistry.name("ring-buffer", "throttled-calls"));
+        m_failedSamples = registry.meter(MetricRegistry.name("writer", "failed-samples"));
+        m_insertTimer = registry.timer(MetricRegistry.name("writer", "insert"));
+        m_indexTimer = registry.timer(MetricRegistry.name("writer", "index"));
+        m_batchSizes = registry.histogram(MetricRegistry.name("writer", "batch-size"));
+
+        LOG.debug("Using max_batch_size: {}, ring_buffer_size: {} and max_queued_samples: {}", maxBatchSize, m_ringBufferSize, m_maxQueuedSamples);
+        setUpWriters();
     }
 
-    private void setUpWorkerPool() {
+    private void setUpWriters() {
         // Executor that will be used to construct new threads for consumers
         final ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("NewtsWriter-Consumer-%d").build();
-        final Executor executor = Executors.newCachedThreadPool(namedThreadFactory);
+        m_executor = Executors.newFixedThreadPool(m_numWriterThreads, namedThreadFactory);
 
-        @SuppressWarnings("unchecked")
-        final WorkHandler<SampleBatchEvent> handlers[] = new WorkHandler[m_numWriterThreads];
+        m_ringBuffer = RingBuffer.createMultiProducer(SampleBatchEvent::new, m_ringBufferSize);
+        m_processors = new ArrayList<>(m_numWriterThreads);
+        final Sequence[] sequences = new Sequence[m_numWriterThreads];
         for (int i = 0; i < m_numWriterThreads; i++) {
-            handlers[i] = this;
+            // Every writer sees every event, and only handles its own shard
+            final BatchEventProcessor<SampleBatchEvent> processor = new BatchEventProcessor<>(
+                    m_ringBuffer, m_ringBuffer.newBarrier(), new ShardWriter(i));
+            m_processors.add(processor);
+            sequences[i] = processor.getSequence();
         }
+        m_ringBuffer.addGatingSequences(sequences);
 
-        m_ringBuffer = RingBuffer.createMultiProducer(SampleBatchEvent::new, m_ringBufferSize);
-        m_workerPool = new WorkerPool<SampleBatchEvent>(
-                m_ringBuffer,
-                m_ringBuffer.newBarrier(),
-                new FatalExceptionHandler(),
-                handlers);
-        m_ringBuffer.addGatingSequences(m_workerPool.getWorkerSequences());
-
-        m_workerPool.start(executor);
+        for (BatchEventProcessor<SampleBatchEvent> processor : m_processors) {
+            m_executor.execute(processor);
+        }
     }
 
     @Override
     public void destroy() throws Exception {
-        if (m_workerPool != null) {
-            m_workerPool.drainAndHalt();
+        if (m_processors != null) {
+            // Wait for the writers to catch up before stopping them
+            final long cursor = m_ringBuffer.getCursor();
+            for (BatchEventProcessor<SampleBatchEvent> processor : m_processors) {
+                while (processor.getSequence().get() < cursor) {
+                    Thread.sleep(1);
+                }
+            }
+            for (BatchEventProcessor<SampleBatchEvent> processor : m_processors) {
+                processor.halt();
+            }
+            m_executor.shutdown();
         }
     }
 
     public void insert(List<Sample> samples) {
-        pushToRingBuffer(samples, TRANSLATOR);
+        pushToRingBuffer(samples, m_translator);
     }
 
     public void index(List<Sample> samples) {
-        pushToRingBuffer(samples, INDEX_ONLY_TRANSLATOR);
+        pushToRingBuffer(samples, m_indexOnlyTranslator);
     }
 
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
-        // Add the samples to the ring buffer
-        if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
-            RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
-                    samples.size(), new Object() {
-                        @Override
-                        public String toString() {
-                            // We wrap this in a toString() method to avoid build the string
-                            // unless the log message is actually printed
-                            return samples.stream()
-                                    .map(s -> s.getResource().getId())
-                                    .distinct()
-                                    .collect(Collectors.joining(", "));
-                        }
-                    });
-            m_droppedSamples.mark(samples.size());
+        if (samples.size() > m_maxQueuedSamples) {
+            // Larger than all of our credits
+            for (int i = 0; i < samples.size(); i += m_maxQueuedSamples) {
+                pushToRingBuffer(samples.subList(i, Math.min(samples.size(), i + m_maxQueuedSamples)), translator);
+            }
+            return;
+        } else if (samples.isEmpty()) {
+            return;
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_maxWaitMillis);
+        if (!acquireCredits(samples.size())) {
+            drop(samples, "Timed out waiting for the writers to catch up.");
             return;
         }
-        // Increase our entry counter
-        m_numEntriesOnRingBuffer.incrementAndGet();
+        // The credits bound the samples, but not the number of calls
+        while (!m_ringBuffer.tryPublishEvent(translator, samples)) {
+            if (System.nanoTime() - deadline >= 0) {
+                m_credits.release(samples.size());
+                drop(samples, "The ring buffer is full.");
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
     }
 
-    @Override
-    public void onEvent(SampleBatchEvent event) throws Exception {
-        // We'd expect the logs from this thread to be in collectd.log
-        Logging.putPrefix("collectd");
+    private boolean acquireCredits(int numSamples) {
+        if (m_credits.tryAcquire(numSamples)) {
+            return true;
+        }
+        m_throttledCalls.mark();
+        if (m_maxWaitMillis <= 0) {
+            return false;
+        }
+        try {
+            return m_credits.tryAcquire(numSamples, m_maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-        List<Sample> samples = event.getSamples();
-        // Decrement our entry counter
-        m_numEntriesOnRingBuffer.decrementAndGet();
+    private void drop(List<Sample> samples, String reason) {
+        RATE_LIMITED_LOGGER.error("{} {} samples associated with resource ids {} will be dropped.",
+                reason, samples.size(), new Object() {
+                    @Override
+                    public String toString() {
+                        // We wrap this in a toString() method to avoid build the string
+                        // unless the log message is actually printed
+                        return samples.stream()
+                                .map(s -> s.getResource().getId())
+                                .distinct()
+                                .collect(Collectors.joining(", "));
+                    }
+                });
+        m_droppedSamples.mark(samples.size());
+    }
 
-        // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
-            try {
+    private static final class PartitionKey {
+        private final String m_context;
+        private final String m_resourceId;
+
+        private PartitionKey(Sample sample) {
+            m_context = sample.getContext().getId();
+            m_resourceId = sample.getResource().getId();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * m_context.hashCode() + m_resourceId.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PartitionKey)) {
+                return false;
+            }
+            final PartitionKey other = (PartitionKey) obj;
+            return Objects.equals(m_resourceId, other.m_resourceId) && Objects.equals(m_context, other.m_context);
+        }
+    }
+
+    @VisibleForTesting
+    static int getShard(Sample sample, int numShards) {
+        return (new PartitionKey(sample).hashCode() & Integer.MAX_VALUE) % numShards;
+    }
+
+    /**
+     * Splits the samples between the writer threads as they are published.
+     */
+    private class ShardingTranslator implements EventTranslatorOneArg<SampleBatchEvent, List<Sample>> {
+        private final boolean m_indexOnly;
+
+        private ShardingTranslator(boolean indexOnly) {
+            m_indexOnly = indexOnly;
+        }
+
+        @Override
+        public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
+            @SuppressWarnings("unchecked")
+            final List<Sample>[] shards = new List[m_numWriterThreads];
+            for (Sample sample : samples) {
+                final int shard = getShard(sample, m_numWriterThreads);
+                if (shards[shard] == null) {
+                    shards[shard] = new ArrayList<>();
+                }
+                shards[shard].add(sample);
+            }
+            event.setIndexOnly(m_indexOnly);
+            event.setShards(shards);
+        }
+    }
+
+    /**
+     * Coalesces the samples of one shard and writes them in batches.
+     */
+    private class ShardWriter implements EventHandler<SampleBatchEvent> {
+        private final int m_shard;
+        private final Map<PartitionKey, List<Sample>> m_pendingInserts = new LinkedHashMap<>();
+        private final Map<PartitionKey, List<Sample>> m_pendingIndexes = new LinkedHashMap<>();
+        private int m_numPendingInserts = 0;
+        private int m_numPendingIndexes = 0;
+
+        private ShardWriter(int shard) {
+            m_shard = shard;
+        }
+
+        @Override
+        public void onEvent(SampleBatchEvent event, long sequence, boolean endOfBatch) {
+            // We'd expect the logs from this thread to be in collectd.log
+            Logging.putPrefix("collectd");
+
+            final List<Sample> samples = event.getShard(m_shard);
+            if (samples != null) {
                 if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
+                    add(m_pendingIndexes, samples);
+                    m_numPendingIndexes += samples.size();
+                } else {
+                    add(m_pendingInserts, samples);
+                    m_numPendingInserts += samples.size();
+                }
+            }
+
+            final int maxPendingSamples = m_maxBatchSize * MAX_PENDING_BATCHES;
+            if (m_numPendingInserts > 0 && (endOfBatch || m_numPendingInserts >= maxPendingSamples)) {
+                flush(m_pendingInserts, false);
+                m_numPendingInserts = 0;
+            }
+            if (m_numPendingIndexes > 0 && (endOfBatch || m_numPendingIndexes >= maxPendingSamples)) {
+                flush(m_pendingIndexes, true);
+                m_numPendingIndexes = 0;
+            }
+        }
+
+        private void add(Map<PartitionKey, List<Sample>> pending, List<Sample> samples) {
+            for (Sample sample : samples) {
+                pending.computeIfAbsent(new PartitionKey(sample), k -> new ArrayList<>()).add(sample);
+            }
+        }
+
+        /**
+         * Packs the pending samples into batches of up to max_batch_size samples,
+         * only splitting the samples of a resource when they don't fit in a batch
+         * of their own.
+         */
+        private void flush(Map<PartitionKey, List<Sample>> pending, boolean indexOnly) {
+            List<Sample> batch = new ArrayList<>(m_maxBatchSize);
+            for (List<Sample> samples : pending.values()) {
+                int offset = 0;
+                while (offset < samples.size()) {
+                    final int remaining = samples.size() - offset;
+                    final int space = m_maxBatchSize - batch.size();
+                    if (remaining > space && !batch.isEmpty()) {
+                        write(batch, indexOnly);
+                        batch = new ArrayList<>(m_maxBatchSize);
+                        continue;
+                    }
+                    final int n = Math.min(remaining, space);
+                    batch.addAll(samples.subList(offset, offset + n));
+                    offset += n;
+                    if (batch.size() >= m_maxBatchSize) {
+                        write(batch, indexOnly);
+                        batch = new ArrayList<>(m_maxBatchSize);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch, indexOnly);
+            }
+            pending.clear();
+        }
+
+        private void write(List<Sample> batch, boolean indexOnly) {
+            m_batchSizes.update(batch.size());
+            final Timer.Context ctx = (indexOnly ? m_indexTimer : m_insertTimer).time();
+            try {
+                if (indexOnly) {
                     LOG.debug("Indexing {} samples", batch.size());
                     m_indexer.update(batch);
                 } else {
@@ -228,26 +468,26 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                     LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
                 }
             } catch (Throwable t) {
+                m_failedSamples.mark(batch.size());
                 RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+            } finally {
+                ctx.stop();
+                m_credits.release(batch.size());
             }
         }
     }
 
-    private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR =
-            new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
-                public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
-                    event.setIndexOnly(false);
-                    event.setSamples(samples);
-                }
-            };
+    public long getMaxWaitMillis() {
+        return m_maxWaitMillis;
+    }
 
-    private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> INDEX_ONLY_TRANSLATOR =
-            new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
-                public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
-                    event.setIndexOnly(true);
-                    event.setSamples(samples);
-                }
-            };
+    /**
+     * How long callers wait for the writers to catch up before their samples are
+     * dropped, 0 drops them as soon as the queue is full.
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        m_maxWaitMillis = maxWaitMillis;
+    }
 
     public void setSampleRepository(SampleRepository sampleRepository) {
         m_sampleRepository = sampleRepository;
@@ -35,20 +35,23 @@ import org.opennms.newts.api.Sample;
 /**
  * Wrapper class for a {@list java.util.List} of {@link org.opennms.newts.api.Sample} objects.
  *
- * Instances of this class are preallocated by the {@link com.lmax.disruptor.dsl.Disruptor}.
+ * The samples are split into one list per writer thread by partition key,
+ * so that all the samples of a resource are handled by the same thread.
+ *
+ * Instances of this class are preallocated by the {@link com.lmax.disruptor.RingBuffer}.
  *
  * @author jwhite
  */
 public class SampleBatchEvent {
-    private List<Sample> m_samples;
+    private List<Sample>[] m_shards;
     private boolean m_indexOnly;
 
-    public void setSamples(List<Sample> samples) {
-        m_samples = samples;
+    public void setShards(List<Sample>[] shards) {
+        m_shards = shards;
     }
 
-    public List<Sample> getSamples() {
-        return m_samples;
+    public List<Sample> getShard(int shard) {
+        return m_shards == null ? null : m_shards[shard];
     }
 
     public void setIndexOnly(boolean indexOnly) {
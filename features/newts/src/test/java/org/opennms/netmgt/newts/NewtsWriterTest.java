@@ -29,9 +29,13 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -72,7 +76,8 @@ public class NewtsWriterTest {
         writer.setSampleRepository(sampleRepo);
 
         for (int i = 0; i < ringBufferSize*2; i++) {
-            Resource x = new Resource("x");
+            // Samples are distributed amongst the writer threads by resource
+            Resource x = new Resource("x" + i);
             Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
             writer.insert(Lists.newArrayList(s));
         }
@@ -80,11 +85,10 @@ public class NewtsWriterTest {
 
     /**
      * Fills the ring buffer and locks all of the writer threads to verify
-     * that samples additional samples are dropped.
+     * that samples additional samples are dropped when we're not willing to wait.
      */
     @Test
     public void samplesAreDroppedWhenRingBufferIsFull() throws Exception {
-        Resource x = new Resource("x");
         int ringBufferSize = 1024;
         int numWriterThreads = 8;
 
@@ -93,22 +97,17 @@ public class NewtsWriterTest {
         MetricRegistry registry = new MetricRegistry();
         NewtsWriter writer = new NewtsWriter(1, ringBufferSize, numWriterThreads, registry);
         writer.setSampleRepository(sampleRepo);
+        writer.setMaxWaitMillis(0);
 
         lock.lock();
-        for (int i = 0; i < ringBufferSize; i++) {
-            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
-            writer.insert(Lists.newArrayList(s));
-        }
+        fill(writer, ringBufferSize);
 
         // The ring buffer should be full, and all of the threads should be locked
         Thread.sleep(250);
         assertEquals(numWriterThreads, sampleRepo.getNumThreadsLocked());
 
         // Attempt to insert another batch of samples
-        for (int i = 0; i < 8; i++) {
-            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
-            writer.insert(Lists.newArrayList(s));
-        };
+        fill(writer, 8);
 
         // Unlock the writer threads and wait for the ring buffer to drain
         lock.unlock();
@@ -117,6 +116,91 @@ public class NewtsWriterTest {
         // Verify the number of inserted samples
         assertEquals(0, sampleRepo.getNumThreadsLocked());
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
+        assertEquals(8, registry.meter("ring-buffer.dropped-samples").getCount());
+    }
+
+    /**
+     * Verifies that callers wait for the writers to catch up instead
+     * of dropping samples when the ring buffer is full.
+     */
+    @Test
+    public void callersWaitForWritersWhenRingBufferIsFull() throws Exception {
+        int ringBufferSize = 1024;
+        int numWriterThreads = 8;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(1, ringBufferSize, numWriterThreads, registry);
+        writer.setSampleRepository(sampleRepo);
+        writer.setMaxWaitMillis(TimeUnit.MINUTES.toMillis(1));
+
+        lock.lock();
+        fill(writer, ringBufferSize);
+        Thread.sleep(250);
+        assertEquals(numWriterThreads, sampleRepo.getNumThreadsLocked());
+
+        // These should block until the writers are unlocked
+        Thread producer = new Thread(() -> fill(writer, 8));
+        producer.start();
+        Thread.sleep(250);
+        assertTrue(producer.isAlive());
+        assertEquals(1, registry.meter("ring-buffer.throttled-calls").getCount());
+
+        lock.unlock();
+        producer.join();
+        writer.destroy();
+
+        assertEquals(ringBufferSize + 8, sampleRepo.getNumSamplesInserted());
+        assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+    }
+
+    /**
+     * Verifies that the samples that accumulate while a writer is busy
+     * are written in full batches, grouped by resource.
+     */
+    @Test
+    public void samplesAreCoalescedByResource() throws Exception {
+        int maxBatchSize = 16;
+        int numResources = 4;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(maxBatchSize, 1024, 1, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        // Keep the writer busy with a first sample
+        lock.lock();
+        fill(writer, 1);
+        while (sampleRepo.getNumThreadsLocked() < 1) {
+            Thread.sleep(10);
+        }
+
+        // Interleave the samples of the different resources, one per call
+        for (int i = 0; i < maxBatchSize * numResources; i++) {
+            Resource x = new Resource("x" + (i % numResources));
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        lock.unlock();
+        writer.destroy();
+
+        List<Collection<Sample>> batches = sampleRepo.getBatches();
+        assertEquals(1 + numResources, batches.size());
+        for (Collection<Sample> batch : batches.subList(1, batches.size())) {
+            assertEquals(maxBatchSize, batch.size());
+            assertEquals(1, batch.stream().map(s -> s.getResource().getId()).distinct().count());
+        }
+    }
+
+    private static void fill(NewtsWriter writer, int numSamples) {
+        for (int i = 0; i < numSamples; i++) {
+            Resource x = new Resource("x" + i);
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
     }
 
     private static class LatchedSampleRepository extends MockSampleRepository {
@@ -141,6 +225,7 @@ public class NewtsWriterTest {
         private final Lock lock;
         private final AtomicInteger numThreadsLocked = new AtomicInteger(0);
         private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+        private final List<Collection<Sample>> batches = new CopyOnWriteArrayList<>();
 
         public LockedSampleRepository(Lock lock) {
             this.lock = lock;
@@ -151,6 +236,7 @@ public class NewtsWriterTest {
             numThreadsLocked.incrementAndGet();
             lock.lock();
             numSamplesInserted.addAndGet(samples.size());
+            batches.add(samples);
             lock.unlock();
             numThreadsLocked.decrementAndGet();
         }
@@ -162,6 +248,10 @@ public class NewtsWriterTest {
         public int getNumSamplesInserted() {
             return numSamplesInserted.get();
         }
+
+        public List<Collection<Sample>> getBatches() {
+            return batches;
+        }
     }
 
     private static class MockSampleRepository implements SampleRepository {
@@ -28,10 +28,19 @@
 
 package org.opennms.netmgt.telemetry.adapters.api;
 
+import java.nio.ByteBuffer;
+
 public interface TelemetryMessage {
 
     long getTimestamp();
 
     byte[] getByteArray();
 
+    /**
+     * @return the message as read-only buffer, which may share the content of the message.
+     */
+    default ByteBuffer getBuffer() {
+        return ByteBuffer.wrap(getByteArray()).asReadOnlyBuffer();
+    }
+
 }
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.adapters.netflow;
+
+import java.util.Objects;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+/**
+ * The elements of a flow encoded as a BSON document, as sent by older listeners.
+ */
+public class BsonFlowValues implements FlowValues {
+
+    private final BsonDocument document;
+
+    public BsonFlowValues(final BsonDocument document) {
+        this.document = Objects.requireNonNull(document);
+    }
+
+    @Override
+    public Long getLong(final FlowField field) {
+        final BsonValue value = first(field);
+        return value == null ? null : value.asInt64().getValue();
+    }
+
+    @Override
+    public Double getDouble(final FlowField field) {
+        final BsonValue value = first(field);
+        return value == null ? null : value.asDouble().getValue();
+    }
+
+    @Override
+    public String getAddress(final FlowField field) {
+        final BsonValue value = first(field);
+        return value == null ? null : value.asString().getValue();
+    }
+
+    @Override
+    public Long getEpochMilli(final FlowField field) {
+        for (final String name : field.getNames()) {
+            if (this.document.containsKey(name)) {
+                return BsonUtils.getTime(this.document, name).get().toEpochMilli();
+            }
+        }
+        return null;
+    }
+
+    private BsonValue first(final FlowField field) {
+        for (final String name : field.getNames()) {
+            final BsonValue value = this.document.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.telemetry.adapters.netflow;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -38,12 +39,25 @@ import org.bson.BsonInt32;
 import org.bson.BsonInt64;
 import org.bson.BsonString;
 import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
 
 public class BsonUtils {
 
     private BsonUtils() {
     }
 
+    /**
+     * Wraps the remaining bytes of the buffer, copying them only if the buffer is not backed by an accessible array.
+     */
+    public static RawBsonDocument wrap(final ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new RawBsonDocument(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new RawBsonDocument(bytes);
+    }
+
     public static Optional<BsonValue> get(final BsonDocument doc, final String... path) {
         BsonValue value = doc;
         for (final String p : path) {
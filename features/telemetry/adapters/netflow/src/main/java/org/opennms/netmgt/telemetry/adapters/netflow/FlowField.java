@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.adapters.netflow;
+
+import java.util.Objects;
+
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecordSchema;
+
+/**
+ * One or more alternative elements of a flow, of which the first present one provides the value.
+ *
+ * The elements are looked up by name in BSON documents and by their index in the schema of a
+ * {@link org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecord}.
+ */
+public final class FlowField {
+
+    private final FlowRecordSchema schema;
+    private final String[] names;
+    private final int[] indexes;
+
+    private FlowField(final FlowRecordSchema schema, final String... names) {
+        this.schema = Objects.requireNonNull(schema);
+        this.names = names;
+        this.indexes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            this.indexes[i] = schema.field(names[i]);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if one of the elements is not part of the schema
+     */
+    public static FlowField of(final FlowRecordSchema schema, final String... names) {
+        return new FlowField(schema, names);
+    }
+
+    public FlowRecordSchema getSchema() {
+        return this.schema;
+    }
+
+    String[] getNames() {
+        return this.names;
+    }
+
+    int[] getIndexes() {
+        return this.indexes;
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.adapters.netflow;
+
+import java.util.Objects;
+
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecord;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecordSchema;
+
+/**
+ * The elements of a flow read in place from a {@link FlowRecord}.
+ */
+public class RecordFlowValues implements FlowValues {
+
+    private final FlowRecord record;
+
+    /**
+     * @throws IllegalArgumentException if the record does not use the given schema
+     */
+    public RecordFlowValues(final FlowRecord record, final FlowRecordSchema schema) {
+        this.record = Objects.requireNonNull(record);
+        if (record.getSchema() != schema) {
+            throw new IllegalArgumentException("Expected a record of schema " + schema + " but got: " + record.getSchema());
+        }
+    }
+
+    @Override
+    public Long getLong(final FlowField field) {
+        final int index = first(field);
+        return index == -1 ? null : this.record.getLong(index);
+    }
+
+    @Override
+    public Double getDouble(final FlowField field) {
+        final int index = first(field);
+        return index == -1 ? null : this.record.getDouble(index);
+    }
+
+    @Override
+    public String getAddress(final FlowField field) {
+        final int index = first(field);
+        return index == -1 ? null : this.record.getAddress(index);
+    }
+
+    @Override
+    public Long getEpochMilli(final FlowField field) {
+        final int index = first(field);
+        return index == -1 ? null : this.record.getInstant(index).toEpochMilli();
+    }
+
+    /**
+     * @return the index of the first present element of the field, or -1 if none of them is present.
+     */
+    private int first(final FlowField field) {
+        for (final int index : field.getIndexes()) {
+            if (this.record.has(index)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
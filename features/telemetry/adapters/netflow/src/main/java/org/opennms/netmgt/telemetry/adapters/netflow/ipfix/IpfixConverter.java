@@ -28,17 +28,26 @@
 
 package org.opennms.netmgt.telemetry.adapters.netflow.ipfix;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 
-import org.bson.BsonDocument;
 import org.opennms.netmgt.flows.api.Converter;
 import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.telemetry.adapters.netflow.BsonFlowValues;
+import org.opennms.netmgt.telemetry.adapters.netflow.BsonUtils;
+import org.opennms.netmgt.telemetry.adapters.netflow.FlowValues;
+import org.opennms.netmgt.telemetry.adapters.netflow.RecordFlowValues;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecord;
 
-public class IpfixConverter implements Converter<BsonDocument> {
+public class IpfixConverter implements Converter<ByteBuffer> {
 
     @Override
-    public List<Flow> convert(final BsonDocument packet) {
-        return Collections.singletonList(new IpfixFlow(packet));
+    public List<Flow> convert(final ByteBuffer packet) {
+        final FlowValues values = FlowRecord.isFlowRecord(packet)
+                ? new RecordFlowValues(FlowRecord.wrap(packet), IpfixFlow.SCHEMA)
+                // Packets sent by listeners which still encode the records as BSON
+                : new BsonFlowValues(BsonUtils.wrap(packet));
+        return Collections.singletonList(new IpfixFlow(values));
     }
 }
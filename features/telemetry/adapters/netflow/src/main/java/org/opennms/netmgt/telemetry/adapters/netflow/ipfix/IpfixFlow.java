@@ -28,191 +28,195 @@
 
 package org.opennms.netmgt.telemetry.adapters.netflow.ipfix;
 
-import com.google.common.primitives.UnsignedLong;
-import org.bson.BsonDocument;
+import java.util.Objects;
+
 import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.telemetry.adapters.netflow.FlowField;
+import org.opennms.netmgt.telemetry.adapters.netflow.FlowValues;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecordSchema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Instant;
-import java.util.Objects;
-
-import static org.opennms.netmgt.telemetry.adapters.netflow.BsonUtils.*;
+import com.google.common.primitives.UnsignedLong;
 
+/**
+ * An IPFIX flow, read from the {@link FlowValues} of either encoding of its record.
+ */
 class IpfixFlow implements Flow {
     private static final Logger LOG = LoggerFactory.getLogger(IpfixFlow.class);
 
-    private final BsonDocument document;
-
-    public IpfixFlow(final BsonDocument document) {
-        this.document = Objects.requireNonNull(document);
+    static final FlowRecordSchema SCHEMA = FlowRecordSchema.IPFIX;
+
+    private static final FlowField EXPORT_TIME = FlowField.of(SCHEMA, "@exportTime");
+    private static final FlowField RECORD_COUNT = FlowField.of(SCHEMA, "@recordCount");
+    private static final FlowField SEQUENCE_NUMBER = FlowField.of(SCHEMA, "@sequenceNumber");
+    // TODO: What about the totals?
+    private static final FlowField BYTES = FlowField.of(SCHEMA, "octetDeltaCount", "postOctetDeltaCount",
+            "layer2OctetDeltaCount", "postLayer2OctetDeltaCount", "transportOctetDeltaCount");
+    private static final FlowField PACKETS = FlowField.of(SCHEMA, "packetDeltaCount", "postPacketDeltaCount",
+            "transportPacketDeltaCount");
+    private static final FlowField FLOW_DIRECTION = FlowField.of(SCHEMA, "flowDirection");
+    private static final FlowField DST_ADDR = FlowField.of(SCHEMA, "destinationIPv6Address", "destinationIPv4Address");
+    private static final FlowField SRC_ADDR = FlowField.of(SCHEMA, "sourceIPv6Address", "sourceIPv4Address");
+    private static final FlowField DST_AS = FlowField.of(SCHEMA, "bgpDestinationAsNumber");
+    private static final FlowField SRC_AS = FlowField.of(SCHEMA, "bgpSourceAsNumber");
+    private static final FlowField DST_MASK = FlowField.of(SCHEMA, "destinationIPv6PrefixLength",
+            "destinationIPv4PrefixLength");
+    private static final FlowField SRC_MASK = FlowField.of(SCHEMA, "sourceIPv6PrefixLength", "sourceIPv4PrefixLength");
+    private static final FlowField DST_PORT = FlowField.of(SCHEMA, "destinationTransportPort");
+    private static final FlowField SRC_PORT = FlowField.of(SCHEMA, "sourceTransportPort");
+    private static final FlowField ENGINE_ID = FlowField.of(SCHEMA, "engineId");
+    private static final FlowField ENGINE_TYPE = FlowField.of(SCHEMA, "engineType");
+    private static final FlowField FLOW_START = FlowField.of(SCHEMA, "flowStartSeconds", "flowStartMilliseconds",
+            "flowStartMicroseconds", "flowStartNanoseconds");
+    private static final FlowField FLOW_START_DELTA_MICROSECONDS = FlowField.of(SCHEMA, "flowStartDeltaMicroseconds");
+    private static final FlowField FLOW_START_SYS_UP_TIME = FlowField.of(SCHEMA, "flowStartSysUpTime");
+    private static final FlowField FLOW_END = FlowField.of(SCHEMA, "flowEndSeconds", "flowEndMilliseconds",
+            "flowEndMicroseconds", "flowEndNanoseconds");
+    private static final FlowField FLOW_END_DELTA_MICROSECONDS = FlowField.of(SCHEMA, "flowEndDeltaMicroseconds");
+    private static final FlowField FLOW_END_SYS_UP_TIME = FlowField.of(SCHEMA, "flowEndSysUpTime");
+    private static final FlowField SYSTEM_INIT_TIME_MILLISECONDS = FlowField.of(SCHEMA, "systemInitTimeMilliseconds");
+    private static final FlowField INGRESS_INTERFACE = FlowField.of(SCHEMA, "ingressInterface");
+    private static final FlowField EGRESS_INTERFACE = FlowField.of(SCHEMA, "egressInterface");
+    private static final FlowField IP_VERSION = FlowField.of(SCHEMA, "ipVersion");
+    private static final FlowField NEXT_HOP = FlowField.of(SCHEMA, "ipNextHopIPv6Address", "ipNextHopIPv4Address",
+            "bgpNextHopIPv6Address", "bgpNextHopIPv4Address");
+    private static final FlowField PROTOCOL_IDENTIFIER = FlowField.of(SCHEMA, "protocolIdentifier");
+    private static final FlowField DEPRECATED_SAMPLING_ALGORITHM = FlowField.of(SCHEMA, "samplingAlgorithm",
+            "samplerMode");
+    private static final FlowField DEPRECATED_SAMPLING_INTERVAL = FlowField.of(SCHEMA, "samplingInterval",
+            "samplerRandomInterval");
+    private static final FlowField SELECTOR_ALGORITHM = FlowField.of(SCHEMA, "selectorAlgorithm");
+    private static final FlowField SAMPLING_FLOW_INTERVAL = FlowField.of(SCHEMA, "samplingFlowInterval");
+    private static final FlowField SAMPLING_FLOW_SPACING = FlowField.of(SCHEMA, "samplingFlowSpacing");
+    private static final FlowField FLOW_SAMPLING_TIME_INTERVAL = FlowField.of(SCHEMA, "flowSamplingTimeInterval");
+    private static final FlowField FLOW_SAMPLING_TIME_SPACING = FlowField.of(SCHEMA, "flowSamplingTimeSpacing");
+    private static final FlowField SAMPLING_SIZE = FlowField.of(SCHEMA, "samplingSize");
+    private static final FlowField SAMPLING_POPULATION = FlowField.of(SCHEMA, "samplingPopulation");
+    private static final FlowField SAMPLING_PROBABILITY = FlowField.of(SCHEMA, "samplingProbability");
+    private static final FlowField HASH_SELECTED_RANGE_MIN = FlowField.of(SCHEMA, "hashSelectedRangeMin");
+    private static final FlowField HASH_SELECTED_RANGE_MAX = FlowField.of(SCHEMA, "hashSelectedRangeMax");
+    private static final FlowField HASH_OUTPUT_RANGE_MIN = FlowField.of(SCHEMA, "hashOutputRangeMin");
+    private static final FlowField HASH_OUTPUT_RANGE_MAX = FlowField.of(SCHEMA, "hashOutputRangeMax");
+    private static final FlowField TCP_CONTROL_BITS = FlowField.of(SCHEMA, "tcpControlBits");
+    private static final FlowField IP_CLASS_OF_SERVICE = FlowField.of(SCHEMA, "ipClassOfService");
+    private static final FlowField VLAN = FlowField.of(SCHEMA, "vlanId", "postVlanId", "dot1qVlanId",
+            "dot1qCustomerVlanId", "postDot1qVlanId", "postDot1qCustomerVlanId");
+
+    private final FlowValues values;
+
+    public IpfixFlow(final FlowValues values) {
+        this.values = Objects.requireNonNull(values);
     }
 
     @Override
     public long getTimestamp() {
-        return getInt64(this.document, "@exportTime").get() * 1000;
+        return this.values.getLong(EXPORT_TIME) * 1000;
     }
 
     @Override
     public Long getBytes() {
-        // TODO: What about the totals?
-        return first(getInt64(this.document, "octetDeltaCount"),
-                getInt64(this.document, "postOctetDeltaCount"),
-                getInt64(this.document, "layer2OctetDeltaCount"),
-                getInt64(this.document, "postLayer2OctetDeltaCount"),
-                getInt64(this.document, "transportOctetDeltaCount"))
-                .orElse(null);
+        return this.values.getLong(BYTES);
     }
 
     @Override
     public Direction getDirection() {
-        return getInt64(this.document, "flowDirection")
-                .map(v -> v == 0x00 ? Direction.INGRESS
-                        : v == 0x01 ? Direction.EGRESS
-                        : null)
-                .orElse(null);
+        final Long direction = this.values.getLong(FLOW_DIRECTION);
+        if (direction == null) {
+            return null;
+        }
+        return direction == 0x00 ? Direction.INGRESS
+                : direction == 0x01 ? Direction.EGRESS
+                : null;
     }
 
     @Override
     public String getDstAddr() {
-        return first(getString(this.document, "destinationIPv6Address"),
-                getString(this.document, "destinationIPv4Address"))
-                .orElse(null);
+        return this.values.getAddress(DST_ADDR);
     }
 
     @Override
     public Integer getDstAs() {
-        return getInt64(this.document, "bgpDestinationAsNumber")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(DST_AS);
     }
 
     @Override
     public Integer getDstMaskLen() {
-        return first(getInt64(this.document, "destinationIPv6PrefixLength"),
-                getInt64(this.document, "destinationIPv4PrefixLength"))
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(DST_MASK);
     }
 
     @Override
     public Integer getDstPort() {
-        return getInt64(this.document, "destinationTransportPort")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(DST_PORT);
     }
 
     @Override
     public Integer getEngineId() {
-        return getInt64(this.document, "engineId")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(ENGINE_ID);
     }
 
     @Override
     public Integer getEngineType() {
-        return getInt64(this.document, "engineType")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(ENGINE_TYPE);
     }
 
     @Override
     public Long getFirstSwitched() {
         // TODO: What about flowDuration* ?
-        return first(
-                first(getTime(this.document, "flowStartSeconds"),
-                        getTime(this.document, "flowStartMilliseconds"),
-                        getTime(this.document, "flowStartMicroseconds"),
-                        getTime(this.document, "flowStartNanoseconds")
-                ).map(Instant::toEpochMilli),
-                getInt64(this.document, "flowStartDeltaMicroseconds").map(t -> this.getTimestamp() + t),
-                getInt64(this.document, "flowStartSysUpTime").flatMap(t ->
-                        getTime(this.document, "systemInitTimeMilliseconds").map(ts -> ts.toEpochMilli() + t)
-                )
-        ).orElse(null);
+        return getSwitched(FLOW_START, FLOW_START_DELTA_MICROSECONDS, FLOW_START_SYS_UP_TIME);
     }
 
     @Override
     public int getFlowRecords() {
-        return getInt64(this.document, "@recordCount")
-                .map(Long::intValue)
-                .orElse(0);
+        final Integer recordCount = this.values.getInt(RECORD_COUNT);
+        return recordCount != null ? recordCount : 0;
     }
 
     @Override
     public long getFlowSeqNum() {
-        return getInt64(this.document, "@sequenceNumber")
-                .orElse(0L);
+        final Long sequenceNumber = this.values.getLong(SEQUENCE_NUMBER);
+        return sequenceNumber != null ? sequenceNumber : 0L;
     }
 
     @Override
     public Integer getInputSnmp() {
-        return getInt64(this.document, "ingressInterface")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(INGRESS_INTERFACE);
     }
 
     @Override
     public Integer getIpProtocolVersion() {
-        return getInt64(this.document, "ipVersion")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(IP_VERSION);
     }
 
     @Override
     public Long getLastSwitched() {
         // TODO: What about flowDuration* ?
-        return first(
-                first(getTime(this.document, "flowEndSeconds"),
-                        getTime(this.document, "flowEndMilliseconds"),
-                        getTime(this.document, "flowEndMicroseconds"),
-                        getTime(this.document, "flowEndNanoseconds")
-                ).map(Instant::toEpochMilli),
-                getInt64(this.document, "flowEndDeltaMicroseconds").map(t -> this.getTimestamp() + t),
-                getInt64(this.document, "flowEndSysUpTime").flatMap(t ->
-                        getTime(this.document, "systemInitTimeMilliseconds").map(ts -> ts.toEpochMilli() + t)
-                )
-        ).orElse(null);
+        return getSwitched(FLOW_END, FLOW_END_DELTA_MICROSECONDS, FLOW_END_SYS_UP_TIME);
     }
 
     @Override
     public String getNextHop() {
-        return first(getString(this.document, "ipNextHopIPv6Address"),
-                getString(this.document, "ipNextHopIPv4Address"),
-                getString(this.document, "bgpNextHopIPv6Address"),
-                getString(this.document, "bgpNextHopIPv4Address"))
-                .orElse(null);
+        return this.values.getAddress(NEXT_HOP);
     }
 
     @Override
     public Integer getOutputSnmp() {
-        return getInt64(this.document, "egressInterface")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(EGRESS_INTERFACE);
     }
 
     @Override
     public Long getPackets() {
-        // TODO: What about the totals?
-        return first(getInt64(this.document, "packetDeltaCount"),
-                getInt64(this.document, "postPacketDeltaCount"),
-                getInt64(this.document, "transportPacketDeltaCount"))
-                .orElse(null);
+        return this.values.getLong(PACKETS);
     }
 
     @Override
     public Integer getProtocol() {
-        return getInt64(this.document, "protocolIdentifier")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(PROTOCOL_IDENTIFIER);
     }
 
     @Override
     public Flow.SamplingAlgorithm getSamplingAlgorithm() {
-        final Integer deprecatedSamplingAlgorithm = first(
-                getInt64(this.document, "samplingAlgorithm"),
-                getInt64(this.document, "samplerMode"))
-                .map(Long::intValue).orElse(null);
+        final Integer deprecatedSamplingAlgorithm = this.values.getInt(DEPRECATED_SAMPLING_ALGORITHM);
 
         if (deprecatedSamplingAlgorithm != null) {
             if (deprecatedSamplingAlgorithm == 1) {
@@ -223,7 +227,7 @@ class IpfixFlow implements Flow {
             }
         }
 
-        final Integer selectorAlgorithm = getInt64(this.document, "selectorAlgorithm").map(Long::intValue).orElse(null);
+        final Integer selectorAlgorithm = this.values.getInt(SELECTOR_ALGORITHM);
 
         if (selectorAlgorithm != null) {
             switch (selectorAlgorithm) {
@@ -255,16 +259,13 @@ class IpfixFlow implements Flow {
 
     @Override
     public Double getSamplingInterval() {
-        final Double deprecatedSamplingInterval = first(
-                getInt64(this.document, "samplingInterval"),
-                getInt64(this.document, "samplerRandomInterval"))
-                .map(Long::doubleValue).orElse(null);
+        final Long deprecatedSamplingInterval = this.values.getLong(DEPRECATED_SAMPLING_INTERVAL);
 
         if (deprecatedSamplingInterval != null) {
-            return deprecatedSamplingInterval;
+            return deprecatedSamplingInterval.doubleValue();
         }
 
-        final Integer selectorAlgorithm = getInt64(this.document, "selectorAlgorithm").map(Long::intValue).orElse(null);
+        final Integer selectorAlgorithm = this.values.getInt(SELECTOR_ALGORITHM);
 
         if (selectorAlgorithm != null) {
             switch (selectorAlgorithm) {
@@ -272,57 +273,35 @@ class IpfixFlow implements Flow {
                     return null;
                 }
                 case 1: {
-                    final Double samplingInterval =
-                            getInt64(this.document, "samplingFlowInterval")
-                                    .map(Long::doubleValue).orElse(1.0);
-                    final Double samplingSpacing =
-                            getInt64(this.document, "samplingFlowSpacing")
-                                    .map(Long::doubleValue).orElse(0.0);
+                    final double samplingInterval = getDoubleOrDefault(SAMPLING_FLOW_INTERVAL, 1.0);
+                    final double samplingSpacing = getDoubleOrDefault(SAMPLING_FLOW_SPACING, 0.0);
 
                     return (samplingInterval + samplingSpacing) / samplingInterval;
                 }
                 case 2: {
-                    final Double flowSamplingTimeInterval =
-                            getInt64(this.document, "flowSamplingTimeInterval")
-                                    .map(Long::doubleValue).orElse(1.0);
-                    final Double flowSamplingTimeSpacing =
-                            getInt64(this.document, "flowSamplingTimeSpacing")
-                                    .map(Long::doubleValue).orElse(0.0);
+                    final double flowSamplingTimeInterval = getDoubleOrDefault(FLOW_SAMPLING_TIME_INTERVAL, 1.0);
+                    final double flowSamplingTimeSpacing = getDoubleOrDefault(FLOW_SAMPLING_TIME_SPACING, 0.0);
 
                     return (flowSamplingTimeInterval + flowSamplingTimeSpacing) / flowSamplingTimeInterval;
                 }
                 case 3: {
-                    final Double samplingSize =
-                            getInt64(this.document, "samplingSize")
-                                    .map(Long::doubleValue).orElse(1.0); // n
-                    final Double samplingPopulation =
-                            getInt64(this.document, "samplingPopulation")
-                                    .map(Long::doubleValue).orElse(1.0); // N
+                    final double samplingSize = getDoubleOrDefault(SAMPLING_SIZE, 1.0); // n
+                    final double samplingPopulation = getDoubleOrDefault(SAMPLING_POPULATION, 1.0); // N
 
                     return samplingPopulation / samplingSize;
                 }
                 case 4: {
-                    final Double samplingProbability =
-                            getDouble(this.document, "samplingProbability")
-                                    .orElse(1.0);
+                    final Double samplingProbability = this.values.getDouble(SAMPLING_PROBABILITY);
 
-                    return 1.0 / samplingProbability;
+                    return 1.0 / (samplingProbability != null ? samplingProbability : 1.0);
                 }
                 case 5:
                 case 6:
                 case 7: {
-                    final UnsignedLong hashSelectedRangeMin =
-                            getInt64(this.document, "hashSelectedRangeMin")
-                                    .map(UnsignedLong::fromLongBits).orElse(UnsignedLong.ZERO);
-                    final UnsignedLong hashSelectedRangeMax =
-                            getInt64(this.document, "hashSelectedRangeMax")
-                                    .map(UnsignedLong::fromLongBits).orElse(UnsignedLong.MAX_VALUE);
-                    final UnsignedLong hashOutputRangeMin =
-                            getInt64(this.document, "hashOutputRangeMin")
-                                    .map(UnsignedLong::fromLongBits).orElse(UnsignedLong.ZERO);
-                    final UnsignedLong hashOutputRangeMax =
-                            getInt64(this.document, "hashOutputRangeMax")
-                                    .map(UnsignedLong::fromLongBits).orElse(UnsignedLong.MAX_VALUE);
+                    final UnsignedLong hashSelectedRangeMin = getUnsignedOrDefault(HASH_SELECTED_RANGE_MIN, UnsignedLong.ZERO);
+                    final UnsignedLong hashSelectedRangeMax = getUnsignedOrDefault(HASH_SELECTED_RANGE_MAX, UnsignedLong.MAX_VALUE);
+                    final UnsignedLong hashOutputRangeMin = getUnsignedOrDefault(HASH_OUTPUT_RANGE_MIN, UnsignedLong.ZERO);
+                    final UnsignedLong hashOutputRangeMax = getUnsignedOrDefault(HASH_OUTPUT_RANGE_MAX, UnsignedLong.MAX_VALUE);
 
                     return (hashOutputRangeMax.minus(hashOutputRangeMin)).dividedBy(hashSelectedRangeMax.minus(hashSelectedRangeMin)).doubleValue();
                 }
@@ -339,45 +318,32 @@ class IpfixFlow implements Flow {
 
     @Override
     public String getSrcAddr() {
-        return first(getString(this.document, "sourceIPv6Address"),
-                getString(this.document, "sourceIPv4Address"))
-                .orElse(null);
+        return this.values.getAddress(SRC_ADDR);
     }
 
     @Override
     public Integer getSrcAs() {
-        return getInt64(this.document, "bgpSourceAsNumber")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(SRC_AS);
     }
 
     @Override
     public Integer getSrcMaskLen() {
-        return first(getInt64(this.document, "sourceIPv6PrefixLength"),
-                getInt64(this.document, "sourceIPv4PrefixLength"))
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(SRC_MASK);
     }
 
     @Override
     public Integer getSrcPort() {
-        return getInt64(this.document, "sourceTransportPort")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(SRC_PORT);
     }
 
     @Override
     public Integer getTcpFlags() {
-        return getInt64(this.document, "tcpControlBits")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(TCP_CONTROL_BITS);
     }
 
     @Override
     public Integer getTos() {
-        return getInt64(this.document, "ipClassOfService")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(IP_CLASS_OF_SERVICE);
     }
 
     @Override
@@ -387,13 +353,33 @@ class IpfixFlow implements Flow {
 
     @Override
     public Integer getVlan() {
-        return first(getInt64(this.document, "vlanId"),
-                getInt64(this.document, "postVlanId"),
-                getInt64(this.document, "dot1qVlanId"),
-                getInt64(this.document, "dot1qCustomerVlanId"),
-                getInt64(this.document, "postDot1qVlanId"),
-                getInt64(this.document, "postDot1qCustomerVlanId"))
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(VLAN);
+    }
+
+    private Long getSwitched(final FlowField absolute, final FlowField deltaMicroseconds, final FlowField sysUpTime) {
+        final Long time = this.values.getEpochMilli(absolute);
+        if (time != null) {
+            return time;
+        }
+        final Long delta = this.values.getLong(deltaMicroseconds);
+        if (delta != null) {
+            return this.getTimestamp() + delta;
+        }
+        final Long upTime = this.values.getLong(sysUpTime);
+        final Long initTime = this.values.getEpochMilli(SYSTEM_INIT_TIME_MILLISECONDS);
+        if (upTime != null && initTime != null) {
+            return initTime + upTime;
+        }
+        return null;
+    }
+
+    private double getDoubleOrDefault(final FlowField field, final double defaultValue) {
+        final Long value = this.values.getLong(field);
+        return value != null ? value.doubleValue() : defaultValue;
+    }
+
+    private UnsignedLong getUnsignedOrDefault(final FlowField field, final UnsignedLong defaultValue) {
+        final Long value = this.values.getLong(field);
+        return value != null ? UnsignedLong.fromLongBits(value) : defaultValue;
     }
 }
@@ -28,161 +28,168 @@
 
 package org.opennms.netmgt.telemetry.adapters.netflow.v9;
 
-import static org.opennms.netmgt.telemetry.adapters.netflow.BsonUtils.first;
-import static org.opennms.netmgt.telemetry.adapters.netflow.BsonUtils.getInt64;
-import static org.opennms.netmgt.telemetry.adapters.netflow.BsonUtils.getString;
-
 import java.util.Objects;
 
-import org.bson.BsonDocument;
 import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.telemetry.adapters.netflow.FlowField;
+import org.opennms.netmgt.telemetry.adapters.netflow.FlowValues;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecordSchema;
 
+/**
+ * A Netflow v9 flow, read from the {@link FlowValues} of either encoding of its record.
+ */
 class Netflow9Flow implements Flow {
-    private final BsonDocument document;
-
-    public Netflow9Flow(final BsonDocument document) {
-        this.document = Objects.requireNonNull(document);
+    static final FlowRecordSchema SCHEMA = FlowRecordSchema.NETFLOW9;
+
+    private static final FlowField UNIX_SECS = FlowField.of(SCHEMA, "@unixSecs");
+    private static final FlowField SYS_UP_TIME = FlowField.of(SCHEMA, "@sysUpTime");
+    private static final FlowField RECORD_COUNT = FlowField.of(SCHEMA, "@recordCount");
+    private static final FlowField SEQUENCE_NUMBER = FlowField.of(SCHEMA, "@sequenceNumber");
+    private static final FlowField IN_BYTES = FlowField.of(SCHEMA, "IN_BYTES");
+    private static final FlowField IN_PKTS = FlowField.of(SCHEMA, "IN_PKTS");
+    private static final FlowField DIRECTION = FlowField.of(SCHEMA, "DIRECTION");
+    private static final FlowField DST_ADDR = FlowField.of(SCHEMA, "IPV6_DST_ADDR", "IPV4_DST_ADDR");
+    private static final FlowField SRC_ADDR = FlowField.of(SCHEMA, "IPV6_SRC_ADDR", "IPV4_SRC_ADDR");
+    private static final FlowField DST_AS = FlowField.of(SCHEMA, "DST_AS");
+    private static final FlowField SRC_AS = FlowField.of(SCHEMA, "SRC_AS");
+    private static final FlowField DST_MASK = FlowField.of(SCHEMA, "IPV6_DST_MASK", "DST_MASK");
+    private static final FlowField SRC_MASK = FlowField.of(SCHEMA, "IPV6_SRC_MASK", "SRC_MASK");
+    private static final FlowField L4_DST_PORT = FlowField.of(SCHEMA, "L4_DST_PORT");
+    private static final FlowField L4_SRC_PORT = FlowField.of(SCHEMA, "L4_SRC_PORT");
+    private static final FlowField ENGINE_ID = FlowField.of(SCHEMA, "ENGINE_ID");
+    private static final FlowField ENGINE_TYPE = FlowField.of(SCHEMA, "ENGINE_TYPE");
+    private static final FlowField FIRST_SWITCHED = FlowField.of(SCHEMA, "FIRST_SWITCHED");
+    private static final FlowField LAST_SWITCHED = FlowField.of(SCHEMA, "LAST_SWITCHED");
+    private static final FlowField INPUT_SNMP = FlowField.of(SCHEMA, "INPUT_SNMP");
+    private static final FlowField OUTPUT_SNMP = FlowField.of(SCHEMA, "OUTPUT_SNMP");
+    private static final FlowField IP_PROTOCOL_VERSION = FlowField.of(SCHEMA, "IP_PROTOCOL_VERSION");
+    private static final FlowField NEXT_HOP = FlowField.of(SCHEMA, "IPV6_NEXT_HOP", "IPV4_NEXT_HOP",
+            "BPG_IPV6_NEXT_HOP", "BPG_IPV4_NEXT_HOP");
+    private static final FlowField PROTOCOL = FlowField.of(SCHEMA, "PROTOCOL");
+    private static final FlowField SAMPLING_ALGORITHM = FlowField.of(SCHEMA, "SAMPLING_ALGORITHM");
+    private static final FlowField SAMPLING_INTERVAL = FlowField.of(SCHEMA, "SAMPLING_INTERVAL");
+    private static final FlowField TCP_FLAGS = FlowField.of(SCHEMA, "TCP_FLAGS");
+    private static final FlowField TOS = FlowField.of(SCHEMA, "TOS");
+    private static final FlowField VLAN = FlowField.of(SCHEMA, "SRC_VLAN", "DST_VLAN");
+
+    private final FlowValues values;
+
+    public Netflow9Flow(final FlowValues values) {
+        this.values = Objects.requireNonNull(values);
     }
 
     @Override
     public long getTimestamp() {
-        return getInt64(this.document, "@unixSecs").get() * 1000;
+        return this.values.getLong(UNIX_SECS) * 1000;
     }
 
     @Override
     public Long getBytes() {
-        return getInt64(this.document, "IN_BYTES")
-                .orElse(null);
+        return this.values.getLong(IN_BYTES);
     }
 
     @Override
     public Direction getDirection() {
-        return getInt64(this.document, "DIRECTION")
-                .map(v -> v == 0 ? Direction.INGRESS
-                        : v == 1 ? Direction.EGRESS
-                        : null)
-                .orElse(null);
+        final Long direction = this.values.getLong(DIRECTION);
+        if (direction == null) {
+            return null;
+        }
+        return direction == 0 ? Direction.INGRESS
+                : direction == 1 ? Direction.EGRESS
+                : null;
     }
 
     @Override
     public String getDstAddr() {
-        return first(getString(this.document, "IPV6_DST_ADDR"),
-                getString(this.document, "IPV4_DST_ADDR"))
-                .orElse(null);
+        return this.values.getAddress(DST_ADDR);
     }
 
     @Override
     public Integer getDstAs() {
-        return getInt64(this.document, "DST_AS")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(DST_AS);
     }
 
     @Override
     public Integer getDstMaskLen() {
-        return first(getInt64(this.document, "IPV6_DST_MASK"),
-                getInt64(this.document, "DST_MASK"))
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(DST_MASK);
     }
 
     @Override
     public Integer getDstPort() {
-        return getInt64(this.document, "L4_DST_PORT")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(L4_DST_PORT);
     }
 
     @Override
     public Integer getEngineId() {
-        return getInt64(this.document, "ENGINE_ID")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(ENGINE_ID);
     }
 
     @Override
     public Integer getEngineType() {
-        return getInt64(this.document, "ENGINE_TYPE")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(ENGINE_TYPE);
     }
 
     @Override
     public Long getFirstSwitched() {
-        return getInt64(this.document, "FIRST_SWITCHED")
-                .map(t -> this.getBootTime() + t)
-                .orElse(null);
+        final Long switched = this.values.getLong(FIRST_SWITCHED);
+        return switched != null ? this.getBootTime() + switched : null;
     }
 
     @Override
     public int getFlowRecords() {
-        return getInt64(this.document, "@recordCount")
-                .map(Long::intValue)
-                .orElse(0);
+        final Integer recordCount = this.values.getInt(RECORD_COUNT);
+        return recordCount != null ? recordCount : 0;
     }
 
     @Override
     public long getFlowSeqNum() {
-        return getInt64(this.document, "@sequenceNumber")
-                .orElse(0L);
+        final Long sequenceNumber = this.values.getLong(SEQUENCE_NUMBER);
+        return sequenceNumber != null ? sequenceNumber : 0L;
     }
 
     @Override
     public Integer getInputSnmp() {
-        return getInt64(this.document, "INPUT_SNMP")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(INPUT_SNMP);
     }
 
     @Override
     public Integer getIpProtocolVersion() {
-        return getInt64(this.document, "IP_PROTOCOL_VERSION")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(IP_PROTOCOL_VERSION);
     }
 
     @Override
     public Long getLastSwitched() {
-        return getInt64(this.document, "LAST_SWITCHED")
-                .map(t -> this.getBootTime() + t)
-                .orElse(null);
+        final Long switched = this.values.getLong(LAST_SWITCHED);
+        return switched != null ? this.getBootTime() + switched : null;
     }
 
     @Override
     public String getNextHop() {
-        return first(getString(this.document, "IPV6_NEXT_HOP"),
-                getString(this.document, "IPV4_NEXT_HOP"),
-                getString(this.document, "BPG_IPV6_NEXT_HOP"),
-                getString(this.document, "BPG_IPV4_NEXT_HOP"))
-                .orElse(null);
+        return this.values.getAddress(NEXT_HOP);
     }
 
     @Override
     public Integer getOutputSnmp() {
-        return getInt64(this.document, "OUTPUT_SNMP")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(OUTPUT_SNMP);
     }
 
     @Override
     public Long getPackets() {
-        return getInt64(this.document, "IN_PKTS")
-                .orElse(null);
+        return this.values.getLong(IN_PKTS);
     }
 
     @Override
     public Integer getProtocol() {
-        return getInt64(this.document, "PROTOCOL")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(PROTOCOL);
     }
 
     @Override
     public Flow.SamplingAlgorithm getSamplingAlgorithm() {
-        final int samplingAlgorithm = getInt64(this.document, "SAMPLING_ALGORITHM")
-                .map(Long::intValue)
-                .orElse(0);
+        final Integer samplingAlgorithm = this.values.getInt(SAMPLING_ALGORITHM);
 
+        if (samplingAlgorithm == null) {
+            return Flow.SamplingAlgorithm.Unassigned;
+        }
         if (samplingAlgorithm == 1) {
             return Flow.SamplingAlgorithm.SystematicCountBasedSampling;
         }
@@ -195,52 +202,38 @@ class Netflow9Flow implements Flow {
 
     @Override
     public Double getSamplingInterval() {
-        return getInt64(this.document, "SAMPLING_INTERVAL")
-                .map(Long::doubleValue)
-                .orElse(null);
+        final Long samplingInterval = this.values.getLong(SAMPLING_INTERVAL);
+        return samplingInterval != null ? samplingInterval.doubleValue() : null;
     }
 
     @Override
     public String getSrcAddr() {
-        return first(getString(this.document, "IPV6_SRC_ADDR"),
-                getString(this.document, "IPV4_SRC_ADDR"))
-                .orElse(null);
+        return this.values.getAddress(SRC_ADDR);
     }
 
     @Override
     public Integer getSrcAs() {
-        return getInt64(this.document, "SRC_AS")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(SRC_AS);
     }
 
     @Override
     public Integer getSrcMaskLen() {
-        return first(getInt64(this.document, "IPV6_SRC_MASK"),
-                getInt64(this.document, "SRC_MASK"))
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(SRC_MASK);
     }
 
     @Override
     public Integer getSrcPort() {
-        return getInt64(this.document, "L4_SRC_PORT")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(L4_SRC_PORT);
     }
 
     @Override
     public Integer getTcpFlags() {
-        return getInt64(this.document, "TCP_FLAGS")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(TCP_FLAGS);
     }
 
     @Override
     public Integer getTos() {
-        return getInt64(this.document, "TOS")
-                .map(Long::intValue)
-                .orElse(null);
+        return this.values.getInt(TOS);
     }
 
     @Override
@@ -250,17 +243,10 @@ class Netflow9Flow implements Flow {
 
     @Override
     public Integer getVlan() {
-        return first(getInt64(this.document, "SRC_VLAN"),
-                getInt64(this.document, "DST_VLAN"))
-                .map(Long::intValue)
-                .orElse(null);
-    }
-
-    private long getSysUpTime() {
-        return getInt64(this.document, "@sysUpTime").get();
+        return this.values.getInt(VLAN);
     }
 
     private long getBootTime() {
-        return this.getTimestamp() - getSysUpTime();
+        return this.getTimestamp() - this.values.getLong(SYS_UP_TIME);
     }
 }
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.adapters.netflow;
+
+import java.nio.ByteBuffer;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
+import org.bson.io.BasicOutputBuffer;
+import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.BooleanValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.DateTimeValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.FloatValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.IPv4AddressValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.IPv6AddressValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.ListValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.MacAddressValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.NullValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.OctetArrayValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.SignedValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.StringValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.UndeclaredValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.UnsignedValue;
+
+/**
+ * The BSON encoding used by listeners before the flow record format was introduced. Kept to verify that adapters
+ * still accept packets from older listeners.
+ */
+public class BsonFlowSerializer {
+
+    private BsonFlowSerializer() {
+    }
+
+    public static ByteBuffer serialize(final Protocol protocol, final Iterable<Value<?>> record) {
+        final BasicOutputBuffer output = new BasicOutputBuffer();
+        try (final BsonBinaryWriter writer = new BsonBinaryWriter(output)) {
+            writer.writeStartDocument();
+            writer.writeInt32("@version", protocol.magic);
+
+            final FlowBuilderVisitor visitor = new FlowBuilderVisitor(writer);
+            for (final Value<?> value : record) {
+                value.visit(visitor);
+            }
+
+            writer.writeEndDocument();
+        }
+
+        return output.getByteBuffers().get(0).asNIO();
+    }
+
+    private static class FlowBuilderVisitor implements Value.Visitor {
+        private final BsonWriter writer;
+
+        public FlowBuilderVisitor(final BsonWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void accept(final NullValue value) {
+            this.writer.writeNull(value.getName());
+        }
+
+        @Override
+        public void accept(final BooleanValue value) {
+            this.writer.writeBoolean(value.getName(), value.getValue());
+        }
+
+        @Override
+        public void accept(final DateTimeValue value) {
+            this.writer.writeStartDocument(value.getName());
+            this.writer.writeInt64("epoch", value.getValue().getEpochSecond());
+            if (value.getValue().getNano() != 0) {
+                this.writer.writeInt64("nanos", value.getValue().getNano());
+            }
+            this.writer.writeEndDocument();
+        }
+
+        @Override
+        public void accept(final FloatValue value) {
+            this.writer.writeDouble(value.getName(), value.getValue());
+        }
+
+        @Override
+        public void accept(final IPv4AddressValue value) {
+            this.writer.writeString(value.getName(), value.getValue().getHostAddress());
+        }
+
+        @Override
+        public void accept(final IPv6AddressValue value) {
+            this.writer.writeString(value.getName(), value.getValue().getHostAddress());
+        }
+
+        @Override
+        public void accept(final MacAddressValue value) {
+            this.writer.writeStartDocument(value.getName());
+            value.getSemantics().ifPresent(semantics -> {
+                this.writer.writeInt32("s", semantics.ordinal());
+            });
+            this.writer.writeBinaryData("v", new BsonBinary(value.getValue()));
+            this.writer.writeEndDocument();
+        }
+
+        @Override
+        public void accept(final OctetArrayValue value) {
+            this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
+        }
+
+        @Override
+        public void accept(final SignedValue value) {
+            this.writer.writeInt64(value.getName(), value.getValue());
+        }
+
+        @Override
+        public void accept(final StringValue value) {
+            this.writer.writeString(value.getName(), value.getValue());
+        }
+
+        @Override
+        public void accept(final ListValue value) {
+            this.writer.writeStartDocument(value.getName());
+            this.writer.writeInt32("semantic", value.getSemantic().ordinal());
+            this.writer.writeStartArray("values");
+            for (int i = 0; i < value.getValue().size(); i++) {
+                this.writer.writeStartDocument();
+                for (int j = 0; j < value.getValue().get(i).size(); j++) {
+                    value.getValue().get(i).get(j).visit(this);
+                }
+                this.writer.writeEndDocument();
+            }
+            this.writer.writeEndArray();
+            this.writer.writeEndDocument();
+        }
+
+        @Override
+        public void accept(final UnsignedValue value) {
+            this.writer.writeInt64(value.getName(), value.getValue().longValue());
+        }
+
+        @Override
+        public void accept(final UndeclaredValue value) {
+            this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.adapters.netflow;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.netmgt.flows.api.Converter;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.telemetry.adapters.netflow.ipfix.IpfixConverter;
+import org.opennms.netmgt.telemetry.adapters.netflow.v9.Netflow9Converter;
+import org.opennms.netmgt.telemetry.listeners.flow.PacketHandler;
+import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Encodes the records of recorded NetFlow v9 and IPFIX sessions as BSON documents, as older listeners do, and as
+ * flow records, and measures the encoding on the listener side and the decoding of all flow attributes on the
+ * adapter side.
+ *
+ * The number of passes over the recorded records can be changed with the <code>benchmark.iterations</code> system
+ * property.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+@IfProfileValue(name="runBenchmarkTests", value="true")
+public class FlowRecordBenchmarkTest {
+
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 20000);
+
+    @Test
+    public void benchmarkNetflow9() {
+        final List<Iterable<Value<?>>> records = new ArrayList<>();
+        records.addAll(RecordedFlows.parse(Protocol.NETFLOW9, "/flows/netflow9_template.dat", "/flows/netflow9_records.dat"));
+        records.addAll(RecordedFlows.parse(Protocol.NETFLOW9, "/flows/netflow9_test_cisco_asa_1_tpl.dat", "/flows/netflow9_test_cisco_asa_1_data.dat"));
+        records.addAll(RecordedFlows.parse(Protocol.NETFLOW9, "/flows/netflow9_test_paloalto_panos_tpl.dat", "/flows/netflow9_test_paloalto_panos_data.dat"));
+
+        benchmark(Protocol.NETFLOW9, new Netflow9Converter(), records, "bson", BsonFlowSerializer::serialize);
+        benchmark(Protocol.NETFLOW9, new Netflow9Converter(), records, "record", PacketHandler::serialize);
+    }
+
+    @Test
+    public void benchmarkIpfix() {
+        final List<Iterable<Value<?>>> records = new ArrayList<>();
+        records.addAll(RecordedFlows.parse(Protocol.IPFIX, "/flows/ipfix_test_openbsd_pflow_tpl.dat", "/flows/ipfix_test_openbsd_pflow_data.dat"));
+        records.addAll(RecordedFlows.parse(Protocol.IPFIX, "/flows/ipfix_test_mikrotik_tpl.dat", "/flows/ipfix_test_mikrotik_data258.dat", "/flows/ipfix_test_mikrotik_data259.dat"));
+
+        benchmark(Protocol.IPFIX, new IpfixConverter(), records, "bson", BsonFlowSerializer::serialize);
+        benchmark(Protocol.IPFIX, new IpfixConverter(), records, "record", PacketHandler::serialize);
+    }
+
+    private static void benchmark(final Protocol protocol,
+                                  final Converter<ByteBuffer> converter,
+                                  final List<Iterable<Value<?>>> records,
+                                  final String name,
+                                  final BiFunction<Protocol, Iterable<Value<?>>, ByteBuffer> serializer) {
+        final List<ByteBuffer> buffers = new ArrayList<>(records.size());
+        long bytes = 0;
+        for (final Iterable<Value<?>> record : records) {
+            final ByteBuffer buffer = serializer.apply(protocol, record);
+            bytes += buffer.remaining();
+            buffers.add(buffer);
+        }
+
+        // Warm up
+        encodeAll(protocol, records, serializer, ITERATIONS / 10);
+        decodeAll(converter, buffers, ITERATIONS / 10);
+
+        long start = System.nanoTime();
+        encodeAll(protocol, records, serializer, ITERATIONS);
+        final long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final long hash = decodeAll(converter, buffers, ITERATIONS);
+        final long decodeNanos = System.nanoTime() - start;
+
+        final long total = (long) ITERATIONS * records.size();
+        System.out.printf("%s %s: %d records, %.1f bytes/record, encode %d ms (%.0f records/s), decode %d ms (%.0f records/s), hash %d%n",
+                protocol, name, total, (double) bytes / records.size(),
+                TimeUnit.NANOSECONDS.toMillis(encodeNanos), (double) total / encodeNanos * TimeUnit.SECONDS.toNanos(1),
+                TimeUnit.NANOSECONDS.toMillis(decodeNanos), (double) total / decodeNanos * TimeUnit.SECONDS.toNanos(1),
+                hash);
+    }
+
+    private static long encodeAll(final Protocol protocol,
+                                  final List<Iterable<Value<?>>> records,
+                                  final BiFunction<Protocol, Iterable<Value<?>>, ByteBuffer> serializer,
+                                  final int iterations) {
+        long bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (final Iterable<Value<?>> record : records) {
+                bytes += serializer.apply(protocol, record).remaining();
+            }
+        }
+        return bytes;
+    }
+
+    // Reads every attribute the flow documents are built from
+    private static long decodeAll(final Converter<ByteBuffer> converter, final List<ByteBuffer> buffers, final int iterations) {
+        long hash = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (final ByteBuffer buffer : buffers) {
+                for (final Flow flow : converter.convert(buffer.duplicate())) {
+                    hash = 31 * hash + Objects.hash(flow.getTimestamp(), flow.getBytes(), flow.getDirection(),
+                            flow.getDstAddr(), flow.getDstAs(), flow.getDstMaskLen(), flow.getDstPort(),
+                            flow.getEngineId(), flow.getEngineType(), flow.getFirstSwitched(), flow.getFlowRecords(),
+                            flow.getFlowSeqNum(), flow.getInputSnmp(), flow.getIpProtocolVersion(),
+                            flow.getLastSwitched(), flow.getNextHop(), flow.getOutputSnmp(), flow.getPackets(),
+                            flow.getProtocol(), flow.getSamplingAlgorithm(), flow.getSamplingInterval(),
+                            flow.getSrcAddr(), flow.getSrcAs(), flow.getSrcMaskLen(), flow.getSrcPort(),
+                            flow.getTcpFlags(), flow.getTos(), flow.getNetflowVersion(), flow.getVlan());
+                }
+            }
+        }
+        return hash;
+    }
+}
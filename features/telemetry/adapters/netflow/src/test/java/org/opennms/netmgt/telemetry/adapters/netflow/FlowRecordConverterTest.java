@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.adapters.netflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.opennms.netmgt.flows.api.Converter;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.telemetry.adapters.netflow.ipfix.IpfixConverter;
+import org.opennms.netmgt.telemetry.adapters.netflow.v9.Netflow9Converter;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecord;
+import org.opennms.netmgt.telemetry.listeners.flow.PacketHandler;
+import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+
+/**
+ * Verifies that flows read from {@link FlowRecord}s are identical to the flows read from the BSON documents sent by
+ * older listeners.
+ */
+@RunWith(Parameterized.class)
+public class FlowRecordConverterTest {
+
+    @Parameterized.Parameters(name = "{0}: {1}")
+    public static Iterable<Object[]> data() {
+        return Arrays.asList(
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("/flows/netflow9_template.dat", "/flows/netflow9_records.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("/flows/netflow9_test_cisco_asa_1_tpl.dat", "/flows/netflow9_test_cisco_asa_1_data.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("/flows/netflow9_test_paloalto_panos_tpl.dat", "/flows/netflow9_test_paloalto_panos_data.dat")},
+                new Object[]{Protocol.IPFIX, Arrays.asList("/flows/ipfix_test_openbsd_pflow_tpl.dat", "/flows/ipfix_test_openbsd_pflow_data.dat")},
+                new Object[]{Protocol.IPFIX, Arrays.asList("/flows/ipfix_test_mikrotik_tpl.dat", "/flows/ipfix_test_mikrotik_data258.dat", "/flows/ipfix_test_mikrotik_data259.dat")}
+        );
+    }
+
+    private final Protocol protocol;
+    private final List<String> resources;
+
+    public FlowRecordConverterTest(final Protocol protocol, final List<String> resources) {
+        this.protocol = protocol;
+        this.resources = resources;
+    }
+
+    @Test
+    public void canConvertFlowRecordsAndLegacyDocuments() {
+        final Converter<ByteBuffer> converter = this.protocol == Protocol.NETFLOW9
+                ? new Netflow9Converter()
+                : new IpfixConverter();
+
+        final List<Iterable<Value<?>>> records = RecordedFlows.parse(this.protocol, this.resources.toArray(new String[0]));
+        assertFalse(records.isEmpty());
+
+        for (final Iterable<Value<?>> record : records) {
+            final ByteBuffer buffer = PacketHandler.serialize(this.protocol, record);
+            assertTrue(FlowRecord.isFlowRecord(buffer));
+
+            final ByteBuffer legacy = BsonFlowSerializer.serialize(this.protocol, record);
+            assertFalse(FlowRecord.isFlowRecord(legacy));
+
+            final List<Flow> flows = converter.convert(buffer);
+            final List<Flow> legacyFlows = converter.convert(legacy);
+            assertEquals(1, flows.size());
+            assertEquals(1, legacyFlows.size());
+
+            assertSameFlow(legacyFlows.get(0), flows.get(0));
+            // The read-only view handed out by the messages
+            assertSameFlow(legacyFlows.get(0), converter.convert(buffer.asReadOnlyBuffer()).get(0));
+        }
+    }
+
+    private static void assertSameFlow(final Flow expected, final Flow actual) {
+        assertEquals("timestamp", expected.getTimestamp(), actual.getTimestamp());
+        assertEquals("bytes", expected.getBytes(), actual.getBytes());
+        assertEquals("direction", expected.getDirection(), actual.getDirection());
+        assertEquals("dstAddr", expected.getDstAddr(), actual.getDstAddr());
+        assertEquals("dstAs", expected.getDstAs(), actual.getDstAs());
+        assertEquals("dstMaskLen", expected.getDstMaskLen(), actual.getDstMaskLen());
+        assertEquals("dstPort", expected.getDstPort(), actual.getDstPort());
+        assertEquals("engineId", expected.getEngineId(), actual.getEngineId());
+        assertEquals("engineType", expected.getEngineType(), actual.getEngineType());
+        assertEquals("firstSwitched", expected.getFirstSwitched(), actual.getFirstSwitched());
+        assertEquals("flowRecords", expected.getFlowRecords(), actual.getFlowRecords());
+        assertEquals("flowSeqNum", expected.getFlowSeqNum(), actual.getFlowSeqNum());
+        assertEquals("inputSnmp", expected.getInputSnmp(), actual.getInputSnmp());
+        assertEquals("ipProtocolVersion", expected.getIpProtocolVersion(), actual.getIpProtocolVersion());
+        assertEquals("lastSwitched", expected.getLastSwitched(), actual.getLastSwitched());
+        assertEquals("nextHop", expected.getNextHop(), actual.getNextHop());
+        assertEquals("outputSnmp", expected.getOutputSnmp(), actual.getOutputSnmp());
+        assertEquals("packets", expected.getPackets(), actual.getPackets());
+        assertEquals("protocol", expected.getProtocol(), actual.getProtocol());
+        assertEquals("samplingAlgorithm", expected.getSamplingAlgorithm(), actual.getSamplingAlgorithm());
+        assertEquals("samplingInterval", expected.getSamplingInterval(), actual.getSamplingInterval());
+        assertEquals("srcAddr", expected.getSrcAddr(), actual.getSrcAddr());
+        assertEquals("srcAs", expected.getSrcAs(), actual.getSrcAs());
+        assertEquals("srcMaskLen", expected.getSrcMaskLen(), actual.getSrcMaskLen());
+        assertEquals("srcPort", expected.getSrcPort(), actual.getSrcPort());
+        assertEquals("tcpFlags", expected.getTcpFlags(), actual.getTcpFlags());
+        assertEquals("tos", expected.getTos(), actual.getTos());
+        assertEquals("netflowVersion", expected.getNetflowVersion(), actual.getNetflowVersion());
+        assertEquals("vlan", expected.getVlan(), actual.getVlan());
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.adapters.netflow;
+
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
+import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.TcpSession;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Parses recorded packets of a single exporter session into the records emitted by the listeners.
+ *
+ * The recordings are shared with the flow listener and read from its test-jar.
+ */
+public class RecordedFlows {
+
+    private RecordedFlows() {
+    }
+
+    public static List<Iterable<Value<?>>> parse(final Protocol protocol, final String... resources) {
+        final List<Iterable<Value<?>>> records = new ArrayList<>();
+        final Session session = new TcpSession();
+        for (final String resource : resources) {
+            final ByteBuffer buffer = ByteBuffer.wrap(read(resource));
+            try {
+                do {
+                    switch (protocol) {
+                        case NETFLOW9: {
+                            final org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header header =
+                                    new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header(
+                                            slice(buffer, org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header.SIZE));
+                            new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Packet(session, header, buffer)
+                                    .getRecords().forEach(records::add);
+                            break;
+                        }
+                        case IPFIX: {
+                            final org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header header =
+                                    new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header(
+                                            slice(buffer, org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE));
+                            new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet(session,
+                                    InetSocketAddress.createUnresolved("localhost", 4711), header,
+                                    slice(buffer, header.length - org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE))
+                                    .getRecords().forEach(records::add);
+                            break;
+                        }
+                    }
+                } while (buffer.hasRemaining());
+            } catch (final InvalidPacketException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return records;
+    }
+
+    private static byte[] read(final String resource) {
+        try (InputStream in = Objects.requireNonNull(RecordedFlows.class.getResourceAsStream(resource), resource)) {
+            return ByteStreams.toByteArray(in);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
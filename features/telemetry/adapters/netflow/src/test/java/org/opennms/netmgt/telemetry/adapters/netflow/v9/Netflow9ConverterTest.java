@@ -43,8 +43,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.bson.BsonDocument;
-import org.bson.RawBsonDocument;
 import org.junit.Test;
 import org.opennms.netmgt.flows.api.Flow;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
@@ -105,8 +103,7 @@ public class Netflow9ConverterTest {
                 final Packet packet = new Packet(session, header, buffer);
                 packet.getRecords().forEach(rec -> {
                     final ByteBuffer bf = PacketHandler.serialize(org.opennms.netmgt.telemetry.listeners.flow.Protocol.NETFLOW9, rec);
-                    final BsonDocument doc = new RawBsonDocument(bf.array());
-                    flows.addAll(nf9Converter.convert(doc));
+                    flows.addAll(nf9Converter.convert(bf));
                 });
             } catch (InvalidPacketException e) {
                 throw new RuntimeException(e);
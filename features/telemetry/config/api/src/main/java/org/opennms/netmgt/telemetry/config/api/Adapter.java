@@ -29,6 +29,7 @@
 package org.opennms.netmgt.telemetry.config.api;
 
 import java.util.Map;
+import java.util.Optional;
 
 public interface Adapter {
     String getName();
@@ -36,4 +37,39 @@ public interface Adapter {
     String getClassName();
 
     Map<String, String> getParameterMap();
+
+    /**
+     * Number of threads dedicated to this adapter.
+     *
+     * If not set, the message logs are handled by the threads consuming
+     * them from the Sink, one adapter after the other.
+     *
+     * @return the number of threads
+     */
+    Optional<Integer> getNumThreads();
+
+    /**
+     * Maximum number of message logs to keep in memory while waiting
+     * to be handled by the dedicated threads.
+     *
+     * @return the queue size
+     */
+    Optional<Integer> getQueueSize();
+
+    /**
+     * When set, message logs from the same exporter are always handled by
+     * the same thread, preserving their order.
+     *
+     * @return whether message logs are partitioned by exporter
+     */
+    Optional<Boolean> getPartitionByExporter();
+
+    /**
+     * What to do with a message log while the queue is full: either
+     * <code>block</code> the consuming thread until there is room, or
+     * <code>drop</code> the message log.
+     *
+     * @return the queue full policy
+     */
+    Optional<String> getQueueFullPolicy();
 }
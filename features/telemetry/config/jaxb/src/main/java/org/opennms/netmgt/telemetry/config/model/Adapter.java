@@ -37,6 +37,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @XmlRootElement(name="adapter")
@@ -46,6 +47,14 @@ public class Adapter implements org.opennms.netmgt.telemetry.config.api.Adapter
     private String name;
     @XmlAttribute(name="class-name")
     private String className;
+    @XmlAttribute(name="num-threads")
+    private Integer numThreads;
+    @XmlAttribute(name="queue-size")
+    private Integer queueSize;
+    @XmlAttribute(name="partition-by-exporter")
+    private Boolean partitionByExporter;
+    @XmlAttribute(name="queue-full-policy")
+    private String queueFullPolicy;
     @XmlElement(name="parameter")
     private List<Parameter> parameters = new ArrayList<>();
 
@@ -67,6 +76,42 @@ public class Adapter implements org.opennms.netmgt.telemetry.config.api.Adapter
         this.className = className;
     }
 
+    @Override
+    public Optional<Integer> getNumThreads() {
+        return Optional.ofNullable(numThreads);
+    }
+
+    public void setNumThreads(Integer numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public Optional<Integer> getQueueSize() {
+        return Optional.ofNullable(queueSize);
+    }
+
+    public void setQueueSize(Integer queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @Override
+    public Optional<Boolean> getPartitionByExporter() {
+        return Optional.ofNullable(partitionByExporter);
+    }
+
+    public void setPartitionByExporter(Boolean partitionByExporter) {
+        this.partitionByExporter = partitionByExporter;
+    }
+
+    @Override
+    public Optional<String> getQueueFullPolicy() {
+        return Optional.ofNullable(queueFullPolicy);
+    }
+
+    public void setQueueFullPolicy(String queueFullPolicy) {
+        this.queueFullPolicy = queueFullPolicy;
+    }
+
     public List<Parameter> getParameters() {
         return parameters;
     }
@@ -88,12 +133,16 @@ public class Adapter implements org.opennms.netmgt.telemetry.config.api.Adapter
         Adapter adapter = (Adapter) o;
         return Objects.equals(name, adapter.name) &&
                 Objects.equals(className, adapter.className) &&
+                Objects.equals(numThreads, adapter.numThreads) &&
+                Objects.equals(queueSize, adapter.queueSize) &&
+                Objects.equals(partitionByExporter, adapter.partitionByExporter) &&
+                Objects.equals(queueFullPolicy, adapter.queueFullPolicy) &&
                 Objects.equals(parameters, adapter.parameters);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, className, parameters);
+        return Objects.hash(name, className, numThreads, queueSize, partitionByExporter, queueFullPolicy, parameters);
     }
 
     @Override
@@ -101,6 +150,10 @@ public class Adapter implements org.opennms.netmgt.telemetry.config.api.Adapter
         return "Adapter{" +
                 "name='" + name + '\'' +
                 ", className='" + className + '\'' +
+                ", numThreads=" + numThreads +
+                ", queueSize=" + queueSize +
+                ", partitionByExporter=" + partitionByExporter +
+                ", queueFullPolicy='" + queueFullPolicy + '\'' +
                 ", parameters=" + parameters +
                 '}';
     }
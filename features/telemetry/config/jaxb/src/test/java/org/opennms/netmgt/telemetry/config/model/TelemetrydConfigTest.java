@@ -68,6 +68,10 @@ public class TelemetrydConfigTest extends XmlTestNoCastor<TelemetrydConfiguratio
         Adapter jtiGbpAdapter = new Adapter();
         jtiGbpAdapter.setName("JTI-GPB");
         jtiGbpAdapter.setClassName("org.opennms.netmgt.collection.streaming.jti.JtiGpbAdapter");
+        jtiGbpAdapter.setNumThreads(4);
+        jtiGbpAdapter.setQueueSize(2000);
+        jtiGbpAdapter.setPartitionByExporter(true);
+        jtiGbpAdapter.setQueueFullPolicy("drop");
         jtiGbpAdapter.getParameters().add(new Parameter("script", "${install.dir}/etc/telemetryd-adapters/junos-telemetry-interface.groovy"));
         jtiProtocol.getAdapters().add(jtiGbpAdapter);
 
@@ -93,7 +97,8 @@ public class TelemetrydConfigTest extends XmlTestNoCastor<TelemetrydConfiguratio
                 "      <parameter key=\"port\" value=\"50000\"/>\n" +
                 "    </listener>\n" +
                 "\n" +
-                "    <adapter name=\"JTI-GPB\" class-name=\"org.opennms.netmgt.collection.streaming.jti.JtiGpbAdapter\">\n" +
+                "    <adapter name=\"JTI-GPB\" class-name=\"org.opennms.netmgt.collection.streaming.jti.JtiGpbAdapter\"\n" +
+                "             num-threads=\"4\" queue-size=\"2000\" partition-by-exporter=\"true\" queue-full-policy=\"drop\">\n" +
                 "      <parameter key=\"script\" value=\"${install.dir}/etc/telemetryd-adapters/junos-telemetry-interface.groovy\" />\n" +
                 "    </adapter>\n" +
                 "\n" +
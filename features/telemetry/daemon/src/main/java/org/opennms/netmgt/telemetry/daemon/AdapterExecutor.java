@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.daemon;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.netmgt.telemetry.adapters.api.Adapter;
+import org.opennms.netmgt.telemetry.ipc.TelemetryProtos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Hands message logs to an {@link Adapter}.
+ *
+ * Without dedicated threads, the message logs are handled on the calling thread.
+ * Otherwise they are queued and handled by the dedicated threads: all threads share
+ * a single queue, unless the message logs are partitioned by exporter, in which case
+ * every thread has a queue of its own and all message logs of an exporter go to the
+ * same thread.
+ */
+public class AdapterExecutor implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(AdapterExecutor.class);
+
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static final long SHUTDOWN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    public enum QueueFullPolicy {
+        /**
+         * Block the calling thread until there is room, pushing back on the Sink.
+         */
+        BLOCK,
+        /**
+         * Drop the message log.
+         */
+        DROP;
+
+        public static QueueFullPolicy parse(final String value) {
+            try {
+                return QueueFullPolicy.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid queue full policy: " + value
+                        + ". Must be one of " + Arrays.toString(QueueFullPolicy.values()), e);
+            }
+        }
+    }
+
+    // Tells a worker to stop once everything queued before has been handled
+    private static final Task POISON = new Task(null, 0L);
+
+    private final String name;
+    private final Adapter adapter;
+    private final QueueFullPolicy queueFullPolicy;
+
+    private final BlockingQueue<Task>[] queues;
+    private final Thread[] workers;
+
+    private final Timer handleTimer;
+    private final Timer lagTimer;
+    private final Meter dropped;
+    private final Meter failed;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Handles the message logs on the calling thread.
+     */
+    public AdapterExecutor(final String name, final Adapter adapter, final MetricRegistry metrics) {
+        this(name, adapter, 0, 0, false, QueueFullPolicy.BLOCK, metrics);
+    }
+
+    @SuppressWarnings("unchecked")
+    public AdapterExecutor(final String name,
+                           final Adapter adapter,
+                           final int threads,
+                           final int queueSize,
+                           final boolean partitionByExporter,
+                           final QueueFullPolicy queueFullPolicy,
+                           final MetricRegistry metrics) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        if (threads > 0 && queueSize <= 0) {
+            throw new IllegalArgumentException("Queue size must be positive: " + queueSize);
+        }
+        this.name = Objects.requireNonNull(name);
+        this.adapter = Objects.requireNonNull(adapter);
+        this.queueFullPolicy = Objects.requireNonNull(queueFullPolicy);
+
+        this.handleTimer = metrics.timer(MetricRegistry.name(name, "handle"));
+        this.lagTimer = metrics.timer(MetricRegistry.name(name, "lag"));
+        this.dropped = metrics.meter(MetricRegistry.name(name, "dropped"));
+        this.failed = metrics.meter(MetricRegistry.name(name, "failed"));
+
+        if (threads == 0) {
+            this.queues = null;
+            this.workers = new Thread[0];
+            return;
+        }
+
+        // Split the capacity between the partitions, so the memory bound is the same either way
+        this.queues = new BlockingQueue[partitionByExporter ? threads : 1];
+        for (int i = 0; i < this.queues.length; i++) {
+            this.queues[i] = new ArrayBlockingQueue<>(Math.max(1, queueSize / this.queues.length));
+        }
+        metrics.register(MetricRegistry.name(name, "queued"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getQueued();
+            }
+        });
+
+        final ThreadFactory threadFactory = new LogPreservingThreadFactory("telemetryd-" + name, threads);
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final BlockingQueue<Task> queue = this.queues[i % this.queues.length];
+            this.workers[i] = threadFactory.newThread(() -> work(queue));
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Handles the message log, or queues it to be handled by one of the dedicated threads.
+     *
+     * With the {@link QueueFullPolicy#BLOCK} policy, this blocks while the queue is full.
+     */
+    public void handle(final TelemetryProtos.TelemetryMessageLog messageLog) {
+        if (this.queues == null) {
+            doHandle(messageLog);
+            return;
+        }
+
+        if (this.closed) {
+            LOG.warn("Adapter: {} is closed. Dropping message log.", this.name);
+            this.dropped.mark();
+            return;
+        }
+
+        final BlockingQueue<Task> queue = this.queues[partition(messageLog)];
+        final Task task = new Task(messageLog, System.nanoTime());
+        switch (this.queueFullPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn("Interrupted while queueing message log for adapter: {}. Dropping message log.", this.name);
+                    this.dropped.mark();
+                }
+                break;
+            case DROP:
+                if (!queue.offer(task)) {
+                    LOG.debug("Queue for adapter: {} is full. Dropping message log.", this.name);
+                    this.dropped.mark();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Number of message logs waiting to be handled.
+     */
+    public int getQueued() {
+        if (this.queues == null) {
+            return 0;
+        }
+        int queued = 0;
+        for (final BlockingQueue<Task> queue : this.queues) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    public Adapter getAdapter() {
+        return this.adapter;
+    }
+
+    /**
+     * Stops the dedicated threads after all queued message logs have been handled.
+     * Does not destroy the adapter.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+
+        if (this.queues != null) {
+            // Every worker takes exactly one poison pill off its queue
+            final long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+            try {
+                for (int i = 0; i < this.workers.length; i++) {
+                    this.queues[i % this.queues.length].offer(POISON, Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                for (final Thread worker : this.workers) {
+                    worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (final Thread worker : this.workers) {
+                if (worker.isAlive()) {
+                    LOG.warn("Adapter thread: {} did not finish in time. Interrupting.", worker.getName());
+                    worker.interrupt();
+                }
+            }
+        }
+    }
+
+    private int partition(final TelemetryProtos.TelemetryMessageLog messageLog) {
+        if (this.queues.length == 1 || !messageLog.hasSourceAddress()) {
+            return 0;
+        }
+        return Math.floorMod(messageLog.getSourceAddress().hashCode(), this.queues.length);
+    }
+
+    private void work(final BlockingQueue<Task> queue) {
+        while (true) {
+            final Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                LOG.info("Adapter thread for: {} was interrupted. Stopping.", this.name);
+                return;
+            }
+            if (task == POISON) {
+                return;
+            }
+            this.lagTimer.update(System.nanoTime() - task.queuedAt, TimeUnit.NANOSECONDS);
+            doHandle(task.messageLog);
+        }
+    }
+
+    private void doHandle(final TelemetryProtos.TelemetryMessageLog messageLog) {
+        try (Timer.Context ctx = this.handleTimer.time()) {
+            this.adapter.handleMessageLog(messageLog);
+        } catch (RuntimeException e) {
+            this.failed.mark();
+            LOG.warn("Adapter: {} failed to handle message log: {}. Skipping.", this.adapter, messageLog, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdapterExecutor[name=%s, threads=%d, queued=%d]", this.name, this.workers.length, getQueued());
+    }
+
+    private static class Task {
+        private final TelemetryProtos.TelemetryMessageLog messageLog;
+        private final long queuedAt;
+
+        private Task(final TelemetryProtos.TelemetryMessageLog messageLog, final long queuedAt) {
+            this.messageLog = messageLog;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
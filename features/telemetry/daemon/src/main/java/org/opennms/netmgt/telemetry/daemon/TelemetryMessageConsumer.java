@@ -49,6 +49,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
 
 public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessage, TelemetryProtos.TelemetryMessageLog> {
     private final Logger LOG = LoggerFactory.getLogger(TelemetryMessageConsumer.class);
@@ -60,8 +63,12 @@ public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessag
     private final TelemetrySinkModule sinkModule;
     private final List<org.opennms.netmgt.telemetry.config.api.Adapter> adapterDefs = new ArrayList<>();
 
-    // Actual adapters implementing the logic
-    private final List<Adapter> adapters;
+    // Actual adapters implementing the logic, each with its own execution stage
+    private final List<AdapterExecutor> executors;
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    private JmxReporter reporter;
 
     public TelemetryMessageConsumer(Protocol protocol, TelemetrySinkModule sinkModule) throws Exception {
         this(protocol,
@@ -74,7 +81,7 @@ public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessag
                                         TelemetrySinkModule sinkModule) {
         this.protocolDef = Objects.requireNonNull(protocolDef);
         this.sinkModule = Objects.requireNonNull(sinkModule);
-        this.adapters = new ArrayList<>(adapterDef.size());
+        this.executors = new ArrayList<>(adapterDef.size());
         this.adapterDefs.addAll(adapterDef);
 
     }
@@ -93,7 +100,36 @@ public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessag
             if (adapter == null) {
                 throw new Exception("No adapter found for class: " + adapterDef.getClassName());
             }
-            adapters.add(adapter);
+
+            try {
+                executors.add(createExecutor(adapterDef, adapter));
+            } catch (Exception e) {
+                adapter.destroy();
+                throw new Exception("Failed to create adapter from definition: " + adapterDef, e);
+            }
+        }
+
+        reporter = JmxReporter.forRegistry(metrics)
+                .inDomain(getClass().getPackage().getName())
+                .build();
+        reporter.start();
+    }
+
+    private AdapterExecutor createExecutor(org.opennms.netmgt.telemetry.config.api.Adapter adapterDef, Adapter adapter) {
+        final String name = MetricRegistry.name(protocolDef.getName(),
+                adapterDef.getName() != null ? adapterDef.getName() : adapterDef.getClassName());
+        final int threads = adapterDef.getNumThreads().orElse(0);
+        if (threads <= 0) {
+            return new AdapterExecutor(name, adapter, metrics);
+        }
+
+        // Thread creation captures the logging context
+        try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Telemetryd.LOG_PREFIX)) {
+            return new AdapterExecutor(name, adapter, threads,
+                    adapterDef.getQueueSize().orElse(AdapterExecutor.DEFAULT_QUEUE_SIZE),
+                    adapterDef.getPartitionByExporter().orElse(false),
+                    adapterDef.getQueueFullPolicy().map(AdapterExecutor.QueueFullPolicy::parse).orElse(AdapterExecutor.QueueFullPolicy.BLOCK),
+                    metrics);
         }
     }
 
@@ -101,21 +137,24 @@ public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessag
     public void handleMessage(TelemetryProtos.TelemetryMessageLog messageLog) {
         try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Telemetryd.LOG_PREFIX)) {
             LOG.trace("Received message log: {}", messageLog);
-            // Handle the message with all of the adapters
-            for (Adapter adapter : adapters) {
-                try {
-                    adapter.handleMessageLog(messageLog);
-                } catch (RuntimeException e) {
-                    LOG.warn("Adapter: {} failed to handle message log: {}. Skipping.", adapter, messageLog, e);
-                    continue;
-                }
+            // Handle the message with all of the adapters, or hand it over to their threads
+            for (AdapterExecutor executor : executors) {
+                executor.handle(messageLog);
             }
         }
     }
 
     @PreDestroy
     public void destroy() {
-        adapters.forEach((adapter) -> adapter.destroy());
+        // Let the adapter threads finish what is queued before destroying the adapters
+        for (AdapterExecutor executor : executors) {
+            executor.close();
+            executor.getAdapter().destroy();
+        }
+        if (reporter != null) {
+            reporter.stop();
+            reporter = null;
+        }
     }
 
     @Override
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.adapters.api.Adapter;
+import org.opennms.netmgt.telemetry.adapters.api.TelemetryMessageLog;
+import org.opennms.netmgt.telemetry.config.api.Protocol;
+import org.opennms.netmgt.telemetry.ipc.TelemetryProtos;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class AdapterExecutorTest {
+
+    @Test
+    public void canHandleOnCallingThread() {
+        final MetricRegistry metrics = new MetricRegistry();
+        final List<Thread> threads = new ArrayList<>();
+        final AdapterExecutor executor = new AdapterExecutor("test", new CallbackAdapter(log -> {
+            threads.add(Thread.currentThread());
+            if (log.getSourcePort() == 1) {
+                throw new IllegalStateException("failed");
+            }
+        }), metrics);
+
+        executor.handle(messageLog("10.0.0.1", 0));
+        executor.handle(messageLog("10.0.0.1", 1));
+        executor.handle(messageLog("10.0.0.1", 2));
+        executor.close();
+
+        assertEquals(3, threads.size());
+        threads.forEach(thread -> assertEquals(Thread.currentThread(), thread));
+        assertEquals(1, metrics.meter("test.failed").getCount());
+        assertEquals(3, metrics.timer("test.handle").getCount());
+    }
+
+    @Test
+    public void canPreserveOrderPerExporter() {
+        final int exporters = 16;
+        final int messagesPerExporter = 1000;
+
+        final Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        final Map<String, Thread> threads = new ConcurrentHashMap<>();
+        final List<String> wrongThread = new ArrayList<>();
+        final AdapterExecutor executor = new AdapterExecutor("test", new CallbackAdapter(log -> {
+            // Only one thread handles an exporter, so the lists are never modified concurrently
+            received.computeIfAbsent(log.getSourceAddress(), k -> new ArrayList<>()).add(log.getSourcePort());
+            final Thread previous = threads.putIfAbsent(log.getSourceAddress(), Thread.currentThread());
+            if (previous != null && previous != Thread.currentThread()) {
+                synchronized (wrongThread) {
+                    wrongThread.add(log.getSourceAddress());
+                }
+            }
+        }), 4, 64, true, AdapterExecutor.QueueFullPolicy.BLOCK, new MetricRegistry());
+
+        for (int i = 0; i < messagesPerExporter; i++) {
+            for (int j = 0; j < exporters; j++) {
+                executor.handle(messageLog("10.0.0." + j, i));
+            }
+        }
+        // Drains the queues
+        executor.close();
+
+        assertTrue(wrongThread.isEmpty());
+        assertEquals(exporters, received.size());
+        for (final List<Integer> sequence : received.values()) {
+            assertEquals(messagesPerExporter, sequence.size());
+            for (int i = 0; i < messagesPerExporter; i++) {
+                assertEquals(i, (int) sequence.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void canDropWhenQueueIsFull() throws InterruptedException {
+        final MetricRegistry metrics = new MetricRegistry();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> handled = new ArrayList<>();
+        final AdapterExecutor executor = new AdapterExecutor("test", new CallbackAdapter(log -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            synchronized (handled) {
+                handled.add(log.getSourcePort());
+            }
+        }), 1, 1, false, AdapterExecutor.QueueFullPolicy.DROP, metrics);
+
+        // The first message log blocks the only thread
+        executor.handle(messageLog("10.0.0.1", 0));
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        // One fits in the queue, all others are dropped
+        for (int i = 1; i < 5; i++) {
+            executor.handle(messageLog("10.0.0.1", i));
+        }
+        assertEquals(1, executor.getQueued());
+        assertEquals(3, metrics.meter("test.dropped").getCount());
+
+        release.countDown();
+        executor.close();
+
+        assertEquals(2, handled.size());
+        assertEquals(2, metrics.timer("test.lag").getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnUnknownQueueFullPolicy() {
+        AdapterExecutor.QueueFullPolicy.parse("discard");
+    }
+
+    private static TelemetryProtos.TelemetryMessageLog messageLog(final String sourceAddress, final int sequence) {
+        return TelemetryProtos.TelemetryMessageLog.newBuilder()
+                .setLocation("Default")
+                .setSystemId("test")
+                .setSourceAddress(sourceAddress)
+                .setSourcePort(sequence)
+                .build();
+    }
+
+    private static class CallbackAdapter implements Adapter {
+        private final Consumer<TelemetryMessageLog> callback;
+
+        private CallbackAdapter(final Consumer<TelemetryMessageLog> callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void setProtocol(final Protocol protocol) {
+        }
+
+        @Override
+        public void handleMessageLog(final TelemetryMessageLog messageLog) {
+            this.callback.accept(messageLog);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -30,6 +30,7 @@ package org.opennms.netmgt.telemetry.distributed.common;
 
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.opennms.netmgt.telemetry.config.api.Adapter;
 
@@ -37,12 +38,21 @@ public class MapBasedAdapterDef implements Adapter {
     private final String name;
     private final String className;
     private final Map<String, String> parameters;
+    private final Optional<Integer> threads;
+    private final Optional<Integer> queueSize;
+    private final Optional<Boolean> partitionByExporter;
+    private final Optional<String> queueFullPolicy;
 
     public MapBasedAdapterDef(Map<String, String> parameters) {
         name = MapUtils.getRequiredString("name", parameters);
         className = MapUtils.getRequiredString("class-name", parameters);
         // Extract the keys from the map that are prefixed with "listener."
         this.parameters = MapUtils.filterKeysByPrefix(parameters, "parameters.");
+        // Prefixed, as the protocol shares the keys with the adapter in legacy mode
+        threads = MapUtils.getOptionalInteger("execution.threads", parameters);
+        queueSize = MapUtils.getOptionalInteger("execution.queue.size", parameters);
+        partitionByExporter = MapUtils.getOptionalBoolean("execution.partition.by.exporter", parameters);
+        queueFullPolicy = MapUtils.getOptionalString("execution.queue.full.policy", parameters);
     }
 
     @Override
@@ -60,6 +70,26 @@ public class MapBasedAdapterDef implements Adapter {
         return parameters;
     }
 
+    @Override
+    public Optional<Integer> getNumThreads() {
+        return threads;
+    }
+
+    @Override
+    public Optional<Integer> getQueueSize() {
+        return queueSize;
+    }
+
+    @Override
+    public Optional<Boolean> getPartitionByExporter() {
+        return partitionByExporter;
+    }
+
+    @Override
+    public Optional<String> getQueueFullPolicy() {
+        return queueFullPolicy;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -67,11 +97,15 @@ public class MapBasedAdapterDef implements Adapter {
         final MapBasedAdapterDef that = (MapBasedAdapterDef) o;
         return Objects.equals(name, that.name)
                 && Objects.equals(className, that.className)
-                && Objects.equals(parameters, that.parameters);
+                && Objects.equals(parameters, that.parameters)
+                && Objects.equals(threads, that.threads)
+                && Objects.equals(queueSize, that.queueSize)
+                && Objects.equals(partitionByExporter, that.partitionByExporter)
+                && Objects.equals(queueFullPolicy, that.queueFullPolicy);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, className, parameters);
+        return Objects.hash(name, className, parameters, threads, queueSize, partitionByExporter, queueFullPolicy);
     }
 }
@@ -67,4 +67,16 @@ public class MapUtils {
         }
         return Optional.of(Integer.parseInt(strValue));
     }
+
+    public static Optional<Boolean> getOptionalBoolean(String key, Map<String, String> parameters) {
+        final String strValue = parameters.get(key);
+        if (strValue == null) {
+            return Optional.empty();
+        }
+        return Optional.of(Boolean.parseBoolean(strValue));
+    }
+
+    public static Optional<String> getOptionalString(String key, Map<String, String> parameters) {
+        return Optional.ofNullable(parameters.get(key));
+    }
 }
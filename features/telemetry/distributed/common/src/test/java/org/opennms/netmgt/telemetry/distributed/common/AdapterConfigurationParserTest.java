@@ -87,4 +87,36 @@ public class AdapterConfigurationParserTest {
         Assert.assertEquals(1, adapters.size());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void verifyExecutionSettings() {
+        final Map<String, String> properties = new HashMap();
+        properties.put("name", "JTI");
+        properties.put("threads", "2");
+        properties.put("adapters.1.name", "JTI-GPB");
+        properties.put("adapters.1.class-name", "org.opennms.netmgt.telemetry.adapters.jti.JtiGpbAdapter");
+        properties.put("adapters.1.execution.threads", "8");
+        properties.put("adapters.1.execution.queue.size", "5000");
+        properties.put("adapters.1.execution.partition.by.exporter", "true");
+        properties.put("adapters.1.execution.queue.full.policy", "drop");
+
+        final List<Adapter> adapters = new AdapterConfigurationParser().parse(properties);
+        Assert.assertEquals(1, adapters.size());
+        Assert.assertEquals(Integer.valueOf(8), adapters.get(0).getNumThreads().get());
+        Assert.assertEquals(Integer.valueOf(5000), adapters.get(0).getQueueSize().get());
+        Assert.assertEquals(Boolean.TRUE, adapters.get(0).getPartitionByExporter().get());
+        Assert.assertEquals("drop", adapters.get(0).getQueueFullPolicy().get());
+        Assert.assertTrue(adapters.get(0).getParameterMap().isEmpty());
+    }
+
+    @Test
+    public void verifyLegacyDefinitionDoesNotShareThreads() {
+        final Map<String, String> properties = new HashMap();
+        properties.put("name", "Netflow-5");
+        properties.put("class-name", "org.opennms.netmgt.telemetry.adapters.netflow.v5.Netflow5Adapter");
+        properties.put("threads", "4");
+
+        final List<Adapter> adapters = new AdapterConfigurationParser().parse(properties);
+        Assert.assertEquals(1, adapters.size());
+        Assert.assertFalse(adapters.get(0).getNumThreads().isPresent());
+    }
+}
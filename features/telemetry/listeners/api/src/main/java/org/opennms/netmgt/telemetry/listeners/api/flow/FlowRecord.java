@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.api.flow;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Read access to a binary flow record as written by {@link FlowRecordWriter}.
+ *
+ * The record is read in place: values are decoded from the underlying buffer on access.
+ *
+ * Layout (big endian):
+ * <pre>
+ *  0  int    magic
+ *  4  byte   format version
+ *  5  byte   schema id
+ *  6  short  number of extension entries
+ *  8  int    offset of the extension area
+ * 12  long[] presence bits of the schema fields
+ *     ...    values of the present fields, in schema order
+ *     ...    extension entries
+ * </pre>
+ */
+public final class FlowRecord {
+
+    public static final int MAGIC = 0x4F4E4652;
+
+    public static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 12;
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_BOOLEAN = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_DOUBLE = 3;
+    static final byte TYPE_STRING = 4;
+    static final byte TYPE_ADDRESS = 5;
+    static final byte TYPE_TIME = 6;
+    static final byte TYPE_BYTES = 7;
+    static final byte TYPE_LIST = 8;
+
+    private final ByteBuffer buffer;
+    private final int base;
+    private final FlowRecordSchema schema;
+    private final int dataOffset;
+
+    private FlowRecord(final ByteBuffer buffer, final FlowRecordSchema schema) {
+        this.buffer = buffer;
+        this.base = buffer.position();
+        this.schema = schema;
+        this.dataOffset = this.base + HEADER_SIZE + schema.presenceWords() * 8;
+    }
+
+    /**
+     * @return true if the remaining bytes of the buffer start with a flow record.
+     */
+    public static boolean isFlowRecord(final ByteBuffer buffer) {
+        return buffer.remaining() >= HEADER_SIZE && buffer.getInt(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * Wraps the record starting at the current position of the buffer. The buffer must not be modified afterwards.
+     */
+    public static FlowRecord wrap(final ByteBuffer buffer) {
+        Objects.requireNonNull(buffer);
+        if (!isFlowRecord(buffer)) {
+            throw new IllegalArgumentException("Not a flow record");
+        }
+        final int version = buffer.get(buffer.position() + 4);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported flow record version: " + version);
+        }
+        return new FlowRecord(buffer, FlowRecordSchema.forId(buffer.get(buffer.position() + 5) & 0xFF));
+    }
+
+    public FlowRecordSchema getSchema() {
+        return this.schema;
+    }
+
+    public boolean has(final int field) {
+        return (presence(field >>> 6) & (1L << field)) != 0;
+    }
+
+    /**
+     * Fields of kind {@link FlowRecordSchema.Kind#LONG}.
+     */
+    public long getLong(final int field) {
+        return this.buffer.getLong(offset(field, FlowRecordSchema.Kind.LONG));
+    }
+
+    /**
+     * Fields of kind {@link FlowRecordSchema.Kind#DOUBLE}.
+     */
+    public double getDouble(final int field) {
+        return this.buffer.getDouble(offset(field, FlowRecordSchema.Kind.DOUBLE));
+    }
+
+    /**
+     * Fields of kind {@link FlowRecordSchema.Kind#TIME}.
+     */
+    public long getEpochSecond(final int field) {
+        return this.buffer.getLong(offset(field, FlowRecordSchema.Kind.TIME));
+    }
+
+    /**
+     * Fields of kind {@link FlowRecordSchema.Kind#TIME}.
+     */
+    public int getNano(final int field) {
+        return this.buffer.getInt(offset(field, FlowRecordSchema.Kind.TIME) + 8);
+    }
+
+    /**
+     * Fields of kind {@link FlowRecordSchema.Kind#TIME}.
+     */
+    public Instant getInstant(final int field) {
+        final int offset = offset(field, FlowRecordSchema.Kind.TIME);
+        return Instant.ofEpochSecond(this.buffer.getLong(offset), this.buffer.getInt(offset + 8));
+    }
+
+    /**
+     * Fields of kind {@link FlowRecordSchema.Kind#ADDRESS4} or {@link FlowRecordSchema.Kind#ADDRESS6}.
+     *
+     * @return the textual representation of the address, as returned by {@link InetAddress#getHostAddress()}
+     */
+    public String getAddress(final int field) {
+        if (this.schema.getKind(field) == FlowRecordSchema.Kind.ADDRESS4) {
+            return formatIPv4(this.buffer.getInt(offset(field, FlowRecordSchema.Kind.ADDRESS4)));
+        }
+        final int offset = offset(field, FlowRecordSchema.Kind.ADDRESS6);
+        final byte[] address = new byte[16];
+        for (int i = 0; i < address.length; i++) {
+            address[i] = this.buffer.get(offset + i);
+        }
+        return formatAddress(address);
+    }
+
+    public int getExtensionCount() {
+        return this.buffer.getShort(this.base + 6) & 0xFFFF;
+    }
+
+    /**
+     * Looks up an element of the extension area.
+     *
+     * @return the decoded value - a {@link Boolean}, {@link Long}, {@link Double}, {@link String}, {@link Instant},
+     * <code>byte[]</code> or a {@link List} of {@link Map}s for lists - or <code>null</code> if there is no such element
+     */
+    public Object getExtension(final String name) {
+        final byte[] expected = name.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer extensions = extensions();
+        for (int i = getExtensionCount(); i > 0; i--) {
+            if (nameEquals(extensions, expected)) {
+                extensions.position(extensions.position() + 2 + expected.length);
+                return readValue(extensions);
+            }
+            extensions.position(extensions.position() + 2 + (extensions.getShort(extensions.position()) & 0xFFFF));
+            skipValue(extensions);
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the whole extension area.
+     */
+    public Map<String, Object> getExtensions() {
+        return readEntries(extensions(), getExtensionCount());
+    }
+
+    private ByteBuffer extensions() {
+        final ByteBuffer extensions = this.buffer.duplicate();
+        extensions.position(this.base + this.buffer.getInt(this.base + 8));
+        return extensions;
+    }
+
+    private long presence(final int word) {
+        return this.buffer.getLong(this.base + HEADER_SIZE + word * 8);
+    }
+
+    private int offset(final int field, final FlowRecordSchema.Kind kind) {
+        if (this.schema.getKind(field) != kind) {
+            throw new IllegalArgumentException("Field " + this.schema.getName(field) + " is not of kind " + kind);
+        }
+        if (!has(field)) {
+            throw new IllegalStateException("Field " + this.schema.getName(field) + " is not present");
+        }
+        int offset = this.dataOffset;
+        for (int group = 0; ; group++) {
+            final int start = this.schema.groupStart(group);
+            final int end = this.schema.groupStart(group + 1);
+            if (field < end) {
+                return offset + countPresent(start, field) * this.schema.groupWidth(group);
+            }
+            offset += countPresent(start, end) * this.schema.groupWidth(group);
+        }
+    }
+
+    /**
+     * @return the number of present fields in [from, to)
+     */
+    private int countPresent(int from, final int to) {
+        int count = 0;
+        while (from < to) {
+            final int word = from >>> 6;
+            final int wordEnd = Math.min(to, (word + 1) << 6);
+            final int high = wordEnd - (word << 6);
+            final long mask = (high == 64 ? -1L : (1L << high) - 1) & (-1L << (from & 63));
+            count += Long.bitCount(presence(word) & mask);
+            from = wordEnd;
+        }
+        return count;
+    }
+
+    private static boolean nameEquals(final ByteBuffer extensions, final byte[] expected) {
+        final int position = extensions.position();
+        if ((extensions.getShort(position) & 0xFFFF) != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (extensions.get(position + 2 + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, Object> readEntries(final ByteBuffer buffer, final int count) {
+        final Map<String, Object> entries = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            final byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            entries.put(new String(name, StandardCharsets.UTF_8), readValue(buffer));
+        }
+        return entries;
+    }
+
+    private static Object readValue(final ByteBuffer buffer) {
+        final byte type = buffer.get();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_BOOLEAN:
+                return buffer.get() != 0;
+            case TYPE_LONG:
+                return buffer.getLong();
+            case TYPE_DOUBLE:
+                return buffer.getDouble();
+            case TYPE_STRING: {
+                final byte[] value = new byte[buffer.getInt()];
+                buffer.get(value);
+                return new String(value, StandardCharsets.UTF_8);
+            }
+            case TYPE_ADDRESS: {
+                final byte[] value = new byte[buffer.get() & 0xFF];
+                buffer.get(value);
+                return formatAddress(value);
+            }
+            case TYPE_TIME:
+                return Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+            case TYPE_BYTES: {
+                final byte[] value = new byte[buffer.getInt()];
+                buffer.get(value);
+                return value;
+            }
+            case TYPE_LIST: {
+                buffer.get(); // semantic
+                final int size = buffer.getShort() & 0xFFFF;
+                final List<Map<String, Object>> values = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(readEntries(buffer, buffer.getShort() & 0xFFFF));
+                }
+                return values;
+            }
+            default:
+                throw new IllegalStateException("Unknown extension type: " + type);
+        }
+    }
+
+    private static void skipValue(final ByteBuffer buffer) {
+        final byte type = buffer.get();
+        switch (type) {
+            case TYPE_NULL:
+                break;
+            case TYPE_BOOLEAN:
+                skip(buffer, 1);
+                break;
+            case TYPE_LONG:
+            case TYPE_DOUBLE:
+                skip(buffer, 8);
+                break;
+            case TYPE_STRING:
+            case TYPE_BYTES:
+                skip(buffer, buffer.getInt());
+                break;
+            case TYPE_ADDRESS:
+                skip(buffer, buffer.get() & 0xFF);
+                break;
+            case TYPE_TIME:
+                skip(buffer, 12);
+                break;
+            case TYPE_LIST: {
+                buffer.get(); // semantic
+                final int size = buffer.getShort() & 0xFFFF;
+                for (int i = 0; i < size; i++) {
+                    for (int j = buffer.getShort() & 0xFFFF; j > 0; j--) {
+                        skip(buffer, buffer.getShort() & 0xFFFF);
+                        skipValue(buffer);
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown extension type: " + type);
+        }
+    }
+
+    private static void skip(final ByteBuffer buffer, final int length) {
+        buffer.position(buffer.position() + length);
+    }
+
+    private static String formatIPv4(final int address) {
+        return new StringBuilder(15)
+                .append((address >>> 24) & 0xFF).append('.')
+                .append((address >>> 16) & 0xFF).append('.')
+                .append((address >>> 8) & 0xFF).append('.')
+                .append(address & 0xFF)
+                .toString();
+    }
+
+    private static String formatAddress(final byte[] address) {
+        try {
+            return InetAddress.getByAddress(address).getHostAddress();
+        } catch (final UnknownHostException e) {
+            // Only thrown for illegal lengths, which the writer rejects
+            throw new IllegalStateException(e);
+        }
+    }
+}
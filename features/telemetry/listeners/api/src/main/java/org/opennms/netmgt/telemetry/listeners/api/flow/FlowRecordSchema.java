@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.api.flow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The well-known information elements of a flow protocol, which are stored at fixed positions of a {@link FlowRecord}.
+ *
+ * Fields are ordered by their width, so the offset of a field only depends on the number of
+ * present fields before it. All other elements are stored in the extension area of the record.
+ */
+public class FlowRecordSchema {
+
+    public enum Kind {
+        ADDRESS6(16),
+        TIME(12),
+        LONG(8),
+        DOUBLE(8),
+        ADDRESS4(4);
+
+        public final int width;
+
+        Kind(final int width) {
+            this.width = width;
+        }
+    }
+
+    public static final FlowRecordSchema NETFLOW9 = new Builder(9)
+            .add("IPV6_SRC_ADDR", Kind.ADDRESS6)
+            .add("IPV6_DST_ADDR", Kind.ADDRESS6)
+            .add("IPV6_NEXT_HOP", Kind.ADDRESS6)
+            .add("BPG_IPV6_NEXT_HOP", Kind.ADDRESS6)
+            .add("@unixSecs", Kind.LONG)
+            .add("@sysUpTime", Kind.LONG)
+            .add("@recordCount", Kind.LONG)
+            .add("@sequenceNumber", Kind.LONG)
+            .add("@sourceId", Kind.LONG)
+            .add("IN_BYTES", Kind.LONG)
+            .add("IN_PKTS", Kind.LONG)
+            .add("DIRECTION", Kind.LONG)
+            .add("SRC_AS", Kind.LONG)
+            .add("DST_AS", Kind.LONG)
+            .add("SRC_MASK", Kind.LONG)
+            .add("DST_MASK", Kind.LONG)
+            .add("IPV6_SRC_MASK", Kind.LONG)
+            .add("IPV6_DST_MASK", Kind.LONG)
+            .add("L4_SRC_PORT", Kind.LONG)
+            .add("L4_DST_PORT", Kind.LONG)
+            .add("ENGINE_ID", Kind.LONG)
+            .add("ENGINE_TYPE", Kind.LONG)
+            .add("FIRST_SWITCHED", Kind.LONG)
+            .add("LAST_SWITCHED", Kind.LONG)
+            .add("INPUT_SNMP", Kind.LONG)
+            .add("OUTPUT_SNMP", Kind.LONG)
+            .add("IP_PROTOCOL_VERSION", Kind.LONG)
+            .add("PROTOCOL", Kind.LONG)
+            .add("SAMPLING_ALGORITHM", Kind.LONG)
+            .add("SAMPLING_INTERVAL", Kind.LONG)
+            .add("TCP_FLAGS", Kind.LONG)
+            .add("TOS", Kind.LONG)
+            .add("SRC_VLAN", Kind.LONG)
+            .add("DST_VLAN", Kind.LONG)
+            .add("IPV4_SRC_ADDR", Kind.ADDRESS4)
+            .add("IPV4_DST_ADDR", Kind.ADDRESS4)
+            .add("IPV4_NEXT_HOP", Kind.ADDRESS4)
+            .add("BPG_IPV4_NEXT_HOP", Kind.ADDRESS4)
+            .build();
+
+    public static final FlowRecordSchema IPFIX = new Builder(10)
+            .add("sourceIPv6Address", Kind.ADDRESS6)
+            .add("destinationIPv6Address", Kind.ADDRESS6)
+            .add("ipNextHopIPv6Address", Kind.ADDRESS6)
+            .add("bgpNextHopIPv6Address", Kind.ADDRESS6)
+            .add("flowStartSeconds", Kind.TIME)
+            .add("flowStartMilliseconds", Kind.TIME)
+            .add("flowStartMicroseconds", Kind.TIME)
+            .add("flowStartNanoseconds", Kind.TIME)
+            .add("flowEndSeconds", Kind.TIME)
+            .add("flowEndMilliseconds", Kind.TIME)
+            .add("flowEndMicroseconds", Kind.TIME)
+            .add("flowEndNanoseconds", Kind.TIME)
+            .add("systemInitTimeMilliseconds", Kind.TIME)
+            .add("@recordCount", Kind.LONG)
+            .add("@sequenceNumber", Kind.LONG)
+            .add("@exportTime", Kind.LONG)
+            .add("@observationDomainId", Kind.LONG)
+            .add("octetDeltaCount", Kind.LONG)
+            .add("postOctetDeltaCount", Kind.LONG)
+            .add("layer2OctetDeltaCount", Kind.LONG)
+            .add("postLayer2OctetDeltaCount", Kind.LONG)
+            .add("transportOctetDeltaCount", Kind.LONG)
+            .add("packetDeltaCount", Kind.LONG)
+            .add("postPacketDeltaCount", Kind.LONG)
+            .add("transportPacketDeltaCount", Kind.LONG)
+            .add("flowDirection", Kind.LONG)
+            .add("bgpSourceAsNumber", Kind.LONG)
+            .add("bgpDestinationAsNumber", Kind.LONG)
+            .add("sourceIPv4PrefixLength", Kind.LONG)
+            .add("destinationIPv4PrefixLength", Kind.LONG)
+            .add("sourceIPv6PrefixLength", Kind.LONG)
+            .add("destinationIPv6PrefixLength", Kind.LONG)
+            .add("sourceTransportPort", Kind.LONG)
+            .add("destinationTransportPort", Kind.LONG)
+            .add("engineId", Kind.LONG)
+            .add("engineType", Kind.LONG)
+            .add("flowStartDeltaMicroseconds", Kind.LONG)
+            .add("flowEndDeltaMicroseconds", Kind.LONG)
+            .add("flowStartSysUpTime", Kind.LONG)
+            .add("flowEndSysUpTime", Kind.LONG)
+            .add("ingressInterface", Kind.LONG)
+            .add("egressInterface", Kind.LONG)
+            .add("ipVersion", Kind.LONG)
+            .add("protocolIdentifier", Kind.LONG)
+            .add("tcpControlBits", Kind.LONG)
+            .add("ipClassOfService", Kind.LONG)
+            .add("samplingAlgorithm", Kind.LONG)
+            .add("samplerMode", Kind.LONG)
+            .add("selectorAlgorithm", Kind.LONG)
+            .add("samplingInterval", Kind.LONG)
+            .add("samplerRandomInterval", Kind.LONG)
+            .add("samplingFlowInterval", Kind.LONG)
+            .add("samplingFlowSpacing", Kind.LONG)
+            .add("flowSamplingTimeInterval", Kind.LONG)
+            .add("flowSamplingTimeSpacing", Kind.LONG)
+            .add("samplingSize", Kind.LONG)
+            .add("samplingPopulation", Kind.LONG)
+            .add("hashSelectedRangeMin", Kind.LONG)
+            .add("hashSelectedRangeMax", Kind.LONG)
+            .add("hashOutputRangeMin", Kind.LONG)
+            .add("hashOutputRangeMax", Kind.LONG)
+            .add("vlanId", Kind.LONG)
+            .add("postVlanId", Kind.LONG)
+            .add("dot1qVlanId", Kind.LONG)
+            .add("dot1qCustomerVlanId", Kind.LONG)
+            .add("postDot1qVlanId", Kind.LONG)
+            .add("postDot1qCustomerVlanId", Kind.LONG)
+            .add("samplingProbability", Kind.DOUBLE)
+            .add("sourceIPv4Address", Kind.ADDRESS4)
+            .add("destinationIPv4Address", Kind.ADDRESS4)
+            .add("ipNextHopIPv4Address", Kind.ADDRESS4)
+            .add("bgpNextHopIPv4Address", Kind.ADDRESS4)
+            .build();
+
+    private static final FlowRecordSchema[] SCHEMAS = {NETFLOW9, IPFIX};
+
+    private final int id;
+    private final String[] names;
+    private final Kind[] kinds;
+    private final Map<String, Integer> indexes;
+
+    // Fields [groupStart[g], groupStart[g + 1]) share the width groupWidth[g]
+    private final int[] groupStart;
+    private final int[] groupWidth;
+
+    private FlowRecordSchema(final int id, final List<String> names, final List<Kind> kinds) {
+        this.id = id;
+        this.names = names.toArray(new String[0]);
+        this.kinds = kinds.toArray(new Kind[0]);
+
+        final Map<String, Integer> indexes = new HashMap<>();
+        final List<Integer> groupStart = new ArrayList<>();
+        final List<Integer> groupWidth = new ArrayList<>();
+        for (int i = 0; i < this.names.length; i++) {
+            if (indexes.put(this.names[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate field: " + this.names[i]);
+            }
+            final int width = this.kinds[i].width;
+            if (i == 0 || width != groupWidth.get(groupWidth.size() - 1)) {
+                if (i > 0 && width > groupWidth.get(groupWidth.size() - 1)) {
+                    throw new IllegalArgumentException("Fields must be ordered by descending width: " + this.names[i]);
+                }
+                groupStart.add(i);
+                groupWidth.add(width);
+            }
+        }
+        groupStart.add(this.names.length);
+
+        this.indexes = Collections.unmodifiableMap(indexes);
+        this.groupStart = groupStart.stream().mapToInt(Integer::intValue).toArray();
+        this.groupWidth = groupWidth.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static FlowRecordSchema forId(final int id) {
+        for (final FlowRecordSchema schema : SCHEMAS) {
+            if (schema.id == id) {
+                return schema;
+            }
+        }
+        throw new IllegalArgumentException("Unknown flow record schema: " + id);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public int size() {
+        return this.names.length;
+    }
+
+    public String getName(final int field) {
+        return this.names[field];
+    }
+
+    public Kind getKind(final int field) {
+        return this.kinds[field];
+    }
+
+    /**
+     * @return the index of the field with the given name, or -1 if the element is not part of the schema
+     */
+    public int indexOf(final String name) {
+        final Integer index = this.indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the element is not part of the schema
+     */
+    public int field(final String name) {
+        final int index = indexOf(name);
+        if (index == -1) {
+            throw new IllegalArgumentException("Unknown field: " + name);
+        }
+        return index;
+    }
+
+    int groupCount() {
+        return this.groupWidth.length;
+    }
+
+    int groupStart(final int group) {
+        return this.groupStart[group];
+    }
+
+    int groupWidth(final int group) {
+        return this.groupWidth[group];
+    }
+
+    int presenceWords() {
+        return (this.names.length + 63) >>> 6;
+    }
+
+    @Override
+    public String toString() {
+        return "FlowRecordSchema[" + this.id + "]";
+    }
+
+    private static class Builder {
+        private final int id;
+        private final List<String> names = new ArrayList<>();
+        private final List<Kind> kinds = new ArrayList<>();
+
+        private Builder(final int id) {
+            this.id = id;
+        }
+
+        private Builder add(final String name, final Kind kind) {
+            this.names.add(Objects.requireNonNull(name));
+            this.kinds.add(Objects.requireNonNull(kind));
+            return this;
+        }
+
+        private FlowRecordSchema build() {
+            return new FlowRecordSchema(this.id, this.names, this.kinds);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.api.flow;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Builds a single {@link FlowRecord}.
+ *
+ * Values of the schema fields are kept in primitive slots until the record is written, all other
+ * values - including everything nested in lists - are encoded into the extension area right away.
+ * A writer is not thread-safe and can be reused after calling {@link #reset()}.
+ */
+public class FlowRecordWriter {
+
+    private final FlowRecordSchema schema;
+
+    private final long[] presence;
+    private final long[] values;
+    private final int[] nanos;
+    private final byte[][] addresses;
+
+    private byte[] extensions = new byte[256];
+    private int extensionsLength;
+    private int extensionCount;
+
+    // Lists currently being written, values inside of lists always go to the extension area
+    private int depth;
+
+    public FlowRecordWriter(final FlowRecordSchema schema) {
+        this.schema = Objects.requireNonNull(schema);
+        this.presence = new long[schema.presenceWords()];
+        this.values = new long[schema.size()];
+        this.nanos = new int[schema.size()];
+        this.addresses = new byte[schema.size()][];
+    }
+
+    public void reset() {
+        Arrays.fill(this.presence, 0L);
+        Arrays.fill(this.addresses, null);
+        this.extensionsLength = 0;
+        this.extensionCount = 0;
+        this.depth = 0;
+    }
+
+    public void writeLong(final String name, final long value) {
+        final int field = slot(name, FlowRecordSchema.Kind.LONG);
+        if (field >= 0) {
+            this.values[field] = value;
+            return;
+        }
+        startExtension(name, FlowRecord.TYPE_LONG);
+        putLong(value);
+    }
+
+    public void writeDouble(final String name, final double value) {
+        final int field = slot(name, FlowRecordSchema.Kind.DOUBLE);
+        if (field >= 0) {
+            this.values[field] = Double.doubleToRawLongBits(value);
+            return;
+        }
+        startExtension(name, FlowRecord.TYPE_DOUBLE);
+        putLong(Double.doubleToRawLongBits(value));
+    }
+
+    public void writeTime(final String name, final long epochSecond, final int nano) {
+        final int field = slot(name, FlowRecordSchema.Kind.TIME);
+        if (field >= 0) {
+            this.values[field] = epochSecond;
+            this.nanos[field] = nano;
+            return;
+        }
+        startExtension(name, FlowRecord.TYPE_TIME);
+        putLong(epochSecond);
+        putInt(nano);
+    }
+
+    /**
+     * @param address the raw IPv4 or IPv6 address, which is not copied
+     */
+    public void writeAddress(final String name, final byte[] address) {
+        if (address.length != 4 && address.length != 16) {
+            throw new IllegalArgumentException("Illegal address length: " + address.length);
+        }
+        final int field = slot(name, address.length == 4 ? FlowRecordSchema.Kind.ADDRESS4 : FlowRecordSchema.Kind.ADDRESS6);
+        if (field >= 0) {
+            this.addresses[field] = address;
+            return;
+        }
+        startExtension(name, FlowRecord.TYPE_ADDRESS);
+        putByte(address.length);
+        putBytes(address);
+    }
+
+    public void writeNull(final String name) {
+        startExtension(name, FlowRecord.TYPE_NULL);
+    }
+
+    public void writeBoolean(final String name, final boolean value) {
+        startExtension(name, FlowRecord.TYPE_BOOLEAN);
+        putByte(value ? 1 : 0);
+    }
+
+    public void writeString(final String name, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        startExtension(name, FlowRecord.TYPE_STRING);
+        putInt(bytes.length);
+        putBytes(bytes);
+    }
+
+    public void writeBytes(final String name, final byte[] value) {
+        startExtension(name, FlowRecord.TYPE_BYTES);
+        putInt(value.length);
+        putBytes(value);
+    }
+
+    /**
+     * Starts a list of the given number of entries. Each entry must be started with {@link #writeStartListEntry(int)}
+     * and the list must be completed with {@link #writeEndList()}.
+     */
+    public void writeStartList(final String name, final int semantic, final int size) {
+        startExtension(name, FlowRecord.TYPE_LIST);
+        putByte(semantic);
+        putShort(size);
+        this.depth++;
+    }
+
+    public void writeStartListEntry(final int size) {
+        if (this.depth == 0) {
+            throw new IllegalStateException("Not in a list");
+        }
+        putShort(size);
+    }
+
+    public void writeEndList() {
+        if (this.depth == 0) {
+            throw new IllegalStateException("Not in a list");
+        }
+        this.depth--;
+    }
+
+    /**
+     * @return the number of bytes required by {@link #writeTo(ByteBuffer)}
+     */
+    public int size() {
+        int size = FlowRecord.HEADER_SIZE + this.presence.length * 8 + this.extensionsLength;
+        for (int field = 0; field < this.values.length; field++) {
+            if (isPresent(field)) {
+                size += this.schema.getKind(field).width;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the record at the current position of the given buffer and advances it.
+     */
+    public void writeTo(final ByteBuffer buffer) {
+        if (this.depth != 0) {
+            throw new IllegalStateException("Unterminated list");
+        }
+        final int base = buffer.position();
+        buffer.putInt(FlowRecord.MAGIC);
+        buffer.put((byte) FlowRecord.VERSION);
+        buffer.put((byte) this.schema.getId());
+        buffer.putShort((short) this.extensionCount);
+        buffer.putInt(0); // Offset of the extension area, see below
+        for (final long word : this.presence) {
+            buffer.putLong(word);
+        }
+        for (int field = 0; field < this.values.length; field++) {
+            if (!isPresent(field)) {
+                continue;
+            }
+            switch (this.schema.getKind(field)) {
+                case LONG:
+                case DOUBLE:
+                    buffer.putLong(this.values[field]);
+                    break;
+                case TIME:
+                    buffer.putLong(this.values[field]);
+                    buffer.putInt(this.nanos[field]);
+                    break;
+                case ADDRESS4:
+                case ADDRESS6:
+                    buffer.put(this.addresses[field]);
+                    break;
+            }
+        }
+        buffer.putInt(base + 8, buffer.position() - base);
+        buffer.put(this.extensions, 0, this.extensionsLength);
+    }
+
+    /**
+     * @return a buffer of the exact size of the record, positioned at its start
+     */
+    public ByteBuffer toByteBuffer() {
+        final ByteBuffer buffer = ByteBuffer.allocate(size());
+        writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private boolean isPresent(final int field) {
+        return (this.presence[field >>> 6] & (1L << field)) != 0;
+    }
+
+    /**
+     * Claims the slot of the given field.
+     *
+     * @return the field or -1 if the value has to go to the extension area
+     */
+    private int slot(final String name, final FlowRecordSchema.Kind kind) {
+        if (this.depth != 0) {
+            return -1;
+        }
+        final int field = this.schema.indexOf(name);
+        if (field == -1 || this.schema.getKind(field) != kind || isPresent(field)) {
+            return -1;
+        }
+        this.presence[field >>> 6] |= 1L << field;
+        return field;
+    }
+
+    private void startExtension(final String name, final byte type) {
+        if (this.depth == 0) {
+            this.extensionCount++;
+            if (this.extensionCount > 0xFFFF) {
+                throw new IllegalStateException("Too many extension entries");
+            }
+        }
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        putShort(bytes.length);
+        putBytes(bytes);
+        putByte(type);
+    }
+
+    private void ensureCapacity(final int length) {
+        if (this.extensionsLength + length > this.extensions.length) {
+            this.extensions = Arrays.copyOf(this.extensions, Math.max(this.extensions.length * 2, this.extensionsLength + length));
+        }
+    }
+
+    private void putByte(final int value) {
+        ensureCapacity(1);
+        this.extensions[this.extensionsLength++] = (byte) value;
+    }
+
+    private void putShort(final int value) {
+        ensureCapacity(2);
+        this.extensions[this.extensionsLength++] = (byte) (value >>> 8);
+        this.extensions[this.extensionsLength++] = (byte) value;
+    }
+
+    private void putInt(final int value) {
+        ensureCapacity(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            this.extensions[this.extensionsLength++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void putLong(final long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            this.extensions[this.extensionsLength++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void putBytes(final byte[] value) {
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, this.extensions, this.extensionsLength, value.length);
+        this.extensionsLength += value.length;
+    }
+}
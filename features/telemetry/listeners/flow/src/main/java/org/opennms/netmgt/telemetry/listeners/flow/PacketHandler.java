@@ -33,12 +33,10 @@ import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
-import org.bson.BsonBinary;
-import org.bson.BsonBinaryWriter;
-import org.bson.BsonWriter;
-import org.bson.io.BasicOutputBuffer;
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
 import org.opennms.netmgt.telemetry.listeners.api.TelemetryMessage;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecordSchema;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecordWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.BooleanValue;
@@ -78,8 +76,10 @@ public class PacketHandler extends SimpleChannelInboundHandler<DefaultAddressedE
     protected void channelRead0(final ChannelHandlerContext ctx, final DefaultAddressedEnvelope<RecordProvider, InetSocketAddress> packet) throws Exception {
         LOG.trace("Got packet: {}", packet);
 
+        final FlowRecordWriter writer = new FlowRecordWriter(FlowRecordSchema.forId(this.protocol.magic));
         packet.content().getRecords().forEach(record -> {
-            final ByteBuffer buffer = serialize(this.protocol, record);
+            writer.reset();
+            final ByteBuffer buffer = serialize(writer, record);
 
             // Build the message to dispatch
             final TelemetryMessage msg = new TelemetryMessage(packet.sender(), buffer);
@@ -99,29 +99,25 @@ public class PacketHandler extends SimpleChannelInboundHandler<DefaultAddressedE
     }
 
     public static ByteBuffer serialize(final Protocol protocol, final Iterable<Value<?>> record) {
-        // Build BSON document from flow
-        final BasicOutputBuffer output = new BasicOutputBuffer();
-        try (final BsonBinaryWriter writer = new BsonBinaryWriter(output)) {
-            writer.writeStartDocument();
-            writer.writeInt32("@version", protocol.magic);
-
-            final FlowBuilderVisitor visitor = new FlowBuilderVisitor(writer);
-            for (final Value<?> value : record) {
-                value.visit(visitor);
-            }
+        return serialize(new FlowRecordWriter(FlowRecordSchema.forId(protocol.magic)), record);
+    }
 
-            writer.writeEndDocument();
+    private static ByteBuffer serialize(final FlowRecordWriter writer, final Iterable<Value<?>> record) {
+        // Build flow record from values
+        final FlowRecordVisitor visitor = new FlowRecordVisitor(writer);
+        for (final Value<?> value : record) {
+            value.visit(visitor);
         }
 
-        return output.getByteBuffers().get(0).asNIO();
+        return writer.toByteBuffer();
     }
 
-    private static class FlowBuilderVisitor implements Value.Visitor {
+    private static class FlowRecordVisitor implements Value.Visitor {
         // TODO: Really use ordinal for enums?
 
-        private final BsonWriter writer;
+        private final FlowRecordWriter writer;
 
-        public FlowBuilderVisitor(final BsonWriter writer) {
+        public FlowRecordVisitor(final FlowRecordWriter writer) {
             this.writer = writer;
         }
 
@@ -137,12 +133,7 @@ public class PacketHandler extends SimpleChannelInboundHandler<DefaultAddressedE
 
         @Override
         public void accept(final DateTimeValue value) {
-            this.writer.writeStartDocument(value.getName());
-            this.writer.writeInt64("epoch", value.getValue().getEpochSecond());
-            if (value.getValue().getNano() != 0) {
-                this.writer.writeInt64("nanos", value.getValue().getNano());
-            }
-            this.writer.writeEndDocument();
+            this.writer.writeTime(value.getName(), value.getValue().getEpochSecond(), value.getValue().getNano());
         }
 
         @Override
@@ -152,34 +143,27 @@ public class PacketHandler extends SimpleChannelInboundHandler<DefaultAddressedE
 
         @Override
         public void accept(final IPv4AddressValue value) {
-            // TODO: Transport as binary?
-            this.writer.writeString(value.getName(), value.getValue().getHostAddress());
+            this.writer.writeAddress(value.getName(), value.getValue().getAddress());
         }
 
         @Override
         public void accept(final IPv6AddressValue value) {
-            // TODO: Transport as binary?
-            this.writer.writeString(value.getName(), value.getValue().getHostAddress());
+            this.writer.writeAddress(value.getName(), value.getValue().getAddress());
         }
 
         @Override
         public void accept(final MacAddressValue value) {
-            this.writer.writeStartDocument(value.getName());
-            value.getSemantics().ifPresent(semantics -> {
-                this.writer.writeInt32("s", semantics.ordinal());
-            });
-            this.writer.writeBinaryData("v", new BsonBinary(value.getValue()));
-            this.writer.writeEndDocument();
+            this.writer.writeBytes(value.getName(), value.getValue());
         }
 
         @Override
         public void accept(final OctetArrayValue value) {
-            this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
+            this.writer.writeBytes(value.getName(), value.getValue());
         }
 
         @Override
         public void accept(final SignedValue value) {
-            this.writer.writeInt64(value.getName(), value.getValue());
+            this.writer.writeLong(value.getName(), value.getValue());
         }
 
         @Override
@@ -189,29 +173,25 @@ public class PacketHandler extends SimpleChannelInboundHandler<DefaultAddressedE
 
         @Override
         public void accept(final ListValue value) {
-            this.writer.writeStartDocument(value.getName());
-            this.writer.writeInt32("semantic", value.getSemantic().ordinal());
-            this.writer.writeStartArray("values");
+            this.writer.writeStartList(value.getName(), value.getSemantic().ordinal(), value.getValue().size());
             for (int i = 0; i < value.getValue().size(); i++) {
-                this.writer.writeStartDocument();
+                this.writer.writeStartListEntry(value.getValue().get(i).size());
                 for (int j = 0; j < value.getValue().get(i).size(); j++) {
                     value.getValue().get(i).get(j).visit(this);
                 }
-                this.writer.writeEndDocument();
             }
-            this.writer.writeEndArray();
-            this.writer.writeEndDocument();
+            this.writer.writeEndList();
         }
 
         @Override
         public void accept(final UnsignedValue value) {
             // TODO: Mark this as unsigned?
-            this.writer.writeInt64(value.getName(), value.getValue().longValue());
+            this.writer.writeLong(value.getName(), value.getValue().longValue());
         }
 
         @Override
         public void accept(final UndeclaredValue value) {
-            this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
+            this.writer.writeBytes(value.getName(), value.getValue());
         }
     }
 }
@@ -28,20 +28,25 @@
 
 package org.opennms.netmgt.telemetry.listeners.flow;
 
+import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
-import org.bson.RawBsonDocument;
 import org.junit.Assert;
 import org.junit.Test;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecord;
+import org.opennms.netmgt.telemetry.listeners.api.flow.FlowRecordSchema;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.BooleanValue;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.DateTimeValue;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.FloatValue;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.IPv4AddressValue;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.IPv6AddressValue;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.ListValue;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.SignedValue;
@@ -53,6 +58,7 @@ import com.google.common.primitives.UnsignedLong;
 public class PacketHandlerTest {
 
     @Test
+    @SuppressWarnings("unchecked")
     public void test() throws Exception {
         final Iterable<Value<?>> record = Arrays.asList(
                 new StringValue("name1", Optional.empty(), "my value 1"),
@@ -88,12 +94,57 @@ public class PacketHandlerTest {
 
         final ByteBuffer output = PacketHandler.serialize(Protocol.IPFIX, record);
 
-        final RawBsonDocument bson = new RawBsonDocument(output.array());
+        final FlowRecord flowRecord = FlowRecord.wrap(output);
 
-        Assert.assertEquals("my value 1", bson.getString("name1").getValue());
-        Assert.assertEquals(23, bson.getInt64("name2").getValue());
+        Assert.assertEquals("my value 1", flowRecord.getExtension("name1"));
+        Assert.assertEquals(23L, flowRecord.getExtension("name2"));
+        Assert.assertEquals("0:0:0:0:0:0:0:1", flowRecord.getExtension("name3"));
+        Assert.assertEquals(Instant.ofEpochMilli(12345678), flowRecord.getExtension("name4"));
 
-        Assert.assertEquals(5, bson.getDocument("name5").getArray("values").get(0).asDocument().getInt64("name5t0e0").getValue());
-        Assert.assertEquals(1.5, bson.getDocument("name5").getArray("values").get(3).asDocument().getDocument("name5t3e0").getArray("values").get(0).asDocument().getDouble("name5t3e0t0e0").doubleValue(), 0.0);
+        final List<Map<String, Object>> name5 = (List<Map<String, Object>>) flowRecord.getExtension("name5");
+        Assert.assertEquals(4, name5.size());
+        Assert.assertEquals(5L, name5.get(0).get("name5t0e0"));
+        Assert.assertEquals(true, name5.get(2).get("name5t2e0"));
+        Assert.assertEquals(1.5, (Double) ((List<Map<String, Object>>) name5.get(3).get("name5t3e0")).get(0).get("name5t3e0t0e0"), 0.0);
+        Assert.assertEquals(0, ((List<Map<String, Object>>) name5.get(3).get("name5t3e1")).size());
+
+        Assert.assertNull(flowRecord.getExtension("unknown"));
+    }
+
+    @Test
+    public void testSchemaFields() throws Exception {
+        final Iterable<Value<?>> record = Arrays.asList(
+                new UnsignedValue("@exportTime", 1524773527),
+                new UnsignedValue("octetDeltaCount", Optional.of(Semantics.DELTA_COUNTER), UnsignedLong.valueOf(156)),
+                new StringValue("interfaceName", Optional.empty(), "eth0"),
+                new IPv4AddressValue("sourceIPv4Address", Optional.empty(), (Inet4Address) Inet4Address.getByName("10.1.20.85")),
+                new IPv6AddressValue("destinationIPv6Address", Optional.empty(), (Inet6Address) Inet6Address.getByName("fe80::1")),
+                new DateTimeValue("flowStartMilliseconds", Optional.empty(), Instant.ofEpochMilli(1524773519123L)),
+                new FloatValue("samplingProbability", Optional.empty(), 0.25),
+                // Not of the kind declared by the schema
+                new StringValue("egressInterface", Optional.empty(), "eth1"),
+                // Only the first occurrence is stored in the schema field
+                new UnsignedValue("octetDeltaCount", Optional.empty(), UnsignedLong.valueOf(1))
+        );
+
+        final FlowRecord flowRecord = FlowRecord.wrap(PacketHandler.serialize(Protocol.IPFIX, record));
+        final FlowRecordSchema schema = flowRecord.getSchema();
+        Assert.assertEquals(FlowRecordSchema.IPFIX, schema);
+
+        Assert.assertEquals(1524773527L, flowRecord.getLong(schema.field("@exportTime")));
+        Assert.assertEquals(156L, flowRecord.getLong(schema.field("octetDeltaCount")));
+        Assert.assertEquals("10.1.20.85", flowRecord.getAddress(schema.field("sourceIPv4Address")));
+        Assert.assertEquals("fe80:0:0:0:0:0:0:1", flowRecord.getAddress(schema.field("destinationIPv6Address")));
+        Assert.assertEquals(1524773519123L, flowRecord.getInstant(schema.field("flowStartMilliseconds")).toEpochMilli());
+        Assert.assertEquals(0.25, flowRecord.getDouble(schema.field("samplingProbability")), 0.0);
+
+        Assert.assertFalse(flowRecord.has(schema.field("egressInterface")));
+        Assert.assertFalse(flowRecord.has(schema.field("packetDeltaCount")));
+        Assert.assertFalse(flowRecord.has(schema.field("sourceIPv6Address")));
+
+        Assert.assertEquals(3, flowRecord.getExtensionCount());
+        Assert.assertEquals("eth0", flowRecord.getExtension("interfaceName"));
+        Assert.assertEquals("eth1", flowRecord.getExtension("egressInterface"));
+        Assert.assertEquals(1L, flowRecord.getExtension("octetDeltaCount"));
     }
 }
@@ -29,14 +29,20 @@
 package org.opennms.netmgt.alarmd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
@@ -54,6 +60,8 @@ import org.opennms.netmgt.xml.event.UpdateField;
 import org.opennms.netmgt.xml.eventconf.LogDestType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.support.TransactionOperations;
 
@@ -66,7 +74,7 @@ import com.google.common.util.concurrent.Striped;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
     public static final String RELATED_REDUCTION_KEY_PREFIX = "related-reductionKey";
@@ -74,6 +82,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
     protected static final Integer NUM_STRIPE_LOCKS = Integer.getInteger("org.opennms.alarmd.stripe.locks", Alarmd.THREADS * 4);
     protected static boolean NEW_IF_CLEARED = Boolean.getBoolean("org.opennms.alarmd.newIfClearedAlarmExists");
     protected static boolean LEGACY_ALARM_STATE = Boolean.getBoolean("org.opennms.alarmd.legacyAlarmState");
+    protected static final Long REDUCTION_FLUSH_INTERVAL_MS = Long.getLong("org.opennms.alarmd.reduction.flushInterval", 0L);
+    protected static final Integer REDUCTION_FLUSH_BATCH_SIZE = Integer.getInteger("org.opennms.alarmd.reduction.flushBatchSize", 100);
 
     @Autowired
     private AlarmDao m_alarmDao;
@@ -98,6 +108,18 @@ public class AlarmPersisterImpl implements AlarmPersister {
     
     private boolean m_legacyAlarmState = LEGACY_ALARM_STATE;
 
+    /**
+     * When positive, events reduced onto cached open alarms are only written to the
+     * database every so many milliseconds. A crash loses at most one interval.
+     */
+    private volatile long m_reductionFlushInterval = REDUCTION_FLUSH_INTERVAL_MS;
+
+    private final AlarmReductionCache m_reductionCache = new AlarmReductionCache();
+
+    private Timer m_flushTimer;
+
+    private boolean m_started = false;
+
     @Override
     public OnmsAlarm persist(Event event) {
         Objects.requireNonNull(event, "Cannot create alarm from null event.");
@@ -113,11 +135,35 @@ public class AlarmPersisterImpl implements AlarmPersister {
         // We do this to ensure that clears and triggers are processed in the same order
         // as the calls are made
         final Iterable<Lock> locks = lockStripes.bulkGet(getLockKeys(event));
-        final OnmsAlarm alarm;
+        OnmsAlarm alarm;
         try {
             locks.forEach(Lock::lock);
-            // Process the alarm inside a transaction
-            alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event));
+            alarm = reduceInMemory(event);
+            if (alarm != null) {
+                // The reduction is written out by the next flush
+                return alarm;
+            }
+            // Write out the events reduced in memory for these keys first, so that they are applied in order
+            final List<AlarmReductionCache.PendingReduction> pending = drainPendingReductions(getLockKeys(event));
+            final Map<AlarmReductionCache.Entry, OnmsAlarm> flushed = new LinkedHashMap<>();
+            final AtomicBoolean cacheable = new AtomicBoolean(false);
+            try {
+                // Process the alarm inside a transaction
+                alarm = m_transactionOperations.execute((action) -> {
+                    flushed.putAll(applyPendingReductions(pending));
+                    final OnmsAlarm reduced = addOrReduceEventAsAlarm(event);
+                    // The related alarms can only be loaded while the session is open
+                    cacheable.set(isCacheable(reduced));
+                    return reduced;
+                });
+            } catch (RuntimeException e) {
+                pending.forEach(p -> m_reductionCache.evict(p.getEntry().getReductionKey()));
+                throw e;
+            }
+            refreshCache(pending, flushed);
+            if (cacheable.get()) {
+                m_reductionCache.put(alarm);
+            }
         } finally {
             locks.forEach(Lock::unlock);
         }
@@ -125,6 +171,172 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
 
+    /**
+     * Writes out all events reduced in memory since the last flush, one transaction per batch
+     * of alarms. Within a batch, the events are reduced onto the alarms in the order they were
+     * received, and {@link AlarmEntityNotifier#didUpdateAlarmWithReducedEvent(OnmsAlarm)} is
+     * triggered for each of them, just like when they are written through.
+     */
+    public void flush() {
+        final List<String> keys = m_reductionCache.takeDirtyKeys();
+        for (int i = 0; i < keys.size(); i += REDUCTION_FLUSH_BATCH_SIZE) {
+            final List<String> batch = keys.subList(i, Math.min(keys.size(), i + REDUCTION_FLUSH_BATCH_SIZE));
+            // Acquiring the stripes in bulk orders them consistently with persist()
+            final Iterable<Lock> locks = lockStripes.bulkGet(batch);
+            try {
+                locks.forEach(Lock::lock);
+                final List<AlarmReductionCache.PendingReduction> pending = drainPendingReductions(batch);
+                final Map<AlarmReductionCache.Entry, OnmsAlarm> flushed = new LinkedHashMap<>();
+                try {
+                    m_transactionOperations.execute((action) -> {
+                        flushed.putAll(applyPendingReductions(pending));
+                        return null;
+                    });
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to write out {} reduced events. Dropping them.", pending.size(), e);
+                    pending.forEach(p -> m_reductionCache.evict(p.getEntry().getReductionKey()));
+                    continue;
+                }
+                refreshCache(pending, flushed);
+                // Stale entries are refreshed by the next event for their key
+                for (final String key : batch) {
+                    final AlarmReductionCache.Entry entry = m_reductionCache.get(key);
+                    if (entry != null && entry.isStale()) {
+                        m_reductionCache.evict(key);
+                    }
+                }
+            } finally {
+                locks.forEach(Lock::unlock);
+            }
+        }
+    }
+
+    /**
+     * Reduces the event onto the cached alarm when the reduction has no effects besides
+     * the counter, last event, severity, type and log message of the alarm.
+     * Must be called while holding the locks for the event's keys.
+     *
+     * @return the cached alarm, or <code>null</code> if the event must be written through
+     */
+    private OnmsAlarm reduceInMemory(Event event) {
+        if (m_reductionFlushInterval <= 0 || !extensions.isEmpty()) {
+            return null;
+        }
+        if (event.getAlarmData().hasUpdateFields()) {
+            return null;
+        }
+        if (event.getParmCollection() != null && event.getParmCollection().stream().anyMatch(AlarmPersisterImpl::isRelatedReductionKeyWithContent)) {
+            return null;
+        }
+        return m_reductionCache.reduce(getLookupKey(event), event, m_createNewAlarmIfClearedAlarmExists);
+    }
+
+    private List<AlarmReductionCache.PendingReduction> drainPendingReductions(Collection<String> keys) {
+        final Set<AlarmReductionCache.Entry> entries = Sets.newIdentityHashSet();
+        final List<AlarmReductionCache.PendingReduction> pending = new ArrayList<>();
+        for (final String key : keys) {
+            final AlarmReductionCache.Entry entry = m_reductionCache.get(key);
+            if (entry != null && entries.add(entry)) {
+                pending.addAll(entry.drain());
+            }
+        }
+        pending.sort(Comparator.comparingLong(AlarmReductionCache.PendingReduction::getSequence));
+        return pending;
+    }
+
+    /**
+     * Replays the pending reductions onto the alarms as they are in the database, one event at a time.
+     *
+     * @return the alarms that were reduced onto, by cache entry
+     */
+    private Map<AlarmReductionCache.Entry, OnmsAlarm> applyPendingReductions(List<AlarmReductionCache.PendingReduction> pending) {
+        final Map<AlarmReductionCache.Entry, OnmsAlarm> alarms = new LinkedHashMap<>();
+        final Set<AlarmReductionCache.Entry> gone = Sets.newIdentityHashSet();
+        for (final AlarmReductionCache.PendingReduction reduction : pending) {
+            final AlarmReductionCache.Entry entry = reduction.getEntry();
+            final Event event = reduction.getEvent();
+
+            OnmsAlarm alarm = alarms.get(entry);
+            if (alarm == null && !gone.contains(entry)) {
+                alarm = m_alarmDao.get(entry.getAlarmId());
+                if (alarm == null || !entry.getReductionKey().equals(alarm.getReductionKey())) {
+                    LOG.debug("applyPendingReductions: alarm with id: {} and reductionKey: {} is gone, reprocessing its events.",
+                            entry.getAlarmId(), entry.getReductionKey());
+                    alarm = null;
+                    gone.add(entry);
+                } else {
+                    alarms.put(entry, alarm);
+                }
+            }
+
+            // The alarm may have been cleared behind our back, i.e. by an automation, in which case
+            // the event must create a new alarm, just like when it is written through
+            if (alarm != null && m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(alarm.getSeverity())) {
+                LOG.debug("applyPendingReductions: alarm with id: {} and reductionKey: {} was cleared, reprocessing its events.",
+                        entry.getAlarmId(), entry.getReductionKey());
+                alarms.remove(entry);
+                gone.add(entry);
+                alarm = null;
+            }
+
+            if (alarm == null) {
+                // The alarm was deleted, archived or cleared in the meantime, reduce the event the usual way
+                try {
+                    addOrReduceEventAsAlarm(event);
+                } catch (IllegalStateException e) {
+                    LOG.warn("applyPendingReductions: {}", e.getMessage());
+                }
+                continue;
+            }
+
+            final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
+            if (persistedEvent == null) {
+                LOG.warn("applyPendingReductions: event with id {} was deleted before it could be reduced onto alarm: {}.", event.getDbid(), alarm.getId());
+                continue;
+            }
+            reduceEvent(persistedEvent, alarm, event);
+
+            m_alarmDao.update(alarm);
+            m_eventDao.update(persistedEvent);
+
+            if (event.getAlarmData().isAutoClean()) {
+                m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), persistedEvent);
+            }
+
+            m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
+        }
+        return alarms;
+    }
+
+    /**
+     * Replaces the entries that were just written out with the alarms as they are now in the
+     * database. Entries that went stale, or whose alarms are gone, are evicted.
+     */
+    private void refreshCache(List<AlarmReductionCache.PendingReduction> pending, Map<AlarmReductionCache.Entry, OnmsAlarm> flushed) {
+        for (final AlarmReductionCache.PendingReduction reduction : pending) {
+            final AlarmReductionCache.Entry entry = reduction.getEntry();
+            if (m_reductionCache.get(entry.getReductionKey()) != entry) {
+                continue;
+            }
+            final OnmsAlarm alarm = flushed.get(entry);
+            if (alarm == null || entry.isStale()) {
+                m_reductionCache.evict(entry.getReductionKey());
+            } else {
+                m_reductionCache.put(alarm);
+            }
+        }
+    }
+
+    /**
+     * Whether the alarm just written by the usual path should be kept in the cache, so that
+     * the next events for its key can be reduced in memory. Situations are never cached.
+     * Must be called within the transaction that loaded the alarm.
+     */
+    private boolean isCacheable(OnmsAlarm alarm) {
+        return m_reductionFlushInterval > 0 && alarm != null && alarm.getId() != null
+                && alarm.getReductionKey() != null && !alarm.isSituation();
+    }
+
     private OnmsAlarm addOrReduceEventAsAlarm(Event event) throws IllegalStateException {
         
         final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
@@ -134,15 +346,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
 
         final String reductionKey = event.getAlarmData().getReductionKey();
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
-        
-        String key = reductionKey;
-        String clearKey = event.getAlarmData().getClearKey();
-        
-        if (!m_legacyAlarmState && clearKey != null && isResolutionEvent(event)) {
-            key = clearKey;
-        }
 
-        OnmsAlarm alarm = m_alarmDao.findByReductionKey(key);
+        OnmsAlarm alarm = m_alarmDao.findByReductionKey(getLookupKey(event));
 
         if (alarm == null || (m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(alarm.getSeverity()))) {
             if (LOG.isDebugEnabled()) {
@@ -303,6 +508,14 @@ public class AlarmPersisterImpl implements AlarmPersister {
         persistedEvent.setAlarm(alarm);
     }
 
+    private String getLookupKey(Event event) {
+        final String clearKey = event.getAlarmData().getClearKey();
+        if (!m_legacyAlarmState && clearKey != null && isResolutionEvent(event)) {
+            return clearKey;
+        }
+        return event.getAlarmData().getReductionKey();
+    }
+
     private void resetAlarmSeverity(OnmsEvent persistedEvent, OnmsAlarm alarm) {
         alarm.setSeverity(OnmsSeverity.valueOf(persistedEvent.getSeverityLabel()));
     }
@@ -497,4 +710,66 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public void setLegacyAlarmState(boolean legacyAlarmState) {
         m_legacyAlarmState = legacyAlarmState;
     }
+
+    public long getReductionFlushInterval() {
+        return m_reductionFlushInterval;
+    }
+
+    /**
+     * Can be changed at runtime: reductions that are still held in memory are written
+     * out when write-behind is turned off.
+     *
+     * @param reductionFlushInterval in milliseconds, or 0 to write every reduction through
+     */
+    public synchronized void setReductionFlushInterval(long reductionFlushInterval) {
+        m_reductionFlushInterval = reductionFlushInterval;
+        if (m_started) {
+            scheduleFlusher();
+        }
+    }
+
+    public AlarmReductionCache getReductionCache() {
+        return m_reductionCache;
+    }
+
+    @Override
+    public synchronized void afterPropertiesSet() {
+        m_started = true;
+        scheduleFlusher();
+    }
+
+    @Override
+    public synchronized void destroy() {
+        m_started = false;
+        cancelFlusher();
+        // Don't lose the reductions of the current interval on a clean shutdown
+        flush();
+    }
+
+    private void scheduleFlusher() {
+        cancelFlusher();
+        if (m_reductionFlushInterval <= 0) {
+            flush();
+            return;
+        }
+        LOG.info("Writing out alarm reductions every {} ms.", m_reductionFlushInterval);
+        m_flushTimer = new Timer("AlarmPersister-Flusher");
+        m_flushTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    LOG.error("Error while writing out alarm reductions.", e);
+                }
+            }
+        }, m_reductionFlushInterval, m_reductionFlushInterval);
+    }
+
+    private void cancelFlusher() {
+        if (m_flushTimer != null) {
+            m_flushTimer.cancel();
+            m_flushTimer = null;
+        }
+    }
 }
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.dao.api.AlarmEntityListener;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsMemo;
+import org.opennms.netmgt.model.OnmsReductionKeyMemo;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Open alarms by reduction key, along with the events that were reduced onto
+ * them in memory but not yet written to the database.
+ *
+ * Entries are only reduced, drained and evicted by the {@link AlarmPersisterImpl}
+ * while holding the striped lock of their reduction key. Changes made to the alarms
+ * anywhere else only mark the entries as stale, so that the next event for the key
+ * goes through the database again and the entry is refreshed from there.
+ */
+public class AlarmReductionCache implements AlarmEntityListener {
+
+    private final Map<String, Entry> m_entries = new ConcurrentHashMap<>();
+
+    // Orders the reductions across all alarms, so they can be written out in the order they happened
+    private final AtomicLong m_sequence = new AtomicLong();
+
+    // Keys with pending reductions or stale entries, in the order they were first marked
+    private final Set<String> m_dirtyKeys = new LinkedHashSet<>();
+
+    /**
+     * Reduces the event onto the cached alarm, without touching the database.
+     *
+     * @return the cached alarm, or <code>null</code> if the alarm is not cached, or if
+     *         its state is not known well enough to reduce the event in memory
+     */
+    protected OnmsAlarm reduce(final String reductionKey, final Event event, final boolean createNewAlarmIfCleared) {
+        final Entry entry = m_entries.get(reductionKey);
+        if (entry == null || entry.m_stale) {
+            return null;
+        }
+        // A new alarm must be created, which requires the database
+        if (createNewAlarmIfCleared && OnmsSeverity.CLEARED.equals(entry.m_alarm.getSeverity())) {
+            return null;
+        }
+        entry.reduce(event, m_sequence.incrementAndGet());
+        markDirty(reductionKey);
+        return entry.m_alarm;
+    }
+
+    /**
+     * Caches the state of an alarm as it was just written to the database,
+     * replacing any previous entry for its reduction key.
+     */
+    protected void put(final OnmsAlarm alarm) {
+        m_entries.put(alarm.getReductionKey(), new Entry(alarm));
+    }
+
+    protected Entry get(final String reductionKey) {
+        return m_entries.get(reductionKey);
+    }
+
+    protected void evict(final String reductionKey) {
+        m_entries.remove(reductionKey);
+    }
+
+    /**
+     * Returns the keys marked since the last call, in the order they were first marked.
+     */
+    protected List<String> takeDirtyKeys() {
+        synchronized (m_dirtyKeys) {
+            if (m_dirtyKeys.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<String> keys = new ArrayList<>(m_dirtyKeys);
+            m_dirtyKeys.clear();
+            return keys;
+        }
+    }
+
+    public int size() {
+        return m_entries.size();
+    }
+
+    private void markDirty(final String reductionKey) {
+        synchronized (m_dirtyKeys) {
+            m_dirtyKeys.add(reductionKey);
+        }
+    }
+
+    private void markStale(final String reductionKey) {
+        if (reductionKey == null) {
+            return;
+        }
+        final Entry entry = m_entries.get(reductionKey);
+        if (entry != null) {
+            entry.m_stale = true;
+            // Let the flusher write out any pending reductions and evict the entry
+            markDirty(reductionKey);
+        }
+    }
+
+    @Override
+    public void onAlarmCreated(OnmsAlarm alarm) {
+        // Only triggered by the persister, which caches the alarm itself
+    }
+
+    @Override
+    public void onAlarmUpdatedWithReducedEvent(OnmsAlarm alarm) {
+        // Only triggered by the persister, which caches the alarm itself
+    }
+
+    @Override
+    public void onAlarmAcknowledged(OnmsAlarm alarm, String previousAckUser, Date previousAckTime) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onAlarmUnacknowledged(OnmsAlarm alarm, String previousAckUser, Date previousAckTime) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onAlarmSeverityUpdated(OnmsAlarm alarm, OnmsSeverity previousSeverity) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onAlarmArchived(OnmsAlarm alarm, String previousReductionKey) {
+        markStale(previousReductionKey);
+    }
+
+    @Override
+    public void onAlarmDeleted(OnmsAlarm alarm) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onStickyMemoUpdated(OnmsAlarm alarm, String previousBody, String previousAuthor, Date previousUpdated) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onReductionKeyMemoUpdated(OnmsAlarm alarm, String previousBody, String previousAuthor, Date previousUpdated) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onStickyMemoDeleted(OnmsAlarm alarm, OnmsMemo memo) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onReductionKeyMemoDeleted(OnmsAlarm alarm, OnmsReductionKeyMemo memo) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onLastAutomationTimeUpdated(OnmsAlarm alarm, Date previousLastAutomationTime) {
+        markStale(alarm.getReductionKey());
+    }
+
+    @Override
+    public void onRelatedAlarmsUpdated(OnmsAlarm alarm, Set<OnmsAlarm> previousRelatedAlarms) {
+        markStale(alarm.getReductionKey());
+    }
+
+    /**
+     * A reduction that was applied to the cached alarm, but not yet written to the database.
+     */
+    protected static class PendingReduction {
+        private final long m_sequence;
+        private final Entry m_entry;
+        private final Event m_event;
+
+        private PendingReduction(final long sequence, final Entry entry, final Event event) {
+            m_sequence = sequence;
+            m_entry = entry;
+            m_event = event;
+        }
+
+        protected long getSequence() {
+            return m_sequence;
+        }
+
+        protected Entry getEntry() {
+            return m_entry;
+        }
+
+        protected Event getEvent() {
+            return m_event;
+        }
+    }
+
+    /**
+     * The last known state of an open alarm. The cached alarm is kept up to date with
+     * the counter, severity, type and last event time of the reductions, so that it can
+     * be handed out by the persister. The pending events themselves are replayed onto
+     * the alarm as it is in the database when they are flushed.
+     */
+    protected static class Entry {
+        private final OnmsAlarm m_alarm;
+        private final int m_alarmId;
+        private final String m_reductionKey;
+        private List<PendingReduction> m_pending = new ArrayList<>();
+        private volatile boolean m_stale = false;
+
+        private Entry(final OnmsAlarm alarm) {
+            m_alarm = alarm;
+            m_alarmId = Objects.requireNonNull(alarm.getId());
+            m_reductionKey = alarm.getReductionKey();
+        }
+
+        // Mirrors the counter and severity handling of AlarmPersisterImpl#reduceEvent
+        private void reduce(final Event event, final long sequence) {
+            final Integer eventType = event.getAlarmData().getAlarmType();
+            final boolean resolvedAlarm = Objects.equals(m_alarm.getAlarmType(), Integer.valueOf(OnmsAlarm.RESOLUTION_TYPE));
+            if (!Objects.equals(eventType, Integer.valueOf(OnmsAlarm.RESOLUTION_TYPE))) {
+                m_alarm.setCounter(m_alarm.getCounter() + 1);
+                if (resolvedAlarm) {
+                    m_alarm.setSeverity(OnmsSeverity.get(event.getSeverity()));
+                }
+            } else if (resolvedAlarm) {
+                m_alarm.setCounter(m_alarm.getCounter() + 1);
+            } else {
+                m_alarm.setSeverity(OnmsSeverity.CLEARED);
+            }
+            m_alarm.setAlarmType(eventType);
+            if (event.getTime() != null) {
+                m_alarm.setLastEventTime(event.getTime());
+            }
+            m_pending.add(new PendingReduction(sequence, this, event));
+        }
+
+        /**
+         * Returns the pending reductions in the order they were applied, and forgets about them.
+         */
+        protected List<PendingReduction> drain() {
+            if (m_pending.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<PendingReduction> pending = m_pending;
+            m_pending = new ArrayList<>();
+            return pending;
+        }
+
+        protected int getAlarmId() {
+            return m_alarmId;
+        }
+
+        protected String getReductionKey() {
+            return m_reductionKey;
+        }
+
+        protected boolean isStale() {
+            return m_stale;
+        }
+    }
+}
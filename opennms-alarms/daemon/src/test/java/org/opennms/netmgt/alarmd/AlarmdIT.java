@@ -609,6 +609,114 @@ public class AlarmdIT implements TemporaryDatabaseAware<MockDatabase>, Initializ
                 && !OnmsSeverity.CLEARED.equals(a.getSeverity())).count(), equalTo(1L));
     }
     
+    @Test
+    public void testWriteBehindReductions() throws Exception {
+        // Keep the reductions in memory until we flush them ourselves
+        AlarmPersisterImpl persisterImpl = (AlarmPersisterImpl)m_alarmd.getPersister();
+        persisterImpl.setReductionFlushInterval(SECONDS.toMillis(60));
+        try {
+            final MockNode node = m_mockNetwork.getNode(1);
+
+            // There should be no alarms in the alarms table
+            assertEmptyAlarmTable();
+
+            // The first occurrence creates the alarm right away
+            sendNodeDownEvent("%nodeid%", node);
+            await().atMost(10, SECONDS).until(getNumAlarmsCallable(), equalTo(1));
+            assertEquals(1, persisterImpl.getReductionCache().size());
+
+            // Further occurrences are only reduced in memory, onto the cached alarm
+            final int numNotified = m_northbounder.getAlarms().size();
+            for (int i = 0; i < 4; i++) {
+                sendNodeDownEvent("%nodeid%", node);
+            }
+            assertEquals(1, m_alarmDao.findAll().get(0).getCounter().intValue());
+            assertEquals(numNotified, m_northbounder.getAlarms().size());
+
+            // And written out in one go, still notifying once per reduced event
+            persisterImpl.flush();
+            final OnmsAlarm alarm = m_alarmDao.findAll().get(0);
+            assertEquals(5, alarm.getCounter().intValue());
+            assertEquals(OnmsSeverity.MAJOR, alarm.getSeverity());
+            assertEquals(1, m_alarmDao.countAll());
+            final List<NorthboundAlarm> notified = m_northbounder.getAlarms().subList(numNotified, m_northbounder.getAlarms().size());
+            assertEquals(Arrays.asList(2, 3, 4, 5), notified.stream().map(NorthboundAlarm::getCount).collect(Collectors.toList()));
+        } finally {
+            // Writes out anything left over
+            persisterImpl.setReductionFlushInterval(0);
+        }
+    }
+
+    @Test
+    public void testWriteBehindReductionsOntoExistingAlarm() throws Exception {
+        AlarmPersisterImpl persisterImpl = (AlarmPersisterImpl)m_alarmd.getPersister();
+        final MockNode node = m_mockNetwork.getNode(1);
+
+        // There should be no alarms in the alarms table
+        assertEmptyAlarmTable();
+
+        // The alarm is written through before write-behind is enabled, so it is not cached
+        sendNodeDownEvent("%nodeid%", node);
+        await().atMost(10, SECONDS).until(getNumAlarmsCallable(), equalTo(1));
+
+        persisterImpl.setReductionFlushInterval(SECONDS.toMillis(60));
+        try {
+            assertEquals(0, persisterImpl.getReductionCache().size());
+
+            // The next occurrence is reduced onto the alarm loaded from the database, which is then cached
+            sendNodeDownEvent("%nodeid%", node);
+            assertEquals(2, m_alarmDao.findAll().get(0).getCounter().intValue());
+            assertEquals(1, persisterImpl.getReductionCache().size());
+
+            // So that further occurrences are only reduced in memory
+            for (int i = 0; i < 3; i++) {
+                sendNodeDownEvent("%nodeid%", node);
+            }
+            assertEquals(2, m_alarmDao.findAll().get(0).getCounter().intValue());
+
+            persisterImpl.flush();
+            assertEquals(5, m_alarmDao.findAll().get(0).getCounter().intValue());
+            assertEquals(1, m_alarmDao.countAll());
+        } finally {
+            persisterImpl.setReductionFlushInterval(0);
+        }
+    }
+
+    @Test
+    public void testWriteBehindReductionsOntoAlarmClearedInDatabase() throws Exception {
+        AlarmPersisterImpl persisterImpl = (AlarmPersisterImpl)m_alarmd.getPersister();
+        persisterImpl.setCreateNewAlarmIfClearedAlarmExists(true);
+        persisterImpl.setReductionFlushInterval(SECONDS.toMillis(60));
+        try {
+            final MockNode node = m_mockNetwork.getNode(1);
+
+            // There should be no alarms in the alarms table
+            assertEmptyAlarmTable();
+
+            sendNodeDownEvent("%nodeid%", node);
+            await().atMost(10, SECONDS).until(getNumAlarmsCallable(), equalTo(1));
+            assertEquals(1, persisterImpl.getReductionCache().size());
+
+            // Clear the alarm behind the persister's back, like automations do
+            m_database.getJdbcTemplate().update("UPDATE alarms SET severity = ?", OnmsSeverity.CLEARED.getId());
+
+            // The cached alarm still looks open, so the trigger is reduced in memory
+            sendNodeDownEvent("%nodeid%", node);
+            assertEquals(1, m_alarmDao.countAll());
+
+            // But the cleared alarm is archived and a new one is created when it is written out
+            persisterImpl.flush();
+            assertEquals(2, m_alarmDao.countAll());
+            assertThat(m_alarmDao.findAll().stream().filter(a -> a.isArchived()
+                    && OnmsSeverity.CLEARED.equals(a.getSeverity())).count(), equalTo(1L));
+            assertThat(m_alarmDao.findAll().stream().filter(a -> !a.isArchived()
+                    && !OnmsSeverity.CLEARED.equals(a.getSeverity())).count(), equalTo(1L));
+        } finally {
+            persisterImpl.setReductionFlushInterval(0);
+            persisterImpl.setCreateNewAlarmIfClearedAlarmExists(false);
+        }
+    }
+
     @Test
     public void testDualAlarmState() throws Exception {
         AlarmPersisterImpl persisterImpl = (AlarmPersisterImpl)m_alarmd.getPersister();
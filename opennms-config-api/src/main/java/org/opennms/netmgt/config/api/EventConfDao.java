@@ -144,6 +144,19 @@ public interface EventConfDao {
      */
     Event findByEvent(org.opennms.netmgt.xml.event.Event matchingEvent);
 
+    /**
+     * Returns a number that changes whenever the definitions used by
+     * {@link #findByEvent(org.opennms.netmgt.xml.event.Event)} are reloaded
+     * or modified, so that callers can tell when lookups they have cached
+     * are stale. A negative value means that changes can't be tracked and
+     * lookups should not be cached.
+     *
+     * @return the current revision of the event definitions
+     */
+    default long getRevision() {
+        return -1;
+    }
+
     /**
      * <p>getRootEvents</p>
      * 
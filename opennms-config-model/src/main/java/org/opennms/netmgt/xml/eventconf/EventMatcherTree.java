@@ -0,0 +1,359 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.xml.event.Snmp;
+
+/**
+ * Immutable, pre-compiled form of the event definitions held by an {@link Events} tree.
+ *
+ * The definitions are compiled into a decision tree keyed on the mask elements that
+ * are used to identify traps: the enterprise id (via the {@link Partition}), then the
+ * generic and the specific type. The remaining mask elements and the varbinds are
+ * verified with {@link Event#matches(org.opennms.netmgt.xml.event.Event)} on the
+ * (few) candidates found in the leaves.
+ *
+ * Every definition is assigned a rank reflecting the order in which
+ * {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)} would
+ * consider it, so that both always return the same definition. Lookups do not
+ * allocate, and since the tree is never modified once built, it can be swapped
+ * atomically when the configuration is reloaded.
+ */
+public final class EventMatcherTree {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Event[] m_eventsByRank;
+    private final Map<String, IndexedEvent> m_eventsByUei;
+    private final Partition m_partition;
+    private final Node m_nullPartition;
+    private final Map<String, Node> m_partitions;
+
+    private EventMatcherTree(final Event[] eventsByRank, final Map<String, IndexedEvent> eventsByUei, final Partition partition,
+                             final Node nullPartition, final Map<String, Node> partitions) {
+        m_eventsByRank = eventsByRank;
+        m_eventsByUei = eventsByUei;
+        m_partition = partition;
+        m_nullPartition = nullPartition;
+        m_partitions = partitions;
+    }
+
+    /**
+     * Compiles the given events, which must already have been initialized with the
+     * same partition.
+     */
+    public static EventMatcherTree compile(final Events events, final Partition partition) {
+        final Compiler compiler = new Compiler(partition);
+        compiler.add(events);
+        return compiler.build();
+    }
+
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        IndexedEvent indexed = null;
+        int bound = Integer.MAX_VALUE;
+
+        final String uei = matchingEvent.getUei();
+        if (uei != null) {
+            indexed = m_eventsByUei.get(uei);
+            if (indexed != null) {
+                if (indexed.rank == 0) {
+                    // Found in the index of the root file, which is always consulted first
+                    return indexed.event;
+                }
+                bound = indexed.rank;
+            }
+        }
+
+        final Snmp snmp = matchingEvent.getSnmp();
+        final boolean hasGeneric = snmp != null && snmp.hasGeneric();
+        final int generic = hasGeneric ? snmp.getGeneric() : 0;
+        final boolean hasSpecific = snmp != null && snmp.hasSpecific();
+        final int specific = hasSpecific ? snmp.getSpecific() : 0;
+
+        bound = m_nullPartition.find(m_eventsByRank, matchingEvent, hasGeneric, generic, hasSpecific, specific, bound);
+
+        final String key = m_partition.group(matchingEvent);
+        if (key != null) {
+            final Node node = m_partitions.get(key);
+            if (node != null) {
+                bound = node.find(m_eventsByRank, matchingEvent, hasGeneric, generic, hasSpecific, specific, bound);
+            }
+        }
+
+        if (bound == Integer.MAX_VALUE) {
+            return null;
+        } else if (indexed != null && bound == indexed.rank) {
+            return indexed.event;
+        } else {
+            return m_eventsByRank[bound];
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Event event : m_eventsByRank) {
+            if (event != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private static final class IndexedEvent {
+        private final Event event;
+        private final int rank;
+
+        private IndexedEvent(final Event event, final int rank) {
+            this.event = event;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * Candidates sharing the same partition, branching on the generic type.
+     */
+    private static final class Node {
+        private final int[] m_generics;
+        private final Level[] m_byGeneric;
+        private final Level m_anyGeneric;
+
+        private Node(final int[] generics, final Level[] byGeneric, final Level anyGeneric) {
+            m_generics = generics;
+            m_byGeneric = byGeneric;
+            m_anyGeneric = anyGeneric;
+        }
+
+        private int find(final Event[] eventsByRank, final org.opennms.netmgt.xml.event.Event matchingEvent,
+                         final boolean hasGeneric, final int generic, final boolean hasSpecific, final int specific, int bound) {
+            if (hasGeneric) {
+                final int idx = Arrays.binarySearch(m_generics, generic);
+                if (idx >= 0) {
+                    bound = m_byGeneric[idx].find(eventsByRank, matchingEvent, hasSpecific, specific, bound);
+                }
+            }
+            return m_anyGeneric.find(eventsByRank, matchingEvent, hasSpecific, specific, bound);
+        }
+    }
+
+    /**
+     * Candidates sharing the same partition and generic type, branching on the specific type.
+     */
+    private static final class Level {
+        private final int[] m_specifics;
+        private final int[][] m_bySpecific;
+        private final int[] m_anySpecific;
+
+        private Level(final int[] specifics, final int[][] bySpecific, final int[] anySpecific) {
+            m_specifics = specifics;
+            m_bySpecific = bySpecific;
+            m_anySpecific = anySpecific;
+        }
+
+        private int find(final Event[] eventsByRank, final org.opennms.netmgt.xml.event.Event matchingEvent,
+                         final boolean hasSpecific, final int specific, int bound) {
+            if (hasSpecific) {
+                final int idx = Arrays.binarySearch(m_specifics, specific);
+                if (idx >= 0) {
+                    bound = findInLeaf(m_bySpecific[idx], eventsByRank, matchingEvent, bound);
+                }
+            }
+            return findInLeaf(m_anySpecific, eventsByRank, matchingEvent, bound);
+        }
+    }
+
+    /**
+     * Returns the rank of the first event in the (ordered) leaf that matches,
+     * or the given bound if there is none with a lower rank.
+     */
+    private static int findInLeaf(final int[] ranks, final Event[] eventsByRank, final org.opennms.netmgt.xml.event.Event matchingEvent, final int bound) {
+        for (final int rank : ranks) {
+            if (rank >= bound) {
+                break;
+            }
+            if (eventsByRank[rank].matches(matchingEvent)) {
+                return rank;
+            }
+        }
+        return bound;
+    }
+
+    private static final class Compiler {
+        private final Partition m_partition;
+        private final List<Event> m_eventsByRank = new ArrayList<>();
+        private final Map<String, IndexedEvent> m_eventsByUei = new HashMap<>();
+        private final List<Integer> m_nullPartition = new ArrayList<>();
+        private final Map<String, List<Integer>> m_partitions = new LinkedHashMap<>();
+
+        private Compiler(final Partition partition) {
+            m_partition = partition;
+        }
+
+        /**
+         * Mirrors the traversal performed by {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}:
+         * the UEI index of the file, the events of the file, and then the files it loads.
+         */
+        private void add(final Events events) {
+            // Reserve a rank for hits against the UEI index of this file
+            final int indexRank = m_eventsByRank.size();
+            m_eventsByRank.add(null);
+            for (final Entry<String, Event> entry : events.getEventsByUei().entrySet()) {
+                m_eventsByUei.putIfAbsent(entry.getKey(), new IndexedEvent(entry.getValue(), indexRank));
+            }
+
+            for (final Event event : events.getEvents()) {
+                final int rank = m_eventsByRank.size();
+                m_eventsByRank.add(event);
+
+                final List<String> keys = m_partition.group(event);
+                if (keys == null) {
+                    m_nullPartition.add(rank);
+                } else {
+                    for (final String key : keys) {
+                        final List<Integer> ranks = m_partitions.computeIfAbsent(key, k -> new ArrayList<>(1));
+                        if (ranks.isEmpty() || ranks.get(ranks.size() - 1) != rank) {
+                            ranks.add(rank);
+                        }
+                    }
+                }
+            }
+
+            for (final Events loadedEvents : events.getLoadedEventFiles()) {
+                add(loadedEvents);
+            }
+        }
+
+        private EventMatcherTree build() {
+            final Event[] eventsByRank = m_eventsByRank.toArray(new Event[m_eventsByRank.size()]);
+            final Map<String, Node> partitions = new HashMap<>();
+            for (final Entry<String, List<Integer>> entry : m_partitions.entrySet()) {
+                partitions.put(entry.getKey(), buildNode(eventsByRank, entry.getValue()));
+            }
+            return new EventMatcherTree(eventsByRank, new HashMap<>(m_eventsByUei), m_partition,
+                    buildNode(eventsByRank, m_nullPartition), partitions);
+        }
+
+        private static Node buildNode(final Event[] eventsByRank, final List<Integer> ranks) {
+            final TreeMap<Integer, List<Integer>> byGeneric = new TreeMap<>();
+            final List<Integer> anyGeneric = new ArrayList<>();
+            group(eventsByRank, ranks, Maskelement.TAG_SNMP_GENERIC, byGeneric, anyGeneric);
+
+            final int[] generics = toArray(byGeneric.keySet());
+            final Level[] levels = new Level[generics.length];
+            int i = 0;
+            for (final List<Integer> generic : byGeneric.values()) {
+                levels[i++] = buildLevel(eventsByRank, generic);
+            }
+            return new Node(generics, levels, buildLevel(eventsByRank, anyGeneric));
+        }
+
+        private static Level buildLevel(final Event[] eventsByRank, final List<Integer> ranks) {
+            final TreeMap<Integer, List<Integer>> bySpecific = new TreeMap<>();
+            final List<Integer> anySpecific = new ArrayList<>();
+            group(eventsByRank, ranks, Maskelement.TAG_SNMP_SPECIFIC, bySpecific, anySpecific);
+
+            final int[] specifics = toArray(bySpecific.keySet());
+            final int[][] leaves = new int[specifics.length][];
+            int i = 0;
+            for (final List<Integer> specific : bySpecific.values()) {
+                leaves[i++] = toArray(specific);
+            }
+            return new Level(specifics, leaves, toArray(anySpecific));
+        }
+
+        /**
+         * Splits the given ranks by the literal values of the named mask element. Definitions
+         * that don't constrain the element to literal integers are added to the wildcard list.
+         * Ranks are kept in ascending order in every group.
+         */
+        private static void group(final Event[] eventsByRank, final List<Integer> ranks, final String maskElementName,
+                                  final Map<Integer, List<Integer>> byValue, final List<Integer> any) {
+            for (final Integer rank : ranks) {
+                final int[] values = literalValues(eventsByRank[rank].getMaskElementValues(maskElementName));
+                if (values == null) {
+                    any.add(rank);
+                } else {
+                    for (final int value : values) {
+                        final List<Integer> group = byValue.computeIfAbsent(value, k -> new ArrayList<>());
+                        if (group.isEmpty() || !group.get(group.size() - 1).equals(rank)) {
+                            group.add(rank);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the values as integers if they can only be matched by the exact
+         * string representation of these integers, or null otherwise.
+         */
+        private static int[] literalValues(final List<String> values) {
+            if (values == null || values.isEmpty()) {
+                return null;
+            }
+            final int[] literals = new int[values.size()];
+            for (int i = 0; i < literals.length; i++) {
+                final String value = values.get(i);
+                if (value == null || value.startsWith("~") || value.endsWith("%")) {
+                    return null;
+                }
+                try {
+                    literals[i] = Integer.parseInt(value);
+                } catch (final NumberFormatException e) {
+                    return null;
+                }
+                if (!Integer.toString(literals[i]).equals(value)) {
+                    return null;
+                }
+            }
+            return literals;
+        }
+
+        private static int[] toArray(final Iterable<Integer> values) {
+            final List<Integer> list = new ArrayList<>();
+            values.forEach(list::add);
+            if (list.isEmpty()) {
+                return EMPTY;
+            }
+            final int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+}
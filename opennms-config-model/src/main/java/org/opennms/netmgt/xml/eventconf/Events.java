@@ -427,6 +427,18 @@ public class Events implements Serializable {
         }
     }
 
+    /**
+     * UEI index consulted by {@link #findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+     * before falling back to the matchers of this file.
+     */
+    Map<String, Event> getEventsByUei() {
+        return m_eventsByUei;
+    }
+
+    Collection<Events> getLoadedEventFiles() {
+        return m_loadedEventFiles.values();
+    }
+
     public Events getLoadEventsByFile(final String relativePath) {
         return m_loadedEventFiles.get(relativePath);
     }
@@ -38,6 +38,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.opennms.core.config.api.ConfigReloadContainer;
@@ -45,6 +46,7 @@ import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.api.EventConfDao;
 import org.opennms.netmgt.xml.eventconf.Event;
 import org.opennms.netmgt.xml.eventconf.EventLabelComparator;
+import org.opennms.netmgt.xml.eventconf.EventMatcherTree;
 import org.opennms.netmgt.xml.eventconf.EventMatchers;
 import org.opennms.netmgt.xml.eventconf.EventOrdering;
 import org.opennms.netmgt.xml.eventconf.Events;
@@ -71,6 +73,17 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	private Events m_events;
 
+	/**
+	 * Compiled form of {@link #m_events} used to match incoming events,
+	 * replaced as a whole whenever the events are (re)initialized.
+	 */
+	private volatile EventMatcherTree m_matcherTree;
+
+	/**
+	 * Incremented every time {@link #m_matcherTree} is replaced.
+	 */
+	private final AtomicLong m_revision = new AtomicLong();
+
 	private Resource m_configResource;
 
 	private Partition m_partition;
@@ -184,6 +197,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 	public void addEvent(Event event) {
 		m_events.addEvent(event);
 		m_events.initialize(m_partition, new EventOrdering());
+		compileMatcherTree(m_events);
 	}
 
 	@Override
@@ -196,6 +210,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 		programmaticEvents.addEvent(event);
 		m_events.initialize(m_partition, new EventOrdering());
+		compileMatcherTree(m_events);
 
 	}
 
@@ -210,6 +225,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		}
 
 		m_events.initialize(m_partition, new EventOrdering());
+		compileMatcherTree(m_events);
 
 		return true;
 
@@ -234,7 +250,12 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public Event findByEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
-		return m_events.findFirstMatchingEvent(matchingEvent);
+		return m_matcherTree.findFirstMatchingEvent(matchingEvent);
+	}
+
+	@Override
+	public long getRevision() {
+		return m_revision.get();
 	}
 
 	@Override
@@ -315,6 +336,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
             events.initialize(m_partition, new EventOrdering());
 
             m_events = events;
+            compileMatcherTree(events);
         } catch (Exception e) {
             throw new DataRetrievalFailureException("Unable to load " + m_configResource, e);
         }
@@ -329,11 +351,19 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			events.initialize(m_partition, new EventOrdering());
 
 			m_events = events;
+			compileMatcherTree(events);
 		} catch (Exception e) {
 			throw new DataRetrievalFailureException("Unabled to load " + m_configResource, e);
 		}
 	}
 
+	private void compileMatcherTree(final Events events) {
+		m_matcherTree = EventMatcherTree.compile(events, m_partition);
+		// Only bump the revision once the new tree is visible, so that results
+		// cached against the new revision never come from the old tree
+		m_revision.incrementAndGet();
+	}
+
     private void initExtensions() {
         m_extContainer = new ConfigReloadContainer.Builder<>(Events.class)
                 .withMerger((source, target) -> {
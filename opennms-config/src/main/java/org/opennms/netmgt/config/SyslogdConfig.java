@@ -150,6 +150,14 @@ public interface SyslogdConfig {
      */
     TimeZone getTimeZone();
 
+    /**
+     * Incremented every time the configuration is reloaded, so that anything
+     * derived from the rules can tell whether it is still current.
+     *
+     * @return revision of the configuration
+     */
+    long getRevision();
+
     /**
      * reload configuration
      * @throws IOException
@@ -68,6 +68,8 @@ public final class SyslogdConfigFactory implements SyslogdConfig {
 
     private ConfigReloadContainer<SyslogdConfigurationGroup> m_extContainer;
 
+    private long m_revision = 0;
+
     /**
      * Private constructor
      *
@@ -103,6 +105,12 @@ public final class SyslogdConfigFactory implements SyslogdConfig {
         File configFile = ConfigFileConstants.getFile(ConfigFileConstants.SYSLOGD_CONFIG_FILE_NAME);
         m_config = JaxbUtils.unmarshal(SyslogdConfiguration.class, new FileSystemResource(configFile));
         parseIncludedFiles();
+        m_revision++;
+    }
+
+    @Override
+    public synchronized long getRevision() {
+        return m_revision;
     }
 
     /**
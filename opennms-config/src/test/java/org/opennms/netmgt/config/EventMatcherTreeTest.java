@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventMatcherTree;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verifies that the compiled {@link EventMatcherTree} used by the {@link DefaultEventConfDao}
+ * returns the exact same event definitions as {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+public class EventMatcherTreeTest {
+
+    /**
+     * Path to a recorded trap corpus to replay in {@link #benchmarkLookups()}.
+     *
+     * One trap per line, formatted as: enterprise-id generic specific [varbind-value ...]
+     */
+    private static final String CORPUS_PROPERTY = "org.opennms.eventconf.benchmark.corpus";
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(false);
+
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+    }
+
+    @Test
+    public void matchesSameDefinitionsAsEvents() {
+        final List<org.opennms.netmgt.xml.event.Event> corpus = generateCorpus(m_eventConfDao.getAllEvents(), new Random(42));
+        assertTrue(corpus.size() > 1000);
+
+        int matched = 0;
+        for (final org.opennms.netmgt.xml.event.Event event : corpus) {
+            final Event expected = m_eventConfDao.getRootEvents().findFirstMatchingEvent(event);
+            assertSame("Mismatch for " + event, expected, m_eventConfDao.findByEvent(event));
+            if (expected != null) {
+                matched++;
+            }
+        }
+        assertTrue(matched > corpus.size() / 2);
+    }
+
+    @Test
+    public void recompilesWhenProgrammaticStoreChanges() {
+        final EventBuilder bldr = new EventBuilder(null, "JUnit");
+        bldr.setEnterpriseId(".1.3.6.1.4.1.5813.99999");
+        bldr.setGeneric(6);
+        bldr.setSpecific(1);
+
+        final Event event = new Event();
+        event.setUei("uei.opennms.org/junit/programmatic");
+        final Mask mask = new Mask();
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_EID, ".1.3.6.1.4.1.5813.99999"));
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_GENERIC, "6"));
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_SPECIFIC, "1"));
+        event.setMask(mask);
+
+        final Event before = m_eventConfDao.findByEvent(bldr.getEvent());
+        assertNotNull(before);
+
+        m_eventConfDao.addEventToProgrammaticStore(event);
+        assertSame(m_eventConfDao.getRootEvents().findFirstMatchingEvent(bldr.getEvent()), m_eventConfDao.findByEvent(bldr.getEvent()));
+
+        // Events defined in the root file take precedence over the ones from the included files
+        m_eventConfDao.addEvent(event);
+        assertSame(event, m_eventConfDao.findByEvent(bldr.getEvent()));
+
+        m_eventConfDao.reload();
+        assertEquals(before.getUei(), m_eventConfDao.findByEvent(bldr.getEvent()).getUei());
+    }
+
+    /**
+     * Compares the throughput of both lookup paths, replaying the corpus referenced by
+     * the {@value #CORPUS_PROPERTY} system property if set, or a generated one otherwise.
+     */
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkLookups() throws IOException {
+        final String corpusFile = System.getProperty(CORPUS_PROPERTY);
+        final List<org.opennms.netmgt.xml.event.Event> corpus = corpusFile != null
+                ? readCorpus(new File(corpusFile))
+                : generateCorpus(m_eventConfDao.getAllEvents(), new Random(42));
+        final Events events = m_eventConfDao.getRootEvents();
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (final org.opennms.netmgt.xml.event.Event event : corpus) {
+                events.findFirstMatchingEvent(event);
+            }
+            final long eventsElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (final org.opennms.netmgt.xml.event.Event event : corpus) {
+                m_eventConfDao.findByEvent(event);
+            }
+            final long treeElapsed = System.nanoTime() - start;
+
+            System.err.printf("Round %d, %d events: Events: %.0f lookups/s, EventMatcherTree: %.0f lookups/s%n", round, corpus.size(),
+                    corpus.size() * 1e9 / eventsElapsed, corpus.size() * 1e9 / treeElapsed);
+        }
+    }
+
+    private static Maskelement maskElement(final String name, final String value) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        element.addMevalue(value);
+        return element;
+    }
+
+    /**
+     * Generates traps targeting the given definitions, along with near misses
+     * for the generic and specific types, and for the varbinds.
+     */
+    private static List<org.opennms.netmgt.xml.event.Event> generateCorpus(final List<Event> definitions, final Random random) {
+        final List<org.opennms.netmgt.xml.event.Event> corpus = new ArrayList<>();
+        for (final Event definition : definitions) {
+            final Mask mask = definition.getMask();
+            if (mask == null) {
+                corpus.add(new EventBuilder(definition.getUei(), "JUnit").getEvent());
+                continue;
+            }
+
+            final String id = sample(mask.getMaskElementValues(Maskelement.TAG_SNMP_EID), ".1.3.6.1.4.1.5813", random);
+            final int generic = Integer.parseInt(sample(mask.getMaskElementValues(Maskelement.TAG_SNMP_GENERIC), "6", random));
+            final int specific = Integer.parseInt(sample(mask.getMaskElementValues(Maskelement.TAG_SNMP_SPECIFIC), Integer.toString(random.nextInt(100)), random));
+            final List<String> varbinds = new ArrayList<>();
+            for (final Varbind varbind : mask.getVarbinds()) {
+                if (varbind.getVbnumber() == null || varbind.getVbnumber() < 1) {
+                    continue;
+                }
+                while (varbinds.size() < varbind.getVbnumber()) {
+                    varbinds.add(Integer.toString(random.nextInt(10)));
+                }
+                varbinds.set(varbind.getVbnumber() - 1, sample(varbind.getVbvalues(), "0", random));
+            }
+
+            corpus.add(trap(null, id, generic, specific, varbinds));
+            corpus.add(trap(definition.getUei(), id, generic, specific, varbinds));
+            corpus.add(trap(null, id, generic, specific + 1, varbinds));
+            corpus.add(trap(null, id, (generic + 1) % 7, specific, varbinds));
+            corpus.add(trap(null, id, generic, specific, new ArrayList<String>()));
+        }
+        return corpus;
+    }
+
+    private static String sample(final List<String> values, final String defaultValue, final Random random) {
+        if (values == null || values.isEmpty()) {
+            return defaultValue;
+        }
+        final String value = values.get(random.nextInt(values.size()));
+        if (value.startsWith("~")) {
+            return defaultValue;
+        } else if (value.endsWith("%")) {
+            return value.substring(0, value.length() - 1) + random.nextInt(10);
+        }
+        try {
+            Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            // Non numeric literals are only valid for the enterprise id
+            return defaultValue.matches("\\d+") ? defaultValue : value;
+        }
+        return value;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event trap(final String uei, final String id, final int generic, final int specific, final List<String> varbinds) {
+        final EventBuilder bldr = new EventBuilder(uei, "JUnit");
+        bldr.setEnterpriseId(id);
+        bldr.setGeneric(generic);
+        bldr.setSpecific(specific);
+        for (int i = 0; i < varbinds.size(); i++) {
+            bldr.addParam(id + "." + (i + 1), varbinds.get(i));
+        }
+        return bldr.getEvent();
+    }
+
+    private static List<org.opennms.netmgt.xml.event.Event> readCorpus(final File file) throws IOException {
+        final List<org.opennms.netmgt.xml.event.Event> corpus = new ArrayList<>();
+        for (final String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            final String[] fields = line.trim().split("\\s+");
+            if (fields.length < 3 || fields[0].startsWith("#")) {
+                continue;
+            }
+            final List<String> varbinds = new ArrayList<>();
+            for (int i = 3; i < fields.length; i++) {
+                varbinds.add(fields[i]);
+            }
+            corpus.add(trap(null, fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), varbinds));
+        }
+        return corpus;
+    }
+}
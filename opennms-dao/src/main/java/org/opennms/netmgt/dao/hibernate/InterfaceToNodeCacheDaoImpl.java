@@ -32,17 +32,12 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 
 import java.net.InetAddress;
 import java.util.Collections;
-import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.TreeSet;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.PostConstruct;
 
 import org.opennms.core.criteria.CriteriaBuilder;
-import org.opennms.core.utils.LocationUtils;
 import org.opennms.netmgt.dao.api.AbstractInterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
@@ -50,7 +45,6 @@ import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsNode.NodeType;
-import org.opennms.netmgt.model.PrimaryType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,12 +52,6 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.SortedSetMultimap;
-
 /**
  * This class represents a singular instance that is used to map IP
  * addresses to known nodes.
@@ -77,105 +65,6 @@ import com.google.common.collect.SortedSetMultimap;
 public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache implements InterfaceToNodeCache {
     private static final Logger LOG = LoggerFactory.getLogger(InterfaceToNodeCacheDaoImpl.class);
 
-    private static class Key {
-        private final String location;
-        private final InetAddress ipAddress;
-
-        public Key(String location, InetAddress ipAddress) {
-            // Use the default location when location is null
-            this.location = LocationUtils.getEffectiveLocationName(location);
-            this.ipAddress = Objects.requireNonNull(ipAddress);
-        }
-
-        public InetAddress getIpAddress() {
-            return ipAddress;
-        }
-
-        public String getLocation() {
-            return location;
-        }
-
-        @Override
-        public boolean equals(final Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (obj == this) {
-                return true;
-            }
-            if (obj.getClass() != getClass()) {
-                return false;
-            }
-            final Key that = (Key) obj;
-            return Objects.equals(this.ipAddress, that.ipAddress)
-                    && Objects.equals(this.location, that.location);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.ipAddress, this.location);
-        }
-
-        @Override
-        public String toString() {
-            return String.format("Key[location='%s', ipAddress='%s']", this.location, this.ipAddress);
-        }
-    }
-
-    private static class Value implements Comparable<Value> {
-        private final int nodeId;
-        private final PrimaryType type;
-
-
-        private Value(final int nodeId,
-                      final PrimaryType type) {
-            this.nodeId = nodeId;
-            this.type = type;
-        }
-
-        public int getNodeId() {
-            return this.nodeId;
-        }
-
-        public PrimaryType getType() {
-            return this.type;
-        }
-
-        @Override
-        public boolean equals(final Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (obj == this) {
-                return true;
-            }
-            if (obj.getClass() != getClass()) {
-                return false;
-            }
-            final Value that = (Value) obj;
-            return Objects.equals(this.nodeId, that.nodeId)
-                    && Objects.equals(this.type, that.type);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.nodeId, this.type.getCharCode());
-        }
-
-        @Override
-        public String toString() {
-            return String.format("Value[nodeId='%s', type='%s']", this.nodeId, this.type);
-        }
-
-        @Override
-        public int compareTo(final Value that) {
-            return ComparisonChain.start()
-                    .compare(this.type, that.type)
-                    .compare(this.nodeId, that.nodeId)
-                    .result();
-        }
-    }
-
     @Autowired
     private NodeDao m_nodeDao;
 
@@ -185,8 +74,12 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
     @Autowired
     private TransactionOperations transactionOperations;
 
-    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
-    private final SortedSetMultimap<Key, Value> m_managedAddresses = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
+    /**
+     * Lookups read the current snapshot without locking, while updates are
+     * serialized on {@link #m_writeLock} and swap in a new snapshot.
+     */
+    private volatile InterfaceToNodeMap m_managedAddresses = InterfaceToNodeMap.EMPTY;
+    private final Object m_writeLock = new Object();
 
     private final Timer refreshTimer = new Timer(getClass().getSimpleName());
 
@@ -261,14 +154,13 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
     }
 
     private void dataSourceSyncWithinTransaction() {
-        m_lock.writeLock().lock();
-        try {
+        synchronized (m_writeLock) {
             /*
              * Make a new list with which we'll replace the existing one, that way
              * if something goes wrong with the DB we won't lose whatever was already
              * in there
              */
-            final SortedSetMultimap<Key, Value> newAlreadyDiscovered = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
+            final InterfaceToNodeMap.Builder newAlreadyDiscovered = new InterfaceToNodeMap.Builder();
 
             // Fetch all non-deleted nodes
             final CriteriaBuilder builder = new CriteriaBuilder(OnmsNode.class);
@@ -282,14 +174,11 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
                         continue;
                     }
                     LOG.debug("Adding entry: {}:{} -> {}", node.getLocation().getLocationName(), iface.getIpAddress(), node.getId());
-                    newAlreadyDiscovered.put(new Key(node.getLocation().getLocationName(), iface.getIpAddress()), new Value(node.getId(), iface.getIsSnmpPrimary()));
+                    newAlreadyDiscovered.add(node.getLocation().getLocationName(), iface.getIpAddress(), node.getId(), iface.getIsSnmpPrimary());
                 }
             }
-            m_managedAddresses.clear();
-            m_managedAddresses.putAll(newAlreadyDiscovered);
+            m_managedAddresses = newAlreadyDiscovered.build();
             LOG.info("dataSourceSync: initialized list of managed IP addresses with {} members", m_managedAddresses.size());
-        } finally {
-            m_lock.writeLock().unlock();
         }
     }
 
@@ -303,18 +192,11 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
      * @return The node ID of the IP Address if known.
      */
     @Override
-    public synchronized Iterable<Integer> getNodeId(final String location, final InetAddress address) {
+    public Iterable<Integer> getNodeId(final String location, final InetAddress address) {
         if (address == null) {
             return Collections.emptySet();
         }
-
-        m_lock.readLock().lock();
-        try {
-            return Iterables.transform(m_managedAddresses.get(new Key(location, address)),
-                    Value::getNodeId);
-        } finally {
-            m_lock.readLock().unlock();
-        }
+        return m_managedAddresses.getNodeIds(location, address);
     }
 
     /**
@@ -338,11 +220,10 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
         LOG.debug("setNodeId: adding IP address to cache: {}:{} -> {}", location, str(addr), nodeid);
 
-        m_lock.writeLock().lock();
-        try {
-            return m_managedAddresses.put(new Key(location, addr), new Value(nodeid, iface.getIsSnmpPrimary()));
-        } finally {
-            m_lock.writeLock().unlock();
+        synchronized (m_writeLock) {
+            final InterfaceToNodeMap current = m_managedAddresses;
+            m_managedAddresses = current.with(location, addr, nodeid, iface.getIsSnmpPrimary());
+            return m_managedAddresses != current;
         }
     }
 
@@ -361,34 +242,22 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
         LOG.debug("removeNodeId: removing IP address from cache: {}:{}", location, str(address));
 
-        m_lock.writeLock().lock();
-        try {
-            final Key key = new Key(location, address);
-            return m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.PRIMARY)) ||
-                    m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.SECONDARY)) ||
-                    m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.NOT_ELIGIBLE));
-        } finally {
-            m_lock.writeLock().unlock();
+        synchronized (m_writeLock) {
+            final InterfaceToNodeMap current = m_managedAddresses;
+            m_managedAddresses = current.without(location, address, nodeId);
+            return m_managedAddresses != current;
         }
     }
 
     @Override
     public int size() {
-        m_lock.readLock().lock();
-        try {
-            return m_managedAddresses.size();
-        } finally {
-            m_lock.readLock().unlock();
-        }
+        return m_managedAddresses.size();
     }
 
     @Override
     public void clear() {
-        m_lock.writeLock().lock();
-        try {
-            m_managedAddresses.clear();
-        } finally {
-            m_lock.writeLock().unlock();
+        synchronized (m_writeLock) {
+            m_managedAddresses = InterfaceToNodeMap.EMPTY;
         }
     }
 }
@@ -0,0 +1,399 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opennms.core.utils.LocationUtils;
+import org.opennms.netmgt.model.PrimaryType;
+
+/**
+ * Immutable map from a (location, IP address) pair to the nodes that have an
+ * interface with that address, ordered by their management priority.
+ *
+ * Keys are packed into three longs: the location id and the address family,
+ * followed by the address itself (an IPv4 address in the low bits of the last
+ * long, or an IPv6 address spread over both). Entries are stored in open
+ * addressing tables, so looking up an IPv4 address does not allocate.
+ *
+ * Updates return a new map that shares the (large) base table with the
+ * current one, and only copies a small table of changes on top of it. The
+ * changes are folded into a new base table once they grow past the square
+ * root of its size, which keeps the amortized cost of an update low.
+ */
+final class InterfaceToNodeMap {
+
+    public static final InterfaceToNodeMap EMPTY = new Builder().build();
+
+    private static final int MIN_DELTA_LIMIT = 64;
+
+    private final Map<String, Integer> m_locationIds;
+    private final Table m_base;
+    private final Table m_delta;
+    private final int m_size;
+
+    private InterfaceToNodeMap(final Map<String, Integer> locationIds, final Table base, final Table delta, final int size) {
+        m_locationIds = locationIds;
+        m_base = base;
+        m_delta = delta;
+        m_size = size;
+    }
+
+    /**
+     * Returns the ids of the nodes with the given address, ordered by management priority.
+     */
+    public List<Integer> getNodeIds(final String location, final InetAddress address) {
+        return getEntry(location, address).getNodeIds();
+    }
+
+    /**
+     * Returns the number of (address, node) associations.
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Returns a map in which the given node is associated with the address,
+     * or this map if it already was.
+     */
+    public InterfaceToNodeMap with(final String location, final InetAddress address, final int nodeId, final PrimaryType type) {
+        final Entry entry = getEntry(location, address);
+        final Entry updated = entry.with(nodeId, type);
+        return updated == entry ? this : put(location, address, entry, updated);
+    }
+
+    /**
+     * Returns a map in which the given node is no longer associated with
+     * the address, or this map if it wasn't.
+     */
+    public InterfaceToNodeMap without(final String location, final InetAddress address, final int nodeId) {
+        final Entry entry = getEntry(location, address);
+        final Entry updated = entry.without(nodeId);
+        return updated == entry ? this : put(location, address, entry, updated);
+    }
+
+    private Entry getEntry(final String location, final InetAddress address) {
+        final Integer locationId = m_locationIds.get(LocationUtils.getEffectiveLocationName(location));
+        if (locationId == null) {
+            return Entry.EMPTY;
+        }
+
+        final long k0, k1, k2;
+        if (address instanceof Inet4Address) {
+            // The hash code of an IPv4 address is the address itself
+            k0 = (long) locationId << 1;
+            k1 = 0;
+            k2 = address.hashCode() & 0xffffffffL;
+        } else {
+            final byte[] bytes = address.getAddress();
+            k0 = ((long) locationId << 1) | 1;
+            k1 = toLong(bytes, 0);
+            k2 = toLong(bytes, 8);
+        }
+
+        final Entry changed = m_delta.get(k0, k1, k2);
+        if (changed != null) {
+            return changed;
+        }
+        final Entry entry = m_base.get(k0, k1, k2);
+        return entry != null ? entry : Entry.EMPTY;
+    }
+
+    private InterfaceToNodeMap put(final String location, final InetAddress address, final Entry previous, final Entry entry) {
+        final int size = m_size - previous.size() + entry.size();
+
+        Map<String, Integer> locationIds = m_locationIds;
+        final String effectiveLocation = LocationUtils.getEffectiveLocationName(location);
+        if (!locationIds.containsKey(effectiveLocation)) {
+            locationIds = new HashMap<>(locationIds);
+            locationIds.put(effectiveLocation, locationIds.size());
+        }
+
+        // Copy the changes made so far, and add this one
+        final Table.Builder delta = new Table.Builder(m_delta.count() + 1);
+        m_delta.forEach(delta::put);
+        putEntry(delta, locationIds, effectiveLocation, address, entry);
+
+        if (delta.count() <= Math.max(MIN_DELTA_LIMIT, (int) Math.sqrt(m_base.count()))) {
+            return new InterfaceToNodeMap(locationIds, m_base, delta.build(), size);
+        }
+
+        // Fold the changes into a new base table
+        final Table changes = delta.build();
+        final Table.Builder base = new Table.Builder(m_base.count() + changes.count());
+        m_base.forEach((k0, k1, k2, e) -> {
+            if (changes.get(k0, k1, k2) == null) {
+                base.put(k0, k1, k2, e);
+            }
+        });
+        changes.forEach((k0, k1, k2, e) -> {
+            if (e.size() > 0) {
+                base.put(k0, k1, k2, e);
+            }
+        });
+        return new InterfaceToNodeMap(locationIds, base.build(), Table.EMPTY, size);
+    }
+
+    private static void putEntry(final Table.Builder table, final Map<String, Integer> locationIds, final String location, final InetAddress address, final Entry entry) {
+        final long locationId = locationIds.get(location);
+        final byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            table.put(locationId << 1, 0, toLong(bytes, 0) >>> 32, entry);
+        } else {
+            table.put((locationId << 1) | 1, toLong(bytes, 0), toLong(bytes, 8), entry);
+        }
+    }
+
+    private static long toLong(final byte[] bytes, final int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (i < bytes.length ? bytes[i] & 0xff : 0);
+        }
+        return value;
+    }
+
+    /**
+     * Used to populate a new map from scratch.
+     */
+    public static class Builder {
+        private final Map<String, Integer> m_locationIds = new HashMap<>();
+        private final Map<String, Map<InetAddress, Entry>> m_entries = new HashMap<>();
+        private int m_size = 0;
+
+        public Builder add(final String location, final InetAddress address, final int nodeId, final PrimaryType type) {
+            Objects.requireNonNull(address);
+            final String effectiveLocation = LocationUtils.getEffectiveLocationName(location);
+            m_locationIds.putIfAbsent(effectiveLocation, m_locationIds.size());
+            final Map<InetAddress, Entry> entries = m_entries.computeIfAbsent(effectiveLocation, l -> new HashMap<>());
+            final Entry entry = entries.getOrDefault(address, Entry.EMPTY);
+            final Entry updated = entry.with(nodeId, type);
+            if (updated != entry) {
+                entries.put(address, updated);
+                m_size++;
+            }
+            return this;
+        }
+
+        public InterfaceToNodeMap build() {
+            int count = 0;
+            for (final Map<InetAddress, Entry> entries : m_entries.values()) {
+                count += entries.size();
+            }
+            final Table.Builder table = new Table.Builder(count);
+            final Map<String, Integer> locationIds = new HashMap<>(m_locationIds);
+            m_entries.forEach((location, entries) -> entries.forEach((address, entry) -> putEntry(table, locationIds, location, address, entry)));
+            return new InterfaceToNodeMap(locationIds, table.build(), Table.EMPTY, m_size);
+        }
+    }
+
+    /**
+     * The nodes associated with an address, ordered by {@link PrimaryType} and then by node id.
+     */
+    private static final class Entry {
+        private static final Entry EMPTY = new Entry(new int[0], new PrimaryType[0]);
+
+        private final int[] m_nodeIds;
+        private final PrimaryType[] m_types;
+        private final List<Integer> m_nodeIdList;
+
+        private Entry(final int[] nodeIds, final PrimaryType[] types) {
+            m_nodeIds = nodeIds;
+            m_types = types;
+            final List<Integer> nodeIdList = new ArrayList<>(nodeIds.length);
+            for (final int nodeId : nodeIds) {
+                nodeIdList.add(nodeId);
+            }
+            m_nodeIdList = Collections.unmodifiableList(nodeIdList);
+        }
+
+        private int size() {
+            return m_nodeIds.length;
+        }
+
+        private List<Integer> getNodeIds() {
+            return m_nodeIdList;
+        }
+
+        private Entry with(final int nodeId, final PrimaryType type) {
+            int i = 0;
+            while (i < m_nodeIds.length) {
+                final int c = compare(m_types[i], m_nodeIds[i], type, nodeId);
+                if (c == 0) {
+                    return this;
+                } else if (c > 0) {
+                    break;
+                }
+                i++;
+            }
+            final int[] nodeIds = new int[m_nodeIds.length + 1];
+            final PrimaryType[] types = new PrimaryType[m_types.length + 1];
+            System.arraycopy(m_nodeIds, 0, nodeIds, 0, i);
+            System.arraycopy(m_types, 0, types, 0, i);
+            nodeIds[i] = nodeId;
+            types[i] = type;
+            System.arraycopy(m_nodeIds, i, nodeIds, i + 1, m_nodeIds.length - i);
+            System.arraycopy(m_types, i, types, i + 1, m_types.length - i);
+            return new Entry(nodeIds, types);
+        }
+
+        private Entry without(final int nodeId) {
+            // Remove a single association, preferring primary over secondary over
+            // not eligible, which are sorted in the opposite order
+            for (int i = m_nodeIds.length - 1; i >= 0; i--) {
+                if (m_nodeIds[i] == nodeId) {
+                    if (m_nodeIds.length == 1) {
+                        return EMPTY;
+                    }
+                    final int[] nodeIds = new int[m_nodeIds.length - 1];
+                    final PrimaryType[] types = new PrimaryType[m_types.length - 1];
+                    System.arraycopy(m_nodeIds, 0, nodeIds, 0, i);
+                    System.arraycopy(m_types, 0, types, 0, i);
+                    System.arraycopy(m_nodeIds, i + 1, nodeIds, i, nodeIds.length - i);
+                    System.arraycopy(m_types, i + 1, types, i, types.length - i);
+                    return new Entry(nodeIds, types);
+                }
+            }
+            return this;
+        }
+
+        private static int compare(final PrimaryType type1, final int nodeId1, final PrimaryType type2, final int nodeId2) {
+            final int c = type1.compareTo(type2);
+            return c != 0 ? c : Integer.compare(nodeId1, nodeId2);
+        }
+    }
+
+    /**
+     * Open addressing hash table keyed on three longs.
+     */
+    private static final class Table {
+        private static final Table EMPTY = new Builder(0).build();
+
+        private final long[] m_keys;
+        private final Entry[] m_entries;
+        private final int m_mask;
+        private final int m_count;
+
+        private Table(final long[] keys, final Entry[] entries, final int count) {
+            m_keys = keys;
+            m_entries = entries;
+            m_mask = entries.length - 1;
+            m_count = count;
+        }
+
+        private int count() {
+            return m_count;
+        }
+
+        private Entry get(final long k0, final long k1, final long k2) {
+            int slot = hash(k0, k1, k2) & m_mask;
+            while (true) {
+                final Entry entry = m_entries[slot];
+                if (entry == null) {
+                    return null;
+                }
+                final int i = slot * 3;
+                if (m_keys[i] == k0 && m_keys[i + 1] == k1 && m_keys[i + 2] == k2) {
+                    return entry;
+                }
+                slot = (slot + 1) & m_mask;
+            }
+        }
+
+        private void forEach(final EntryConsumer consumer) {
+            for (int slot = 0; slot < m_entries.length; slot++) {
+                if (m_entries[slot] != null) {
+                    final int i = slot * 3;
+                    consumer.accept(m_keys[i], m_keys[i + 1], m_keys[i + 2], m_entries[slot]);
+                }
+            }
+        }
+
+        private static int hash(final long k0, final long k1, final long k2) {
+            long h = k0 * 0x9E3779B97F4A7C15L ^ k1 * 0xC2B2AE3D27D4EB4FL ^ k2;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+
+        private static final class Builder {
+            private final long[] m_keys;
+            private final Entry[] m_entries;
+            private int m_count = 0;
+
+            private Builder(final int expected) {
+                // Keep the load factor under 0.5
+                final int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+                m_keys = new long[capacity * 3];
+                m_entries = new Entry[capacity];
+            }
+
+            private int count() {
+                return m_count;
+            }
+
+            private void put(final long k0, final long k1, final long k2, final Entry entry) {
+                final int mask = m_entries.length - 1;
+                int slot = hash(k0, k1, k2) & mask;
+                while (m_entries[slot] != null) {
+                    final int i = slot * 3;
+                    if (m_keys[i] == k0 && m_keys[i + 1] == k1 && m_keys[i + 2] == k2) {
+                        m_entries[slot] = entry;
+                        return;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                final int i = slot * 3;
+                m_keys[i] = k0;
+                m_keys[i + 1] = k1;
+                m_keys[i + 2] = k2;
+                m_entries[slot] = entry;
+                m_count++;
+            }
+
+            private Table build() {
+                return new Table(m_keys, m_entries, m_count);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryConsumer {
+        void accept(long k0, long k1, long k2, Entry entry);
+    }
+}
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.netmgt.model.PrimaryType;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+public class InterfaceToNodeMapTest {
+
+    private static final String DEFAULT = "Default";
+
+    @Test
+    public void canAddAndRemove() throws Exception {
+        final InetAddress v4 = InetAddress.getByName("192.168.1.1");
+        final InetAddress v6 = InetAddress.getByName("fe80::1");
+
+        InterfaceToNodeMap map = InterfaceToNodeMap.EMPTY;
+        map = map.with(DEFAULT, v4, 1, PrimaryType.PRIMARY);
+        map = map.with(null, v6, 2, PrimaryType.SECONDARY);
+        map = map.with("Remote", v4, 3, PrimaryType.PRIMARY);
+        assertEquals(3, map.size());
+
+        assertEquals(Arrays.asList(1), map.getNodeIds(null, InetAddress.getByName("192.168.1.1")));
+        assertEquals(Arrays.asList(2), map.getNodeIds(DEFAULT, InetAddress.getByName("fe80:0:0:0:0:0:0:1")));
+        assertEquals(Arrays.asList(3), map.getNodeIds("Remote", v4));
+        assertEquals(Collections.emptyList(), map.getNodeIds("Remote", v6));
+        assertEquals(Collections.emptyList(), map.getNodeIds("Unknown", v4));
+
+        // Adding the same association again leaves the map untouched
+        assertSame(map, map.with(DEFAULT, v4, 1, PrimaryType.PRIMARY));
+        // As does removing one that isn't there
+        assertSame(map, map.without(DEFAULT, v4, 2));
+
+        map = map.without(DEFAULT, v4, 1);
+        assertEquals(Collections.emptyList(), map.getNodeIds(DEFAULT, v4));
+        assertEquals(Arrays.asList(3), map.getNodeIds("Remote", v4));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void canOrderNodesLikeTheSnmpPrimaryType() throws Exception {
+        final InetAddress addr = InetAddress.getByName("10.0.0.1");
+
+        final InterfaceToNodeMap map = new InterfaceToNodeMap.Builder()
+                .add(DEFAULT, addr, 4, PrimaryType.PRIMARY)
+                .add(DEFAULT, addr, 3, PrimaryType.NOT_ELIGIBLE)
+                .add(DEFAULT, addr, 2, PrimaryType.PRIMARY)
+                .add(DEFAULT, addr, 1, PrimaryType.SECONDARY)
+                .build();
+
+        // Same order as the TreeSet of (type, nodeId) tuples this replaces
+        assertEquals(Arrays.asList(3, 1, 2, 4), map.getNodeIds(DEFAULT, addr));
+    }
+
+    @Test
+    public void canMatchReferenceUnderRandomUpdates() throws Exception {
+        final Random random = new Random(42);
+        final String[] locations = { DEFAULT, "Remote", "Other" };
+        final PrimaryType[] types = { PrimaryType.PRIMARY, PrimaryType.SECONDARY, PrimaryType.NOT_ELIGIBLE };
+        final List<InetAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            addresses.add(InetAddress.getByName("10.1." + (i / 250) + "." + (i % 250)));
+            addresses.add(InetAddress.getByName("2001:db8::" + Integer.toHexString(i)));
+        }
+
+        // Start from a populated base so that the changes get folded in more than once
+        final Map<String, List<long[]>> reference = new HashMap<>();
+        final InterfaceToNodeMap.Builder builder = new InterfaceToNodeMap.Builder();
+        for (int i = 0; i < 2000; i++) {
+            final String location = locations[random.nextInt(locations.length)];
+            final InetAddress addr = addresses.get(random.nextInt(addresses.size()));
+            final int nodeId = random.nextInt(50);
+            final PrimaryType type = types[random.nextInt(types.length)];
+            builder.add(location, addr, nodeId, type);
+            add(reference, location, addr, nodeId, type);
+        }
+        InterfaceToNodeMap map = builder.build();
+
+        for (int i = 0; i < 20000; i++) {
+            final String location = locations[random.nextInt(locations.length)];
+            final InetAddress addr = addresses.get(random.nextInt(addresses.size()));
+            final int nodeId = random.nextInt(50);
+            if (random.nextBoolean()) {
+                final PrimaryType type = types[random.nextInt(types.length)];
+                map = map.with(location, addr, nodeId, type);
+                add(reference, location, addr, nodeId, type);
+            } else {
+                map = map.without(location, addr, nodeId);
+                remove(reference, location, addr, nodeId);
+            }
+        }
+
+        int size = 0;
+        for (String location : locations) {
+            for (InetAddress addr : addresses) {
+                final List<long[]> values = reference.getOrDefault(location + addr, Collections.emptyList());
+                final List<Integer> expected = new ArrayList<>();
+                values.forEach(v -> expected.add((int) v[1]));
+                assertEquals(expected, map.getNodeIds(location, addr));
+                size += values.size();
+            }
+        }
+        assertEquals(size, map.size());
+    }
+
+    /**
+     * Measures lookups from 32 threads while the map is being updated.
+     */
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkContendedLookups() throws Exception {
+        final int threads = 32;
+        final int addressCount = 100000;
+        final long durationMs = 5000;
+
+        final InetAddress[] addresses = new InetAddress[addressCount];
+        final InterfaceToNodeMap.Builder builder = new InterfaceToNodeMap.Builder();
+        for (int i = 0; i < addressCount; i++) {
+            addresses[i] = toAddress(0x0a000000 + i);
+            builder.add(DEFAULT, addresses[i], i + 1, PrimaryType.PRIMARY);
+        }
+        final AtomicReference<InterfaceToNodeMap> map = new AtomicReference<>(builder.build());
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            final List<Future<Long>> readers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                readers.add(executor.submit(() -> {
+                    final Random random = new Random(seed);
+                    long lookups = 0;
+                    start.await();
+                    while (running.get()) {
+                        map.get().getNodeIds(DEFAULT, addresses[random.nextInt(addressCount)]);
+                        lookups++;
+                    }
+                    return lookups;
+                }));
+            }
+            final Future<Long> writer = executor.submit(() -> {
+                final Random random = new Random();
+                long updates = 0;
+                start.await();
+                while (running.get()) {
+                    final int i = random.nextInt(addressCount);
+                    map.set(map.get().without(DEFAULT, addresses[i], i + 1).with(DEFAULT, addresses[i], i + 1, PrimaryType.SECONDARY));
+                    updates++;
+                    Thread.sleep(1);
+                }
+                return updates;
+            });
+
+            start.countDown();
+            Thread.sleep(durationMs);
+            running.set(false);
+
+            long lookups = 0;
+            for (Future<Long> reader : readers) {
+                lookups += reader.get();
+            }
+            System.err.printf("%d threads: %.1f M lookups/s with %d concurrent updates\n",
+                    threads, lookups / (durationMs * 1000.0), writer.get());
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static InetAddress toAddress(int value) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value });
+    }
+
+    private static void add(Map<String, List<long[]>> reference, String location, InetAddress addr, int nodeId, PrimaryType type) {
+        final List<long[]> values = reference.computeIfAbsent(location + addr, k -> new ArrayList<>());
+        final long[] value = { rank(type), nodeId };
+        for (long[] v : values) {
+            if (v[0] == value[0] && v[1] == value[1]) {
+                return;
+            }
+        }
+        values.add(value);
+        values.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+    }
+
+    private static void remove(Map<String, List<long[]>> reference, String location, InetAddress addr, int nodeId) {
+        final List<long[]> values = reference.getOrDefault(location + addr, Collections.emptyList());
+        for (PrimaryType type : new PrimaryType[] { PrimaryType.PRIMARY, PrimaryType.SECONDARY, PrimaryType.NOT_ELIGIBLE }) {
+            for (long[] v : values) {
+                if (v[0] == rank(type) && v[1] == nodeId) {
+                    values.remove(v);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long rank(PrimaryType type) {
+        return PrimaryType.NOT_ELIGIBLE.equals(type) ? 0 : PrimaryType.SECONDARY.equals(type) ? 1 : 2;
+    }
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+
+/**
+ * An address to probe as part of a {@link Pinger#sweep ping sweep}.
+ */
+public class PingSweepTarget {
+
+    private final InetAddress m_address;
+    private final long m_timeout;
+    private final int m_retries;
+
+    /**
+     * @param address the address to ping
+     * @param timeout the time to wait for a reply to each attempt, in milliseconds
+     * @param retries the number of times to retry after the first attempt
+     */
+    public PingSweepTarget(final InetAddress address, final long timeout, final int retries) {
+        m_address = address;
+        m_timeout = timeout;
+        m_retries = retries;
+    }
+
+    public InetAddress getAddress() {
+        return m_address;
+    }
+
+    public long getTimeout() {
+        return m_timeout;
+    }
+
+    public int getRetries() {
+        return m_retries;
+    }
+
+    @Override
+    public String toString() {
+        return "PingSweepTarget[address=" + m_address + ", timeout=" + m_timeout + ", retries=" + m_retries + "]";
+    }
+}
@@ -30,7 +30,12 @@ package org.opennms.netmgt.icmp;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.RateLimiter;
 
 /**
  * <p>Pinger class.</p>
@@ -133,6 +138,77 @@ public interface Pinger {
          */
         public List<Number> parallelPing(InetAddress host, int count, long timeout, long pingInterval) throws Exception;
         
+        /**
+         * Ping every target, sending at most <code>packetsPerSecond</code> echo requests
+         * (retries included), and block until each target has either replied, timed out or
+         * failed. The callback is invoked exactly once per target, the request passed to
+         * {@link PingResponseCallback#handleTimeout} and {@link PingResponseCallback#handleError}
+         * may be <code>null</code>.
+         *
+         * The default implementation paces calls to
+         * {@link #ping(InetAddress, long, int, int, int, PingResponseCallback)}, implementations
+         * that can track a large number of outstanding requests more cheaply should override it.
+         *
+         * @param targets The addresses to ping, consumed as the sweep progresses.
+         * @param packetSize The size of the packets to send.
+         * @param packetsPerSecond The maximum rate at which packets will be sent.
+         * @param cb The callback notified of the outcome for each target.
+         */
+        public default void sweep(final Iterator<PingSweepTarget> targets, final int packetSize, final double packetsPerSecond, final PingResponseCallback cb) throws Exception {
+            final RateLimiter limiter = RateLimiter.create(packetsPerSecond);
+            final AtomicInteger pending = new AtomicInteger(1);
+            final CountDownLatch done = new CountDownLatch(1);
+            final PingResponseCallback countingCallback = new PingResponseCallback() {
+                @Override
+                public void handleResponse(final InetAddress address, final EchoPacket response) {
+                    try {
+                        cb.handleResponse(address, response);
+                    } finally {
+                        afterHandled();
+                    }
+                }
+
+                @Override
+                public void handleTimeout(final InetAddress address, final EchoPacket request) {
+                    try {
+                        cb.handleTimeout(address, request);
+                    } finally {
+                        afterHandled();
+                    }
+                }
+
+                @Override
+                public void handleError(final InetAddress address, final EchoPacket request, final Throwable t) {
+                    try {
+                        cb.handleError(address, request, t);
+                    } finally {
+                        afterHandled();
+                    }
+                }
+
+                private void afterHandled() {
+                    if (pending.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                }
+            };
+
+            while (targets.hasNext()) {
+                final PingSweepTarget target = targets.next();
+                pending.incrementAndGet();
+                try {
+                    limiter.acquire();
+                    ping(target.getAddress(), target.getTimeout(), target.getRetries(), packetSize, 1, countingCallback);
+                } catch (final Exception e) {
+                    countingCallback.handleError(target.getAddress(), null, e);
+                }
+            }
+            if (pending.decrementAndGet() == 0) {
+                done.countDown();
+            }
+            done.await();
+        }
+
 	public void setAllowFragmentation(final boolean allow) throws Exception;
 
 	public void setTrafficClass(final int tc) throws Exception;
@@ -29,10 +29,12 @@
 package org.opennms.netmgt.icmp.best;
 
 import java.net.InetAddress;
+import java.util.Iterator;
 import java.util.List;
 
 import org.opennms.netmgt.icmp.NullPinger;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepTarget;
 import org.opennms.netmgt.icmp.Pinger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,6 +87,12 @@ public class BestMatchPinger implements Pinger {
         return m_pinger.parallelPing(host, count, timeout, pingInterval, size);
     }
 
+    @Override
+    public void sweep(final Iterator<PingSweepTarget> targets, final int packetSize, final double packetsPerSecond, final PingResponseCallback cb) throws Exception {
+        initialize();
+        m_pinger.sweep(targets, packetSize, packetsPerSecond, cb);
+    }
+
     @Override
     public void initialize4() throws Exception {
         initialize();
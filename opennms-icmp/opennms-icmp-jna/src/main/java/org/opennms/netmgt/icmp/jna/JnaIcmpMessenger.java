@@ -29,8 +29,12 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.IcmpMessengerIOException;
 import org.opennms.protocols.rt.Messenger;
@@ -51,6 +55,7 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 	private V4Pinger m_v4;
 	private V6Pinger m_v6;
     private ReplyHandler<JnaPingReply> m_callback = null;
+    private final AtomicReferenceArray<JnaPingSweep> m_sweeps = new AtomicReferenceArray<>(JnaPingSweep.MAX_SWEEPS);
 
 	public JnaIcmpMessenger(final int pingerId) throws Exception {
 	    Throwable error = null;
@@ -107,9 +112,47 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 
         @Override
 	public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        final long threadId = packet.getThreadId();
+        if (JnaPingSweep.isSweepKey(threadId)) {
+            final int slot = JnaPingSweep.slotOf(threadId);
+            final JnaPingSweep sweep = slot < m_sweeps.length() ? m_sweeps.get(slot) : null;
+            if (sweep != null) {
+                sweep.offerReply(new JnaPingReply(address, packet));
+            }
+            return;
+        }
         m_callback.handleReply(new JnaPingReply(address, packet));
 	}
 
+        /**
+         * Routes the replies carrying the sweep's key to it until it is unregistered.
+         *
+         * @return false if too many sweeps are already running
+         */
+        public boolean register(final JnaPingSweep sweep) {
+            for (int slot = 0; slot < m_sweeps.length(); slot++) {
+                if (m_sweeps.compareAndSet(slot, null, sweep)) {
+                    sweep.setSlot(slot);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void unregister(final JnaPingSweep sweep) {
+            m_sweeps.compareAndSet(sweep.getSlot(), sweep, null);
+        }
+
+        public void sendEchoRequest(final InetAddress addr, final int identifier, final int sequenceNumber, final long threadId, final int packetSize) throws IOException {
+            if (addr instanceof Inet4Address && m_v4 != null) {
+                m_v4.send((Inet4Address)addr, identifier, sequenceNumber, threadId, packetSize);
+            } else if (addr instanceof Inet6Address && m_v6 != null) {
+                m_v6.send((Inet6Address)addr, identifier, sequenceNumber, threadId, packetSize);
+            } else {
+                throw new IOException("Cannot ping " + InetAddressUtils.str(addr) + ": No pinger found that can handle this address");
+            }
+        }
+
         public void setTrafficClass(int tc) throws IOException {
             if (m_v4 != null) m_v4.getPingSocket().setTrafficClass(tc);
             if (m_v6 != null) m_v6.getPingSocket().setTrafficClass(tc);
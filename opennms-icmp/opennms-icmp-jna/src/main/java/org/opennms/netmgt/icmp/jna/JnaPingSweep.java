@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_TIMEOUT;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepTarget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pings a stream of targets at a fixed rate without going through the
+ * {@link org.opennms.protocols.rt.RequestTracker}.
+ *
+ * The sweep runs on the calling thread. Sends are paced with a {@link TokenBucket}
+ * and every request carries a key in its thread id field: a marker, the slot the
+ * sweep is registered under in the {@link JnaIcmpMessenger} and the index of the
+ * probe. Outstanding probes live in a table indexed by the low bits of that index
+ * and expire through a hashed timing wheel, so neither lookups nor timeouts
+ * allocate. The socket readers only queue the replies, which the sweep handles
+ * in batches between sends.
+ *
+ * @see JnaPinger#sweep(Iterator, int, double, PingResponseCallback)
+ */
+public class JnaPingSweep {
+    private static final Logger LOG = LoggerFactory.getLogger(JnaPingSweep.class);
+
+    /**
+     * Maximum number of probes awaiting a reply, across retries.
+     */
+    private static final int MAX_OUTSTANDING = Integer.getInteger("org.opennms.netmgt.icmp.jna.sweepMaxOutstanding", 65536);
+
+    /**
+     * Maximum number of sweeps that can run concurrently on one messenger.
+     */
+    public static final int MAX_SWEEPS = 256;
+
+    private static final long KEY_MARKER = 0x5357L << 48;
+    private static final long KEY_MARKER_MASK = 0xFFFFL << 48;
+
+    private static final int BATCH_SIZE = 512;
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Sends a single echo request.
+     */
+    interface EchoSender {
+        void send(InetAddress address, int sequenceNumber, long threadId, int packetSize) throws Exception;
+    }
+
+    private static class Probe {
+        private final int m_index;
+        private final PingSweepTarget m_target;
+        private final long m_timeoutNanos;
+        private int m_retries;
+        private long m_deadline;
+        private boolean m_done;
+        private Probe m_prev;
+        private Probe m_next;
+        private int m_bucket = -1;
+
+        private Probe(final int index, final PingSweepTarget target) {
+            m_index = index;
+            m_target = target;
+            m_timeoutNanos = TimeUnit.MILLISECONDS.toNanos(target.getTimeout() > 0 ? target.getTimeout() : DEFAULT_TIMEOUT);
+            m_retries = Math.max(0, target.getRetries());
+        }
+    }
+
+    private final Iterator<PingSweepTarget> m_targets;
+    private final int m_packetSize;
+    private final double m_packetsPerSecond;
+    private final PingResponseCallback m_callback;
+    private final EchoSender m_sender;
+    private final int m_maxOutstanding;
+
+    private final Probe[] m_probes;
+    private final int m_mask;
+    private final Probe[] m_wheel = new Probe[WHEEL_SIZE];
+    private final ArrayDeque<Probe> m_retryQueue = new ArrayDeque<>();
+    private final BlockingQueue<JnaPingReply> m_replies;
+
+    private int m_slot = -1;
+    private int m_nextIndex = ThreadLocalRandom.current().nextInt();
+    private int m_outstanding = 0;
+    private long m_processedTick;
+
+    private long m_sent = 0;
+    private long m_received = 0;
+    private long m_timedOut = 0;
+    private final AtomicLong m_dropped = new AtomicLong(0);
+
+    JnaPingSweep(final Iterator<PingSweepTarget> targets, final int packetSize, final double packetsPerSecond, final PingResponseCallback cb, final EchoSender sender) {
+        this(targets, packetSize, packetsPerSecond, cb, sender, MAX_OUTSTANDING);
+    }
+
+    JnaPingSweep(final Iterator<PingSweepTarget> targets, final int packetSize, final double packetsPerSecond, final PingResponseCallback cb, final EchoSender sender, final int maxOutstanding) {
+        m_targets = targets;
+        m_packetSize = packetSize;
+        m_packetsPerSecond = packetsPerSecond;
+        m_callback = cb;
+        m_sender = sender;
+        m_maxOutstanding = Math.max(1, maxOutstanding);
+
+        // Keep the table at most half full so that allocating an index never probes far
+        final int capacity = Integer.highestOneBit(m_maxOutstanding * 2 - 1) << 1;
+        m_probes = new Probe[capacity];
+        m_mask = capacity - 1;
+        m_replies = new ArrayBlockingQueue<>(m_maxOutstanding);
+    }
+
+    static boolean isSweepKey(final long threadId) {
+        return (threadId & KEY_MARKER_MASK) == KEY_MARKER;
+    }
+
+    static int slotOf(final long threadId) {
+        return (int)(threadId >>> 32) & 0xFFFF;
+    }
+
+    void setSlot(final int slot) {
+        m_slot = slot;
+    }
+
+    int getSlot() {
+        return m_slot;
+    }
+
+    /**
+     * Called by the socket readers, never blocks.
+     */
+    void offerReply(final JnaPingReply reply) {
+        if (!m_replies.offer(reply)) {
+            m_dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends a probe to every target and returns once each of them has been
+     * reported to the callback.
+     */
+    public void run() throws InterruptedException {
+        final long start = System.nanoTime();
+        final TokenBucket tokens = new TokenBucket(m_packetsPerSecond, BURST_NANOS, start);
+        final List<JnaPingReply> batch = new ArrayList<>(BATCH_SIZE);
+        m_processedTick = tick(start) - 1;
+
+        while (m_outstanding > 0 || m_targets.hasNext()) {
+            m_replies.drainTo(batch, BATCH_SIZE - batch.size());
+            for (final JnaPingReply reply : batch) {
+                handleReply(reply);
+            }
+            batch.clear();
+
+            long now = System.nanoTime();
+            expire(now);
+
+            while (canSend() && tokens.tryAcquire(now)) {
+                sendNext(now);
+            }
+
+            if (!m_replies.isEmpty()) {
+                continue;
+            }
+
+            // Sleep until the next reply, token or tick, whichever comes first
+            now = System.nanoTime();
+            long wait = Long.MAX_VALUE;
+            if (canSend()) {
+                wait = tokens.nanosUntilAvailable(now);
+            }
+            if (m_outstanding > 0) {
+                wait = Math.min(wait, (m_processedTick + 2) * TICK_NANOS - now);
+            }
+            if (wait > 0 && wait != Long.MAX_VALUE) {
+                final JnaPingReply reply = m_replies.poll(wait, TimeUnit.NANOSECONDS);
+                if (reply != null) {
+                    batch.add(reply);
+                }
+            }
+        }
+
+        LOG.debug("Ping sweep finished in {}ms: {} packets sent, {} replies, {} timeouts, {} replies dropped.",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), m_sent, m_received, m_timedOut, m_dropped.get());
+    }
+
+    private boolean canSend() {
+        return !m_retryQueue.isEmpty() || (m_outstanding < m_maxOutstanding && m_targets.hasNext());
+    }
+
+    private void sendNext(final long now) {
+        Probe probe;
+        do {
+            probe = m_retryQueue.poll();
+        } while (probe != null && probe.m_done);
+
+        if (probe == null) {
+            if (m_outstanding >= m_maxOutstanding || !m_targets.hasNext()) {
+                return;
+            }
+            while (m_probes[m_nextIndex & m_mask] != null) {
+                m_nextIndex++;
+            }
+            probe = new Probe(m_nextIndex++, m_targets.next());
+            m_probes[probe.m_index & m_mask] = probe;
+            m_outstanding++;
+        }
+
+        final InetAddress address = probe.m_target.getAddress();
+        probe.m_deadline = now + probe.m_timeoutNanos;
+        try {
+            m_sender.send(address, probe.m_index & 0xFFFF, key(probe.m_index), m_packetSize);
+            m_sent++;
+        } catch (final Throwable t) {
+            LOG.debug("Failed to send ping to {}", address, t);
+            complete(probe);
+            m_callback.handleError(address, null, t);
+            return;
+        }
+        schedule(probe);
+    }
+
+    private long key(final int index) {
+        return KEY_MARKER | ((long)(m_slot & 0xFFFF) << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    private void handleReply(final JnaPingReply reply) {
+        final int index = (int)reply.getThreadId();
+        final Probe probe = m_probes[index & m_mask];
+        if (probe == null || probe.m_index != index || !probe.m_target.getAddress().equals(reply.getAddress())) {
+            // Duplicate, or a reply to a probe that already timed out
+            return;
+        }
+        m_received++;
+        complete(probe);
+        m_callback.handleResponse(probe.m_target.getAddress(), reply);
+    }
+
+    private void expire(final long now) {
+        // A tick is only processed once it is over, so probes expire at most one tick late
+        final long lastTick = tick(now) - 1;
+        final long firstTick = Math.max(m_processedTick + 1, lastTick - WHEEL_SIZE + 1);
+        for (long t = firstTick; t <= lastTick; t++) {
+            final int bucket = (int)(t & (WHEEL_SIZE - 1));
+            Probe probe = m_wheel[bucket];
+            while (probe != null) {
+                final Probe next = probe.m_next;
+                if (tick(probe.m_deadline) <= t) {
+                    unlink(probe);
+                    if (probe.m_retries > 0) {
+                        probe.m_retries--;
+                        m_retryQueue.add(probe);
+                    } else {
+                        m_timedOut++;
+                        complete(probe);
+                        m_callback.handleTimeout(probe.m_target.getAddress(), null);
+                    }
+                }
+                probe = next;
+            }
+        }
+        m_processedTick = Math.max(m_processedTick, lastTick);
+    }
+
+    private void schedule(final Probe probe) {
+        final long t = Math.max(tick(probe.m_deadline), m_processedTick + 1);
+        final int bucket = (int)(t & (WHEEL_SIZE - 1));
+        probe.m_bucket = bucket;
+        probe.m_prev = null;
+        probe.m_next = m_wheel[bucket];
+        if (probe.m_next != null) {
+            probe.m_next.m_prev = probe;
+        }
+        m_wheel[bucket] = probe;
+    }
+
+    private void unlink(final Probe probe) {
+        if (probe.m_bucket < 0) {
+            return;
+        }
+        if (probe.m_prev != null) {
+            probe.m_prev.m_next = probe.m_next;
+        } else {
+            m_wheel[probe.m_bucket] = probe.m_next;
+        }
+        if (probe.m_next != null) {
+            probe.m_next.m_prev = probe.m_prev;
+        }
+        probe.m_prev = null;
+        probe.m_next = null;
+        probe.m_bucket = -1;
+    }
+
+    private void complete(final Probe probe) {
+        unlink(probe);
+        probe.m_done = true;
+        m_probes[probe.m_index & m_mask] = null;
+        m_outstanding--;
+    }
+
+    private static long tick(final long nanos) {
+        return Math.floorDiv(nanos, TICK_NANOS);
+    }
+}
@@ -35,12 +35,14 @@ import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_TIMEOUT;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.security.SecureRandom;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepTarget;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.SinglePingResponseCallback;
 import org.opennms.protocols.rt.IDBasedRequestLocator;
@@ -57,6 +59,11 @@ import org.slf4j.LoggerFactory;
 public class JnaPinger implements Pinger {
     private static final Logger LOG = LoggerFactory.getLogger(JnaPinger.class);
 
+    /**
+     * Whether sweeps use the {@link JnaPingSweep} engine rather than the request tracker.
+     */
+    private static final boolean SWEEP_ENGINE_ENABLED = Boolean.parseBoolean(System.getProperty("org.opennms.netmgt.icmp.jna.sweepEngine", "true"));
+
     private final int m_pingerId = new SecureRandom().nextInt(Short.MAX_VALUE);
 
     private RequestTracker<JnaPingRequest, JnaPingReply> m_pingTracker;
@@ -257,6 +264,30 @@ public class JnaPinger implements Pinger {
         return parallelPing(host, count, timeout, pingInterval, DEFAULT_PACKET_SIZE);
     }
 
+    /**
+     * Sweeps with a {@link JnaPingSweep}, which bypasses the request tracker and can
+     * keep tens of thousands of requests outstanding. Falls back to the default
+     * implementation when the engine is disabled or too many sweeps are running.
+     */
+    @Override
+    public void sweep(final Iterator<PingSweepTarget> targets, final int packetSize, final double packetsPerSecond, final PingResponseCallback cb) throws Exception {
+        initialize();
+        if (SWEEP_ENGINE_ENABLED) {
+            final JnaPingSweep sweep = new JnaPingSweep(targets, packetSize, packetsPerSecond, cb,
+                    (addr, sequenceNumber, threadId, size) -> m_messenger.sendEchoRequest(addr, m_pingerId, sequenceNumber, threadId, size));
+            if (m_messenger.register(sweep)) {
+                try {
+                    sweep.run();
+                } finally {
+                    m_messenger.unregister(sweep);
+                }
+                return;
+            }
+            LOG.info("Too many concurrent ping sweeps, sending through the request tracker instead.");
+        }
+        Pinger.super.sweep(targets, packetSize, packetsPerSecond, cb);
+    }
+
     @Override
     public void setAllowFragmentation(boolean allow) throws Exception {
         initialize();
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+/**
+ * Paces sends to a fixed rate while allowing short bursts, so that high rates
+ * do not depend on the precision of {@link java.util.concurrent.locks.LockSupport#parkNanos(long)}.
+ *
+ * Not thread-safe, the caller supplies the current {@link System#nanoTime()}.
+ */
+class TokenBucket {
+
+    private final double m_tokensPerNano;
+    private final double m_capacity;
+    private double m_tokens;
+    private long m_lastRefill;
+
+    /**
+     * @param ratePerSecond the sustained rate
+     * @param burstNanos how long the bucket may stay idle before tokens stop accumulating
+     * @param now the current time in nanoseconds
+     */
+    TokenBucket(final double ratePerSecond, final long burstNanos, final long now) {
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException("rate must be positive, got " + ratePerSecond);
+        }
+        m_tokensPerNano = ratePerSecond / 1.0e9;
+        m_capacity = Math.max(1.0, burstNanos * m_tokensPerNano);
+        m_tokens = 1.0;
+        m_lastRefill = now;
+    }
+
+    boolean tryAcquire(final long now) {
+        refill(now);
+        if (m_tokens >= 1.0) {
+            m_tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of nanoseconds until {@link #tryAcquire(long)} succeeds, or 0 if it would now
+     */
+    long nanosUntilAvailable(final long now) {
+        refill(now);
+        if (m_tokens >= 1.0) {
+            return 0;
+        }
+        return (long)Math.ceil((1.0 - m_tokens) / m_tokensPerNano);
+    }
+
+    private void refill(final long now) {
+        final long elapsed = now - m_lastRefill;
+        if (elapsed > 0) {
+            m_tokens = Math.min(m_capacity, m_tokens + elapsed * m_tokensPerNano);
+            m_lastRefill = now;
+        }
+    }
+}
@@ -98,11 +98,15 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
     
     @Override
     public void ping(final Inet4Address addr, final int identifier, final int sequenceNumber, final long threadId, final long count, final long interval, final int packetSize) throws InterruptedException {
-        final NativeDatagramSocket socket = getPingSocket();
         for(int i = sequenceNumber; i < sequenceNumber + count; i++) {
-            final V4PingRequest request = new V4PingRequest(identifier, i, threadId,packetSize);
-            request.send(socket, addr);
+            send(addr, identifier, i, threadId, packetSize);
             Thread.sleep(interval);
         }
     }
+
+    @Override
+    public void send(final Inet4Address addr, final int identifier, final int sequenceNumber, final long threadId, final int packetSize) {
+        final V4PingRequest request = new V4PingRequest(identifier, sequenceNumber, threadId, packetSize);
+        request.send(getPingSocket(), addr);
+    }
 }
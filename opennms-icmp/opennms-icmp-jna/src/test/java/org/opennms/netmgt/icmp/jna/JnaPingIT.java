@@ -35,8 +35,11 @@ import static org.junit.Assert.assertTrue;
 
 import java.net.InetAddress;
 import java.net.NoRouteToHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -45,6 +48,7 @@ import org.opennms.core.utils.CollectionMath;
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.PingConstants;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepTarget;
 import org.springframework.test.annotation.IfProfileValue;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -190,6 +194,38 @@ public class JnaPingIT {
         assertNotNull(cb.getAddress());
     }
 
+    @Test
+    @IfProfileValue(name="runPingTests", value="true")
+    public void testSweep() throws Exception {
+        final List<InetAddress> responses = new ArrayList<>();
+        final List<InetAddress> timeouts = new ArrayList<>();
+        final List<PingSweepTarget> targets = Arrays.asList(
+                new PingSweepTarget(m_goodHost, PingConstants.DEFAULT_TIMEOUT, 0),
+                new PingSweepTarget(m_badHost, PingConstants.DEFAULT_TIMEOUT, 1),
+                new PingSweepTarget(m_ipv6goodHost, PingConstants.DEFAULT_TIMEOUT, 0));
+
+        s_jnaPinger.sweep(targets.iterator(), PingConstants.DEFAULT_PACKET_SIZE, 100, new PingResponseCallback() {
+            @Override
+            public void handleResponse(InetAddress address, EchoPacket response) {
+                assertTrue("Negative RTT value returned from ping", response.elapsedTime(TimeUnit.MILLISECONDS) > 0);
+                responses.add(address);
+            }
+
+            @Override
+            public void handleTimeout(InetAddress address, EchoPacket request) {
+                timeouts.add(address);
+            }
+
+            @Override
+            public void handleError(InetAddress address, EchoPacket request, Throwable t) {
+                throw new AssertionError("Unexpected Error sending ping to " + address, t);
+            }
+        });
+
+        assertEquals(Arrays.asList(m_goodHost, m_ipv6goodHost), responses);
+        assertEquals(Arrays.asList(m_badHost), timeouts);
+    }
+
     @Test
     @IfProfileValue(name="runPingTests", value="true")
     public void testSinglePingFailureIPv4() throws Exception {
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepTarget;
+
+public class JnaPingSweepTest {
+
+    private final Map<InetAddress, Integer> m_sends = new HashMap<>();
+    private final Set<InetAddress> m_responders = new HashSet<>();
+    private final Set<InetAddress> m_failing = new HashSet<>();
+    private final Results m_results = new Results();
+    private JnaPingSweep m_sweep;
+
+    private static class Results implements PingResponseCallback {
+        private final List<InetAddress> responses = new ArrayList<>();
+        private final List<InetAddress> timeouts = new ArrayList<>();
+        private final List<InetAddress> errors = new ArrayList<>();
+
+        @Override
+        public void handleResponse(InetAddress address, EchoPacket response) {
+            responses.add(address);
+        }
+
+        @Override
+        public void handleTimeout(InetAddress address, EchoPacket request) {
+            timeouts.add(address);
+        }
+
+        @Override
+        public void handleError(InetAddress address, EchoPacket request, Throwable t) {
+            errors.add(address);
+        }
+
+        private int completed() {
+            return responses.size() + timeouts.size() + errors.size();
+        }
+    }
+
+    private static class Reply implements EchoPacket {
+        private final long m_threadId;
+
+        private Reply(long threadId) {
+            m_threadId = threadId;
+        }
+
+        @Override
+        public boolean isEchoReply() {
+            return true;
+        }
+
+        @Override
+        public int getIdentifier() {
+            return 1;
+        }
+
+        @Override
+        public int getSequenceNumber() {
+            return (int)m_threadId & 0xFFFF;
+        }
+
+        @Override
+        public long getThreadId() {
+            return m_threadId;
+        }
+
+        @Override
+        public long getReceivedTimeNanos() {
+            return 0;
+        }
+
+        @Override
+        public long getSentTimeNanos() {
+            return 0;
+        }
+
+        @Override
+        public double elapsedTime(TimeUnit timeUnit) {
+            return 0;
+        }
+    }
+
+    private JnaPingSweep.EchoSender sender() {
+        return (address, sequenceNumber, threadId, packetSize) -> {
+            m_sends.merge(address, 1, Integer::sum);
+            if (m_failing.contains(address)) {
+                throw new IllegalStateException("send failed");
+            }
+            if (m_responders.contains(address)) {
+                m_sweep.offerReply(new JnaPingReply(address, new Reply(threadId)));
+            }
+        };
+    }
+
+    private static List<PingSweepTarget> targets(int count, long timeout, int retries) throws Exception {
+        final List<PingSweepTarget> targets = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            targets.add(new PingSweepTarget(InetAddress.getByName("10.0." + (i / 256) + "." + (i % 256)), timeout, retries));
+        }
+        return targets;
+    }
+
+    private void sweep(List<PingSweepTarget> targets, double packetsPerSecond, int maxOutstanding) throws Exception {
+        m_sweep = new JnaPingSweep(targets.iterator(), 64, packetsPerSecond, m_results, sender(), maxOutstanding);
+        m_sweep.setSlot(7);
+        m_sweep.run();
+    }
+
+    @Test
+    public void testRepliesAndTimeouts() throws Exception {
+        final List<PingSweepTarget> targets = targets(10, 50, 1);
+        for (int i = 0; i < targets.size(); i += 2) {
+            m_responders.add(targets.get(i).getAddress());
+        }
+
+        sweep(targets, 10000, 1000);
+
+        assertEquals(5, m_results.responses.size());
+        assertEquals(5, m_results.timeouts.size());
+        assertEquals(0, m_results.errors.size());
+        for (PingSweepTarget target : targets) {
+            final boolean responder = m_responders.contains(target.getAddress());
+            assertTrue(responder ? m_results.responses.contains(target.getAddress()) : m_results.timeouts.contains(target.getAddress()));
+            // Non-responders are retried once
+            assertEquals(responder ? 1 : 2, m_sends.get(target.getAddress()).intValue());
+        }
+    }
+
+    @Test
+    public void testSendErrors() throws Exception {
+        final List<PingSweepTarget> targets = targets(3, 50, 2);
+        m_responders.add(targets.get(0).getAddress());
+        m_failing.add(targets.get(1).getAddress());
+        m_responders.add(targets.get(2).getAddress());
+
+        sweep(targets, 10000, 1000);
+
+        assertEquals(2, m_results.responses.size());
+        assertEquals(0, m_results.timeouts.size());
+        assertEquals(1, m_results.errors.size());
+        assertEquals(1, m_sends.get(targets.get(1).getAddress()).intValue());
+    }
+
+    @Test
+    public void testDuplicateRepliesAreIgnored() throws Exception {
+        final List<PingSweepTarget> targets = targets(4, 50, 0);
+        m_sweep = new JnaPingSweep(targets.iterator(), 64, 10000, m_results, (address, sequenceNumber, threadId, packetSize) -> {
+            m_sweep.offerReply(new JnaPingReply(address, new Reply(threadId)));
+            m_sweep.offerReply(new JnaPingReply(address, new Reply(threadId)));
+            // Reply from an unexpected address
+            m_sweep.offerReply(new JnaPingReply(InetAddress.getByName("192.0.2.1"), new Reply(threadId + 1)));
+        }, 1000);
+        m_sweep.run();
+
+        assertEquals(4, m_results.responses.size());
+        assertEquals(new HashSet<>(m_results.responses).size(), m_results.responses.size());
+        assertEquals(0, m_results.timeouts.size());
+    }
+
+    @Test
+    public void testMaxOutstanding() throws Exception {
+        final List<PingSweepTarget> targets = targets(12, 20, 0);
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger sent = new AtomicInteger();
+        m_sweep = new JnaPingSweep(targets.iterator(), 64, 10000, m_results, (address, sequenceNumber, threadId, packetSize) -> {
+            maxInFlight.set(Math.max(maxInFlight.get(), sent.incrementAndGet() - m_results.completed()));
+        }, 4);
+        m_sweep.run();
+
+        assertEquals(12, m_results.timeouts.size());
+        assertEquals(4, maxInFlight.get());
+    }
+
+    @Test
+    public void testPacing() throws Exception {
+        final List<PingSweepTarget> targets = targets(200, 1000, 0);
+        for (PingSweepTarget target : targets) {
+            m_responders.add(target.getAddress());
+        }
+
+        final long start = System.nanoTime();
+        sweep(targets, 1000, 1000);
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(200, m_results.responses.size());
+        // 200 packets at 1000/s, less the initial token and the 10ms burst
+        assertTrue("sweep took " + elapsed + "ms", elapsed >= 180);
+        assertTrue("sweep took " + elapsed + "ms", elapsed < 1000);
+    }
+
+    @Test
+    public void testTokenBucket() {
+        final long second = TimeUnit.SECONDS.toNanos(1);
+        final TokenBucket bucket = new TokenBucket(100, TimeUnit.MILLISECONDS.toNanos(50), 0);
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(!bucket.tryAcquire(0));
+        assertEquals(second / 100, bucket.nanosUntilAvailable(0));
+
+        // Idle time only accumulates up to the burst
+        int acquired = 0;
+        while (bucket.tryAcquire(second)) {
+            acquired++;
+        }
+        assertEquals(5, acquired);
+    }
+}
@@ -32,20 +32,17 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
 import org.opennms.core.utils.IteratorUtils;
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepTarget;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.PingerFactory;
 import org.opennms.netmgt.model.discovery.IPPollAddress;
@@ -54,8 +51,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.Throwables;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.collect.Iterators;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @Component
@@ -89,86 +85,48 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
             ranges.add(pollRange);
         }
 
-        // Use a RateLimiter to limit the ping packets per second that we send
-        RateLimiter limiter = RateLimiter.create(request.getPacketsPerSecond());
-
-        List<IPPollAddress> addresses = StreamSupport.stream(getAddresses(ranges).spliterator(), false)
-                .filter(j -> j.getAddress() != null).collect(Collectors.toList());
+        final Iterator<PingSweepTarget> targets = Iterators.transform(
+                Iterators.filter(getAddresses(ranges).iterator(), a -> a.getAddress() != null),
+                a -> new PingSweepTarget(a.getAddress(), a.getTimeout(), a.getRetries()));
 
         return CompletableFuture.supplyAsync(() -> {
-            addresses.stream().forEach(pollAddress -> {
-                try {
-                    tracker.expectCallbackFor(pollAddress.getAddress());
-                    limiter.acquire();
-                    pinger.ping(pollAddress.getAddress(), pollAddress.getTimeout(), pollAddress.getRetries(), packetSize, 1, tracker);
-                } catch (Exception e) {
-                    tracker.handleError(pollAddress.getAddress(), null, e);
-                    tracker.completeExceptionally(e);
-                }
-            });
-
             try {
-                tracker.getLatch().await();
-            } catch (InterruptedException e) {
+                // The pinger limits the ping packets per second that we send
+                pinger.sweep(targets, packetSize, request.getPacketsPerSecond(), tracker);
+            } catch (Exception e) {
                 throw Throwables.propagate(e);
             }
-            tracker.complete();
             return tracker.getResponse();
         } , executor);
 
     }
 
-    private static class PingSweepResultTracker extends CompletableFuture<PingSweepResponseDTO>
-            implements PingResponseCallback {
+    private static class PingSweepResultTracker implements PingResponseCallback {
 
-        private final Set<InetAddress> waitingFor = Sets.newConcurrentHashSet();
-        private final CountDownLatch m_doneSignal = new CountDownLatch(1);
         private final PingSweepResponseDTO responseDTO = new PingSweepResponseDTO();
 
-        public void expectCallbackFor(InetAddress address) {
-            waitingFor.add(address);
-        }
-
         @Override
-        public void handleResponse(InetAddress address, EchoPacket response) {
+        public synchronized void handleResponse(InetAddress address, EchoPacket response) {
             if (response != null) {
                 PingSweepResultDTO sweepResult = new PingSweepResultDTO();
                 sweepResult.setAddress(address);
                 sweepResult.setRtt(response.elapsedTime(TimeUnit.MILLISECONDS));
                 responseDTO.addPingSweepResult(sweepResult);
             }
-            afterHandled(address);
         }
 
         @Override
         public void handleTimeout(InetAddress address, EchoPacket request) {
-            afterHandled(address);
         }
 
         @Override
         public void handleError(InetAddress address, EchoPacket request, Throwable t) {
-            afterHandled(address);
         }
 
-        private void afterHandled(InetAddress address) {
-            waitingFor.remove(address);
-            if (waitingFor.isEmpty()) {
-                m_doneSignal.countDown();
-            }
-        }
-
-        public void complete() {
-            complete(responseDTO);
-        }
-
-        public PingSweepResponseDTO getResponse() {
+        public synchronized PingSweepResponseDTO getResponse() {
             return responseDTO;
         }
 
-        public CountDownLatch getLatch() {
-            return m_doneSignal;
-        }
-
     }
 
     @Override
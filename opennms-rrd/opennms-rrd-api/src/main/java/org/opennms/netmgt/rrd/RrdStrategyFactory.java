@@ -47,7 +47,9 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         basicRrdStrategy,
         queuingRrdStrategy,
         tcpAndBasicRrdStrategy,
-        tcpAndQueuingRrdStrategy
+        tcpAndQueuingRrdStrategy,
+        stripedQueuingRrdStrategy,
+        tcpAndStripedQueuingRrdStrategy
     }
 
     @Override
@@ -65,8 +67,15 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         RrdStrategy<D, F> rrdStrategy = null;
         Boolean useQueue = (Boolean) m_context.getBean("useQueue");
         Boolean useTcp = (Boolean) m_context.getBean("useTcp");
+        Boolean useStripedQueue = (Boolean) m_context.getBean("useStripedQueue");
 
-        if (useQueue) {
+        if (useQueue && useStripedQueue) {
+            if (useTcp) {
+                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndStripedQueuingRrdStrategy.toString());
+            } else {
+                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.stripedQueuingRrdStrategy.toString());
+            }
+        } else if (useQueue) {
             if (useTcp) {
                 rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndQueuingRrdStrategy.toString());
             } else {
@@ -81,7 +90,7 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         }
 
         if (rrdStrategy == null) {
-            throw new IllegalStateException(String.format("Invalid RRD configuration useQueue: %s, useTcp: %s", useQueue, useTcp));
+            throw new IllegalStateException(String.format("Invalid RRD configuration useQueue: %s, useStripedQueue: %s, useTcp: %s", useQueue, useStripedQueue, useTcp));
         }
 
         return rrdStrategy;
@@ -0,0 +1,681 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.logging.Logging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queuing implementation of RrdStrategy that scales with the number of files.
+ *
+ * Like {@link QueuingRrdStrategy}, creates and updates are enqueued per file and
+ * written by a set of threads that drain all the pending operations of a file
+ * between a single open and close of the delegate file, so the number of updates
+ * written per open grows as the I/O system falls behind.
+ *
+ * Instead of guarding all the queues with a single monitor, every file is
+ * assigned to one of <code>writeThreads</code> stripes by hashing its name. Each
+ * stripe owns a lock-free queue of files with pending work and is drained by a
+ * single thread, so a file is only ever written by one thread and enqueuing an
+ * operation never blocks.
+ *
+ * Updates are written in the order they were enqueued, this strategy does not
+ * distinguish between significant and insignificant updates.
+ *
+ * Selected by setting <code>org.opennms.rrd.queuing.striped</code> to true.
+ */
+public class StripedQueuingRrdStrategy implements RrdStrategy<StripedQueuingRrdStrategy.CreateOperation,String>, RrdQueueStatistics {
+
+    private Logger m_log = LoggerFactory.getLogger(StripedQueuingRrdStrategy.class);
+
+    /**
+     * A queued file creation.
+     */
+    public static class CreateOperation {
+        private final String m_fileName;
+        private final Object m_definition;
+
+        CreateOperation(final String fileName, final Object definition) {
+            m_fileName = fileName;
+            m_definition = definition;
+        }
+
+        public String getFileName() {
+            return m_fileName;
+        }
+
+        public Object getDefinition() {
+            return m_definition;
+        }
+    }
+
+    /**
+     * The pending operations of a single file: {@link CreateOperation}s and
+     * update strings, in the order they were enqueued.
+     *
+     * Producers reserve a slot before adding an operation. Once the queue has been
+     * drained and holds no reservations it is closed by setting the count to -1
+     * and removed, and producers racing with the removal move on to a new queue.
+     * A file therefore only ever has one open queue and its operations are never
+     * reordered.
+     */
+    private static class FileQueue {
+        private final String m_fileName;
+        private final ConcurrentLinkedQueue<Object> m_operations = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger m_reserved = new AtomicInteger(0);
+        private final AtomicBoolean m_scheduled = new AtomicBoolean(false);
+        private volatile long m_scheduledAt;
+
+        private FileQueue(final String fileName) {
+            m_fileName = fileName;
+        }
+
+        private boolean reserve() {
+            int reserved;
+            do {
+                reserved = m_reserved.get();
+                if (reserved < 0) {
+                    return false;
+                }
+            } while (!m_reserved.compareAndSet(reserved, reserved + 1));
+            return true;
+        }
+
+        private boolean close() {
+            return m_reserved.compareAndSet(0, -1);
+        }
+    }
+
+    private class Stripe implements Runnable {
+        private final int m_index;
+        private final ConcurrentLinkedQueue<FileQueue> m_ready = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<FileQueue> m_promoted = new ConcurrentLinkedQueue<>();
+        private final AtomicLong m_pendingOperations = new AtomicLong(0);
+        private final AtomicInteger m_pendingFiles = new AtomicInteger(0);
+        private final List<Object> m_batch = new ArrayList<>();
+        private volatile Thread m_thread;
+        private volatile boolean m_waiting = false;
+
+        private Stripe(final int index) {
+            m_index = index;
+        }
+
+        private void schedule(final FileQueue queue) {
+            if (queue.m_scheduled.compareAndSet(false, true)) {
+                queue.m_scheduledAt = System.currentTimeMillis();
+                m_pendingFiles.incrementAndGet();
+                m_ready.offer(queue);
+                if (m_waiting) {
+                    LockSupport.unpark(m_thread);
+                }
+            }
+        }
+
+        private void promote(final FileQueue queue) {
+            if (queue.m_scheduled.get()) {
+                m_promoted.offer(queue);
+            }
+        }
+
+        private long getOldestPendingMillis(final long now) {
+            long oldest = now;
+            final FileQueue promoted = m_promoted.peek();
+            if (promoted != null) {
+                oldest = Math.min(oldest, promoted.m_scheduledAt);
+            }
+            final FileQueue ready = m_ready.peek();
+            if (ready != null) {
+                oldest = Math.min(oldest, ready.m_scheduledAt);
+            }
+            return now - oldest;
+        }
+
+        @Override
+        public void run() {
+            Logging.putPrefix(m_category);
+            while (true) {
+                FileQueue queue = m_promoted.poll();
+                if (queue != null) {
+                    // Write the pending operations now, the file stays scheduled until its
+                    // entry in the ready queue is reached
+                    try {
+                        process(queue);
+                    } catch (final Throwable t) {
+                        m_log.warn("Unexpected error writing {}", queue.m_fileName, t);
+                    }
+                    continue;
+                }
+
+                queue = m_ready.poll();
+                if (queue == null) {
+                    m_waiting = true;
+                    if (m_ready.isEmpty() && m_promoted.isEmpty()) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(m_writeThreadSleepTime));
+                    }
+                    m_waiting = false;
+                    continue;
+                }
+
+                try {
+                    process(queue);
+                } catch (final Throwable t) {
+                    m_log.warn("Unexpected error writing {}", queue.m_fileName, t);
+                } finally {
+                    queue.m_scheduled.set(false);
+                    m_pendingFiles.decrementAndGet();
+                }
+
+                if (!queue.m_operations.isEmpty()) {
+                    // Operations enqueued while we were writing
+                    schedule(queue);
+                } else if (queue.close()) {
+                    m_files.remove(queue.m_fileName, queue);
+                }
+            }
+        }
+
+        private void process(final FileQueue queue) {
+            Object op;
+            while ((op = queue.m_operations.poll()) != null) {
+                m_batch.add(op);
+            }
+            if (m_batch.isEmpty()) {
+                return;
+            }
+            queue.m_reserved.addAndGet(-m_batch.size());
+            m_pendingOperations.addAndGet(-m_batch.size());
+            m_dequeuedOperations.add(m_batch.size());
+            m_dequeuedItems.increment();
+
+            Object rrd = null;
+            try {
+                for (final Object operation : m_batch) {
+                    if (operation instanceof CreateOperation) {
+                        if (rrd != null) {
+                            closeQuietly(rrd);
+                            rrd = null;
+                        }
+                        try {
+                            m_delegate.createFile(((CreateOperation)operation).getDefinition());
+                            m_createsCompleted.increment();
+                        } catch (final Throwable e) {
+                            m_errors.increment();
+                            m_log.debug("Error creating file {}: {}", queue.m_fileName, e.getMessage(), e);
+                        }
+                        continue;
+                    }
+
+                    try {
+                        if (rrd == null) {
+                            rrd = m_delegate.openFile(queue.m_fileName);
+                        }
+                        m_delegate.updateFile(rrd, "", (String)operation);
+                        if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
+                            logStats();
+                        }
+                    } catch (final Throwable e) {
+                        m_errors.increment();
+                        m_log.debug("Error processing update for file {}: {}", queue.m_fileName, operation, e);
+                    }
+                }
+            } finally {
+                m_batch.clear();
+                closeQuietly(rrd);
+            }
+        }
+    }
+
+    private final RrdStrategy<Object, Object> m_delegate;
+
+    private Properties m_configurationProperties;
+
+    private String m_category = "queued";
+
+    private int m_writeThreads = 2;
+
+    private boolean m_queueCreates;
+
+    private long m_queueHighWaterMark;
+
+    private long m_modulus = 10000;
+
+    private long m_writeThreadSleepTime = 50;
+
+    private final ConcurrentMap<String, FileQueue> m_files = new ConcurrentHashMap<>();
+
+    private volatile Stripe[] m_stripes;
+
+    private final LongAdder m_enqueuedOperations = new LongAdder();
+    private final LongAdder m_dequeuedOperations = new LongAdder();
+    private final LongAdder m_dequeuedItems = new LongAdder();
+    private final LongAdder m_createsCompleted = new LongAdder();
+    private final AtomicLong m_updatesCompleted = new AtomicLong(0);
+    private final LongAdder m_errors = new LongAdder();
+    private final LongAdder m_discarded = new LongAdder();
+    private final LongAdder m_promotionCount = new LongAdder();
+
+    private volatile long m_startTime = 0;
+
+    /**
+     * <p>Constructor for StripedQueuingRrdStrategy.</p>
+     *
+     * @param delegate a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    public StripedQueuingRrdStrategy(final RrdStrategy<Object, Object> delegate) {
+        m_delegate = delegate;
+    }
+
+    public RrdStrategy<Object, Object> getDelegate() {
+        return m_delegate;
+    }
+
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+    }
+
+    public int getWriteThreads() {
+        return m_writeThreads;
+    }
+
+    /**
+     * The number of stripes, each of them written by its own thread.
+     */
+    public void setWriteThreads(final int writeThreads) {
+        m_writeThreads = writeThreads;
+    }
+
+    public boolean queueCreates() {
+        return m_queueCreates;
+    }
+
+    public void setQueueCreates(final boolean queueCreates) {
+        m_queueCreates = queueCreates;
+    }
+
+    public long getQueueHighWaterMark() {
+        return m_queueHighWaterMark;
+    }
+
+    /**
+     * Operations are discarded once this many are pending, 0 disables the limit.
+     */
+    public void setQueueHighWaterMark(final long queueHighWaterMark) {
+        m_queueHighWaterMark = queueHighWaterMark;
+    }
+
+    public long getModulus() {
+        return m_modulus;
+    }
+
+    public void setModulus(final long modulus) {
+        m_modulus = modulus;
+    }
+
+    public String getCategory() {
+        return m_category;
+    }
+
+    public void setCategory(final String category) {
+        m_category = category;
+        m_log = LoggerFactory.getLogger(m_category);
+    }
+
+    public long getWriteThreadSleepTime() {
+        return m_writeThreadSleepTime;
+    }
+
+    /**
+     * How long an idle write thread waits before polling its stripe again.
+     */
+    public void setWriteThreadSleepTime(final long writeThreadSleepTime) {
+        m_writeThreadSleepTime = writeThreadSleepTime;
+    }
+
+    private Stripe[] getStripes() {
+        Stripe[] stripes = m_stripes;
+        if (stripes == null) {
+            synchronized (this) {
+                stripes = m_stripes;
+                if (stripes == null) {
+                    stripes = new Stripe[Math.max(1, m_writeThreads)];
+                    for (int i = 0; i < stripes.length; i++) {
+                        stripes[i] = new Stripe(i);
+                        final Thread thread = new Thread(stripes[i], getClass().getSimpleName() + "-" + (i + 1));
+                        thread.setDaemon(true);
+                        stripes[i].m_thread = thread;
+                        thread.start();
+                    }
+                    m_startTime = System.currentTimeMillis();
+                    m_stripes = stripes;
+                }
+            }
+        }
+        return stripes;
+    }
+
+    private Stripe getStripe(final Stripe[] stripes, final String fileName) {
+        return stripes[(fileName.hashCode() & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private void addOperation(final String fileName, final Object op) {
+        final Stripe[] stripes = getStripes();
+        if (m_queueHighWaterMark > 0 && getTotalOperationsPending() >= m_queueHighWaterMark) {
+            m_discarded.increment();
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", fileName);
+            return;
+        }
+
+        final Stripe stripe = getStripe(stripes, fileName);
+        FileQueue queue;
+        while (true) {
+            queue = m_files.get(fileName);
+            if (queue == null) {
+                final FileQueue newQueue = new FileQueue(fileName);
+                queue = m_files.putIfAbsent(fileName, newQueue);
+                if (queue == null) {
+                    queue = newQueue;
+                }
+            }
+            if (queue.reserve()) {
+                break;
+            }
+            // Closed by the write thread, make sure it's gone before trying again
+            m_files.remove(fileName, queue);
+        }
+        stripe.m_pendingOperations.incrementAndGet();
+        m_enqueuedOperations.increment();
+        queue.m_operations.offer(op);
+        stripe.schedule(queue);
+    }
+
+    private void closeQuietly(final Object rrd) {
+        if (rrd != null) {
+            try {
+                m_delegate.closeFile(rrd);
+            } catch (final Throwable e) {
+                m_errors.increment();
+                m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
+            }
+        }
+    }
+
+    //
+    // RrdStrategy Implementation.. These methods just enqueue the calls as
+    // operations
+    //
+
+    /** {@inheritDoc} */
+    @Override
+    public CreateOperation createDefinition(final String creator, final String directory, final String rrdName, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) throws Exception {
+        final String fileName = directory + File.separator + rrdName + m_delegate.getDefaultFileExtension();
+        final Object def = m_delegate.createDefinition(creator, directory, rrdName, step, dataSources, rraList);
+        return new CreateOperation(fileName, def);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createFile(final CreateOperation op) throws Exception {
+        if (m_queueCreates) {
+            addOperation(op.getFileName(), op);
+        } else {
+            m_delegate.createFile(op.getDefinition());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String openFile(final String fileName) throws Exception {
+        return fileName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(final String rrdFile, final String owner, final String data) throws Exception {
+        addOperation(rrdFile, data);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void closeFile(final String rrd) throws Exception {
+        // no need to do anything here
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String rrdFile, final String ds, final int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String rrdFile, final String ds, final String consolidationFunction, final int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, consolidationFunction, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValueInRange(final String rrdFile, final String ds, final int interval, final int range) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValueInRange(rrdFile, ds, interval, range);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream createGraph(final String command, final File workDir) throws IOException, RrdException {
+        return m_delegate.createGraph(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) throws IOException, RrdException {
+        return m_delegate.createGraphReturnDetails(command, workDir);
+    }
+
+    @Override
+    public int getGraphLeftOffset() {
+        return m_delegate.getGraphLeftOffset();
+    }
+
+    @Override
+    public int getGraphRightOffset() {
+        return m_delegate.getGraphRightOffset();
+    }
+
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_delegate.getGraphTopOffsetWithText();
+    }
+
+    @Override
+    public String getDefaultFileExtension() {
+        return m_delegate.getDefaultFileExtension();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Moves the pending work of the given files ahead of the other files of their stripes.
+     */
+    @Override
+    public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        final Stripe[] stripes = getStripes();
+        for (final String rrdFile : rrdFiles) {
+            final FileQueue queue = m_files.get(rrdFile);
+            if (queue != null) {
+                getStripe(stripes, rrdFile).promote(queue);
+                m_promotionCount.increment();
+            }
+        }
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
+    }
+
+    /**
+     * Returns the number of pending operations, pending files and the age in
+     * milliseconds of the oldest pending file of each stripe, one line per stripe.
+     */
+    public List<String> getStripeStats() {
+        final Stripe[] stripes = m_stripes;
+        final List<String> stats = new ArrayList<>();
+        if (stripes == null) {
+            return stats;
+        }
+        final long now = System.currentTimeMillis();
+        for (final Stripe stripe : stripes) {
+            stats.add("stripe=" + stripe.m_index +
+                    ", pendingOperations=" + stripe.m_pendingOperations.get() +
+                    ", pendingFiles=" + stripe.m_pendingFiles.get() +
+                    ", oldestPendingMillis=" + stripe.getOldestPendingMillis(now));
+        }
+        return stats;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getStats() {
+        final long totalElapsedMillis = Math.max(System.currentTimeMillis() - getStartTime(), 1);
+        final StringBuilder stats = new StringBuilder();
+        stats.append("\nQS:\t").append("totalOperationsPending=").append(getTotalOperationsPending())
+            .append(", filesWithWork=").append(m_files.size())
+            .append(", createsCompleted=").append(getCreatesCompleted())
+            .append(", updatesCompleted=").append(getUpdatesCompleted())
+            .append(", errors=").append(getErrors())
+            .append(", discarded=").append(m_discarded.sum())
+            .append(", promotionCount=").append(getPromotionCount())
+            .append("\nQS:\t").append("overallEnqueueRate=").append((long)(getEnqueuedOperations() * 1000.0 / totalElapsedMillis))
+            .append(", overallDequeueRate=").append((long)(getDequeuedOperations() * 1000.0 / totalElapsedMillis))
+            .append(", overallOpsPerUpdate=").append(getDequeuedOperations() / Math.max(getDequeuedItems(), 1.0))
+            .append(", totalElapsedTime=").append((totalElapsedMillis + 500) / 1000);
+        for (final String stripe : getStripeStats()) {
+            stats.append("\nQS:\t").append(stripe);
+        }
+        return stats.toString();
+    }
+
+    private void logStats() {
+        if (m_log.isDebugEnabled()) {
+            m_log.debug(getStats());
+        }
+    }
+
+    @Override
+    public long getTotalOperationsPending() {
+        final Stripe[] stripes = m_stripes;
+        long pending = 0;
+        if (stripes != null) {
+            for (final Stripe stripe : stripes) {
+                pending += stripe.m_pendingOperations.get();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Every operation is significant to this strategy.
+     */
+    @Override
+    public long getSignificantOpsCompleted() {
+        return getDequeuedOperations();
+    }
+
+    @Override
+    public long getCreatesCompleted() {
+        return m_createsCompleted.sum();
+    }
+
+    @Override
+    public long getUpdatesCompleted() {
+        return m_updatesCompleted.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return m_errors.sum();
+    }
+
+    @Override
+    public long getPromotionCount() {
+        return m_promotionCount.sum();
+    }
+
+    @Override
+    public long getSignificantOpsEnqueued() {
+        return getEnqueuedOperations();
+    }
+
+    @Override
+    public long getSignificantOpsDequeued() {
+        return getDequeuedOperations();
+    }
+
+    @Override
+    public long getEnqueuedOperations() {
+        return m_enqueuedOperations.sum();
+    }
+
+    @Override
+    public long getDequeuedOperations() {
+        return m_dequeuedOperations.sum();
+    }
+
+    /**
+     * The number of batches written, each of them between one open and close of a file.
+     */
+    @Override
+    public long getDequeuedItems() {
+        return m_dequeuedItems.sum();
+    }
+
+    @Override
+    public long getStartTime() {
+        return m_startTime;
+    }
+}
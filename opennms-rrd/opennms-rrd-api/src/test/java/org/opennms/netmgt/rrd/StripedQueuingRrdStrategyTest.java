@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class StripedQueuingRrdStrategyTest {
+
+    /**
+     * Records the updates written to each file and the threads that wrote them.
+     */
+    private static class RecordingRrdStrategy implements RrdStrategy<Object, Object> {
+        private final Map<String, List<String>> m_updates = new ConcurrentHashMap<>();
+        private final Map<String, Thread> m_writers = new ConcurrentHashMap<>();
+        private final AtomicInteger m_opens = new AtomicInteger(0);
+        private final AtomicInteger m_closes = new AtomicInteger(0);
+        private final AtomicInteger m_creates = new AtomicInteger(0);
+        private final AtomicInteger m_sharedWriters = new AtomicInteger(0);
+        private volatile CountDownLatch m_blockOpen;
+        private volatile CountDownLatch m_opened = new CountDownLatch(1);
+        private final CountDownLatch m_written;
+
+        private RecordingRrdStrategy(final int expectedUpdates) {
+            m_written = new CountDownLatch(expectedUpdates);
+        }
+
+        @Override
+        public void setConfigurationProperties(final Properties configurationParameters) {
+        }
+
+        @Override
+        public String getDefaultFileExtension() {
+            return ".rrd";
+        }
+
+        @Override
+        public Object createDefinition(final String creator, final String directory, final String rrdName, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) {
+            return directory + File.separator + rrdName + getDefaultFileExtension();
+        }
+
+        @Override
+        public void createFile(final Object rrdDef) {
+            m_creates.incrementAndGet();
+        }
+
+        @Override
+        public Object openFile(final String fileName) throws Exception {
+            m_opens.incrementAndGet();
+            m_opened.countDown();
+            final CountDownLatch block = m_blockOpen;
+            if (block != null) {
+                block.await(10, TimeUnit.SECONDS);
+            }
+            final Thread previous = m_writers.putIfAbsent(fileName, Thread.currentThread());
+            if (previous != null && previous != Thread.currentThread()) {
+                m_sharedWriters.incrementAndGet();
+            }
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(final Object rrd, final String owner, final String data) {
+            m_updates.computeIfAbsent((String)rrd, f -> Collections.synchronizedList(new ArrayList<>())).add(data);
+            m_written.countDown();
+        }
+
+        @Override
+        public void closeFile(final Object rrd) {
+            m_closes.incrementAndGet();
+        }
+
+        @Override
+        public Double fetchLastValue(final String rrdFile, final String ds, final int interval) {
+            return null;
+        }
+
+        @Override
+        public Double fetchLastValue(final String rrdFile, final String ds, final String consolidationFunction, final int interval) {
+            return null;
+        }
+
+        @Override
+        public Double fetchLastValueInRange(final String rrdFile, final String ds, final int interval, final int range) {
+            return null;
+        }
+
+        @Override
+        public InputStream createGraph(final String command, final File workDir) {
+            return null;
+        }
+
+        @Override
+        public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) {
+            return null;
+        }
+
+        @Override
+        public int getGraphLeftOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getGraphRightOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getGraphTopOffsetWithText() {
+            return 0;
+        }
+
+        @Override
+        public String getStats() {
+            return "";
+        }
+
+        @Override
+        public void promoteEnqueuedFiles(final java.util.Collection<String> rrdFiles) {
+        }
+    }
+
+    private static StripedQueuingRrdStrategy createStrategy(final RecordingRrdStrategy delegate, final int threads) {
+        final StripedQueuingRrdStrategy strategy = new StripedQueuingRrdStrategy(delegate);
+        strategy.setWriteThreads(threads);
+        strategy.setWriteThreadSleepTime(5);
+        return strategy;
+    }
+
+    @Test
+    public void coalescesPendingUpdatesOfAFile() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy(11);
+        delegate.m_blockOpen = new CountDownLatch(1);
+        final StripedQueuingRrdStrategy strategy = createStrategy(delegate, 1);
+
+        strategy.updateFile("a.rrd", "test", "N:0");
+        assertTrue(delegate.m_opened.await(10, TimeUnit.SECONDS));
+        // The first update is being written, the following ones pile up behind it
+        for (int i = 1; i <= 10; i++) {
+            strategy.updateFile("a.rrd", "test", "N:" + i);
+        }
+        assertEquals(10L, strategy.getTotalOperationsPending());
+        delegate.m_blockOpen.countDown();
+
+        assertTrue(delegate.m_written.await(10, TimeUnit.SECONDS));
+        waitForCompletion(strategy);
+        assertEquals(2, delegate.m_opens.get());
+        assertEquals(2, delegate.m_closes.get());
+        assertEquals(11L, strategy.getUpdatesCompleted());
+        assertEquals(2L, strategy.getDequeuedItems());
+        assertEquals(11, delegate.m_updates.get("a.rrd").size());
+    }
+
+    @Test
+    public void writesEachFileInOrderFromOneThread() throws Exception {
+        final int files = 64;
+        final int updates = 200;
+        final int producers = 4;
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy(files * updates * producers);
+        final StripedQueuingRrdStrategy strategy = createStrategy(delegate, 4);
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            final Thread thread = new Thread(() -> {
+                for (int u = 0; u < updates; u++) {
+                    for (int f = 0; f < files; f++) {
+                        try {
+                            strategy.updateFile("file" + f + ".rrd", "test", producer + ":" + u);
+                        } catch (final Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(delegate.m_written.await(30, TimeUnit.SECONDS));
+        waitForCompletion(strategy);
+        assertEquals(0, delegate.m_sharedWriters.get());
+        assertEquals(files, delegate.m_updates.size());
+        for (final List<String> written : delegate.m_updates.values()) {
+            assertEquals(updates * producers, written.size());
+            // Updates of a single producer keep their relative order
+            final int[] last = new int[producers];
+            java.util.Arrays.fill(last, -1);
+            for (final String update : written) {
+                final String[] parts = update.split(":");
+                final int producer = Integer.parseInt(parts[0]);
+                final int u = Integer.parseInt(parts[1]);
+                assertEquals(last[producer] + 1, u);
+                last[producer] = u;
+            }
+        }
+        assertEquals((long)files * updates * producers, strategy.getUpdatesCompleted());
+        assertEquals(0L, strategy.getTotalOperationsPending());
+    }
+
+    @Test
+    public void queuesCreatesAheadOfUpdates() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy(2);
+        final StripedQueuingRrdStrategy strategy = createStrategy(delegate, 2);
+        strategy.setQueueCreates(true);
+
+        final StripedQueuingRrdStrategy.CreateOperation create = strategy.createDefinition("test", "dir", "b", 300, Collections.emptyList(), Collections.emptyList());
+        assertEquals("dir" + File.separator + "b.rrd", create.getFileName());
+        strategy.createFile(create);
+        strategy.updateFile(create.getFileName(), "test", "N:1");
+        strategy.updateFile(create.getFileName(), "test", "N:2");
+
+        assertTrue(delegate.m_written.await(10, TimeUnit.SECONDS));
+        waitForCompletion(strategy);
+        assertEquals(1, delegate.m_creates.get());
+        assertEquals(1L, strategy.getCreatesCompleted());
+    }
+
+    @Test
+    public void discardsAboveTheHighWaterMark() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy(6);
+        delegate.m_blockOpen = new CountDownLatch(1);
+        final StripedQueuingRrdStrategy strategy = createStrategy(delegate, 1);
+        strategy.setQueueHighWaterMark(5);
+
+        strategy.updateFile("c.rrd", "test", "N:0");
+        assertTrue(delegate.m_opened.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; i++) {
+            strategy.updateFile("c.rrd", "test", "N:" + i);
+        }
+        assertEquals(5L, strategy.getTotalOperationsPending());
+        assertEquals(6L, strategy.getEnqueuedOperations());
+        delegate.m_blockOpen.countDown();
+
+        assertTrue(delegate.m_written.await(10, TimeUnit.SECONDS));
+        waitForCompletion(strategy);
+        assertEquals(6, delegate.m_updates.get("c.rrd").size());
+        assertTrue(strategy.getStats().contains("discarded=5"));
+    }
+
+    @Test
+    public void reportsPerStripeStatistics() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy(1);
+        delegate.m_blockOpen = new CountDownLatch(1);
+        final StripedQueuingRrdStrategy strategy = createStrategy(delegate, 3);
+
+        strategy.updateFile("d.rrd", "test", "N:0");
+        assertTrue(delegate.m_opened.await(10, TimeUnit.SECONDS));
+        strategy.updateFile("d.rrd", "test", "N:1");
+
+        final List<String> stripes = strategy.getStripeStats();
+        assertEquals(3, stripes.size());
+        int pending = 0;
+        for (final String stripe : stripes) {
+            if (stripe.contains("pendingOperations=1, pendingFiles=1")) {
+                pending++;
+            }
+        }
+        assertEquals(1, pending);
+        delegate.m_blockOpen.countDown();
+    }
+
+    private static void waitForCompletion(final StripedQueuingRrdStrategy strategy) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (strategy.getDequeuedOperations() + strategy.getTotalOperationsPending() < strategy.getEnqueuedOperations()
+                || strategy.getTotalOperationsPending() > 0
+                || strategy.getStripeStats().stream().anyMatch(s -> !s.contains("pendingFiles=0"))) {
+            assertTrue("timed out waiting for the queue to drain", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -44,6 +44,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
@@ -71,6 +72,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MAPPED_MAX_FILES_PROPERTY = "org.opennms.rrd.jrobin.mapped.maxFiles";
+    private static final String MAPPED_FLUSH_INTERVAL_PROPERTY = "org.opennms.rrd.jrobin.mapped.flushInterval";
+    private static final String MAPPED_FLUSH_BATCH_SIZE_PROPERTY = "org.opennms.rrd.jrobin.mapped.flushBatchSize";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -78,6 +82,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     private static boolean s_initialized = false;
 
+    /*
+     * Set when the MAPPED backend is in use.
+     */
+    private static MappedRrdBackendFactory s_mappedFactory = null;
+
     private Properties m_configurationProperties;
 
     /**
@@ -130,6 +139,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
             }
             try {
+                if (MappedRrdBackendFactory.NAME.equals(factory)) {
+                    registerMappedFactory();
+                }
                 RrdDb.setDefaultFactory(factory);
                 s_initialized=true;
             } catch (RrdException e) {
@@ -138,6 +150,31 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
     }
 
+    private void registerMappedFactory() throws RrdException {
+        if (s_mappedFactory != null) {
+            return;
+        }
+        final MappedRrdBackendFactory mappedFactory = new MappedRrdBackendFactory(
+                getIntegerProperty(MAPPED_MAX_FILES_PROPERTY, MappedRrdBackendFactory.DEFAULT_MAX_FILES),
+                getIntegerProperty(MAPPED_FLUSH_INTERVAL_PROPERTY, (int)MappedRrdBackendFactory.DEFAULT_FLUSH_INTERVAL),
+                getIntegerProperty(MAPPED_FLUSH_BATCH_SIZE_PROPERTY, MappedRrdBackendFactory.DEFAULT_FLUSH_BATCH_SIZE));
+        RrdBackendFactory.registerFactory(mappedFactory);
+        s_mappedFactory = mappedFactory;
+    }
+
+    private int getIntegerProperty(final String name, final int defaultValue) {
+        final String value = m_configurationProperties == null ? null : m_configurationProperties.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (final NumberFormatException e) {
+            LOG.warn("Invalid value {} for {}, using {}", value, name, defaultValue);
+            return defaultValue;
+        }
+    }
+
     /**
      * Closes the JRobin RrdDb.
      *
@@ -201,6 +238,10 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        if (s_mappedFactory != null) {
+            // Don't keep a stale mapping of a file that's being replaced
+            s_mappedFactory.invalidate(rrdDef.getPath());
+        }
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
     }
@@ -860,13 +901,13 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     }
 
     /**
-     * This implementation does not track any stats.
+     * Returns the statistics of the MAPPED backend when it is in use.
      *
      * @return a {@link java.lang.String} object.
      */
     @Override
     public String getStats() {
-        return "";
+        return s_mappedFactory == null ? "" : s_mappedFactory.getStats();
     }
 
     /*
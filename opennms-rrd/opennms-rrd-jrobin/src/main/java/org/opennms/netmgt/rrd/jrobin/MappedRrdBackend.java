@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+
+import org.jrobin.core.RrdBackend;
+
+/**
+ * JRobin backend on top of a {@link MappedRrdFile} shared through the
+ * {@link MappedRrdBackendFactory} cache. Closing the backend only releases
+ * the file, the mapping stays open for the next update.
+ */
+public class MappedRrdBackend extends RrdBackend {
+
+    private final MappedRrdBackendFactory m_factory;
+    private final MappedRrdFile m_file;
+    private final boolean m_readOnly;
+    private boolean m_closed = false;
+
+    MappedRrdBackend(final MappedRrdBackendFactory factory, final MappedRrdFile file, final boolean readOnly) {
+        super(file.getPath());
+        m_factory = factory;
+        m_file = file;
+        m_readOnly = readOnly;
+    }
+
+    @Override
+    protected void write(final long offset, final byte[] b) throws IOException {
+        // The cached mapping may be writable, even if this backend was opened read-only
+        ensureWritable();
+        if (m_file.write(offset, b)) {
+            m_factory.markDirty(m_file);
+        }
+    }
+
+    @Override
+    protected void read(final long offset, final byte[] b) throws IOException {
+        m_file.read(offset, b);
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        return m_file.getLength();
+    }
+
+    @Override
+    protected void setLength(final long length) throws IOException {
+        ensureWritable();
+        m_file.setLength(length);
+    }
+
+    private void ensureWritable() throws IOException {
+        if (m_readOnly) {
+            throw new IOException("RRD file " + getPath() + " was opened read-only");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!m_closed) {
+            m_closed = true;
+            m_file.release();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdBackendFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JRobin backend factory that keeps the most recently used files
+ * memory-mapped between opens.
+ *
+ * Opening a cached file costs no I/O and updates only dirty the pages they
+ * touch. Dirty files are forced to disk by a background thread, in batches
+ * of <code>flushBatchSize</code> files every <code>flushInterval</code>
+ * milliseconds, so all the samples written to a file between two flushes
+ * cost a single sync instead of one write per sample.
+ *
+ * At most <code>maxFiles</code> files stay mapped, the least recently used
+ * file is flushed and closed when a new one is opened.
+ *
+ * Selected by setting <code>org.jrobin.core.RrdBackendFactory</code> to
+ * <code>MAPPED</code>.
+ */
+public class MappedRrdBackendFactory extends RrdBackendFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackendFactory.class);
+
+    public static final String NAME = "MAPPED";
+
+    public static final int DEFAULT_MAX_FILES = 8192;
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 30000;
+
+    public static final int DEFAULT_FLUSH_BATCH_SIZE = 512;
+
+    private final int m_maxFiles;
+    private final long m_flushInterval;
+    private final int m_flushBatchSize;
+
+    /**
+     * Mapped files in access order, guarded by itself.
+     */
+    private final LinkedHashMap<String, MappedRrdFile> m_files = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ConcurrentLinkedQueue<MappedRrdFile> m_dirtyFiles = new ConcurrentLinkedQueue<>();
+
+    private final ScheduledExecutorService m_flusher;
+
+    private final AtomicLong m_hits = new AtomicLong(0);
+    private final AtomicLong m_misses = new AtomicLong(0);
+    private final AtomicLong m_evictions = new AtomicLong(0);
+    private final AtomicLong m_filesFlushed = new AtomicLong(0);
+    private final AtomicLong m_pagesFlushed = new AtomicLong(0);
+    private final AtomicLong m_flushBatches = new AtomicLong(0);
+
+    public MappedRrdBackendFactory() {
+        this(DEFAULT_MAX_FILES, DEFAULT_FLUSH_INTERVAL, DEFAULT_FLUSH_BATCH_SIZE);
+    }
+
+    public MappedRrdBackendFactory(final int maxFiles, final long flushInterval, final int flushBatchSize) {
+        m_maxFiles = Math.max(1, maxFiles);
+        m_flushInterval = Math.max(1, flushInterval);
+        m_flushBatchSize = Math.max(1, flushBatchSize);
+        m_flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "JRobin-MappedFlusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        m_flusher.scheduleWithFixedDelay(this::flushDirtyFiles, m_flushInterval, m_flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected RrdBackend open(final String path, final boolean readOnly) throws IOException {
+        synchronized (m_files) {
+            final MappedRrdFile file = m_files.get(path);
+            if (file != null && file.canOpen(readOnly) && file.retain()) {
+                m_hits.incrementAndGet();
+                return new MappedRrdBackend(this, file, readOnly);
+            }
+        }
+        m_misses.incrementAndGet();
+
+        // Map the file without holding the lock, so that opens of other files are not held up by the I/O
+        final MappedRrdFile opened = new MappedRrdFile(this, path, readOnly);
+        final List<MappedRrdFile> evicted = new ArrayList<>();
+        MappedRrdFile stale = null;
+        MappedRrdFile file;
+        synchronized (m_files) {
+            file = m_files.putIfAbsent(path, opened);
+            if (file != null && file.canOpen(readOnly) && file.retain()) {
+                // Another thread mapped it in the meantime, keep that mapping
+                stale = opened;
+            } else {
+                if (file != null) {
+                    // Closed, or mapped read-only while we need to write
+                    stale = file;
+                    m_files.put(path, opened);
+                }
+                file = opened;
+                file.retain();
+                final Iterator<MappedRrdFile> it = m_files.values().iterator();
+                while (m_files.size() > m_maxFiles && it.hasNext()) {
+                    evicted.add(it.next());
+                    it.remove();
+                }
+            }
+        }
+        if (stale != null) {
+            evict(stale);
+        }
+        for (final MappedRrdFile e : evicted) {
+            m_evictions.incrementAndGet();
+            evict(e);
+        }
+        return new MappedRrdBackend(this, file, readOnly);
+    }
+
+    private static void evict(final MappedRrdFile file) {
+        try {
+            file.evict();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close evicted RRD file {}", file.getPath(), e);
+        }
+    }
+
+    @Override
+    protected boolean exists(final String path) throws IOException {
+        return new File(path).exists();
+    }
+
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+
+    void flushed(final int pages) {
+        m_filesFlushed.incrementAndGet();
+        m_pagesFlushed.addAndGet(pages);
+    }
+
+    void markDirty(final MappedRrdFile file) {
+        if (file.queueForFlush()) {
+            m_dirtyFiles.offer(file);
+        }
+    }
+
+    /**
+     * Flushes and unmaps the given file, if it's cached. Must be called before
+     * a file is replaced or deleted on disk.
+     */
+    public void invalidate(final String path) {
+        final MappedRrdFile file;
+        synchronized (m_files) {
+            file = m_files.remove(path);
+        }
+        if (file != null) {
+            try {
+                file.evict();
+            } catch (final IOException e) {
+                LOG.warn("Failed to close RRD file {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Forces all the files that were queued for flushing to disk, in batches of
+     * <code>flushBatchSize</code> files.
+     */
+    public void flushDirtyFiles() {
+        try {
+            final List<MappedRrdFile> batch = new ArrayList<>(m_flushBatchSize);
+            MappedRrdFile file;
+            while ((file = m_dirtyFiles.poll()) != null) {
+                batch.add(file);
+                if (batch.size() >= m_flushBatchSize) {
+                    flush(batch);
+                }
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+            }
+        } catch (final Throwable t) {
+            LOG.warn("Failed to flush mapped RRD files", t);
+        }
+    }
+
+    private void flush(final List<MappedRrdFile> batch) {
+        for (final MappedRrdFile file : batch) {
+            file.flush();
+        }
+        m_flushBatches.incrementAndGet();
+        batch.clear();
+    }
+
+    /**
+     * Flushes all the dirty files, stops the background flushes and closes all
+     * the cached files.
+     */
+    public void close() {
+        m_flusher.shutdown();
+        flushDirtyFiles();
+        final List<MappedRrdFile> files;
+        synchronized (m_files) {
+            files = new ArrayList<>(m_files.values());
+            m_files.clear();
+        }
+        for (final MappedRrdFile file : files) {
+            try {
+                file.evict();
+            } catch (final IOException e) {
+                LOG.warn("Failed to close RRD file {}", file.getPath(), e);
+            }
+        }
+    }
+
+    public int getMappedFiles() {
+        synchronized (m_files) {
+            return m_files.size();
+        }
+    }
+
+    public int getDirtyFiles() {
+        return m_dirtyFiles.size();
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    public long getFilesFlushed() {
+        return m_filesFlushed.get();
+    }
+
+    public long getPagesFlushed() {
+        return m_pagesFlushed.get();
+    }
+
+    public String getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mappedFiles", getMappedFiles());
+        stats.put("dirtyFiles", getDirtyFiles());
+        stats.put("hits", getHits());
+        stats.put("misses", getMisses());
+        stats.put("evictions", getEvictions());
+        stats.put("flushBatches", m_flushBatches.get());
+        stats.put("filesFlushed", getFilesFlushed());
+        stats.put("pagesFlushed", getPagesFlushed());
+        return stats.toString();
+    }
+}
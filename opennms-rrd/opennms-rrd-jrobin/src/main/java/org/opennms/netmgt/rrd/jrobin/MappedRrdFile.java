@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JRobin file that stays memory-mapped between opens, shared by all the
+ * {@link MappedRrdBackend}s opened on the same path.
+ *
+ * Writes only touch the mapping and mark the pages they cover as dirty, the
+ * pages are forced to disk by {@link #flush()}.
+ *
+ * The mapping is released as soon as the file is closed, rather than when the
+ * buffer is garbage collected, so that evicted files don't hold on to their
+ * mappings and exhaust the maximum number of mappings of the process.
+ */
+class MappedRrdFile {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdFile.class);
+
+    static final int PAGE_SIZE = 4096;
+
+    private static final Unmapper UNMAPPER = findUnmapper();
+
+    /**
+     * MappedByteBuffer.force(int, int), only available as of Java 13.
+     */
+    private static final Method FORCE_RANGE = findForceRange();
+
+    private final MappedRrdBackendFactory m_factory;
+    private final String m_path;
+    private final RandomAccessFile m_file;
+    private final FileChannel m_channel;
+    private final boolean m_readOnly;
+    private final boolean m_writable;
+    private final BitSet m_dirtyPages = new BitSet();
+    private MappedByteBuffer m_buffer;
+    private int m_references = 0;
+    private boolean m_evicted = false;
+    private boolean m_closed = false;
+    private boolean m_queuedForFlush = false;
+
+    MappedRrdFile(final MappedRrdBackendFactory factory, final String path, final boolean readOnly) throws IOException {
+        m_factory = factory;
+        m_path = path;
+        final File file = new File(path);
+        m_writable = !file.exists() || file.canWrite();
+        m_readOnly = readOnly || !m_writable;
+        m_file = new RandomAccessFile(file, m_readOnly ? "r" : "rw");
+        m_channel = m_file.getChannel();
+        try {
+            map();
+        } catch (final IOException e) {
+            m_file.close();
+            throw e;
+        }
+    }
+
+    String getPath() {
+        return m_path;
+    }
+
+    /**
+     * @return false if the file was mapped read-only on request, and a read-write open needs a new mapping
+     */
+    boolean canOpen(final boolean readOnly) {
+        return readOnly || !m_readOnly || !m_writable;
+    }
+
+    private void map() throws IOException {
+        unmap();
+        final long length = m_channel.size();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("RRD file " + m_path + " is too large to be mapped: " + length + " bytes");
+        }
+        m_buffer = length == 0 ? null : m_channel.map(m_readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /**
+     * Registers a new user of this file.
+     *
+     * @return false if the file was closed and must be opened again
+     */
+    synchronized boolean retain() {
+        if (m_closed || m_evicted) {
+            return false;
+        }
+        m_references++;
+        return true;
+    }
+
+    /**
+     * Releases a user of this file, closing it if it was evicted in the meantime.
+     */
+    synchronized void release() throws IOException {
+        m_references--;
+        if (m_evicted && m_references <= 0) {
+            close();
+        }
+    }
+
+    /**
+     * Marks the file as evicted from the cache. It is flushed and closed
+     * immediately when unused, or by the last user to release it.
+     */
+    synchronized void evict() throws IOException {
+        m_evicted = true;
+        if (m_references <= 0) {
+            close();
+        }
+    }
+
+    synchronized void read(final long offset, final byte[] b) throws IOException {
+        ensureOpen();
+        if (m_buffer == null) {
+            throw new IOException("Not enough bytes available in RRD file " + m_path);
+        }
+        try {
+            m_buffer.position((int)offset);
+            m_buffer.get(b);
+        } catch (final IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Not enough bytes available in RRD file " + m_path, e);
+        }
+    }
+
+    /**
+     * Writes to the mapping and marks the pages covered by the write dirty.
+     *
+     * @return true if the file had no dirty pages before this write
+     */
+    synchronized boolean write(final long offset, final byte[] b) throws IOException {
+        ensureOpen();
+        if (m_buffer == null) {
+            throw new IOException("Write beyond the end of RRD file " + m_path);
+        }
+        try {
+            m_buffer.position((int)offset);
+            m_buffer.put(b);
+        } catch (final IllegalArgumentException | BufferOverflowException e) {
+            throw new IOException("Write beyond the end of RRD file " + m_path, e);
+        } catch (final ReadOnlyBufferException e) {
+            throw new IOException("RRD file " + m_path + " is read-only", e);
+        }
+        if (b.length == 0) {
+            return false;
+        }
+        final boolean wasClean = m_dirtyPages.isEmpty();
+        m_dirtyPages.set((int)(offset / PAGE_SIZE), (int)((offset + b.length - 1) / PAGE_SIZE) + 1);
+        return wasClean;
+    }
+
+    synchronized long getLength() throws IOException {
+        ensureOpen();
+        return m_buffer == null ? 0 : m_buffer.capacity();
+    }
+
+    /**
+     * Resizes the file and maps it again, used when a new RRD is created.
+     */
+    synchronized void setLength(final long length) throws IOException {
+        ensureOpen();
+        if (m_buffer != null && !m_dirtyPages.isEmpty()) {
+            m_buffer.force();
+            m_dirtyPages.clear();
+        }
+        m_file.setLength(length);
+        map();
+    }
+
+    synchronized int getDirtyPages() {
+        return m_dirtyPages.cardinality();
+    }
+
+    /**
+     * Remembers that this file is waiting in the flush queue.
+     *
+     * @return false if it was already queued
+     */
+    synchronized boolean queueForFlush() {
+        if (m_queuedForFlush) {
+            return false;
+        }
+        m_queuedForFlush = true;
+        return true;
+    }
+
+    /**
+     * Forces the dirty pages of this file to disk.
+     *
+     * @return the number of dirty pages that were flushed
+     */
+    synchronized int flush() {
+        m_queuedForFlush = false;
+        if (m_closed || m_buffer == null || m_dirtyPages.isEmpty()) {
+            return 0;
+        }
+        if (FORCE_RANGE == null) {
+            // Syncs the whole mapping, but only the dirty pages are written
+            m_buffer.force();
+        } else {
+            for (int first = m_dirtyPages.nextSetBit(0); first >= 0; first = m_dirtyPages.nextSetBit(first)) {
+                final int end = m_dirtyPages.nextClearBit(first);
+                final int offset = first * PAGE_SIZE;
+                forceRange(offset, Math.min(end * PAGE_SIZE, m_buffer.capacity()) - offset);
+                first = end;
+            }
+        }
+        final int pages = m_dirtyPages.cardinality();
+        m_dirtyPages.clear();
+        m_factory.flushed(pages);
+        return pages;
+    }
+
+    synchronized boolean isClosed() {
+        return m_closed;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (m_closed) {
+            throw new IOException("RRD file " + m_path + " has been closed");
+        }
+    }
+
+    private void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            m_closed = true;
+            unmap();
+            m_file.close();
+        }
+    }
+
+    private void forceRange(final int offset, final int length) {
+        try {
+            FORCE_RANGE.invoke(m_buffer, offset, length);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (final IllegalAccessException e) {
+            m_buffer.force();
+        }
+    }
+
+    /**
+     * Releases the current mapping. The buffer must not be used afterwards.
+     */
+    private void unmap() {
+        final MappedByteBuffer buffer = m_buffer;
+        m_buffer = null;
+        if (buffer == null || UNMAPPER == null) {
+            // The mapping is released once the buffer is garbage collected
+            return;
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Failed to unmap RRD file {}, it will be unmapped once garbage collected.", m_path, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    private static Unmapper findUnmapper() {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("sun.misc.Unsafe.invokeCleaner() is not available.", e);
+        }
+        try {
+            // Java 8, the cleaner of the sun.nio.ch.DirectBuffer
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                final Object c = cleaner.invoke(buffer);
+                if (c != null) {
+                    clean.invoke(c);
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOG.info("Mapped RRD files can not be unmapped explicitly, they will be unmapped once garbage collected.", e);
+            return null;
+        }
+    }
+
+    private static Method findForceRange() {
+        try {
+            return MappedByteBuffer.class.getMethod("force", int.class, int.class);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
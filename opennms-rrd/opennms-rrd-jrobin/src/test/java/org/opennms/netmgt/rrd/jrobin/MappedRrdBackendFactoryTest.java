@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRrdBackendFactoryTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    private MappedRrdBackendFactory m_factory;
+
+    @Before
+    public void setUp() {
+        // Only flush when asked to
+        m_factory = new MappedRrdBackendFactory(2, Long.MAX_VALUE / 2, 16);
+    }
+
+    @After
+    public void tearDown() {
+        m_factory.close();
+    }
+
+    private String createFile(final String name, final int length) throws IOException {
+        final File file = m_tempFolder.newFile(name);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+        return file.getAbsolutePath();
+    }
+
+    @Test
+    public void keepsRecentlyUsedFilesMapped() throws Exception {
+        final String a = createFile("a.jrb", 8192);
+        final String b = createFile("b.jrb", 8192);
+        final String c = createFile("c.jrb", 8192);
+
+        m_factory.open(a, false).close();
+        m_factory.open(a, false).close();
+        assertEquals(1L, m_factory.getMisses());
+        assertEquals(1L, m_factory.getHits());
+
+        m_factory.open(b, false).close();
+        m_factory.open(c, false).close();
+        assertEquals(1L, m_factory.getEvictions());
+        assertEquals(2, m_factory.getMappedFiles());
+
+        // a was the least recently used file
+        m_factory.open(a, false).close();
+        assertEquals(4L, m_factory.getMisses());
+    }
+
+    @Test
+    public void flushesOnlyDirtyFiles() throws Exception {
+        final String a = createFile("a.jrb", 3 * MappedRrdFile.PAGE_SIZE);
+        final String b = createFile("b.jrb", MappedRrdFile.PAGE_SIZE);
+
+        final MappedRrdBackend backend = (MappedRrdBackend)m_factory.open(a, false);
+        backend.write(0, new byte[] { 1 });
+        backend.write(2 * MappedRrdFile.PAGE_SIZE + 10, new byte[] { 2, 3 });
+        backend.write(5, new byte[] { 4 });
+        backend.close();
+        m_factory.open(b, false).close();
+        assertEquals(1, m_factory.getDirtyFiles());
+
+        m_factory.flushDirtyFiles();
+        assertEquals(1L, m_factory.getFilesFlushed());
+        assertEquals(2L, m_factory.getPagesFlushed());
+        assertEquals(0, m_factory.getDirtyFiles());
+
+        try (RandomAccessFile raf = new RandomAccessFile(a, "r")) {
+            raf.seek(2 * MappedRrdFile.PAGE_SIZE + 10);
+            assertEquals(2, raf.read());
+            assertEquals(3, raf.read());
+        }
+    }
+
+    @Test
+    public void closesEvictedFilesOnceReleased() throws Exception {
+        final String a = createFile("a.jrb", 4096);
+        final String b = createFile("b.jrb", 4096);
+        final String c = createFile("c.jrb", 4096);
+
+        final MappedRrdBackend backend = (MappedRrdBackend)m_factory.open(a, false);
+        m_factory.open(b, false).close();
+        m_factory.open(c, false).close();
+        assertEquals(1L, m_factory.getEvictions());
+
+        // Still usable by the current user
+        backend.write(100, new byte[] { 42 });
+        final byte[] read = new byte[1];
+        backend.read(100, read);
+        assertEquals(42, read[0]);
+        backend.close();
+
+        assertEquals(1L, m_factory.getPagesFlushed());
+        try (RandomAccessFile raf = new RandomAccessFile(a, "r")) {
+            raf.seek(100);
+            assertEquals(42, raf.read());
+        }
+    }
+
+    @Test
+    public void honorsReadOnlyOpens() throws Exception {
+        final String a = createFile("a.jrb", 4096);
+        final String missing = new File(m_tempFolder.getRoot(), "missing.jrb").getAbsolutePath();
+
+        final MappedRrdBackend readOnly = (MappedRrdBackend)m_factory.open(a, true);
+        try {
+            readOnly.write(0, new byte[] { 1 });
+            fail("read-only backend accepted a write");
+        } catch (final IOException e) {
+            // expected
+        }
+
+        // A read-write open needs a writable mapping, the read-only one is not reused
+        final MappedRrdBackend readWrite = (MappedRrdBackend)m_factory.open(a, false);
+        assertEquals(2L, m_factory.getMisses());
+        readWrite.write(0, new byte[] { 1 });
+        readWrite.close();
+        readOnly.close();
+
+        // But a read-only open can use the writable mapping
+        m_factory.open(a, true).close();
+        assertEquals(1L, m_factory.getHits());
+
+        try {
+            m_factory.open(missing, true);
+            fail("read-only open of a missing file succeeded");
+        } catch (final IOException e) {
+            assertFalse(new File(missing).exists());
+        }
+    }
+
+    @Test
+    public void unmapsEvictedFiles() throws Exception {
+        final Path maps = Paths.get("/proc/self/maps");
+        assumeTrue("requires /proc/self/maps", Files.isReadable(maps));
+        final String a = createFile("a.jrb", 4096);
+        final String b = createFile("b.jrb", 4096);
+        final String c = createFile("c.jrb", 4096);
+
+        m_factory.open(a, false).close();
+        assertTrue(new String(Files.readAllBytes(maps), StandardCharsets.UTF_8).contains(a));
+
+        m_factory.open(b, false).close();
+        m_factory.open(c, false).close();
+        assertEquals(1L, m_factory.getEvictions());
+        assertFalse(new String(Files.readAllBytes(maps), StandardCharsets.UTF_8).contains(a));
+    }
+
+    @Test
+    public void createsAndUpdatesRrds() throws Exception {
+        final String path = new File(m_tempFolder.getRoot(), "test.jrb").getAbsolutePath();
+        final RrdDef def = new RrdDef(path);
+        def.setStartTime(1000);
+        def.setStep(300);
+        def.addDatasource("a", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE:0.5:1:100");
+        new RrdDb(def, m_factory).close();
+
+        for (int i = 1; i <= 3; i++) {
+            final RrdDb rrd = new RrdDb(path, m_factory);
+            final Sample sample = rrd.createSample();
+            sample.setAndUpdate((1000 + i * 300) + ":" + (i * 10));
+            rrd.close();
+        }
+        assertEquals(1L, m_factory.getMisses());
+
+        m_factory.flushDirtyFiles();
+        assertTrue(m_factory.getPagesFlushed() > 0);
+
+        // Read the file back without going through the mapping
+        m_factory.invalidate(path);
+        final RrdDb rrd = new RrdDb(path, true);
+        try {
+            assertEquals(30.0, rrd.getDatasource("a").getLastValue(), 0.0);
+        } finally {
+            rrd.close();
+        }
+    }
+}
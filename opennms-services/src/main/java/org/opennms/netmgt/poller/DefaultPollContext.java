@@ -49,6 +49,7 @@ import org.opennms.netmgt.icmp.proxy.LocationAwarePingClient;
 import org.opennms.netmgt.icmp.proxy.PingSequence;
 import org.opennms.netmgt.icmp.proxy.PingSummary;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.poller.pollables.DeferredEvents;
 import org.opennms.netmgt.poller.pollables.PendingPollEvent;
 import org.opennms.netmgt.poller.pollables.PollContext;
 import org.opennms.netmgt.poller.pollables.PollEvent;
@@ -93,6 +94,7 @@ public class DefaultPollContext implements PollContext, EventListener {
     private volatile String m_localHostName;
     private volatile boolean m_listenerAdded = false;
     private final Queue<PendingPollEvent> m_pendingPollEvents = new ConcurrentLinkedQueue<>();
+    private final DeferredEvents m_deferredEvents = new DeferredEvents();
 
     /**
      * <p>getEventManager</p>
@@ -246,10 +248,22 @@ public class DefaultPollContext implements PollContext, EventListener {
         m_pendingPollEvents.add(pollEvent);
 
         //log().info("Sending "+event.getUei()+" for element "+event.getNodeid()+":"+event.getInterface()+":"+event.getService(), new Exception("StackTrace"));
-        getEventManager().sendNow(event);
+        m_deferredEvents.send(event, getEventManager()::sendNow);
         return pollEvent;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void holdEvents() {
+        m_deferredEvents.hold();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Runnable releaseEvents() {
+        return m_deferredEvents.release(getEventManager()::sendNow);
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.poller.pollables.PollContext#createEvent(java.lang.String, int, java.net.InetAddress, java.lang.String, java.util.Date)
      */
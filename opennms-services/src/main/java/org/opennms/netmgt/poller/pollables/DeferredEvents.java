@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.pollables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Keeps track of the events held back by each thread between
+ * {@link PollContext#holdEvents()} and {@link PollContext#releaseEvents()}.
+ *
+ * @see PollableNode#releaseTreeLock()
+ */
+public class DeferredEvents {
+
+    private static class Hold {
+        private int m_depth;
+        private final List<Event> m_events = new ArrayList<>();
+    }
+
+    private final ThreadLocal<Hold> m_holds = new ThreadLocal<>();
+
+    /**
+     * Starts holding back the events of the current thread.
+     */
+    public void hold() {
+        Hold hold = m_holds.get();
+        if (hold == null) {
+            hold = new Hold();
+            m_holds.set(hold);
+        }
+        hold.m_depth++;
+    }
+
+    /**
+     * Holds back the given event if the current thread is holding events.
+     *
+     * @param event the event to send
+     * @return <code>true</code> if the event was held back,
+     *         <code>false</code> if it should be sent right away
+     */
+    public boolean defer(final Event event) {
+        final Hold hold = m_holds.get();
+        if (hold == null) {
+            return false;
+        }
+        hold.m_events.add(event);
+        return true;
+    }
+
+    /**
+     * Holds back the given event if the current thread is holding events,
+     * and sends it right away otherwise.
+     *
+     * @param event the event to send
+     * @param sender sends the event
+     */
+    public void send(final Event event, final Consumer<Event> sender) {
+        if (!defer(event)) {
+            sender.accept(event);
+        }
+    }
+
+    /**
+     * Ends the innermost hold of the current thread, as needed by
+     * {@link PollContext#releaseEvents()}.
+     *
+     * @param sender sends the events held back
+     * @return a task sending the events held back if this ended the outermost
+     *         hold and there were any, <code>null</code> otherwise
+     */
+    public Runnable release(final Consumer<Event> sender) {
+        final List<Event> events = release();
+        if (events.isEmpty()) {
+            return null;
+        }
+        return () -> events.forEach(sender);
+    }
+
+    /**
+     * Ends the innermost hold of the current thread.
+     *
+     * @return the events held back if this ended the outermost hold, an
+     *         empty list otherwise
+     */
+    public List<Event> release() {
+        final Hold hold = m_holds.get();
+        if (hold == null) {
+            throw new IllegalStateException("No events are being held by " + Thread.currentThread().getName());
+        }
+        if (--hold.m_depth > 0) {
+            return Collections.emptyList();
+        }
+        m_holds.remove();
+        return hold.m_events;
+    }
+}
@@ -70,6 +70,22 @@ public interface PollContext {
      */
     public PollEvent sendEvent(Event event);
 
+    /**
+     * Holds back the events passed to {@link #sendEvent(Event)} by the
+     * current thread until the matching call to {@link #releaseEvents()}.
+     * Holds may be nested.
+     */
+    public void holdEvents();
+
+    /**
+     * Ends the innermost hold of the current thread.
+     *
+     * @return a task that sends the events held back, in order, or
+     *         <code>null</code> if there are none or an outer hold is still
+     *         active
+     */
+    public Runnable releaseEvents();
+
     /**
      * <p>createEvent</p>
      *
@@ -32,7 +32,10 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.opennms.netmgt.events.api.EventConstants;
@@ -53,6 +56,12 @@ public class PollableNode extends PollableContainer {
     private String m_nodeLabel;
     private final String m_nodeLocation;
     private final ReentrantLock m_lock = new ReentrantLock(true);
+    /**
+     * Events of this node waiting to be sent once the tree lock has been
+     * released, see {@link #releaseTreeLock()}.
+     */
+    private final Queue<Runnable> m_queuedEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean m_sendingEvents = new AtomicBoolean(false);
 
     /**
      * <p>Constructor for PollableNode.</p>
@@ -241,6 +250,7 @@ public class PollableNode extends PollableContainer {
     @Override
     protected void obtainTreeLock() {
         m_lock.lock();
+        holdEventsIfOutermost();
     }
 
     /** 
@@ -258,6 +268,7 @@ public class PollableNode extends PollableContainer {
             try {
                 if (m_lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
                     // Lock was successful
+                    holdEventsIfOutermost();
                     return;
                 } else {
                     // Lock was unsuccessful
@@ -269,12 +280,51 @@ public class PollableNode extends PollableContainer {
         }
     }
     
+    private void holdEventsIfOutermost() {
+        if (m_lock.getHoldCount() == 1) {
+            getContext().holdEvents();
+        }
+    }
+
     /**
-     * <p>releaseTreeLock</p>
+     * Releases the tree lock. The events sent while holding the lock are
+     * queued up while still holding it, so that they keep the order they
+     * were created in, and are only sent once the lock has been released so
+     * that other polls of this node are not blocked while they are
+     * broadcast.
      */
     @Override
     protected void releaseTreeLock() {
-        m_lock.unlock();
+        if (m_lock.getHoldCount() == 1) {
+            try {
+                final Runnable sendEvents = getContext().releaseEvents();
+                if (sendEvents != null) {
+                    m_queuedEvents.add(sendEvents);
+                }
+            } finally {
+                m_lock.unlock();
+            }
+            sendQueuedEvents();
+        } else {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the queued events unless another thread is already doing so, in
+     * which case that thread picks up the events queued by this one.
+     */
+    private void sendQueuedEvents() {
+        while (!m_queuedEvents.isEmpty() && m_sendingEvents.compareAndSet(false, true)) {
+            try {
+                Runnable sendEvents;
+                while ((sendEvents = m_queuedEvents.poll()) != null) {
+                    sendEvents.run();
+                }
+            } finally {
+                m_sendingEvents.set(false);
+            }
+        }
     }
     
     /** {@inheritDoc} */
@@ -174,9 +174,9 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     /**
      * <p>setPollConfig</p>
      *
-     * @param pollConfig a {@link org.opennms.netmgt.poller.pollables.PollableServiceConfig} object.
+     * @param pollConfig a {@link org.opennms.netmgt.poller.pollables.PollConfig} object.
      */
-    public void setPollConfig(PollableServiceConfig pollConfig) {
+    public void setPollConfig(PollConfig pollConfig) {
         m_pollConfig = pollConfig;
     }
 
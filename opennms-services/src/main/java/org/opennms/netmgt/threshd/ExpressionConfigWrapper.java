@@ -35,8 +35,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,16 +50,36 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * The engine is thread-safe and holds no per-expression state.
+     */
+    private static final JexlEngine JEXL_ENGINE = new JexlEngine();
+
+    private static final MathBinding MATH_BINDING = new MathBinding();
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+
+    /**
+     * The parsed expression, compiled once per threshold definition. Definitions are
+     * re-wrapped whenever the thresholding configuration is reloaded.
+     */
+    private final org.apache.commons.jexl2.Expression m_jexlExpression;
+
+    /**
+     * Fast path for the common arithmetic subset, or <code>null</code> when the
+     * expression can only be evaluated by JEXL.
+     */
+    private final NumericExpression m_numericExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
+            ExpressionImpl e = (ExpressionImpl) JEXL_ENGINE.createExpression(m_expression.getExpression());
+            m_jexlExpression = e;
             LOG.trace("List of Variables on the Expression: {}", e.getVariables());
             for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
@@ -77,6 +97,8 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
             throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
         }
         LOG.trace("Threshold Variables: {}", m_datasources);
+        m_numericExpression = NumericExpression.compile(m_expression.getExpression());
+        LOG.trace("Threshold expression {} compiled: {}", m_expression.getExpression(), m_numericExpression != null);
     }
 
     @Override
@@ -140,17 +162,63 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         public float ulp(float a) { return Math.ulp(a); }
     }
 
+    /**
+     * Exposes the datasource values to JEXL without copying them, unless the
+     * expression refers to the datasources map.
+     */
+    private static class ValuesContext implements JexlContext {
+        private final Map<String, Double> m_values;
+        private Map<String, Object> m_locals;
+        private Map<String, Double> m_datasources;
+
+        private ValuesContext(Map<String, Double> values) {
+            m_values = values;
+        }
+
+        @Override
+        public Object get(String name) {
+            if (m_locals != null && m_locals.containsKey(name)) {
+                return m_locals.get(name);
+            } else if ("math".equals(name)) {
+                return MATH_BINDING;
+            } else if ("datasources".equals(name)) {
+                // To workaround NMS-5019, expressions may modify this copy but never the caller's values
+                if (m_datasources == null) {
+                    m_datasources = new HashMap<>(m_values);
+                }
+                return m_datasources;
+            }
+            return m_values.get(name);
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            // Never write through to the caller's values
+            if (m_locals == null) {
+                m_locals = new HashMap<>();
+            }
+            m_locals.put(name, value);
+        }
+
+        @Override
+        public boolean has(String name) {
+            return (m_locals != null && m_locals.containsKey(name))
+                    || "math".equals(name) || "datasources".equals(name) || m_values.containsKey(name);
+        }
+    }
+
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
+        if (m_numericExpression != null) {
+            try {
+                return m_numericExpression.evaluate(values);
+            } catch (NumericExpression.Unsupported e) {
+                // Let JEXL decide how to handle missing values, division by zero and the like
+            }
+        }
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            Object resultObject = m_jexlExpression.evaluate(new ValuesContext(values));
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
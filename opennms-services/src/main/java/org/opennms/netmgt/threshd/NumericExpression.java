@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opennms.core.expression.NumericExpressionParser;
+import org.opennms.core.expression.NumericExpressionParser.Kind;
+import org.opennms.core.expression.NumericExpressionParser.Term;
+
+/**
+ * A small interpreter for the arithmetic subset of JEXL used by most expression
+ * thresholds: datasource references, numeric literals, <code>+ - * / %</code>,
+ * comparisons, boolean operators, the ternary operator and the double valued
+ * <code>math.*</code> functions.
+ *
+ * <p>Expressions are parsed by the {@link NumericExpressionParser} into a tree of
+ * nodes that evaluate straight off the datasource map. {@link #compile(String)}
+ * returns <code>null</code> for anything outside of this subset, or whenever the
+ * result could depend on a typing rule of JEXL (integer arithmetic, literal
+ * widening, boolean coercion). At evaluation time, {@link #evaluate(Map)} throws
+ * {@link Unsupported} for the corner cases where JEXL's lenient arithmetic may
+ * differ from plain IEEE 754 (missing datasources, division by zero, comparisons
+ * involving NaN or signed zeros). In both cases the caller is expected to fall
+ * back to JEXL.</p>
+ */
+final class NumericExpression {
+
+    /**
+     * Signals that the expression must be evaluated by JEXL instead.
+     */
+    static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    private abstract static class Node {
+        double eval(Map<String, Double> values) {
+            throw new IllegalStateException();
+        }
+
+        boolean test(Map<String, Double> values) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static final class Literal extends Node {
+        private final double value;
+
+        Literal(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double eval(Map<String, Double> values) {
+            return value;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        double eval(Map<String, Double> values) {
+            final Double value = values.get(name);
+            if (value == null) {
+                // JEXL treats missing datasources as 0 or fails, depending on the operator
+                throw UNSUPPORTED;
+            }
+            return value;
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node operand;
+
+        Negate(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double eval(Map<String, Double> values) {
+            return -operand.eval(values);
+        }
+    }
+
+    private static final class Arithmetic extends Node {
+        private final char operator;
+        private final Node left;
+        private final Node right;
+
+        Arithmetic(char operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval(Map<String, Double> values) {
+            final double l = left.eval(values);
+            final double r = right.eval(values);
+            switch (operator) {
+            case '+':
+                return l + r;
+            case '-':
+                return l - r;
+            case '*':
+                return l * r;
+            case '/':
+                if (r == 0.0) {
+                    throw UNSUPPORTED;
+                }
+                return l / r;
+            case '%':
+                if (r == 0.0) {
+                    throw UNSUPPORTED;
+                }
+                return l % r;
+            default:
+                throw new IllegalStateException("Unknown operator " + operator);
+            }
+        }
+    }
+
+    private static final class Comparison extends Node {
+        private final String operator;
+        private final Node left;
+        private final Node right;
+
+        Comparison(String operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Map<String, Double> values) {
+            final double l = left.eval(values);
+            final double r = right.eval(values);
+            if (Double.isNaN(l) || Double.isNaN(r)) {
+                throw UNSUPPORTED;
+            }
+            if (l == 0.0 && r == 0.0 && Double.doubleToRawLongBits(l) != Double.doubleToRawLongBits(r)) {
+                throw UNSUPPORTED;
+            }
+            switch (operator) {
+            case "==":
+                return l == r;
+            case "!=":
+                return l != r;
+            case "<":
+                return l < r;
+            case "<=":
+                return l <= r;
+            case ">":
+                return l > r;
+            case ">=":
+                return l >= r;
+            default:
+                throw new IllegalStateException("Unknown operator " + operator);
+            }
+        }
+    }
+
+    private static final class Logical extends Node {
+        private final boolean and;
+        private final Node left;
+        private final Node right;
+
+        Logical(boolean and, Node left, Node right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Map<String, Double> values) {
+            return and ? left.test(values) && right.test(values) : left.test(values) || right.test(values);
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(Map<String, Double> values) {
+            return !operand.test(values);
+        }
+    }
+
+    private static final class Conditional extends Node {
+        private final Node condition;
+        private final Node then;
+        private final Node otherwise;
+
+        Conditional(Node condition, Node then, Node otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        double eval(Map<String, Double> values) {
+            return condition.test(values) ? then.eval(values) : otherwise.eval(values);
+        }
+    }
+
+    private static final class Function extends Node {
+        private final String name;
+        private final Node[] args;
+
+        Function(String name, Node[] args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        @Override
+        double eval(Map<String, Double> values) {
+            final double a = args[0].eval(values);
+            if (args.length == 1) {
+                switch (name) {
+                case "abs": return Math.abs(a);
+                case "acos": return Math.acos(a);
+                case "asin": return Math.asin(a);
+                case "atan": return Math.atan(a);
+                case "cbrt": return Math.cbrt(a);
+                case "ceil": return Math.ceil(a);
+                case "cos": return Math.cos(a);
+                case "cosh": return Math.cosh(a);
+                case "exp": return Math.exp(a);
+                case "expm1": return Math.expm1(a);
+                case "floor": return Math.floor(a);
+                case "log": return Math.log(a);
+                case "log10": return Math.log10(a);
+                case "log1p": return Math.log1p(a);
+                case "rint": return Math.rint(a);
+                case "signum": return Math.signum(a);
+                case "sin": return Math.sin(a);
+                case "sinh": return Math.sinh(a);
+                case "sqrt": return Math.sqrt(a);
+                case "tan": return Math.tan(a);
+                case "tanh": return Math.tanh(a);
+                case "toDegrees": return Math.toDegrees(a);
+                case "toRadians": return Math.toRadians(a);
+                case "ulp": return Math.ulp(a);
+                default: throw new IllegalStateException("Unknown function " + name);
+                }
+            }
+            final double b = args[1].eval(values);
+            switch (name) {
+            case "atan2": return Math.atan2(a, b);
+            case "hypot": return Math.hypot(a, b);
+            case "IEEEremainder": return Math.IEEEremainder(a, b);
+            case "max": return Math.max(a, b);
+            case "min": return Math.min(a, b);
+            case "pow": return Math.pow(a, b);
+            default: throw new IllegalStateException("Unknown function " + name);
+            }
+        }
+    }
+
+    /**
+     * The double valued functions of {@link ExpressionConfigWrapper.MathBinding}, by arity.
+     */
+    private static final Set<String> UNARY_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "abs", "acos", "asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp", "expm1",
+            "floor", "log", "log10", "log1p", "rint", "signum", "sin", "sinh", "sqrt",
+            "tan", "tanh", "toDegrees", "toRadians", "ulp"));
+    private static final Set<String> BINARY_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "atan2", "hypot", "IEEEremainder", "max", "min", "pow"));
+
+    /**
+     * Creates the nodes of the expressions: datasources are referenced by name or as
+     * <code>datasources['name']</code> (see NMS-5019), and functions as <code>math.name(...)</code>.
+     */
+    private static final NumericExpressionParser.Builder<Node> BUILDER = new NumericExpressionParser.Builder<Node>() {
+        @Override
+        public Term<Node> reference(String name, String key) {
+            if (key != null) {
+                return "datasources".equals(name) ? new Term<>(Kind.DOUBLE, new Variable(key)) : null;
+            }
+            // Property access is left to JEXL
+            if (name.indexOf('.') >= 0 || "datasources".equals(name) || "math".equals(name)) {
+                return null;
+            }
+            return new Term<>(Kind.DOUBLE, new Variable(name));
+        }
+
+        @Override
+        public Node literal(double value) {
+            return new Literal(value);
+        }
+
+        @Override
+        public Node negate(Node operand) {
+            return new Negate(operand);
+        }
+
+        @Override
+        public Node arithmetic(char operator, Node left, Node right) {
+            return new Arithmetic(operator, left, right);
+        }
+
+        @Override
+        public Node comparison(String operator, Node left, Node right) {
+            return new Comparison(operator, left, right);
+        }
+
+        @Override
+        public Node logical(boolean and, Node left, Node right) {
+            return new Logical(and, left, right);
+        }
+
+        @Override
+        public Node not(Node operand) {
+            return new Not(operand);
+        }
+
+        @Override
+        public Node conditional(Node condition, Node then, Node otherwise) {
+            return new Conditional(condition, then, otherwise);
+        }
+
+        @Override
+        public Node function(String namespace, String name, boolean method, List<Node> args) {
+            if (!method || !"math".equals(namespace)) {
+                return null;
+            }
+            if (!(args.size() == 1 && UNARY_FUNCTIONS.contains(name))
+                    && !(args.size() == 2 && BINARY_FUNCTIONS.contains(name))) {
+                return null;
+            }
+            return new Function(name, args.toArray(new Node[args.size()]));
+        }
+    };
+
+    private final Node m_root;
+
+    private NumericExpression(Node root) {
+        m_root = root;
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @return the compiled expression, or <code>null</code> if the expression
+     *         falls outside of the supported subset
+     */
+    static NumericExpression compile(String expression) {
+        final Node root = NumericExpressionParser.parse(expression, BUILDER);
+        return root != null ? new NumericExpression(root) : null;
+    }
+
+    /**
+     * Evaluates the expression against the given datasource values.
+     *
+     * @throws Unsupported if the result must be computed by JEXL instead
+     */
+    double evaluate(Map<String, Double> values) {
+        return m_root.eval(values);
+    }
+}
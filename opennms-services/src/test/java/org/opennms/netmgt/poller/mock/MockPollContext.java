@@ -43,6 +43,7 @@ import org.opennms.netmgt.mock.MockEventUtil;
 import org.opennms.netmgt.mock.MockNetwork;
 import org.opennms.netmgt.mock.MockService;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.poller.pollables.DeferredEvents;
 import org.opennms.netmgt.poller.pollables.PendingPollEvent;
 import org.opennms.netmgt.poller.pollables.PollContext;
 import org.opennms.netmgt.poller.pollables.PollEvent;
@@ -60,6 +61,7 @@ public class MockPollContext implements PollContext, EventListener {
     private MockDatabase m_db;
     private MockNetwork m_mockNetwork;
     private List<PendingPollEvent> m_pendingPollEvents = new LinkedList<>();
+    private final DeferredEvents m_deferredEvents = new DeferredEvents();
     
 
     @Override
@@ -109,9 +111,19 @@ public class MockPollContext implements PollContext, EventListener {
         synchronized (this) {
             m_pendingPollEvents.add(pollEvent);
         }
-        m_eventMgr.sendNow(event);
+        m_deferredEvents.send(event, m_eventMgr::sendNow);
         return pollEvent;
     }
+
+    @Override
+    public void holdEvents() {
+        m_deferredEvents.hold();
+    }
+
+    @Override
+    public Runnable releaseEvents() {
+        return m_deferredEvents.release(m_eventMgr::sendNow);
+    }
     
     
 
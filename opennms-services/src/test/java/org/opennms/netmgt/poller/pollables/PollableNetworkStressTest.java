@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.pollables;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.scheduler.ReadyRunnable;
+import org.opennms.netmgt.scheduler.Schedule;
+import org.opennms.netmgt.scheduler.ScheduleInterval;
+import org.opennms.netmgt.scheduler.ScheduleTimer;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls every service of a network concurrently while all of its nodes go
+ * down and come back up, and logs the poll throughput. The defaults keep the
+ * test fast enough for the unit build: the number of nodes, poller threads and
+ * the time it takes to send an event can be raised with the
+ * <code>org.opennms.netmgt.poller.stress.*</code> system properties to turn
+ * it into a benchmark.
+ */
+public class PollableNetworkStressTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PollableNetworkStressTest.class);
+
+    private static final int NODES = Integer.getInteger("org.opennms.netmgt.poller.stress.nodes", 300);
+
+    private static final int THREADS = Integer.getInteger("org.opennms.netmgt.poller.stress.threads", 8);
+
+    private static final long SEND_NANOS = TimeUnit.MICROSECONDS.toNanos(Long.getLong("org.opennms.netmgt.poller.stress.sendMicros", 10));
+
+    private final AtomicReference<PollStatus> m_status = new AtomicReference<>(PollStatus.up());
+
+    private final StressPollContext m_context = new StressPollContext();
+
+    private final List<PollableService> m_services = new ArrayList<>();
+
+    private ExecutorService m_pollers;
+
+    @Before
+    public void setUp() throws UnknownHostException {
+        final PollableNetwork network = new PollableNetwork(m_context);
+        final PollConfig pollConfig = new StressPollConfig();
+        final ScheduleInterval interval = new StressScheduleInterval();
+        final ScheduleTimer timer = new StressScheduleTimer();
+
+        for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+            final PollableNode node = network.createNodeIfNecessary(nodeId, "node" + nodeId, "Default");
+            final InetAddress addr = InetAddress.getByAddress(new byte[] { 10, (byte)(nodeId >> 16), (byte)(nodeId >> 8), (byte)nodeId });
+            for (final String svcName : new String[] { "ICMP", "HTTP", "SSH" }) {
+                final PollableService svc = node.createService(addr, svcName);
+                svc.setPollConfig(pollConfig);
+                svc.setSchedule(new Schedule(svc, interval, timer));
+                m_services.add(svc);
+            }
+        }
+
+        m_pollers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        m_pollers.shutdownNow();
+    }
+
+    @Test
+    public void testMassOutage() throws Exception {
+        pollAll("initial");
+        assertEquals(0, m_context.getSentCount());
+
+        m_status.set(PollStatus.down());
+        pollAll("outage");
+        assertEquals(NODES, m_context.getSentCount(EventConstants.NODE_DOWN_EVENT_UEI));
+
+        m_status.set(PollStatus.up());
+        pollAll("recovery");
+        assertEquals(NODES, m_context.getSentCount(EventConstants.NODE_UP_EVENT_UEI));
+
+        // Events are sent after the tree lock has been released, but each
+        // node's events must still go out in the order they were created
+        for (final Map.Entry<Long, Queue<String>> entry : m_context.getSentByNode().entrySet()) {
+            final List<String> ueis = new ArrayList<>(entry.getValue());
+            assertEquals("node " + entry.getKey(), 2, ueis.size());
+            assertEquals(EventConstants.NODE_DOWN_EVENT_UEI, ueis.get(0));
+            assertEquals(EventConstants.NODE_UP_EVENT_UEI, ueis.get(1));
+        }
+    }
+
+    private void pollAll(final String phase) throws Exception {
+        final List<PollableService> services = new ArrayList<>(m_services);
+        Collections.shuffle(services, new Random(NODES));
+
+        final long start = System.nanoTime();
+        final List<Future<PollStatus>> futures = new ArrayList<>(services.size());
+        for (final PollableService svc : services) {
+            futures.add(m_pollers.submit(svc::doRun));
+        }
+        for (final Future<PollStatus> future : futures) {
+            assertEquals(m_status.get().isUp(), future.get().isUp());
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        LOG.info("{}: polled {} services on {} nodes with {} threads in {} ms ({} polls/s)",
+                phase, services.size(), NODES, THREADS, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                Math.round(services.size() / (elapsed / 1e9)));
+    }
+
+    private class StressPollConfig implements PollConfig {
+        @Override
+        public PollStatus poll() {
+            return m_status.get();
+        }
+
+        @Override
+        public long getCurrentTime() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void refresh() {
+        }
+
+        @Override
+        public void refreshThresholds() {
+        }
+    }
+
+    private static class StressScheduleInterval implements ScheduleInterval {
+        @Override
+        public long getInterval() {
+            return 300000;
+        }
+
+        @Override
+        public boolean scheduledSuspension() {
+            return false;
+        }
+    }
+
+    private static class StressScheduleTimer implements ScheduleTimer {
+        @Override
+        public void schedule(final long interval, final ReadyRunnable schedule) {
+        }
+
+        @Override
+        public long getCurrentTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static class StressPollContext implements PollContext {
+        private final DeferredEvents m_deferredEvents = new DeferredEvents();
+        private final Map<Long, Queue<String>> m_sentByNode = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> m_sentByUei = new ConcurrentHashMap<>();
+
+        /**
+         * Without a critical service a poll that changes the status of an
+         * interface polls all of its services, so every node goes down and
+         * comes back up exactly once.
+         */
+        @Override
+        public String getCriticalServiceName() {
+            return null;
+        }
+
+        @Override
+        public boolean isNodeProcessingEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isPollingAllIfCritServiceUndefined() {
+            return true;
+        }
+
+        @Override
+        public PollEvent sendEvent(final Event event) {
+            m_deferredEvents.send(event, this::send);
+            return new PendingPollEvent(event);
+        }
+
+        @Override
+        public void holdEvents() {
+            m_deferredEvents.hold();
+        }
+
+        @Override
+        public Runnable releaseEvents() {
+            return m_deferredEvents.release(this::send);
+        }
+
+        private void send(final Event event) {
+            // Simulate the time it takes to hand the event to eventd
+            LockSupport.parkNanos(SEND_NANOS);
+            m_sentByNode.computeIfAbsent(event.getNodeid(), k -> new ConcurrentLinkedQueue<>()).add(event.getUei());
+            m_sentByUei.computeIfAbsent(event.getUei(), k -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        public Event createEvent(final String uei, final int nodeId, final InetAddress address, final String svcName, final Date date, final String reason) {
+            final EventBuilder bldr = new EventBuilder(uei, "Test", date);
+            bldr.setNodeid(nodeId);
+            if (address != null) {
+                bldr.setInterface(address);
+            }
+            if (svcName != null) {
+                bldr.setService(svcName);
+            }
+            return bldr.getEvent();
+        }
+
+        @Override
+        public void openOutage(final PollableService pSvc, final PollEvent svcLostEvent) {
+        }
+
+        @Override
+        public void resolveOutage(final PollableService pSvc, final PollEvent svcRegainEvent) {
+        }
+
+        @Override
+        public boolean isServiceUnresponsiveEnabled() {
+            return false;
+        }
+
+        private int getSentCount() {
+            int count = 0;
+            for (final AtomicInteger sent : m_sentByUei.values()) {
+                count += sent.get();
+            }
+            return count;
+        }
+
+        private int getSentCount(final String uei) {
+            final AtomicInteger sent = m_sentByUei.get(uei);
+            return sent == null ? 0 : sent.get();
+        }
+
+        private Map<Long, Queue<String>> getSentByNode() {
+            return m_sentByNode;
+        }
+    }
+}
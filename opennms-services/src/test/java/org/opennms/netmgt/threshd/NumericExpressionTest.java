@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class NumericExpressionTest {
+
+    @Test
+    public void testArithmetic() {
+        final Map<String, Double> values = new HashMap<>();
+        values.put("a", 20.0);
+        values.put("b", 5.0);
+        values.put("ns-dskTotal", 100.0);
+        assertEquals(100.0, eval("a * b", values), 0.0);
+        assertEquals(4.0, eval("a / b", values), 0.0);
+        assertEquals(0.0, eval("a % b", values), 0.0);
+        assertEquals(15.0, eval("a - b", values), 0.0);
+        assertEquals(-25.0, eval("-(a + b)", values), 0.0);
+        assertEquals(-5.0, eval("b - 10", values), 0.0);
+        assertEquals(16.0, eval("a * 8 / 10", values), 0.0);
+        assertEquals(2.0, eval("a div 10", values), 0.0);
+        assertEquals(50.0, eval("datasources['ns-dskTotal'] / 2", values), 0.0);
+        assertEquals(50.0, eval("datasources[\"ns-dskTotal\"] * 0.5", values), 0.0);
+    }
+
+    @Test
+    public void testConditionals() {
+        final Map<String, Double> values = new HashMap<>();
+        values.put("a", 20.0);
+        values.put("b", 5.0);
+        assertEquals(1.0, eval("a > b ? 1.0 : 0.0", values), 0.0);
+        assertEquals(0.0, eval("a < b or a == b ? 1 : 0", values), 0.0);
+        assertEquals(1.0, eval("a gt 0 and b ge 5 && !(a eq b) ? 1 : 0", values), 0.0);
+        assertEquals(5.0, eval("a != 20 ? a : b > 1 ? b : 0", values), 0.0);
+    }
+
+    @Test
+    public void testFunctions() {
+        final Map<String, Double> values = new HashMap<>();
+        values.put("inOctets", 100.0);
+        values.put("outOctets", 200.0);
+        values.put("speed", 10.0);
+        assertEquals(160.0, eval("math.max((inOctets*8/speed), (outOctets*8/speed))", values), 0.0);
+        assertEquals(10.0, eval("math.max(speed, 5)", values), 0.0);
+        assertEquals(10.0, eval("math.sqrt(inOctets)", values), 0.0);
+        assertEquals(100.0, eval("math.pow(speed, 2)", values), 0.0);
+    }
+
+    @Test
+    public void testDeferredToJexl() {
+        final Map<String, Double> values = new HashMap<>();
+        values.put("a", 20.0);
+        values.put("zero", 0.0);
+        values.put("nan", Double.NaN);
+        assertUnsupported("a + missing", values);
+        assertUnsupported("a / zero", values);
+        assertUnsupported("a % zero", values);
+        assertUnsupported("nan > 1 ? 1 : 0", values);
+        assertUnsupported("-zero == zero ? 1 : 0", values);
+    }
+
+    @Test
+    public void testNotCompiled() {
+        // integer arithmetic
+        assertNull(NumericExpression.compile("1 / 2"));
+        assertNull(NumericExpression.compile("a > 1 ? 1 / 2 : 0"));
+        assertNull(NumericExpression.compile("math.max(1, 2)"));
+        // literals with JEXL specific typing
+        assertNull(NumericExpression.compile("a * 0.1"));
+        assertNull(NumericExpression.compile("a * 010"));
+        assertNull(NumericExpression.compile("a * 10D"));
+        assertNull(NumericExpression.compile("a * 12345678901"));
+        // boolean coercion and results
+        assertNull(NumericExpression.compile("a ? 1 : 0"));
+        assertNull(NumericExpression.compile("a > 1"));
+        assertNull(NumericExpression.compile("a ?: 1"));
+        // everything else
+        assertNull(NumericExpression.compile("math.round(a)"));
+        assertNull(NumericExpression.compile("a.b"));
+        assertNull(NumericExpression.compile("size(a)"));
+        assertNull(NumericExpression.compile("a = 1; a"));
+        assertNull(NumericExpression.compile("a & 1"));
+        assertNull(NumericExpression.compile("a < b < c ? 1 : 0"));
+        assertNull(NumericExpression.compile("a +"));
+        assertNull(NumericExpression.compile("(a"));
+        assertNull(NumericExpression.compile("datasources[a]"));
+        assertNull(NumericExpression.compile("'x'"));
+        assertNotNull(NumericExpression.compile("5"));
+    }
+
+    private static double eval(String expression, Map<String, Double> values) {
+        final NumericExpression compiled = NumericExpression.compile(expression);
+        assertNotNull("Expression should compile: " + expression, compiled);
+        return compiled.evaluate(values);
+    }
+
+    private static void assertUnsupported(String expression, Map<String, Double> values) {
+        try {
+            eval(expression, values);
+            fail("Expected " + expression + " to be left to JEXL");
+        } catch (NumericExpression.Unsupported e) {
+            // expected
+        }
+    }
+}
@@ -32,6 +32,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.opennms.netmgt.config.threshd.ThresholdType;
 
@@ -290,4 +292,61 @@ public class ThresholdExpressionTestCase extends TestCase {
         result = wrapper.evaluate(values);
         assertEquals("Conditional Expression result", Double.valueOf(30.0), result);
     }
+
+    /**
+     * The compiled fast path must give the same results as evaluating
+     * the expression with JEXL directly, including the corner cases it
+     * hands back to JEXL.
+     */
+    public void testCompiledExpressionsMatchJexl() throws Exception {
+        final String[] expressions = new String[] {
+                "a / b",
+                "a % b",
+                "(a - b) * 8 / c",
+                "-a + b * 2.5",
+                "a > b ? a : b",
+                "a == b || a <= c ? 1 : 0.5",
+                "a != 0 and b ne 0 ? a / b : 0",
+                "math.max(a, b) - math.min(b, c)",
+                "math.sqrt(a) + math.pow(b, 2)",
+                "datasources['a'] / datasources['c']",
+                "a * 0.1",
+                "math.round(a / 3)"
+        };
+        final Double[][] samples = new Double[][] {
+                { 20.0, 5.0, 3.0 },
+                { 0.0, 0.0, 0.0 },
+                { -0.0, 0.0, 1.0 },
+                { 7.0, 0.0, -2.0 },
+                { Double.NaN, 1.0, Double.POSITIVE_INFINITY }
+        };
+        for (String e : expressions) {
+            expression.setExpression(e);
+            final ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(expression);
+            for (Double[] sample : samples) {
+                final Map<String,Double> values = new HashMap<String,Double>();
+                values.put("a", sample[0]);
+                values.put("b", sample[1]);
+                values.put("c", sample[2]);
+
+                final Map<String,Object> context = new HashMap<String,Object>(values);
+                context.put("datasources", new HashMap<String,Double>(values));
+                context.put("math", new ExpressionConfigWrapper.MathBinding());
+                Double expected;
+                try {
+                    expected = Double.valueOf(new JexlEngine().createExpression(e).evaluate(new MapContext(context)).toString());
+                } catch (Throwable t) {
+                    expected = null;
+                }
+
+                Double actual;
+                try {
+                    actual = wrapper.evaluate(values);
+                } catch (ThresholdExpressionException t) {
+                    actual = null;
+                }
+                assertEquals(e + " with " + values, expected, actual);
+            }
+        }
+    }
 }